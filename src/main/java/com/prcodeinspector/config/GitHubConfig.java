@@ -0,0 +1,52 @@
+package com.prcodeinspector.config;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.kohsuke.github.GitHub;
+import org.kohsuke.github.GitHubBuilder;
+import org.kohsuke.github.extras.okhttp3.OkHttpGitHubConnector;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.prcodeinspector.service.ConditionalRequestCache;
+import com.prcodeinspector.service.GitHubCallCounter;
+import com.prcodeinspector.service.GitHubRateLimitScheduler;
+
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+
+@Configuration
+public class GitHubConfig {
+
+	private static final int CONNECT_TIMEOUT = 30;
+	private static final int READ_TIMEOUT = 60;
+
+	private static final int MIN_MAX_REQUESTS = 64;
+
+	@Bean
+	public OkHttpClient githubHttpClient(ConditionalRequestCache conditionalRequestCache,
+			GitHubRateLimitScheduler rateLimitScheduler,
+			@Value("${github.fetch.max-concurrency-per-host:8}") int maxConcurrencyPerHost) {
+		// Caps the asynchronous (parallel) content fetches; synchronous calls are not queued by the dispatcher
+		Dispatcher dispatcher = new Dispatcher();
+		dispatcher.setMaxRequestsPerHost(maxConcurrencyPerHost);
+		dispatcher.setMaxRequests(Math.max(MIN_MAX_REQUESTS, maxConcurrencyPerHost));
+
+		// The conditional cache sits inside the scheduler so it sees (and keys entries by) the pool token in use
+		return new OkHttpClient.Builder().connectTimeout(CONNECT_TIMEOUT, TimeUnit.SECONDS)
+				.readTimeout(READ_TIMEOUT, TimeUnit.SECONDS).dispatcher(dispatcher)
+				.addInterceptor(new GitHubCallCounter()).addInterceptor(rateLimitScheduler)
+				.addInterceptor(conditionalRequestCache).build();
+	}
+
+	@Bean
+	public GitHub gitHub(OkHttpClient githubHttpClient, @Value("${github.token}") String githubToken,
+			@Value("${github.api.url}") String githubApiUrl) throws IOException {
+		// Route the GitHub client through the shared OkHttp client so its calls are counted, revalidated and
+		// scheduled too; the scheduler replaces this token with one from the pool
+		return new GitHubBuilder().withEndpoint(githubApiUrl).withOAuthToken(githubToken)
+				.withConnector(new OkHttpGitHubConnector(githubHttpClient)).build();
+	}
+}
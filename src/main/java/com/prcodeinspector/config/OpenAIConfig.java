@@ -1,11 +1,26 @@
 package com.prcodeinspector.config;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
 import org.springframework.ai.openai.OpenAiChatModel;
+import org.springframework.ai.openai.OpenAiChatOptions;
 import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.ai.openai.api.common.OpenAiApiConstants;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.retry.support.RetryTemplate;
+import org.springframework.web.client.ResponseErrorHandler;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.prcodeinspector.service.ModelCallException;
+
+import reactor.core.publisher.Mono;
 
 @Configuration
 public class OpenAIConfig {
@@ -13,12 +28,45 @@ public class OpenAIConfig {
 	@Bean
 	@Primary
 	public OpenAiApi openAiApi(@Value("${spring.ai.openai.api-key}") String apiKey) {
-		return new OpenAiApi(apiKey);
+		// Error responses keep their status and Retry-After for ResilientCallExecutor
+		return new OpenAiApi(OpenAiApiConstants.DEFAULT_BASE_URL, apiKey, RestClient.builder(),
+				WebClient.builder().filter(errorFilter()), errorHandler());
 	}
 
 	@Bean
 	@Primary
-	public OpenAiChatModel chatModel(OpenAiApi openAiApi) {
-		return new OpenAiChatModel(openAiApi);
+	public OpenAiChatModel chatModel(OpenAiApi openAiApi,
+			@Value("${spring.ai.openai.chat.options.model:gpt-4}") String model,
+			@Value("${spring.ai.openai.chat.options.temperature:0.1}") Double temperature,
+			@Value("${spring.ai.openai.chat.options.max-tokens:2000}") Integer maxTokens,
+			@Value("${spring.ai.openai.chat.options.top-p:#{null}}") Double topP) {
+		// Defaults from the spring.ai.openai.chat.options properties; calls only override the model (and budget)
+		OpenAiChatOptions defaults = OpenAiChatOptions.builder().model(model).temperature(temperature)
+				.maxTokens(maxTokens).topP(topP).build();
+		// A single attempt: ResilientCallExecutor retries, without holding a concurrency slot while it waits
+		return new OpenAiChatModel(openAiApi, defaults, null, RetryTemplate.builder().maxAttempts(1).build());
+	}
+
+	private static ResponseErrorHandler errorHandler() {
+		return new ResponseErrorHandler() {
+			@Override
+			public boolean hasError(ClientHttpResponse response) throws IOException {
+				return response.getStatusCode().isError();
+			}
+
+			@Override
+			public void handleError(ClientHttpResponse response) throws IOException {
+				String body = new String(response.getBody().readAllBytes(), StandardCharsets.UTF_8);
+				throw ModelCallException.of(response.getStatusCode().value(), response.getHeaders(), body);
+			}
+		};
+	}
+
+	private static ExchangeFilterFunction errorFilter() {
+		return ExchangeFilterFunction.ofResponseProcessor(response -> response.statusCode().isError()
+				? response.bodyToMono(String.class).defaultIfEmpty("")
+						.flatMap(body -> Mono.error(ModelCallException.of(response.statusCode().value(),
+								response.headers().asHttpHeaders(), body)))
+				: Mono.just(response));
 	}
-}
\ No newline at end of file
+}
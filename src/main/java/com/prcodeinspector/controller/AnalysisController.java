@@ -42,11 +42,13 @@ public class AnalysisController {
 
 			@Parameter(description = "Repository name", required = true) @RequestParam String repository,
 
-			@Parameter(description = "Pull request number", required = true) @RequestParam Integer prNumber) {
+			@Parameter(description = "Pull request number", required = true) @RequestParam Integer prNumber,
+
+			@Parameter(description = "Ignore cached and carried-forward results", required = false) @RequestParam(defaultValue = "false") boolean bypassCache) {
 
 		try {
 			CompletableFuture<PullRequestAnalysis> result = codeReviewService.analyzePullRequest(owner, repository,
-					prNumber);
+					prNumber, null, bypassCache);
 
 			return result.thenApply(analysis -> ResponseEntity.ok(analysis));
 
@@ -65,10 +67,12 @@ public class AnalysisController {
 
 			@Parameter(description = "Programming language", required = true) @RequestParam String language,
 
-			@Parameter(description = "Code content to analyze", required = true) @RequestBody String code) {
+			@Parameter(description = "Code content to analyze", required = true) @RequestBody String code,
+
+			@Parameter(description = "Ignore cached results", required = false) @RequestParam(defaultValue = "false") boolean bypassCache) {
 
 		try {
-			var result = codeReviewService.analyzeCode(filePath, language, code);
+			var result = codeReviewService.analyzeCode(filePath, language, code, bypassCache);
 			return ResponseEntity.ok(result);
 		} catch (Exception e) {
 			return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
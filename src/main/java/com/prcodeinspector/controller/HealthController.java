@@ -12,6 +12,8 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.prcodeinspector.service.AdaptiveConcurrencyLimiter;
+
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
@@ -25,6 +27,9 @@ public class HealthController {
 	@Autowired
 	private ChatModel chatModel;
 
+	@Autowired
+	private AdaptiveConcurrencyLimiter concurrencyLimiter;
+
 	@Value("${spring.application.name}")
 	private String applicationName;
 
@@ -64,7 +69,9 @@ public class HealthController {
 		} catch (Exception e) {
 			openAiAvailable = false;
 		}
-		status.put("openai", Map.of("status", openAiAvailable ? "UP" : "DOWN"));
+		status.put("openai", Map.of("status", openAiAvailable ? "UP" : "DOWN", "concurrencyLimit",
+				concurrencyLimiter.getLimit(), "inFlight", concurrencyLimiter.getInFlight(), "queued",
+				concurrencyLimiter.getQueued()));
 
 		return ResponseEntity.ok(status);
 	}
@@ -4,13 +4,17 @@ import java.util.List;
 import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import com.prcodeinspector.model.AnalysisFinding;
 import com.prcodeinspector.model.CodeAnalysisResult;
+import com.prcodeinspector.service.AnalysisFindingService;
 import com.prcodeinspector.service.CodeReviewService;
 
 import io.swagger.v3.oas.annotations.Operation;
@@ -27,6 +31,9 @@ public class ResultsController {
 	@Autowired
 	private CodeReviewService codeReviewService;
 
+	@Autowired
+	private AnalysisFindingService findingService;
+
 	@GetMapping("/{analysisId}")
 	@Operation(summary = "Get Analysis Results", description = "Get all file analysis results for a specific analysis")
 	@ApiResponses({ @ApiResponse(responseCode = "200", description = "Results retrieved successfully"),
@@ -58,4 +65,36 @@ public class ResultsController {
 			return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
 		}
 	}
-}
\ No newline at end of file
+
+	@GetMapping("/pull-request/{owner}/{repository}/{prNumber}/findings")
+	@Operation(summary = "Get PR Findings", description = "Get the issues found so far for a pull request, including those of an analysis still in progress")
+	@ApiResponses({ @ApiResponse(responseCode = "200", description = "Findings retrieved successfully"),
+			@ApiResponse(responseCode = "500", description = "Internal server error") })
+	public ResponseEntity<?> getFindings(
+			@Parameter(description = "Repository owner", required = true) @PathVariable String owner,
+
+			@Parameter(description = "Repository name", required = true) @PathVariable String repository,
+
+			@Parameter(description = "Pull request number", required = true) @PathVariable Integer prNumber) {
+
+		try {
+			List<AnalysisFinding> findings = findingService.getFindings(owner, repository, prNumber);
+			return ResponseEntity.ok(findings);
+		} catch (Exception e) {
+			return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+		}
+	}
+
+	@GetMapping(value = "/pull-request/{owner}/{repository}/{prNumber}/findings/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	@Operation(summary = "Stream PR Findings", description = "Server-sent events: a 'finding' event for every issue found so far and for each new one while the analysis runs, a 'retracted' event withdrawing the findings of a file whose analysis failed, a 'reset' event when a new analysis run drops all earlier findings, then a 'completed' event with the final status")
+	@ApiResponses({ @ApiResponse(responseCode = "200", description = "Stream opened") })
+	public SseEmitter streamFindings(
+			@Parameter(description = "Repository owner", required = true) @PathVariable String owner,
+
+			@Parameter(description = "Repository name", required = true) @PathVariable String repository,
+
+			@Parameter(description = "Pull request number", required = true) @PathVariable Integer prNumber) {
+
+		return findingService.subscribe(owner, repository, prNumber);
+	}
+}
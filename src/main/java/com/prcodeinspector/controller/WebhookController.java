@@ -0,0 +1,114 @@
+package com.prcodeinspector.controller;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.StringUtils;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.prcodeinspector.service.WebhookEventCoalescer;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+
+@RestController
+@RequestMapping("/api/v1/webhooks")
+@Tag(name = "Webhooks", description = "GitHub webhook receiver")
+public class WebhookController {
+
+	private static final Logger logger = LoggerFactory.getLogger(WebhookController.class);
+
+	private static final Set<String> ANALYSED_ACTIONS = Set.of("opened", "synchronize", "reopened");
+
+	@Autowired
+	private WebhookEventCoalescer webhookEventCoalescer;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Value("${github.webhook.secret:}")
+	private String webhookSecret;
+
+	@PostMapping("/github")
+	@Operation(summary = "GitHub Webhook", description = "Receive signed pull_request events and queue an analysis")
+	@ApiResponses({ @ApiResponse(responseCode = "202", description = "Analysis queued"),
+			@ApiResponse(responseCode = "204", description = "Event ignored"),
+			@ApiResponse(responseCode = "400", description = "Malformed payload"),
+			@ApiResponse(responseCode = "401", description = "Missing or invalid signature") })
+	public ResponseEntity<?> receive(@RequestHeader("X-GitHub-Event") String event,
+			@RequestHeader(value = "X-Hub-Signature-256", required = false) String signature,
+			@RequestBody byte[] payload) {
+
+		if (!isSignatureValid(payload, signature)) {
+			logger.warn("Rejected {} webhook with invalid signature", event);
+			return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Invalid signature"));
+		}
+
+		if (!"pull_request".equals(event)) {
+			return ResponseEntity.noContent().build();
+		}
+
+		try {
+			JsonNode body = objectMapper.readTree(payload);
+			String action = body.path("action").asText();
+			if (!ANALYSED_ACTIONS.contains(action)) {
+				return ResponseEntity.noContent().build();
+			}
+
+			JsonNode pullRequest = body.path("pull_request");
+			JsonNode repository = body.path("repository");
+			String owner = repository.path("owner").path("login").asText();
+			String name = repository.path("name").asText();
+			int prNumber = pullRequest.path("number").asInt();
+			String headSha = pullRequest.path("head").path("sha").asText();
+			if (!StringUtils.hasText(owner) || !StringUtils.hasText(name) || prNumber <= 0
+					|| !StringUtils.hasText(headSha)) {
+				return ResponseEntity.badRequest().body(Map.of("error", "Incomplete pull_request payload"));
+			}
+
+			webhookEventCoalescer.submit(owner, name, prNumber, headSha);
+			return ResponseEntity.accepted().body(Map.of("queued", owner + "/" + name + "#" + prNumber));
+
+		} catch (Exception e) {
+			logger.warn("Rejected malformed {} webhook", event, e);
+			return ResponseEntity.badRequest().body(Map.of("error", "Malformed payload"));
+		}
+	}
+
+	private boolean isSignatureValid(byte[] payload, String signature) {
+		if (!StringUtils.hasText(webhookSecret) || signature == null || !signature.startsWith("sha256=")) {
+			return false;
+		}
+
+		try {
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(webhookSecret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+			byte[] expected = mac.doFinal(payload);
+			byte[] actual = HexFormat.of().parseHex(signature.substring("sha256=".length()));
+			// Constant-time comparison
+			return MessageDigest.isEqual(expected, actual);
+		} catch (Exception e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package com.prcodeinspector.model;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import jakarta.validation.constraints.NotNull;
+
+/**
+ * Model response for one analysed piece of code, keyed by a digest of the
+ * normalized code and everything else that shapes the response. The
+ * fingerprint of its comment- and layout-free token stream, with the line
+ * starts of those tokens, lets near-duplicates reuse it.
+ */
+@Entity
+@Table(name = "analysis_cache", indexes = @Index(name = "idx_analysis_cache_fingerprint", columnList = "fingerprint"))
+public class AnalysisCacheEntry {
+
+	@Id
+	@Column(length = 64)
+	private String cacheKey;
+
+	@NotNull
+	@Column(columnDefinition = "text")
+	private String response;
+
+	@Column(length = 64)
+	private String fingerprint;
+
+	@Column(columnDefinition = "text")
+	private String lineStarts;
+
+	private String model;
+
+	private int tokens;
+
+	@NotNull
+	private LocalDateTime createdAt;
+
+	public AnalysisCacheEntry() {
+		this.createdAt = LocalDateTime.now();
+	}
+
+	public AnalysisCacheEntry(String cacheKey, String response, String model, int tokens) {
+		this();
+		this.cacheKey = cacheKey;
+		this.response = response;
+		this.model = model;
+		this.tokens = tokens;
+	}
+
+	// Getters and setters
+	public String getCacheKey() {
+		return cacheKey;
+	}
+
+	public void setCacheKey(String cacheKey) {
+		this.cacheKey = cacheKey;
+	}
+
+	public String getResponse() {
+		return response;
+	}
+
+	public void setResponse(String response) {
+		this.response = response;
+	}
+
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	public void setFingerprint(String fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+
+	public String getLineStarts() {
+		return lineStarts;
+	}
+
+	public void setLineStarts(String lineStarts) {
+		this.lineStarts = lineStarts;
+	}
+
+	public String getModel() {
+		return model;
+	}
+
+	public void setModel(String model) {
+		this.model = model;
+	}
+
+	public int getTokens() {
+		return tokens;
+	}
+
+	public void setTokens(int tokens) {
+		this.tokens = tokens;
+	}
+
+	public LocalDateTime getCreatedAt() {
+		return createdAt;
+	}
+
+	public void setCreatedAt(LocalDateTime createdAt) {
+		this.createdAt = createdAt;
+	}
+}
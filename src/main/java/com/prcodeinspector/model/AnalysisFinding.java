@@ -0,0 +1,114 @@
+package com.prcodeinspector.model;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Embedded;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+
+/**
+ * An issue of a pull request, stored as soon as the model reports it while
+ * the analysis is still running. The issues of the completed file results
+ * are recorded here too, so the findings of a PR cover its current head.
+ */
+@Entity
+@Table(name = "analysis_findings", indexes = @Index(name = "idx_analysis_findings_pr", columnList = "owner, repository, pullRequestNumber"))
+public class AnalysisFinding {
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	private Long id;
+
+	@NotBlank
+	private String owner;
+
+	@NotBlank
+	private String repository;
+
+	private Integer pullRequestNumber;
+
+	private String commitSha;
+
+	@Embedded
+	private AnalysisIssue issue;
+
+	@NotNull
+	private LocalDateTime foundAt;
+
+	public AnalysisFinding() {
+		this.foundAt = LocalDateTime.now();
+	}
+
+	public AnalysisFinding(String owner, String repository, Integer pullRequestNumber, String commitSha,
+			AnalysisIssue issue) {
+		this();
+		this.owner = owner;
+		this.repository = repository;
+		this.pullRequestNumber = pullRequestNumber;
+		this.commitSha = commitSha;
+		this.issue = issue;
+	}
+
+	// Getters and setters
+	public Long getId() {
+		return id;
+	}
+
+	public void setId(Long id) {
+		this.id = id;
+	}
+
+	public String getOwner() {
+		return owner;
+	}
+
+	public void setOwner(String owner) {
+		this.owner = owner;
+	}
+
+	public String getRepository() {
+		return repository;
+	}
+
+	public void setRepository(String repository) {
+		this.repository = repository;
+	}
+
+	public Integer getPullRequestNumber() {
+		return pullRequestNumber;
+	}
+
+	public void setPullRequestNumber(Integer pullRequestNumber) {
+		this.pullRequestNumber = pullRequestNumber;
+	}
+
+	public String getCommitSha() {
+		return commitSha;
+	}
+
+	public void setCommitSha(String commitSha) {
+		this.commitSha = commitSha;
+	}
+
+	public AnalysisIssue getIssue() {
+		return issue;
+	}
+
+	public void setIssue(AnalysisIssue issue) {
+		this.issue = issue;
+	}
+
+	public LocalDateTime getFoundAt() {
+		return foundAt;
+	}
+
+	public void setFoundAt(LocalDateTime foundAt) {
+		this.foundAt = foundAt;
+	}
+}
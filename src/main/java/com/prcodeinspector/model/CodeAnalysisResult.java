@@ -47,6 +47,23 @@ public class CodeAnalysisResult {
 
 	private String language;
 
+	@Enumerated(EnumType.STRING)
+	private AnalysisTier analysisTier;
+
+	private String commitSha;
+
+	private String blobSha;
+
+	// Routing: the model that reviewed the file, the triage risk score and why it was routed there
+	private String reviewModel;
+
+	private Integer riskScore;
+
+	private String routingReason;
+
+	/** Estimated prompt and response tokens spent on the review; 0 when answered from the cache. */
+	private Integer reviewTokens;
+
 	@ElementCollection
 	@CollectionTable(name = "analysis_issues", joinColumns = @JoinColumn(name = "result_id"))
 	private List<AnalysisIssue> issues = new ArrayList<>();
@@ -72,6 +89,15 @@ public class CodeAnalysisResult {
 		ADDED, MODIFIED, DELETED
 	}
 
+	/**
+	 * How much of the file the model saw: the whole file, only the changed
+	 * hunks, or a head/tail sample of an oversized file. Skipped files get no
+	 * result; their reason is recorded on the analysis.
+	 */
+	public enum AnalysisTier {
+		FULL, DIFF_ONLY, SAMPLED
+	}
+
 	// Constructors
 	public CodeAnalysisResult() {
 		this.analyzedAt = LocalDateTime.now();
@@ -149,6 +175,62 @@ public class CodeAnalysisResult {
 		this.language = language;
 	}
 
+	public AnalysisTier getAnalysisTier() {
+		return analysisTier;
+	}
+
+	public void setAnalysisTier(AnalysisTier analysisTier) {
+		this.analysisTier = analysisTier;
+	}
+
+	public String getCommitSha() {
+		return commitSha;
+	}
+
+	public void setCommitSha(String commitSha) {
+		this.commitSha = commitSha;
+	}
+
+	public String getBlobSha() {
+		return blobSha;
+	}
+
+	public void setBlobSha(String blobSha) {
+		this.blobSha = blobSha;
+	}
+
+	public String getReviewModel() {
+		return reviewModel;
+	}
+
+	public void setReviewModel(String reviewModel) {
+		this.reviewModel = reviewModel;
+	}
+
+	public Integer getRiskScore() {
+		return riskScore;
+	}
+
+	public void setRiskScore(Integer riskScore) {
+		this.riskScore = riskScore;
+	}
+
+	public String getRoutingReason() {
+		return routingReason;
+	}
+
+	public void setRoutingReason(String routingReason) {
+		this.routingReason = routingReason;
+	}
+
+	public Integer getReviewTokens() {
+		return reviewTokens;
+	}
+
+	public void setReviewTokens(Integer reviewTokens) {
+		this.reviewTokens = reviewTokens;
+	}
+
 	public List<AnalysisIssue> getIssues() {
 		return issues;
 	}
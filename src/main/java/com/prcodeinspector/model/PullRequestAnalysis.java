@@ -2,9 +2,14 @@ package com.prcodeinspector.model;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import jakarta.persistence.CascadeType;
+import jakarta.persistence.CollectionTable;
+import jakarta.persistence.Column;
+import jakarta.persistence.ElementCollection;
 import jakarta.persistence.Entity;
 import jakarta.persistence.EnumType;
 import jakarta.persistence.Enumerated;
@@ -12,6 +17,8 @@ import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.MapKeyColumn;
 import jakarta.persistence.OneToMany;
 import jakarta.persistence.Table;
 import jakarta.validation.constraints.NotBlank;
@@ -45,11 +52,19 @@ public class PullRequestAnalysis {
 
 	private String commitSha;
 
+	private Integer githubApiCalls;
+
 	private LocalDateTime updatedAt;
 
 	@OneToMany(mappedBy = "pullRequestAnalysis", cascade = CascadeType.ALL, fetch = FetchType.LAZY)
 	private List<CodeAnalysisResult> analysisResults = new ArrayList<>();
 
+	@ElementCollection(fetch = FetchType.EAGER)
+	@CollectionTable(name = "analysis_skipped_files", joinColumns = @JoinColumn(name = "analysis_id"))
+	@MapKeyColumn(name = "file_path", length = 1024)
+	@Column(name = "reason")
+	private Map<String, String> skippedFiles = new LinkedHashMap<>();
+
 	private String errorMessage;
 
 	public enum AnalysisStatus {
@@ -138,6 +153,14 @@ public class PullRequestAnalysis {
 		this.commitSha = commitSha;
 	}
 
+	public Integer getGithubApiCalls() {
+		return githubApiCalls;
+	}
+
+	public void setGithubApiCalls(Integer githubApiCalls) {
+		this.githubApiCalls = githubApiCalls;
+	}
+
 	public LocalDateTime getUpdatedAt() {
 		return updatedAt;
 	}
@@ -154,6 +177,14 @@ public class PullRequestAnalysis {
 		this.analysisResults = analysisResults;
 	}
 
+	public Map<String, String> getSkippedFiles() {
+		return skippedFiles;
+	}
+
+	public void setSkippedFiles(Map<String, String> skippedFiles) {
+		this.skippedFiles = skippedFiles;
+	}
+
 	public String getErrorMessage() {
 		return errorMessage;
 	}
@@ -0,0 +1,12 @@
+package com.prcodeinspector.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import com.prcodeinspector.model.AnalysisCacheEntry;
+
+@Repository
+public interface AnalysisCacheRepository extends JpaRepository<AnalysisCacheEntry, String> {
+
+	AnalysisCacheEntry findFirstByFingerprint(String fingerprint);
+}
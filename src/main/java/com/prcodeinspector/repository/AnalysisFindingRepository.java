@@ -0,0 +1,32 @@
+package com.prcodeinspector.repository;
+
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.prcodeinspector.model.AnalysisFinding;
+
+@Repository
+public interface AnalysisFindingRepository extends JpaRepository<AnalysisFinding, Long> {
+
+	@Query("SELECT af FROM AnalysisFinding af WHERE af.owner = :owner AND af.repository = :repository "
+			+ "AND af.pullRequestNumber = :prNumber ORDER BY af.id")
+	List<AnalysisFinding> findByPullRequest(@Param("owner") String owner, @Param("repository") String repository,
+			@Param("prNumber") Integer prNumber);
+
+	@Modifying
+	@Query("DELETE FROM AnalysisFinding af WHERE af.owner = :owner AND af.repository = :repository "
+			+ "AND af.pullRequestNumber = :prNumber")
+	int deleteByPullRequest(@Param("owner") String owner, @Param("repository") String repository,
+			@Param("prNumber") Integer prNumber);
+
+	@Modifying
+	@Query("DELETE FROM AnalysisFinding af WHERE af.owner = :owner AND af.repository = :repository "
+			+ "AND af.pullRequestNumber = :prNumber AND af.issue.filePath = :filePath")
+	int deleteByFile(@Param("owner") String owner, @Param("repository") String repository,
+			@Param("prNumber") Integer prNumber, @Param("filePath") String filePath);
+}
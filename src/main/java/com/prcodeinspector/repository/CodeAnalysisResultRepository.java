@@ -15,6 +15,10 @@ public interface CodeAnalysisResultRepository extends JpaRepository<CodeAnalysis
 	@Query("SELECT car FROM CodeAnalysisResult car WHERE car.pullRequestAnalysis.id = :analysisId ORDER BY car.filePath")
 	List<CodeAnalysisResult> findByPullRequestAnalysisId(@Param("analysisId") Long analysisId);
 
+	@Query("SELECT DISTINCT car FROM CodeAnalysisResult car LEFT JOIN FETCH car.issues "
+			+ "WHERE car.pullRequestAnalysis.id = :analysisId")
+	List<CodeAnalysisResult> findWithIssuesByPullRequestAnalysisId(@Param("analysisId") Long analysisId);
+
 	@Query("SELECT car FROM CodeAnalysisResult car WHERE car.filePath LIKE :pattern ORDER BY car.filePath")
 	List<CodeAnalysisResult> findByFilePathPattern(@Param("pattern") String pattern);
 
@@ -0,0 +1,208 @@
+package com.prcodeinspector.service;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Runs model calls in parallel under an AIMD concurrency limit. The limit
+ * grows by one per window of successful calls while the limit is saturated
+ * and latency stays within {@code latency-tolerance} of the best recent
+ * latency, and is cut by {@code backoff-ratio} on 429s, 503s and timeouts.
+ * Calls over the limit wait in a FIFO queue.
+ */
+@Component
+public class AdaptiveConcurrencyLimiter {
+
+	private static final Logger logger = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+
+	/** Weight of a new sample when the latency baseline drifts upwards. */
+	private static final double BASELINE_DRIFT = 1.0 / 64;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${openai.concurrency.initial-limit:4}")
+	private int initialLimit;
+
+	@Value("${openai.concurrency.min-limit:1}")
+	private int minLimit;
+
+	@Value("${openai.concurrency.max-limit:32}")
+	private int maxLimit;
+
+	@Value("${openai.concurrency.backoff-ratio:0.5}")
+	private double backoffRatio;
+
+	@Value("${openai.concurrency.latency-tolerance:2.0}")
+	private double latencyTolerance;
+
+	private final Queue<Runnable> queue = new ArrayDeque<>();
+	private double limit;
+	private int inFlight;
+	private double baselineNanos;
+	private long lastBackoffNanos;
+	private ExecutorService executor;
+
+	@PostConstruct
+	public void init() {
+		limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+		lastBackoffNanos = System.nanoTime();
+
+		AtomicInteger threads = new AtomicInteger();
+		executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "llm-call-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		if (meterRegistry != null) {
+			Gauge.builder("openai.concurrency.limit", this, AdaptiveConcurrencyLimiter::getLimit)
+					.register(meterRegistry);
+			Gauge.builder("openai.concurrency.inflight", this, AdaptiveConcurrencyLimiter::getInFlight)
+					.register(meterRegistry);
+			Gauge.builder("openai.concurrency.queued", this, AdaptiveConcurrencyLimiter::getQueued)
+					.register(meterRegistry);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Queues the call and returns its result; the call runs as soon as the
+	 * current limit allows.
+	 */
+	public <T> CompletableFuture<T> submit(Callable<T> call) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		synchronized (this) {
+			queue.add(() -> run(call, future));
+		}
+		dispatch();
+		return future;
+	}
+
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	public synchronized int getQueued() {
+		return queue.size();
+	}
+
+	private void dispatch() {
+		List<Runnable> ready = new ArrayList<>();
+		synchronized (this) {
+			while (inFlight < (int) limit && !queue.isEmpty()) {
+				inFlight++;
+				ready.add(queue.poll());
+			}
+		}
+		ready.forEach(executor::execute);
+	}
+
+	private <T> void run(Callable<T> call, CompletableFuture<T> future) {
+		long start = System.nanoTime();
+		T result = null;
+		Throwable error = null;
+		try {
+			result = call.call();
+		} catch (Throwable e) {
+			error = e;
+		}
+		long latency = System.nanoTime() - start;
+
+		synchronized (this) {
+			boolean saturated = inFlight >= (int) limit;
+			inFlight--;
+			if (error == null) {
+				onSuccess(latency, saturated);
+			} else if (isOverload(error)) {
+				onOverload(start);
+			}
+		}
+		dispatch();
+
+		if (error == null) {
+			future.complete(result);
+		} else {
+			future.completeExceptionally(error);
+		}
+	}
+
+	private void onSuccess(long latency, boolean saturated) {
+		if (baselineNanos == 0 || latency < baselineNanos) {
+			baselineNanos = latency;
+		} else {
+			// Let the baseline follow a slower model instead of holding on to one lucky call
+			baselineNanos += (latency - baselineNanos) * BASELINE_DRIFT;
+		}
+
+		if (saturated && latency <= baselineNanos * latencyTolerance) {
+			limit = Math.min(maxLimit, limit + 1 / limit);
+		}
+	}
+
+	private void onOverload(long callStart) {
+		// Calls sent before the last cut were part of the same overload; cut once per episode
+		if (callStart - lastBackoffNanos < 0) {
+			return;
+		}
+		lastBackoffNanos = System.nanoTime();
+		double previous = limit;
+		limit = Math.max(minLimit, limit * backoffRatio);
+		logger.warn("Model overloaded, concurrency limit {} -> {}", (int) previous, (int) limit);
+	}
+
+	static boolean isOverload(Throwable error) {
+		for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+			if (cause instanceof SocketTimeoutException || cause instanceof TimeoutException) {
+				return true;
+			}
+			if (cause instanceof ModelCallException) {
+				int status = ((ModelCallException) cause).getStatus();
+				return status == 429 || status == 503;
+			}
+			if (cause instanceof HttpStatusCodeException) {
+				int status = ((HttpStatusCodeException) cause).getStatusCode().value();
+				return status == 429 || status == 503;
+			}
+			String message = cause.getMessage() != null ? cause.getMessage().toLowerCase(Locale.ROOT) : "";
+			if (message.contains("429") || message.contains("too many requests") || message.contains("rate limit")
+					|| message.contains("timed out")) {
+				return true;
+			}
+			if (cause.getCause() == cause) {
+				break;
+			}
+		}
+		return false;
+	}
+}
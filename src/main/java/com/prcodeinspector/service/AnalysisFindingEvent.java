@@ -0,0 +1,25 @@
+package com.prcodeinspector.service;
+
+import org.springframework.context.ApplicationEvent;
+
+import com.prcodeinspector.model.AnalysisFinding;
+
+/**
+ * Published for every finding once it is committed, while the analysis of
+ * its pull request is still running.
+ */
+public class AnalysisFindingEvent extends ApplicationEvent {
+
+	private static final long serialVersionUID = 1L;
+
+	private final AnalysisFinding finding;
+
+	public AnalysisFindingEvent(Object source, AnalysisFinding finding) {
+		super(source);
+		this.finding = finding;
+	}
+
+	public AnalysisFinding getFinding() {
+		return finding;
+	}
+}
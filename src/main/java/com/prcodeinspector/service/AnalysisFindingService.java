@@ -0,0 +1,248 @@
+package com.prcodeinspector.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.prcodeinspector.model.AnalysisFinding;
+import com.prcodeinspector.model.AnalysisIssue;
+import com.prcodeinspector.model.CodeAnalysisResult;
+import com.prcodeinspector.model.PullRequestAnalysis;
+import com.prcodeinspector.repository.AnalysisFindingRepository;
+
+/**
+ * Stores the issues of a running pull request analysis the moment they are
+ * known (streamed from the model, or taken from a cached or carried-forward
+ * result), publishes an {@link AnalysisFindingEvent} for each and pushes them
+ * to server-sent event subscribers of the PR. Each streamed finding (and the
+ * rest of a file's result) is committed in a short transaction of its own so
+ * readers see it before the analysis completes, and is pushed only once
+ * committed. Findings that no longer hold are withdrawn
+ * with an {@link AnalysisFindingsRetractedEvent}.
+ */
+@Service
+public class AnalysisFindingService {
+
+	private static final Logger logger = LoggerFactory.getLogger(AnalysisFindingService.class);
+
+	@Autowired
+	private AnalysisFindingRepository findingRepository;
+
+	@Autowired
+	private ApplicationEventPublisher eventPublisher;
+
+	@Value("${code.analysis.findings.stream-timeout-ms:1800000}")
+	private long streamTimeoutMs;
+
+	// Issues recorded in the running analysis of each PR, so the final results do not repeat streamed ones
+	private final Map<String, Set<String>> running = new ConcurrentHashMap<>();
+	private final Map<String, List<SseEmitter>> subscribers = new ConcurrentHashMap<>();
+
+	/**
+	 * Starts a new analysis run of the PR; findings of earlier heads are
+	 * dropped, and subscribers still connected are told to reset theirs.
+	 */
+	@Transactional(propagation = Propagation.REQUIRES_NEW)
+	public void start(String owner, String repository, int prNumber) {
+		synchronized (subscribers) {
+			running.put(key(owner, repository, prNumber), ConcurrentHashMap.newKeySet());
+		}
+		findingRepository.deleteByPullRequest(owner, repository, prNumber);
+		eventPublisher.publishEvent(new AnalysisFindingsRetractedEvent(this, owner, repository, prNumber, null));
+	}
+
+	@Transactional(propagation = Propagation.REQUIRES_NEW)
+	public void record(String owner, String repository, int prNumber, String commitSha, String filePath,
+			AnalysisIssue issue) {
+		store(owner, repository, prNumber, commitSha, filePath, List.of(issue));
+	}
+
+	/**
+	 * Records the issues of a completed file result that were not streamed,
+	 * all in one transaction.
+	 */
+	@Transactional(propagation = Propagation.REQUIRES_NEW)
+	public void recordAll(String owner, String repository, int prNumber, String commitSha,
+			CodeAnalysisResult result) {
+		store(owner, repository, prNumber, commitSha, result.getFilePath(), result.getIssues());
+	}
+
+	private void store(String owner, String repository, int prNumber, String commitSha, String filePath,
+			List<AnalysisIssue> issues) {
+		Set<String> recorded = running.computeIfAbsent(key(owner, repository, prNumber),
+				k -> ConcurrentHashMap.newKeySet());
+		// Issues claimed here are released unless the transaction commits, so a later attempt stores them
+		List<String> claimed = new ArrayList<>();
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(int status) {
+					if (status != STATUS_COMMITTED) {
+						recorded.removeAll(claimed);
+					}
+				}
+			});
+		}
+		try {
+			for (AnalysisIssue issue : issues) {
+				String issueKey = filePath + "@" + issue.getLineNumber() + "@" + issue.getTitle();
+				if (!recorded.add(issueKey)) {
+					continue;
+				}
+				claimed.add(issueKey);
+				AnalysisFinding finding = new AnalysisFinding(owner, repository, prNumber, commitSha,
+						copyOf(issue, filePath));
+				findingRepository.save(finding);
+				eventPublisher.publishEvent(new AnalysisFindingEvent(this, finding));
+			}
+		} catch (RuntimeException e) {
+			recorded.removeAll(claimed);
+			throw e;
+		}
+	}
+
+	/**
+	 * Withdraws the findings of a file whose analysis failed: they are
+	 * deleted and subscribers get a {@code retracted} event for the file.
+	 */
+	@Transactional(propagation = Propagation.REQUIRES_NEW)
+	public void retract(String owner, String repository, int prNumber, String filePath) {
+		Set<String> recorded = running.get(key(owner, repository, prNumber));
+		if (recorded != null) {
+			recorded.removeIf(recordedKey -> recordedKey.startsWith(filePath + "@"));
+		}
+		findingRepository.deleteByFile(owner, repository, prNumber, filePath);
+		eventPublisher.publishEvent(new AnalysisFindingsRetractedEvent(this, owner, repository, prNumber, filePath));
+	}
+
+	/**
+	 * Ends the run: subscribers get a {@code completed} event with the final
+	 * status and their streams are closed.
+	 */
+	public void finish(String owner, String repository, int prNumber, PullRequestAnalysis.AnalysisStatus status) {
+		String key = key(owner, repository, prNumber);
+		List<SseEmitter> emitters;
+		// Under the same lock as subscribe, so no subscriber is added to a run that has ended
+		synchronized (subscribers) {
+			running.remove(key);
+			emitters = subscribers.remove(key);
+		}
+		if (emitters == null) {
+			return;
+		}
+		for (SseEmitter emitter : emitters) {
+			try {
+				emitter.send(SseEmitter.event().name("completed").data(Map.of("status", status.name())));
+				emitter.complete();
+			} catch (IOException | IllegalStateException e) {
+				emitter.completeWithError(e);
+			}
+		}
+	}
+
+	public List<AnalysisFinding> getFindings(String owner, String repository, int prNumber) {
+		return findingRepository.findByPullRequest(owner, repository, prNumber);
+	}
+
+	/**
+	 * Stream of the PR's findings: those stored so far, then each new one
+	 * until the running analysis finishes. Without a running analysis the
+	 * stream ends after the stored findings.
+	 */
+	public SseEmitter subscribe(String owner, String repository, int prNumber) {
+		String key = key(owner, repository, prNumber);
+		SseEmitter emitter = new SseEmitter(streamTimeoutMs);
+		boolean live;
+		synchronized (subscribers) {
+			live = running.containsKey(key);
+			if (live) {
+				List<SseEmitter> emitters = subscribers.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>());
+				emitters.add(emitter);
+				Runnable unsubscribe = () -> emitters.remove(emitter);
+				emitter.onCompletion(unsubscribe);
+				emitter.onTimeout(unsubscribe);
+				emitter.onError(error -> unsubscribe.run());
+			}
+		}
+
+		// Findings stored before the subscription; the id lets clients drop one that also arrives live
+		for (AnalysisFinding finding : getFindings(owner, repository, prNumber)) {
+			if (!send(emitter, finding)) {
+				return emitter;
+			}
+		}
+		if (!live) {
+			emitter.complete();
+		}
+		return emitter;
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onFinding(AnalysisFindingEvent event) {
+		AnalysisFinding finding = event.getFinding();
+		List<SseEmitter> emitters = subscribers
+				.get(key(finding.getOwner(), finding.getRepository(), finding.getPullRequestNumber()));
+		if (emitters != null) {
+			emitters.forEach(emitter -> send(emitter, finding));
+		}
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onRetracted(AnalysisFindingsRetractedEvent event) {
+		List<SseEmitter> emitters = subscribers
+				.get(key(event.getOwner(), event.getRepository(), event.getPullRequestNumber()));
+		if (emitters == null) {
+			return;
+		}
+		for (SseEmitter emitter : emitters) {
+			try {
+				emitter.send(event.getFilePath() != null
+						? SseEmitter.event().name("retracted").data(Map.of("filePath", event.getFilePath()))
+						: SseEmitter.event().name("reset").data(Map.of()));
+			} catch (IOException | IllegalStateException e) {
+				emitter.completeWithError(e);
+			}
+		}
+	}
+
+	private boolean send(SseEmitter emitter, AnalysisFinding finding) {
+		try {
+			emitter.send(SseEmitter.event().id(String.valueOf(finding.getId())).name("finding").data(finding));
+			return true;
+		} catch (IOException | IllegalStateException e) {
+			emitter.completeWithError(e);
+			return false;
+		}
+	}
+
+	private static AnalysisIssue copyOf(AnalysisIssue issue, String filePath) {
+		AnalysisIssue copy = new AnalysisIssue(issue.getCategory(), issue.getSeverity(), issue.getTitle(),
+				issue.getDescription());
+		copy.setFilePath(filePath);
+		copy.setLineNumber(issue.getLineNumber());
+		copy.setCodeSnippet(issue.getCodeSnippet());
+		copy.setRecommendation(issue.getRecommendation());
+		return copy;
+	}
+
+	private static String key(String owner, String repository, int prNumber) {
+		return owner + "/" + repository + "#" + prNumber;
+	}
+}
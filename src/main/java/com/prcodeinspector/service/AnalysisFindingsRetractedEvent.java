@@ -0,0 +1,43 @@
+package com.prcodeinspector.service;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published when findings already streamed for a pull request no longer
+ * hold: those of one file that failed its analysis, or all of them (no file
+ * path) when a new analysis run starts.
+ */
+public class AnalysisFindingsRetractedEvent extends ApplicationEvent {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String owner;
+	private final String repository;
+	private final int pullRequestNumber;
+	private final String filePath;
+
+	public AnalysisFindingsRetractedEvent(Object source, String owner, String repository, int pullRequestNumber,
+			String filePath) {
+		super(source);
+		this.owner = owner;
+		this.repository = repository;
+		this.pullRequestNumber = pullRequestNumber;
+		this.filePath = filePath;
+	}
+
+	public String getOwner() {
+		return owner;
+	}
+
+	public String getRepository() {
+		return repository;
+	}
+
+	public int getPullRequestNumber() {
+		return pullRequestNumber;
+	}
+
+	public String getFilePath() {
+		return filePath;
+	}
+}
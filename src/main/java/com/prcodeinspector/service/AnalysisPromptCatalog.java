@@ -0,0 +1,353 @@
+package com.prcodeinspector.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.re2j.PatternSyntaxException;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Compiles {@code code.analysis.rules.file} once into immutable prompt
+ * prefixes: the instructions, response structure and rules of a language,
+ * everything that does not depend on the file. Prompts put the prefix first
+ * and the file last, so consecutive calls share a prefix the provider can
+ * cache. The regex patterns of the rules are compiled into a
+ * {@link RuleScanner} per language. The file is compiled again when it
+ * changes.
+ */
+@Component
+public class AnalysisPromptCatalog {
+
+	private static final Logger logger = LoggerFactory.getLogger(AnalysisPromptCatalog.class);
+
+	private static final String ROLE = "You are an expert code reviewer with deep knowledge of software security, "
+			+ "performance optimization, and best practices. ";
+
+	/** Rule sections of the file that apply to each language besides its own best practices. */
+	private static final Map<String, String> FRAMEWORKS = Map.of("java", "springBoot", "javascript", "nodejs",
+			"typescript", "nodejs");
+
+	private static final Map<String, String> BEST_PRACTICE_ALIASES = Map.of("typescript", "javascript");
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private ResourceLoader resourceLoader;
+
+	@Value("${code.analysis.rules.file:classpath:analysis-rules.json}")
+	private String rulesFile;
+
+	private volatile Compiled compiled;
+
+	@PostConstruct
+	public void init() {
+		Compiled loaded = load();
+		compiled = loaded != null ? loaded : compile(objectMapper.createObjectNode(), -1);
+	}
+
+	@Scheduled(fixedDelayString = "${code.analysis.rules.reload-interval-ms:10000}", initialDelayString = "${code.analysis.rules.reload-interval-ms:10000}")
+	public void reloadIfChanged() {
+		if (lastModified() != compiled.lastModified) {
+			Compiled loaded = load();
+			if (loaded != null) {
+				compiled = loaded;
+				logger.info("Reloaded analysis rules from {} (version {})", rulesFile, loaded.version);
+			}
+		}
+	}
+
+	/**
+	 * Prefix of a single-file prompt for the language; the file follows it.
+	 */
+	public Prefix forFile(String language) {
+		Compiled current = compiled;
+		return current.singleFile.computeIfAbsent(String.valueOf(language), key -> new Prefix(
+				current.singleFileIntro + current.generalRules + current.languageRules(key) + "\n", current.version));
+	}
+
+	/**
+	 * Prefix of a packed prompt: the shared part first, then the rules of
+	 * each language in the pack (in name order) before the files.
+	 */
+	public Prefix forPack(Collection<String> languages) {
+		Compiled current = compiled;
+		StringBuilder text = new StringBuilder(current.packedIntro).append(current.generalRules);
+		for (String language : new TreeSet<>(languages)) {
+			text.append(current.languageRules(language));
+		}
+		return new Prefix(text.append('\n').toString(), current.version);
+	}
+
+	/**
+	 * Scanner of the security and performance rules and of the language's
+	 * best-practice and framework rules.
+	 */
+	public RuleScanner scannerFor(String language) {
+		Compiled current = compiled;
+		return current.scanners.computeIfAbsent(String.valueOf(language), key -> {
+			List<RuleScanner.Rule> rules = new ArrayList<>(current.generalPatterns);
+			rules.addAll(current.bestPracticePatterns.getOrDefault(current.bestPracticeKey(key), List.of()));
+			String framework = FRAMEWORKS.get(key);
+			if (framework != null) {
+				rules.addAll(current.frameworkPatterns.getOrDefault(framework, List.of()));
+			}
+			return new RuleScanner(rules);
+		});
+	}
+
+	public String getVersion() {
+		return compiled.version;
+	}
+
+	private Compiled load() {
+		Resource resource = resourceLoader.getResource(rulesFile);
+		long modified = lastModified();
+		try (InputStream in = resource.getInputStream()) {
+			return compile(objectMapper.readTree(in), modified);
+		} catch (IOException | RuntimeException e) {
+			logger.error("Failed to load analysis rules from {}: {}", rulesFile, e.getMessage());
+			return null;
+		}
+	}
+
+	private long lastModified() {
+		try {
+			return resourceLoader.getResource(rulesFile).lastModified();
+		} catch (IOException e) {
+			// Not a file (e.g. inside the application jar): never reloaded
+			return -1;
+		}
+	}
+
+	private Compiled compile(JsonNode rules, long lastModified) {
+		StringBuilder structure = new StringBuilder();
+		appendResponseStructure(structure);
+
+		String singleFileIntro = ROLE + "Analyze the code at the end of this message and provide detailed feedback.\n\n"
+				+ "Respond in JSON format with the following structure:\n\n" + structure + focusAreas();
+		String packedIntro = ROLE + "Analyze each of the files at the end of this message separately and provide "
+				+ "detailed feedback.\n\n"
+				+ "Respond in JSON format with one entry per file, keyed by its exact path:\n\n"
+				+ "{\n  \"files\": {\n    \"<path>\": <analysis of that file>\n  }\n}\n\n"
+				+ "where the analysis of each file has the following structure and lineNumber is the line within "
+				+ "that file:\n\n" + structure + focusAreas();
+
+		StringBuilder general = new StringBuilder();
+		appendSection(general, "Security rules", rules.path("security").path("rules"));
+		appendList(general, "Security topics", rules.path("security").path("keywords"));
+		appendSection(general, "Performance rules", rules.path("performance").path("rules"));
+		appendList(general, "Performance patterns", rules.path("performance").path("patterns"));
+
+		List<RuleScanner.Rule> generalPatterns = new ArrayList<>();
+		addPatterns(generalPatterns, "SECURITY", rules.path("security").path("rules"));
+		addPatterns(generalPatterns, "PERFORMANCE", rules.path("performance").path("rules"));
+
+		Map<String, String> languageRules = new TreeMap<>();
+		Map<String, List<RuleScanner.Rule>> bestPracticePatterns = new TreeMap<>();
+		rules.path("bestPractices").fields().forEachRemaining(entry -> {
+			StringBuilder text = new StringBuilder();
+			appendSection(text, entry.getKey() + " rules", entry.getValue().path("rules"));
+			appendList(text, entry.getKey() + " conventions", entry.getValue().path("conventions"));
+			languageRules.put(entry.getKey(), text.toString());
+			List<RuleScanner.Rule> patterns = new ArrayList<>();
+			addPatterns(patterns, "BEST_PRACTICE", entry.getValue().path("rules"));
+			bestPracticePatterns.put(entry.getKey(), patterns);
+		});
+		Map<String, String> frameworkRules = new TreeMap<>();
+		Map<String, List<RuleScanner.Rule>> frameworkPatterns = new TreeMap<>();
+		rules.path("frameworks").fields().forEachRemaining(entry -> {
+			StringBuilder text = new StringBuilder();
+			appendSection(text, entry.getKey() + " rules", entry.getValue().path("rules"));
+			appendList(text, entry.getKey() + " recommendations", entry.getValue().path("recommendations"));
+			frameworkRules.put(entry.getKey(), text.toString());
+			List<RuleScanner.Rule> patterns = new ArrayList<>();
+			addPatterns(patterns, "BEST_PRACTICE", entry.getValue().path("rules"));
+			frameworkPatterns.put(entry.getKey(), patterns);
+		});
+
+		String version = digest(singleFileIntro, packedIntro, general.toString(), languageRules.toString(),
+				frameworkRules.toString());
+		return new Compiled(singleFileIntro, packedIntro, general.toString(), languageRules, frameworkRules,
+				generalPatterns, bestPracticePatterns, frameworkPatterns, version, lastModified);
+	}
+
+	/**
+	 * Rules with a pattern; a rule in another section whose own category is
+	 * security (e.g. eval in Node.js) is reported as a security issue.
+	 */
+	private static void addPatterns(List<RuleScanner.Rule> patterns, String issueCategory, JsonNode rules) {
+		for (JsonNode rule : rules) {
+			String pattern = rule.path("pattern").asText("");
+			if (pattern.isEmpty()) {
+				continue;
+			}
+			String category = rule.path("category").asText();
+			try {
+				patterns.add(new RuleScanner.Rule(rule.path("id").asText(),
+						"security".equalsIgnoreCase(category) ? "SECURITY" : issueCategory,
+						rule.path("severity").asText("MEDIUM"), category.isEmpty() ? rule.path("id").asText() : category,
+						rule.path("description").asText(), rule.path("recommendation").asText(null), pattern));
+			} catch (PatternSyntaxException e) {
+				logger.warn("Ignoring pattern of rule {}: {}", rule.path("id").asText(), e.getMessage());
+			}
+		}
+	}
+
+	private static void appendSection(StringBuilder text, String title, JsonNode rules) {
+		if (!rules.isArray() || rules.isEmpty()) {
+			return;
+		}
+		text.append('\n').append(title).append(":\n");
+		for (JsonNode rule : rules) {
+			text.append("- [").append(rule.path("id").asText()).append(", ").append(rule.path("severity").asText())
+					.append("] ").append(rule.path("description").asText());
+			if (rule.hasNonNull("recommendation")) {
+				text.append(" Recommendation: ").append(rule.path("recommendation").asText());
+			}
+			text.append('\n');
+		}
+	}
+
+	private static void appendList(StringBuilder text, String title, JsonNode items) {
+		if (!items.isArray() || items.isEmpty()) {
+			return;
+		}
+		text.append('\n').append(title).append(":\n");
+		items.forEach(item -> text.append("- ").append(item.asText()).append('\n'));
+	}
+
+	private static void appendResponseStructure(StringBuilder prompt) {
+		prompt.append("{\n");
+		prompt.append("  \"summary\": \"Brief summary of the analysis\",\n");
+		prompt.append("  \"securityScore\": 0-100,\n");
+		prompt.append("  \"performanceScore\": 0-100,\n");
+		prompt.append("  \"bestPracticesScore\": 0-100,\n");
+		prompt.append("  \"issues\": [\n");
+		prompt.append("    {\n");
+		prompt.append("      \"category\": \"SECURITY|PERFORMANCE|BEST_PRACTICE\",\n");
+		prompt.append("      \"severity\": \"HIGH|MEDIUM|LOW\",\n");
+		prompt.append("      \"title\": \"Issue title\",\n");
+		prompt.append("      \"description\": \"Detailed description\",\n");
+		prompt.append("      \"lineNumber\": 123,\n");
+		prompt.append("      \"codeSnippet\": \"Problematic code snippet\",\n");
+		prompt.append("      \"recommendation\": \"How to fix the issue\"\n");
+		prompt.append("    }\n");
+		prompt.append("  ],\n");
+		prompt.append("  \"suggestions\": [\n");
+		prompt.append("    {\n");
+		prompt.append("      \"type\": \"REFACTORING|OPTIMIZATION|CONVENTION|ENHANCEMENT\",\n");
+		prompt.append("      \"title\": \"Suggestion title\",\n");
+		prompt.append("      \"description\": \"Detailed suggestion\",\n");
+		prompt.append("      \"suggestedCode\": \"Improved code\",\n");
+		prompt.append("      \"benefits\": \"Benefits of the change\",\n");
+		prompt.append("      \"effort\": \"LOW|MEDIUM|HIGH\"\n");
+		prompt.append("    }\n");
+		prompt.append("  ]\n");
+		prompt.append("}\n\n");
+	}
+
+	private static String focusAreas() {
+		return "Focus on the following areas:\n" + "- Security vulnerabilities\n" + "- Performance issues\n"
+				+ "- Best practices violations\n" + "- Code maintainability\n" + "- Potential bugs\n";
+	}
+
+	private static String digest(String... parts) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (String part : parts) {
+				digest.update(part.getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) 0);
+			}
+			return HexFormat.of().formatHex(digest.digest(), 0, 8);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * A compiled prompt prefix and the version of the rules it was compiled
+	 * from; the version is part of the result cache key.
+	 */
+	public static class Prefix {
+		private final String text;
+		private final String version;
+
+		Prefix(String text, String version) {
+			this.text = text;
+			this.version = version;
+		}
+
+		public String getText() {
+			return text;
+		}
+
+		public String getVersion() {
+			return version;
+		}
+	}
+
+	private static class Compiled {
+		private final String singleFileIntro;
+		private final String packedIntro;
+		private final String generalRules;
+		private final Map<String, String> bestPractices;
+		private final Map<String, String> frameworks;
+		private final List<RuleScanner.Rule> generalPatterns;
+		private final Map<String, List<RuleScanner.Rule>> bestPracticePatterns;
+		private final Map<String, List<RuleScanner.Rule>> frameworkPatterns;
+		private final String version;
+		private final long lastModified;
+		private final Map<String, Prefix> singleFile = new ConcurrentHashMap<>();
+		private final Map<String, RuleScanner> scanners = new ConcurrentHashMap<>();
+
+		Compiled(String singleFileIntro, String packedIntro, String generalRules, Map<String, String> bestPractices,
+				Map<String, String> frameworks, List<RuleScanner.Rule> generalPatterns,
+				Map<String, List<RuleScanner.Rule>> bestPracticePatterns,
+				Map<String, List<RuleScanner.Rule>> frameworkPatterns, String version, long lastModified) {
+			this.singleFileIntro = singleFileIntro;
+			this.packedIntro = packedIntro;
+			this.generalRules = generalRules;
+			this.bestPractices = Map.copyOf(bestPractices);
+			this.frameworks = Map.copyOf(frameworks);
+			this.generalPatterns = List.copyOf(generalPatterns);
+			this.bestPracticePatterns = Map.copyOf(bestPracticePatterns);
+			this.frameworkPatterns = Map.copyOf(frameworkPatterns);
+			this.version = version;
+			this.lastModified = lastModified;
+		}
+
+		String bestPracticeKey(String language) {
+			return BEST_PRACTICE_ALIASES.getOrDefault(language, language);
+		}
+
+		String languageRules(String language) {
+			String framework = FRAMEWORKS.get(language);
+			return bestPractices.getOrDefault(bestPracticeKey(language), "")
+					+ (framework != null ? frameworks.getOrDefault(framework, "") : "");
+		}
+	}
+}
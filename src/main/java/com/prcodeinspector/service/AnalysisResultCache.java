@@ -0,0 +1,246 @@
+package com.prcodeinspector.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.prcodeinspector.model.AnalysisCacheEntry;
+import com.prcodeinspector.repository.AnalysisCacheRepository;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Caches model responses by a digest of the normalized code, language,
+ * effective rules text, model and temperature, so byte-identical code (a
+ * rebased PR, the same file on a sibling branch) is not sent again. Recent
+ * responses live in a size-bounded in-memory LRU in front of the
+ * {@code analysis_cache} table. A second index by fingerprint (see
+ * {@link CodeNormalizer}) finds responses for code that differs only in
+ * comments and formatting.
+ */
+@Component
+public class AnalysisResultCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(AnalysisResultCache.class);
+
+	@Autowired
+	private AnalysisCacheRepository cacheRepository;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${code.analysis.cache.enabled:true}")
+	private boolean enabled;
+
+	@Value("${code.analysis.cache.memory-max-bytes:16777216}")
+	private long memoryMaxBytes;
+
+	@Value("${spring.ai.openai.chat.options.model:gpt-4}")
+	private String model;
+
+	@Value("${spring.ai.openai.chat.options.temperature:0.1}")
+	private Double temperature;
+
+	private final LinkedHashMap<String, AnalysisCacheEntry> memory = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<String, AnalysisCacheEntry> fingerprints = new HashMap<>();
+	private long memoryBytes;
+
+	private final AtomicLong memoryHits = new AtomicLong();
+	private final AtomicLong databaseHits = new AtomicLong();
+	private final AtomicLong fingerprintHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong tokensSaved = new AtomicLong();
+
+	@PostConstruct
+	public void registerMetrics() {
+		if (meterRegistry == null) {
+			return;
+		}
+		Gauge.builder("analysis.cache.hits", memoryHits, AtomicLong::get).tag("tier", "memory")
+				.register(meterRegistry);
+		Gauge.builder("analysis.cache.hits", databaseHits, AtomicLong::get).tag("tier", "database")
+				.register(meterRegistry);
+		Gauge.builder("analysis.cache.hits", fingerprintHits, AtomicLong::get).tag("tier", "fingerprint")
+				.register(meterRegistry);
+		Gauge.builder("analysis.cache.misses", misses, AtomicLong::get).register(meterRegistry);
+		Gauge.builder("analysis.cache.hit.ratio", this, AnalysisResultCache::getHitRatio).register(meterRegistry);
+		Gauge.builder("analysis.cache.tokens.saved", tokensSaved, AtomicLong::get).register(meterRegistry);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Cache key of one analysis. {@code rules} is everything in the prompt
+	 * besides the code and its file name that shapes the answer (rules text,
+	 * code introduction).
+	 */
+	public String key(String code, String language, String rules) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (String part : new String[] { normalize(code), language, rules, model, String.valueOf(temperature) }) {
+				digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) 0);
+			}
+			return HexFormat.of().formatHex(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Key of the normalized token stream of the code, shared by files that
+	 * differ only in comments and layout.
+	 */
+	public String fingerprint(CodeNormalizer.Normalized normalized, String language, String rules) {
+		return key(normalized.getText(), language, "fingerprint\0" + rules);
+	}
+
+	/**
+	 * Cached model response for the key, or null.
+	 */
+	public String get(String key) {
+		AnalysisCacheEntry entry = lookup(key, null);
+		return entry != null ? entry.getResponse() : null;
+	}
+
+	/**
+	 * Entry stored under {@code key}, else one of a near-duplicate with the
+	 * same {@code fingerprint} (its line starts map its line numbers), else
+	 * null.
+	 */
+	public AnalysisCacheEntry lookup(String key, String fingerprint) {
+		if (!enabled) {
+			return null;
+		}
+
+		AnalysisCacheEntry entry;
+		synchronized (this) {
+			entry = memory.get(key);
+			if (entry == null && fingerprint != null) {
+				entry = fingerprints.get(fingerprint);
+			}
+		}
+		if (entry != null) {
+			(key.equals(entry.getCacheKey()) ? memoryHits : fingerprintHits).incrementAndGet();
+			tokensSaved.addAndGet(entry.getTokens());
+			return entry;
+		}
+
+		try {
+			entry = cacheRepository.findById(key).orElse(null);
+			if (entry == null && fingerprint != null) {
+				entry = cacheRepository.findFirstByFingerprint(fingerprint);
+			}
+			if (entry != null) {
+				(key.equals(entry.getCacheKey()) ? databaseHits : fingerprintHits).incrementAndGet();
+				tokensSaved.addAndGet(entry.getTokens());
+				putInMemory(entry);
+				return entry;
+			}
+		} catch (RuntimeException e) {
+			logger.warn("Analysis cache lookup failed: {}", e.getMessage());
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	public void put(String key, String response, int tokens) {
+		put(key, response, tokens, null, null);
+	}
+
+	/**
+	 * Stores a response; {@code tokens} is what a later hit saves (prompt and
+	 * response).
+	 */
+	public void put(String key, String response, int tokens, String fingerprint, String lineStarts) {
+		if (!enabled || response == null) {
+			return;
+		}
+
+		AnalysisCacheEntry entry = new AnalysisCacheEntry(key, response, model, tokens);
+		entry.setFingerprint(fingerprint);
+		entry.setLineStarts(lineStarts);
+		putInMemory(entry);
+		try {
+			cacheRepository.save(entry);
+		} catch (RuntimeException e) {
+			logger.warn("Failed to persist analysis cache entry: {}", e.getMessage());
+		}
+	}
+
+	private void putInMemory(AnalysisCacheEntry entry) {
+		long size = sizeOf(entry);
+		if (size > memoryMaxBytes) {
+			return;
+		}
+
+		synchronized (this) {
+			AnalysisCacheEntry previous = memory.put(entry.getCacheKey(), entry);
+			memoryBytes += size - (previous != null ? sizeOf(previous) : 0);
+			if (entry.getFingerprint() != null) {
+				fingerprints.put(entry.getFingerprint(), entry);
+			}
+
+			Iterator<Map.Entry<String, AnalysisCacheEntry>> eldest = memory.entrySet().iterator();
+			while (memoryBytes > memoryMaxBytes && eldest.hasNext()) {
+				AnalysisCacheEntry evicted = eldest.next().getValue();
+				memoryBytes -= sizeOf(evicted);
+				eldest.remove();
+				if (evicted.getFingerprint() != null) {
+					fingerprints.remove(evicted.getFingerprint(), evicted);
+				}
+			}
+		}
+	}
+
+	private static long sizeOf(AnalysisCacheEntry entry) {
+		// UTF-16 chars plus key and object overhead
+		int lineStarts = entry.getLineStarts() != null ? entry.getLineStarts().length() : 0;
+		return 2L * (entry.getResponse().length() + lineStarts) + 256;
+	}
+
+	/**
+	 * Line endings and trailing whitespace do not change a review.
+	 */
+	static String normalize(String code) {
+		if (code == null) {
+			return "";
+		}
+		StringBuilder normalized = new StringBuilder(code.length());
+		for (String line : code.split("\r\n|\r|\n")) {
+			normalized.append(line.stripTrailing()).append('\n');
+		}
+		int end = normalized.length();
+		while (end > 0 && normalized.charAt(end - 1) == '\n') {
+			end--;
+		}
+		normalized.setLength(end);
+		return normalized.toString();
+	}
+
+	public double getHitRatio() {
+		long hits = memoryHits.get() + databaseHits.get() + fingerprintHits.get();
+		long total = hits + misses.get();
+		return total == 0 ? 0.0 : (double) hits / total;
+	}
+
+	public long getTokensSaved() {
+		return tokensSaved.get();
+	}
+}
@@ -0,0 +1,220 @@
+package com.prcodeinspector.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Content-addressed cache of git blobs. A blob SHA always names the same
+ * bytes, so entries never need revalidation: they live in a byte-bounded
+ * in-memory LRU and spill to a byte-bounded directory on disk when evicted.
+ */
+@Component
+public class BlobCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(BlobCache.class);
+
+	private static final Pattern BLOB_SHA = Pattern.compile("[0-9a-f]{40}([0-9a-f]{24})?");
+
+	@Value("${github.blob-cache.memory-max-bytes:67108864}")
+	private long memoryMaxBytes;
+
+	@Value("${github.blob-cache.disk-max-bytes:1073741824}")
+	private long diskMaxBytes;
+
+	@Value("${github.blob-cache.directory:${java.io.tmpdir}/pr-code-inspector/blobs}")
+	private String directory;
+
+	private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+	private long memoryBytes;
+
+	private final LinkedHashMap<String, Long> disk = new LinkedHashMap<>(16, 0.75f, true);
+	private long diskBytes;
+
+	private Path root;
+
+	private final AtomicLong memoryHits = new AtomicLong();
+	private final AtomicLong diskHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	@PostConstruct
+	public void init() {
+		root = Paths.get(directory);
+		try {
+			Files.createDirectories(root);
+			try (Stream<Path> files = Files.walk(root, 2)) {
+				List<Path> blobs = files.filter(Files::isRegularFile)
+						.filter(path -> BLOB_SHA.matcher(path.getFileName().toString()).matches())
+						.sorted(Comparator.comparing(this::lastModified)).toList();
+				synchronized (this) {
+					for (Path blob : blobs) {
+						long size = Files.size(blob);
+						disk.put(blob.getFileName().toString(), size);
+						diskBytes += size;
+					}
+				}
+			}
+			logger.info("Blob cache at {} holds {} blobs ({} bytes) on disk", root, disk.size(), diskBytes);
+		} catch (IOException e) {
+			logger.warn("Blob cache directory {} is unusable, caching in memory only", root, e);
+			root = null;
+		}
+	}
+
+	public byte[] get(String sha) {
+		if (!isCacheable(sha)) {
+			return null;
+		}
+
+		synchronized (this) {
+			byte[] content = memory.get(sha);
+			if (content != null) {
+				memoryHits.incrementAndGet();
+				return content;
+			}
+			if (root == null || disk.get(sha) == null) {
+				misses.incrementAndGet();
+				return null;
+			}
+		}
+
+		try {
+			Path path = pathFor(sha);
+			byte[] content = Files.readAllBytes(path);
+			Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+			diskHits.incrementAndGet();
+			putInMemory(sha, content);
+			return content;
+		} catch (NoSuchFileException e) {
+			synchronized (this) {
+				Long size = disk.remove(sha);
+				diskBytes -= size != null ? size : 0;
+			}
+		} catch (IOException e) {
+			logger.warn("Failed to read cached blob {}", sha, e);
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	public void put(String sha, byte[] content) {
+		if (!isCacheable(sha) || content == null) {
+			return;
+		}
+		if (content.length > memoryMaxBytes) {
+			spill(Map.of(sha, content));
+			return;
+		}
+		putInMemory(sha, content);
+	}
+
+	private void putInMemory(String sha, byte[] content) {
+		Map<String, byte[]> evicted = new LinkedHashMap<>();
+
+		synchronized (this) {
+			byte[] previous = memory.put(sha, content);
+			memoryBytes += content.length - (previous != null ? previous.length : 0);
+
+			Iterator<Map.Entry<String, byte[]>> eldest = memory.entrySet().iterator();
+			while (memoryBytes > memoryMaxBytes && eldest.hasNext()) {
+				Map.Entry<String, byte[]> entry = eldest.next();
+				eldest.remove();
+				memoryBytes -= entry.getValue().length;
+				if (!disk.containsKey(entry.getKey())) {
+					evicted.put(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+
+		spill(evicted);
+	}
+
+	private void spill(Map<String, byte[]> blobs) {
+		if (root == null || blobs.isEmpty()) {
+			return;
+		}
+
+		for (Map.Entry<String, byte[]> blob : blobs.entrySet()) {
+			Path path = pathFor(blob.getKey());
+			try {
+				Files.createDirectories(path.getParent());
+				Path temp = Files.createTempFile(path.getParent(), blob.getKey(), ".tmp");
+				Files.write(temp, blob.getValue());
+				Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				logger.warn("Failed to spill blob {} to disk", blob.getKey(), e);
+				continue;
+			}
+
+			List<String> expired = new ArrayList<>();
+			synchronized (this) {
+				Long previous = disk.put(blob.getKey(), (long) blob.getValue().length);
+				diskBytes += blob.getValue().length - (previous != null ? previous : 0);
+
+				Iterator<Map.Entry<String, Long>> eldest = disk.entrySet().iterator();
+				while (diskBytes > diskMaxBytes && eldest.hasNext()) {
+					Map.Entry<String, Long> entry = eldest.next();
+					eldest.remove();
+					diskBytes -= entry.getValue();
+					expired.add(entry.getKey());
+				}
+			}
+
+			for (String sha : expired) {
+				try {
+					Files.deleteIfExists(pathFor(sha));
+				} catch (IOException e) {
+					logger.warn("Failed to evict blob {} from disk", sha, e);
+				}
+			}
+		}
+	}
+
+	private Path pathFor(String sha) {
+		return root.resolve(sha.substring(0, 2)).resolve(sha);
+	}
+
+	private boolean isCacheable(String sha) {
+		return sha != null && BLOB_SHA.matcher(sha).matches();
+	}
+
+	private FileTime lastModified(Path path) {
+		try {
+			return Files.getLastModifiedTime(path);
+		} catch (IOException e) {
+			return FileTime.fromMillis(0);
+		}
+	}
+
+	public long getMemoryHits() {
+		return memoryHits.get();
+	}
+
+	public long getDiskHits() {
+		return diskHits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+}
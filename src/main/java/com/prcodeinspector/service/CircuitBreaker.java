@@ -0,0 +1,112 @@
+package com.prcodeinspector.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Count-based circuit breaker. It opens when the failure rate of the last
+ * {@code windowSize} calls (once at least {@code minimumCalls} were made)
+ * reaches the threshold, rejects calls while open, then lets a single probe
+ * through: the probe's success closes it again, its failure reopens it.
+ */
+public class CircuitBreaker {
+
+	private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final boolean[] window;
+	private final int minimumCalls;
+	private final double failureRateThreshold;
+	private final long openNanos;
+
+	private State state = State.CLOSED;
+	private int calls;
+	private int failures;
+	private int next;
+	private long openedAt;
+	private boolean probing;
+
+	public CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold, long openMillis) {
+		this.window = new boolean[Math.max(1, windowSize)];
+		this.minimumCalls = Math.max(1, Math.min(minimumCalls, window.length));
+		this.failureRateThreshold = failureRateThreshold;
+		this.openNanos = openMillis * 1_000_000;
+	}
+
+	/**
+	 * Whether a call may go ahead now; a permitted call must report its
+	 * outcome with {@link #onSuccess()} or {@link #onFailure()}.
+	 */
+	public synchronized boolean tryAcquire() {
+		if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+			state = State.HALF_OPEN;
+			probing = false;
+		}
+		if (state == State.HALF_OPEN) {
+			if (probing) {
+				return false;
+			}
+			probing = true;
+			return true;
+		}
+		return state == State.CLOSED;
+	}
+
+	public synchronized void onSuccess() {
+		if (state == State.HALF_OPEN) {
+			logger.info("Model provider recovered, closing circuit");
+			reset(State.CLOSED);
+		} else if (state == State.CLOSED) {
+			record(false);
+		}
+	}
+
+	public synchronized void onFailure() {
+		if (state == State.HALF_OPEN) {
+			logger.warn("Model provider probe failed, opening circuit for another {} ms", openNanos / 1_000_000);
+			open();
+		} else if (state == State.CLOSED) {
+			record(true);
+			if (calls >= minimumCalls && failures >= failureRateThreshold * calls) {
+				logger.warn("Model provider failing ({} of the last {} calls), opening circuit for {} ms", failures,
+						calls, openNanos / 1_000_000);
+				open();
+			}
+		}
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	private void record(boolean failure) {
+		if (calls == window.length) {
+			if (window[next]) {
+				failures--;
+			}
+		} else {
+			calls++;
+		}
+		window[next] = failure;
+		if (failure) {
+			failures++;
+		}
+		next = (next + 1) % window.length;
+	}
+
+	private void open() {
+		reset(State.OPEN);
+		openedAt = System.nanoTime();
+	}
+
+	private void reset(State newState) {
+		state = newState;
+		calls = 0;
+		failures = 0;
+		next = 0;
+		probing = false;
+	}
+}
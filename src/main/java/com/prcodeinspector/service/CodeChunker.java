@@ -0,0 +1,134 @@
+package com.prcodeinspector.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingRegistry;
+import com.knuddels.jtokkit.api.EncodingType;
+
+/**
+ * Splits files over a token budget (counted with the model's tokenizer) into
+ * chunks cut at the shallowest declaration boundary available: between
+ * top-level declarations, else between class members, else between
+ * statements. Each chunk after the first repeats a few lines before its cut
+ * so a comment or annotation stays with the declaration it belongs to.
+ */
+public class CodeChunker {
+
+	private final Encoding encoding;
+	private final int maxChunkTokens;
+	private final int overlapLines;
+
+	public CodeChunker(Encoding encoding, int maxChunkTokens, int overlapLines) {
+		this.encoding = encoding;
+		this.maxChunkTokens = maxChunkTokens;
+		this.overlapLines = Math.max(0, overlapLines);
+	}
+
+	/**
+	 * Tokenizer of the model, cl100k_base for models JTokkit does not know.
+	 */
+	public static Encoding encodingFor(String model) {
+		EncodingRegistry registry = Encodings.newLazyEncodingRegistry();
+		return registry.getEncodingForModel(model).orElseGet(() -> registry.getEncoding(EncodingType.CL100K_BASE));
+	}
+
+	public int countTokens(String text) {
+		return text == null ? 0 : encoding.countTokensOrdinary(text);
+	}
+
+	/**
+	 * The chunks of the code in order; a single chunk when it fits the
+	 * budget. A line over the budget on its own becomes a chunk by itself.
+	 */
+	public List<Chunk> split(String code, String language) {
+		int total = countTokens(code);
+		if (total <= maxChunkTokens) {
+			return List.of(new Chunk(1, code, total));
+		}
+
+		String[] lines = code.split("\n", -1);
+		int lineCount = lines.length > 1 && lines[lines.length - 1].isEmpty() ? lines.length - 1 : lines.length;
+
+		// Tokens never merge across a line break by more than the break itself, so the sums are an upper bound
+		int[] lineTokens = new int[lineCount];
+		for (int i = 0; i < lineCount; i++) {
+			lineTokens[i] = countTokens(lines[i]) + 1;
+		}
+
+		CodeNormalizer.Normalized normalized = CodeNormalizer.normalize(code, language);
+		List<Chunk> chunks = new ArrayList<>();
+		int start = 0;
+		while (start < lineCount) {
+			int end = start;
+			int tokens = 0;
+			while (end < lineCount && (end == start || tokens + lineTokens[end] <= maxChunkTokens)) {
+				tokens += lineTokens[end++];
+			}
+			if (end < lineCount) {
+				end = cutBefore(normalized, start, end);
+			}
+
+			tokens = Arrays.stream(lineTokens, start, end).sum();
+			chunks.add(new Chunk(start + 1, String.join("\n", Arrays.asList(lines).subList(start, end)), tokens));
+			if (end >= lineCount) {
+				break;
+			}
+			start = Math.max(start + 1, end - overlapLines);
+		}
+		return chunks;
+	}
+
+	/**
+	 * Line index (0-based, exclusive end of the chunk) of the shallowest
+	 * boundary in the second half of the chunk, the latest among equals, moved
+	 * up over the comments and blank lines before it; the budget limit itself
+	 * when no line there starts a construct.
+	 */
+	private static int cutBefore(CodeNormalizer.Normalized normalized, int start, int limit) {
+		int cut = limit;
+		int bestLevel = Integer.MAX_VALUE;
+		for (int i = limit; i > start + (limit - start) / 2; i--) {
+			int level = normalized.getLineLevel(i + 1);
+			if (level >= 0 && level < bestLevel) {
+				bestLevel = level;
+				cut = i;
+			}
+		}
+		if (bestLevel == Integer.MAX_VALUE) {
+			return cut;
+		}
+		while (cut - 1 > start && !normalized.hasTokens(cut)) {
+			cut--;
+		}
+		return cut;
+	}
+
+	public static class Chunk {
+		private final int startLine;
+		private final String text;
+		private final int tokens;
+
+		Chunk(int startLine, String text, int tokens) {
+			this.startLine = startLine;
+			this.text = text;
+			this.tokens = tokens;
+		}
+
+		/** Line of the file (1-based) the chunk starts at. */
+		public int getStartLine() {
+			return startLine;
+		}
+
+		public String getText() {
+			return text;
+		}
+
+		public int getTokens() {
+			return tokens;
+		}
+	}
+}
@@ -0,0 +1,259 @@
+package com.prcodeinspector.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Reduces source code to a canonical token stream: comments (license
+ * headers included) and formatting are dropped, string literals are kept
+ * verbatim. Two files with the same token stream differ only in layout and
+ * comments, so an analysis of one applies to the other once its line
+ * numbers are mapped through the token positions.
+ */
+public final class CodeNormalizer {
+
+	private enum Syntax {
+		/** {@code //} and block comments, whitespace-insensitive. */
+		C_LIKE(true, false, false, "\"'"),
+		/** Also template literals. */
+		JAVASCRIPT(true, false, false, "\"'`"),
+		GO(true, false, false, "\"'`"),
+		PHP(true, true, false, "\"'"),
+		/** {@code #} comments; line breaks and indentation are significant. */
+		PYTHON(false, true, true, "\"'"),
+		RUBY(false, true, true, "\"'"),
+		/** Unknown language: only whitespace is normalized. */
+		PLAIN(false, false, false, "");
+
+		private final boolean slashComments;
+		private final boolean hashComments;
+		private final boolean lineStructured;
+		private final String quotes;
+
+		Syntax(boolean slashComments, boolean hashComments, boolean lineStructured, String quotes) {
+			this.slashComments = slashComments;
+			this.hashComments = hashComments;
+			this.lineStructured = lineStructured;
+			this.quotes = quotes;
+		}
+
+		static Syntax of(String language) {
+			if (language == null) {
+				return PLAIN;
+			}
+			switch (language) {
+			case "java":
+			case "c":
+			case "cpp":
+			case "csharp":
+				return C_LIKE;
+			case "javascript":
+			case "typescript":
+				return JAVASCRIPT;
+			case "go":
+				return GO;
+			case "php":
+				return PHP;
+			case "python":
+				return PYTHON;
+			case "ruby":
+				return RUBY;
+			default:
+				return PLAIN;
+			}
+		}
+	}
+
+	private static final Set<Character> OPENING = Set.of('(', '[', '{');
+	private static final Set<Character> CLOSING = Set.of(')', ']', '}');
+	private static final int TAB_WIDTH = 4;
+
+	private CodeNormalizer() {
+	}
+
+	public static Normalized normalize(String code, String language) {
+		Syntax syntax = Syntax.of(language);
+		List<String> tokens = new ArrayList<>();
+		List<Integer> tokenLines = new ArrayList<>();
+		List<Integer> lineLevels = new ArrayList<>();
+
+		int line = 1;
+		int lineStart = 0;
+		int depth = 0;
+		boolean newline = false;
+		int i = 0;
+		int n = code.length();
+
+		while (i < n) {
+			char c = code.charAt(i);
+			char next = i + 1 < n ? code.charAt(i + 1) : '\0';
+
+			if (c == '\n') {
+				line++;
+				lineStart = ++i;
+				newline = syntax.lineStructured && depth == 0 && !tokens.isEmpty();
+				continue;
+			}
+			if (Character.isWhitespace(c)) {
+				i++;
+				continue;
+			}
+			if ((syntax.slashComments && c == '/' && next == '/') || (syntax.hashComments && c == '#')) {
+				while (i < n && code.charAt(i) != '\n') {
+					i++;
+				}
+				continue;
+			}
+			if (syntax.slashComments && c == '/' && next == '*') {
+				int end = code.indexOf("*/", i + 2);
+				end = end < 0 ? n : end + 2;
+				for (int j = i; j < end; j++) {
+					if (code.charAt(j) == '\n') {
+						line++;
+						lineStart = j + 1;
+					}
+				}
+				i = end;
+				continue;
+			}
+
+			if (lineLevels.size() < line) {
+				// First token of the line: how deeply it is nested, or -1 when it cannot start a declaration
+				while (lineLevels.size() < line - 1) {
+					lineLevels.add(-1);
+				}
+				lineLevels.add(syntax.lineStructured ? (depth == 0 ? indentWidth(code, lineStart, i) : -1)
+						: (CLOSING.contains(c) ? -1 : depth));
+			}
+			if (newline) {
+				// Statement boundary in a line-structured language, with its indentation
+				tokens.add("\n" + indentWidth(code, lineStart, i));
+				tokenLines.add(line);
+				newline = false;
+			}
+
+			int start = i;
+			int startLine = line;
+			if (syntax.quotes.indexOf(c) >= 0) {
+				String delimiter = syntax == Syntax.PYTHON && code.startsWith(String.valueOf(c).repeat(3), i)
+						? String.valueOf(c).repeat(3)
+						: String.valueOf(c);
+				i += delimiter.length();
+				while (i < n && !code.startsWith(delimiter, i)) {
+					if (code.charAt(i) == '\\') {
+						i++;
+					} else if (code.charAt(i) == '\n') {
+						line++;
+						lineStart = i + 1;
+					}
+					i++;
+				}
+				i = Math.min(n, i + delimiter.length());
+			} else if (isWordChar(c)) {
+				while (i < n && isWordChar(code.charAt(i))) {
+					i++;
+				}
+			} else {
+				if (OPENING.contains(c)) {
+					depth++;
+				} else if (CLOSING.contains(c) && depth > 0) {
+					depth--;
+				}
+				i++;
+			}
+			tokens.add(code.substring(start, i));
+			tokenLines.add(startLine);
+		}
+
+		while (lineLevels.size() < line) {
+			lineLevels.add(-1);
+		}
+		return new Normalized(tokens, tokenLines.stream().mapToInt(Integer::intValue).toArray(),
+				lineLevels.stream().mapToInt(Integer::intValue).toArray());
+	}
+
+	private static int indentWidth(String code, int from, int to) {
+		int width = 0;
+		for (int i = from; i < to; i++) {
+			width += code.charAt(i) == '\t' ? TAB_WIDTH : 1;
+		}
+		return width;
+	}
+
+	private static boolean isWordChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+	}
+
+	/**
+	 * Canonical token stream of one file plus the line of every token.
+	 */
+	public static class Normalized {
+		private final String text;
+		private final int[] tokenLines;
+		private final int[] lineLevels;
+		private final int lineCount;
+
+		Normalized(List<String> tokens, int[] tokenLines, int[] lineLevels) {
+			this.text = String.join(" ", tokens);
+			this.tokenLines = tokenLines;
+			this.lineLevels = lineLevels;
+			this.lineCount = lineLevels.length;
+		}
+
+		public String getText() {
+			return text;
+		}
+
+		public int getTokenCount() {
+			return tokenLines.length;
+		}
+
+		/**
+		 * Nesting of the code starting on a line (1-based): bracket depth, or
+		 * indentation width where indentation is significant. -1 for lines
+		 * without tokens and lines that continue or close a construct.
+		 */
+		public int getLineLevel(int line) {
+			return line >= 1 && line <= lineCount ? lineLevels[line - 1] : -1;
+		}
+
+		/** Whether a token starts on the line, i.e. it is not blank or comment only. */
+		public boolean hasTokens(int line) {
+			return Arrays.binarySearch(tokenLines, line) >= 0;
+		}
+
+		/**
+		 * For every line (1-based, in order) the index of the first token on or
+		 * after it, comma separated: what {@link #toLine} needs to carry line
+		 * numbers from this file over to another with the same token stream.
+		 */
+		public String encodeLineStarts() {
+			int[] starts = new int[lineCount];
+			int token = 0;
+			for (int line = 1; line <= lineCount; line++) {
+				while (token < tokenLines.length && tokenLines[token] < line) {
+					token++;
+				}
+				starts[line - 1] = token;
+			}
+			return Arrays.stream(starts).mapToObj(String::valueOf).collect(Collectors.joining(","));
+		}
+
+		/**
+		 * Maps a line of the file described by {@code sourceLineStarts} to the
+		 * line of this file holding the same token; null stays null.
+		 */
+		public Integer toLine(String sourceLineStarts, Integer sourceLine) {
+			if (sourceLine == null || tokenLines.length == 0) {
+				return sourceLine;
+			}
+			String[] starts = sourceLineStarts.split(",");
+			int index = Math.max(1, Math.min(sourceLine, starts.length)) - 1;
+			int token = Math.min(Integer.parseInt(starts[index]), tokenLines.length - 1);
+			return tokenLines[token];
+		}
+	}
+}
@@ -1,12 +1,16 @@
 package com.prcodeinspector.service;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,7 +18,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.StringUtils;
 
 import com.prcodeinspector.model.AnalysisIssue;
 import com.prcodeinspector.model.AnalysisSuggestion;
@@ -23,6 +29,10 @@ import com.prcodeinspector.model.PullRequestAnalysis;
 import com.prcodeinspector.repository.CodeAnalysisResultRepository;
 import com.prcodeinspector.repository.PullRequestAnalysisRepository;
 
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
 @Service
 @Transactional
 public class CodeReviewService {
@@ -41,74 +51,297 @@ public class CodeReviewService {
 	@Autowired
 	private CodeAnalysisResultRepository resultRepository;
 
-	@Value("${code.analysis.supported-extensions}")
-	private String supportedExtensions;
+	@Autowired
+	private FileClassifier fileClassifier;
+
+	@Autowired
+	private AnalysisFindingService findingService;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
 
 	@Value("${code.analysis.max-file-size}")
 	private long maxFileSize;
 
+	@Value("${code.analysis.mode:full}")
+	private String analysisMode;
+
+	@Value("${code.analysis.diff.context-lines:3}")
+	private int diffContextLines;
+
+	@Value("${code.analysis.sample-bytes:16384}")
+	private int sampleBytes;
+
+	@Value("${code.analysis.packing.enabled:true}")
+	private boolean packingEnabled;
+
+	@Value("${code.analysis.packing.max-tokens:6000}")
+	private int packingMaxTokens;
+
+	@Value("${code.analysis.packing.max-file-tokens:1500}")
+	private int packingMaxFileTokens;
+
+	@Value("${code.analysis.packing.max-files:8}")
+	private int packingMaxFiles;
+
 	@Async
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
 	public CompletableFuture<PullRequestAnalysis> analyzePullRequest(String owner, String repository, int prNumber) {
+		return analyzePullRequest(owner, repository, prNumber, null);
+	}
+
+	@Async
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public CompletableFuture<PullRequestAnalysis> analyzePullRequest(String owner, String repository, int prNumber,
+			String headSha) {
+		return analyzePullRequest(owner, repository, prNumber, headSha, false);
+	}
+
+	/**
+	 * Analyses the pull request at its current head. A completed analysis of
+	 * the same head is returned as is; after new pushes only files whose blob
+	 * changed are analysed again and the other results are carried forward.
+	 * A known {@code headSha} (from a webhook) spares resolving the PR when it
+	 * was already analysed. {@code bypassCache} analyses every file afresh.
+	 * <p>
+	 * Runs outside a transaction: the analysis takes as long as its model
+	 * calls, so each save commits on its own instead of one transaction
+	 * holding a pooled connection for the whole run.
+	 */
+	@Async
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public CompletableFuture<PullRequestAnalysis> analyzePullRequest(String owner, String repository, int prNumber,
+			String headSha, boolean bypassCache) {
 		logger.info("Starting analysis for PR: {}/{}#{}", owner, repository, prNumber);
+		long started = System.nanoTime();
 
 		try {
 			// Check if analysis already exists
 			PullRequestAnalysis existingAnalysis = analysisRepository.findByOwnerRepositoryAndPRNumber(owner,
 					repository, prNumber);
 
-			if (existingAnalysis != null
+			// Resolve the PR once; every later step reads from the snapshot
+			PullRequestSnapshot snapshot = null;
+			if (!bypassCache && existingAnalysis != null
 					&& existingAnalysis.getStatus() == PullRequestAnalysis.AnalysisStatus.COMPLETED) {
-				logger.info("Analysis already exists for PR: {}/{}#{}", owner, repository, prNumber);
-				return CompletableFuture.completedFuture(existingAnalysis);
+				if (headSha == null) {
+					snapshot = gitHubService.getPullRequestSnapshot(owner, repository, prNumber, false);
+					headSha = snapshot.getHeadSha();
+				}
+				if (headSha.equals(existingAnalysis.getCommitSha())) {
+					logger.info("Analysis already exists for PR: {}/{}#{}", owner, repository, prNumber);
+					return CompletableFuture.completedFuture(existingAnalysis);
+				}
 			}
 
-			PullRequestAnalysis analysis = new PullRequestAnalysis(owner, repository, "");
-			analysis.setPullRequestNumber(prNumber);
+			PullRequestAnalysis analysis;
+			// Results of the previous head by path; unchanged blobs are carried forward
+			Map<String, CodeAnalysisResult> previousResults = new HashMap<>();
+			if (existingAnalysis != null) {
+				analysis = existingAnalysis;
+				// Issues are loaded with the results, which are read after their transaction ended
+				for (CodeAnalysisResult previous : resultRepository
+						.findWithIssuesByPullRequestAnalysisId(analysis.getId())) {
+					previousResults.put(previous.getFilePath(), previous);
+				}
+				analysis.getSkippedFiles().clear();
+				analysis.setErrorMessage(null);
+			} else {
+				analysis = new PullRequestAnalysis(owner, repository, "");
+				analysis.setPullRequestNumber(prNumber);
+			}
 			analysis.setStatus(PullRequestAnalysis.AnalysisStatus.IN_PROGRESS);
 			analysisRepository.save(analysis);
+			findingService.start(owner, repository, prNumber);
 
-			// Get PR information and files
-			GitHubService.PullRequestInfo prInfo = gitHubService.getPullRequestInfo(owner, repository, prNumber);
-			analysis.setBranchName(prInfo.getTitle());
+			if (snapshot == null) {
+				snapshot = gitHubService.getPullRequestSnapshot(owner, repository, prNumber, false);
+			}
+			analysis.setBranchName(snapshot.getTitle());
+			analysis.setCommitSha(snapshot.getHeadSha());
+			String commitSha = snapshot.getHeadSha();
 
-			List<GitHubService.PullRequestFile> prFiles = gitHubService.getPullRequestFiles(owner, repository,
+			logger.info("Streaming {} files for PR: {}/{}#{}", snapshot.getChangedFiles(), owner, repository,
 					prNumber);
-			Map<String, String> codeFiles = gitHubService.getCodeFilesForAnalysis(owner, repository, prNumber);
 
-			logger.info("Found {} files to analyze for PR: {}/{}#{}", codeFiles.size(), owner, repository, prNumber);
+			// Lockfiles, bundles, vendored and generated files are dropped from the listing, and the tier
+			// (from the head tree size) decides whether a file needs its full content downloaded at all
+			boolean diffMode = isDiffMode();
+			Map<String, String> previousBlobShas = new HashMap<>();
+			if (!bypassCache) {
+				previousResults.forEach((path, previous) -> previousBlobShas.put(path, previous.getBlobSha()));
+			}
+			Predicate<GitHubService.PullRequestFile> needsContent = file -> fileClassifier.classify(file)
+					.shouldAnalyze() && !(diffMode && "DELETED".equals(file.getStatus()))
+					&& !isUnchanged(file, previousBlobShas) && needsContent(file, chooseTier(file, diffMode));
+			int carriedForward = 0;
 
-			// Analyze each file
+			// Submit each file for analysis as soon as its content arrives, while later pages are still
+			// listed; the model calls run in parallel under the adaptive limit
 			List<CodeAnalysisResult> results = new ArrayList<>();
-			for (Map.Entry<String, String> fileEntry : codeFiles.entrySet()) {
-				String filePath = fileEntry.getKey();
-				String code = fileEntry.getValue();
+			List<PendingResult> pendingResults = new ArrayList<>();
+			// Small files share prompts, so the instructions are not repeated for each of them
+			PromptPacker packer = packingEnabled
+					? new PromptPacker(packingMaxTokens, packingMaxFiles,
+							pack -> openAIClientService.analyzePack(pack, bypassCache))
+					: null;
+			try (PullRequestFileStream files = gitHubService.streamFileContents(snapshot, needsContent)) {
+				for (CompletableFuture<GitHubService.PullRequestFile> fetch : files) {
+					GitHubService.PullRequestFile file;
+					try {
+						file = fetch.join();
+					} catch (CompletionException e) {
+						if (e.getCause() instanceof GitHubService.FileFetchException) {
+							GitHubService.FileFetchException failure = (GitHubService.FileFetchException) e.getCause();
+							logger.error("Failed to fetch file for analysis: {}", failure.getFilePath(),
+									failure.getCause());
+							analysis.getSkippedFiles().put(failure.getFilePath(), "FETCH_FAILED");
+						} else {
+							logger.error("Failed to fetch file for analysis: {}", e.getCause().getMessage());
+						}
+						continue;
+					}
+					String filePath = file.getFilePath();
 
-				try {
-					// Skip files that are too large
-					if (code.length() > maxFileSize) {
-						logger.warn("Skipping file {} due to size limit", filePath);
+					FileClassifier.Verdict verdict = fileClassifier.classify(file);
+					if (!verdict.shouldAnalyze()) {
+						analysis.getSkippedFiles().put(filePath, verdict.name());
+						continue;
+					}
+					if (diffMode && "DELETED".equals(file.getStatus())) {
+						continue;
+					}
+					if (isUnchanged(file, previousBlobShas)) {
+						// Same blob as at the previous head: keep its result
+						CodeAnalysisResult previous = previousResults.remove(filePath);
+						results.add(previous);
+						findingService.recordAll(owner, repository, prNumber, commitSha, previous);
+						carriedForward++;
 						continue;
 					}
 
-					CodeAnalysisResult result = openAIClientService.analyzeCode(filePath, getFileName(filePath),
-							getLanguageFromFileName(filePath), code);
+					try {
+						CodeAnalysisResult.AnalysisTier tier = chooseTier(file, diffMode);
+						PatchExcerpt excerpt = null;
+						String code = null;
+						if (tier == CodeAnalysisResult.AnalysisTier.DIFF_ONLY) {
+							excerpt = buildExcerpt(file);
+						} else if (tier == CodeAnalysisResult.AnalysisTier.SAMPLED) {
+							excerpt = gitHubService.getFileSample(snapshot, file, sampleBytes);
+						} else if (tier == CodeAnalysisResult.AnalysisTier.FULL) {
+							code = StringUtils.hasText(file.getNewContent()) ? file.getNewContent()
+									: file.getOriginalContent();
+							// Size was unknown before the download (e.g. deleted file, truncated tree)
+							if (code != null && code.length() > maxFileSize) {
+								tier = StringUtils.hasText(file.getPatch()) ? CodeAnalysisResult.AnalysisTier.DIFF_ONLY
+										: null;
+								excerpt = tier == CodeAnalysisResult.AnalysisTier.DIFF_ONLY
+										? PatchExcerpt.fromPatch(file.getPatch(), diffContextLines)
+										: null;
+							}
+						}
+
+						if (tier == null) {
+							logger.warn("Skipping file {} due to size limit", filePath);
+							analysis.getSkippedFiles().put(filePath, "TOO_LARGE");
+							continue;
+						}
+						if (excerpt != null) {
+							code = excerpt.getText();
+						}
+						if (!StringUtils.hasText(code)) {
+							continue;
+						}
+
+						String fileName = getFileName(filePath);
+						String language = getLanguageFromFileName(filePath);
+						if (packer != null && tier == CodeAnalysisResult.AnalysisTier.FULL && excerpt == null
+								&& PromptPacker.estimateTokens(code) <= packingMaxFileTokens) {
+							PromptPacker.PackedFile packed = new PromptPacker.PackedFile(filePath, fileName, language,
+									code);
+							pendingResults.add(new PendingResult(file, tier, packed.getResult()));
+							packer.add(packed);
+							continue;
+						}
+
+						// Issues are stored and published as the model reports them, before the file completes
+						Consumer<AnalysisIssue> findings = issue -> findingService.record(owner, repository, prNumber,
+								commitSha, filePath, issue);
+						CompletableFuture<CodeAnalysisResult> result;
+						if (tier == CodeAnalysisResult.AnalysisTier.SAMPLED) {
+							result = openAIClientService.submitSample(filePath, fileName, language, excerpt, bypassCache,
+									findings);
+						} else if (excerpt != null) {
+							result = openAIClientService.submitDiff(filePath, fileName, language, excerpt, bypassCache,
+									findings);
+						} else {
+							result = openAIClientService.submitCode(filePath, fileName, language, code, bypassCache,
+									findings);
+						}
+						pendingResults.add(new PendingResult(file, tier, result));
+
+					} catch (Exception e) {
+						logger.error("Failed to analyze file: {}", filePath, e);
+						// Continue with other files; rule matches may already have been published
+						findingService.retract(owner, repository, prNumber, filePath);
+					}
+				}
+			}
+
+			if (packer != null) {
+				packer.flush();
+			}
 
+			// Results are saved here, on the analysis thread, in the order the files arrived from the stream
+			List<CodeAnalysisResult> analysed = new ArrayList<>();
+			for (PendingResult pending : pendingResults) {
+				String filePath = pending.file.getFilePath();
+				try {
+					CodeAnalysisResult result = pending.result.join();
+					result.setAnalysisTier(pending.tier);
+					result.setCommitSha(snapshot.getHeadSha());
+					result.setBlobSha(pending.file.getSha());
 					result.setPullRequestAnalysis(analysis);
 					results.add(result);
+					analysed.add(result);
 
 					// Save individual result
 					resultRepository.save(result);
+					findingService.recordAll(owner, repository, prNumber, commitSha, result);
+					CodeAnalysisResult replaced = previousResults.remove(filePath);
+					if (replaced != null) {
+						resultRepository.delete(replaced);
+					}
 
 				} catch (Exception e) {
-					logger.error("Failed to analyze file: {}", filePath, e);
-					// Continue with other files
+					logger.error("Failed to analyze file: {}", filePath, e.getCause() != null ? e.getCause() : e);
+					// Continue with other files; the failure stays visible on the analysis, and the
+					// issues streamed for the file before it failed are withdrawn
+					analysis.getSkippedFiles().put(filePath, "ANALYSIS_FAILED");
+					findingService.retract(owner, repository, prNumber, filePath);
 				}
 			}
 
+			// Files that left the PR, are now skipped or failed to re-analyse lose their stale results
+			resultRepository.deleteAll(previousResults.values());
+			if (carriedForward > 0) {
+				logger.info("Carried forward {} unchanged file results of PR {}/{}#{}", carriedForward, owner,
+						repository, prNumber);
+			}
+
+			if (!analysis.getSkippedFiles().isEmpty()) {
+				logger.info("Skipped {} files of PR {}/{}#{}", analysis.getSkippedFiles().size(), owner, repository,
+						prNumber);
+			}
+
+			analysis.setGithubApiCalls(snapshot.getGitHubCalls());
 			analysis.setStatus(PullRequestAnalysis.AnalysisStatus.COMPLETED);
 			analysisRepository.save(analysis);
+			findingService.finish(owner, repository, prNumber, PullRequestAnalysis.AnalysisStatus.COMPLETED);
+			recordPullRequestMetrics(analysed, started);
 
-			logger.info("Analysis completed for PR: {}/{}#{}", owner, repository, prNumber);
+			logger.info("Analysis completed for PR: {}/{}#{} using {} GitHub API calls", owner, repository, prNumber,
+					snapshot.getGitHubCalls());
 
 			return CompletableFuture.completedFuture(analysis);
 
@@ -127,12 +360,43 @@ public class CodeReviewService {
 			} catch (Exception updateException) {
 				logger.error("Failed to update analysis with error", updateException);
 			}
+			findingService.finish(owner, repository, prNumber, PullRequestAnalysis.AnalysisStatus.FAILED);
 
 			return CompletableFuture.failedFuture(e);
 		}
 	}
 
+	/**
+	 * Latency of the PR analysis, the estimated model cost of the files
+	 * analysed in it and how many went to each model, which show what
+	 * routing saves per PR.
+	 */
+	private void recordPullRequestMetrics(List<CodeAnalysisResult> analysed, long started) {
+		if (meterRegistry == null) {
+			return;
+		}
+		Timer.builder("code.analysis.pull-request.duration").register(meterRegistry)
+				.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+
+		double cost = 0;
+		Map<String, Integer> filesByModel = new TreeMap<>();
+		for (CodeAnalysisResult result : analysed) {
+			cost += openAIClientService.estimateCost(result);
+			if (result.getReviewModel() != null) {
+				filesByModel.merge(result.getReviewModel(), 1, Integer::sum);
+			}
+		}
+		DistributionSummary.builder("code.analysis.pull-request.cost").baseUnit("usd").register(meterRegistry)
+				.record(cost);
+		filesByModel.forEach((model, files) -> DistributionSummary.builder("code.analysis.pull-request.files")
+				.tag("model", model).register(meterRegistry).record(files));
+	}
+
 	public CodeAnalysisResult analyzeCode(String filePath, String language, String code) {
+		return analyzeCode(filePath, language, code, false);
+	}
+
+	public CodeAnalysisResult analyzeCode(String filePath, String language, String code, boolean bypassCache) {
 		if (!isFileSupported(filePath)) {
 			throw new IllegalArgumentException("File type not supported: " + filePath);
 		}
@@ -141,7 +405,7 @@ public class CodeReviewService {
 			throw new IllegalArgumentException("File size exceeds limit: " + code.length());
 		}
 
-		return openAIClientService.analyzeCode(filePath, getFileName(filePath), language, code);
+		return openAIClientService.analyzeCode(filePath, getFileName(filePath), language, code, bypassCache);
 	}
 
 	public Optional<PullRequestAnalysis> getAnalysis(Long analysisId) {
@@ -231,9 +495,61 @@ public class CodeReviewService {
 		return summary;
 	}
 
+	private boolean isDiffMode() {
+		return "diff".equalsIgnoreCase(analysisMode);
+	}
+
+	private boolean isPatchSufficient(GitHubService.PullRequestFile file) {
+		return StringUtils.hasText(file.getPatch()) && diffContextLines <= PatchExcerpt.PATCH_CONTEXT_LINES;
+	}
+
+	/**
+	 * Picks the cheapest tier that still reviews the file: oversized files
+	 * (by head tree size, known before download) are reviewed through their
+	 * patch, or a head/tail sample when GitHub sent no patch. Returns null
+	 * when the file is oversized and can be neither diffed nor sampled.
+	 */
+	CodeAnalysisResult.AnalysisTier chooseTier(GitHubService.PullRequestFile file, boolean diffMode) {
+		boolean hasPatch = StringUtils.hasText(file.getPatch());
+		if (isOversized(file)) {
+			if (hasPatch) {
+				return CodeAnalysisResult.AnalysisTier.DIFF_ONLY;
+			}
+			return sampleBytes > 0 ? CodeAnalysisResult.AnalysisTier.SAMPLED : null;
+		}
+		return diffMode && hasPatch ? CodeAnalysisResult.AnalysisTier.DIFF_ONLY
+				: CodeAnalysisResult.AnalysisTier.FULL;
+	}
+
+	private boolean needsContent(GitHubService.PullRequestFile file, CodeAnalysisResult.AnalysisTier tier) {
+		if (tier == CodeAnalysisResult.AnalysisTier.FULL) {
+			return true;
+		}
+		// Wider context than the patch carries is cut from the full content, unless the file is oversized
+		return tier == CodeAnalysisResult.AnalysisTier.DIFF_ONLY && !isPatchSufficient(file) && !isOversized(file);
+	}
+
+	private boolean isUnchanged(GitHubService.PullRequestFile file, Map<String, String> previousBlobShas) {
+		return file.getSha() != null && file.getSha().equals(previousBlobShas.get(file.getFilePath()));
+	}
+
+	private boolean isOversized(GitHubService.PullRequestFile file) {
+		return file.getSize() != null && file.getSize() > maxFileSize;
+	}
+
+	private PatchExcerpt buildExcerpt(GitHubService.PullRequestFile file) {
+		// GitHub omits the patch for very large diffs; those files are reviewed in full
+		if (!StringUtils.hasText(file.getPatch())) {
+			return null;
+		}
+		if (diffContextLines > PatchExcerpt.PATCH_CONTEXT_LINES && StringUtils.hasText(file.getNewContent())) {
+			return PatchExcerpt.fromContent(file.getPatch(), file.getNewContent(), diffContextLines);
+		}
+		return PatchExcerpt.fromPatch(file.getPatch(), diffContextLines);
+	}
+
 	private boolean isFileSupported(String filePath) {
-		String[] extensions = supportedExtensions.split(",");
-		return Arrays.asList(extensions).stream().anyMatch(filePath::endsWith);
+		return fileClassifier.isAnalyzable(filePath);
 	}
 
 	private String getFileName(String filePath) {
@@ -271,6 +587,19 @@ public class CodeReviewService {
 		return "unknown";
 	}
 
+	private static class PendingResult {
+		private final GitHubService.PullRequestFile file;
+		private final CodeAnalysisResult.AnalysisTier tier;
+		private final CompletableFuture<CodeAnalysisResult> result;
+
+		PendingResult(GitHubService.PullRequestFile file, CodeAnalysisResult.AnalysisTier tier,
+				CompletableFuture<CodeAnalysisResult> result) {
+			this.file = file;
+			this.tier = tier;
+			this.result = result;
+		}
+	}
+
 	public static class AnalysisSummary {
 		private Long analysisId;
 		private int totalFiles;
@@ -0,0 +1,193 @@
+package com.prcodeinspector.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import okhttp3.Headers;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Revalidates repeated GitHub GETs with If-None-Match / If-Modified-Since and
+ * replays the stored response on 304. GitHub does not charge 304 responses
+ * against the rate limit, so polling the same pull requests becomes cheap.
+ * Entries are keyed by the token that fetched them, so one token's response
+ * is never replayed to another. Blob and contents responses pass through
+ * untouched: they are addressed by SHA and kept by {@link BlobCache}.
+ */
+@Component
+public class ConditionalRequestCache implements Interceptor {
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${github.conditional-cache.max-bytes:33554432}")
+	private long maxBytes;
+
+	@Value("${github.conditional-cache.max-entry-bytes:1048576}")
+	private long maxEntryBytes;
+
+	private final LinkedHashMap<String, CachedResponse> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long bytes;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	@PostConstruct
+	public void registerMetrics() {
+		Gauge.builder("github.conditional.hits", hits, AtomicLong::get).register(meterRegistry);
+		Gauge.builder("github.conditional.misses", misses, AtomicLong::get).register(meterRegistry);
+		Gauge.builder("github.conditional.hit.ratio", this, ConditionalRequestCache::getHitRatio)
+				.register(meterRegistry);
+	}
+
+	@Override
+	public Response intercept(Chain chain) throws IOException {
+		Request request = chain.request();
+		if (!"GET".equals(request.method()) || !isCacheable(request)) {
+			return chain.proceed(request);
+		}
+
+		String key = request.url() + "|" + request.header("Accept") + "|" + tokenHash(request);
+		CachedResponse cached;
+		synchronized (this) {
+			cached = entries.get(key);
+		}
+
+		Request.Builder conditional = request.newBuilder();
+		if (cached != null) {
+			if (cached.etag != null) {
+				conditional.header("If-None-Match", cached.etag);
+			}
+			if (cached.lastModified != null) {
+				conditional.header("If-Modified-Since", cached.lastModified);
+			}
+		}
+
+		Response response = chain.proceed(conditional.build());
+
+		if (response.code() == 304 && cached != null) {
+			hits.incrementAndGet();
+			response.close();
+			return replay(response, cached);
+		}
+
+		misses.incrementAndGet();
+		return store(key, response);
+	}
+
+	private Response replay(Response notModified, CachedResponse cached) {
+		// Keep the fresh rate-limit headers from the 304 on top of the stored ones
+		Headers.Builder headers = cached.headers.newBuilder();
+		for (String name : notModified.headers().names()) {
+			if (!name.equalsIgnoreCase("Content-Length") && !name.equalsIgnoreCase("Content-Type")) {
+				headers.set(name, notModified.header(name));
+			}
+		}
+
+		return notModified.newBuilder().code(200).message("OK").headers(headers.build())
+				.body(ResponseBody.create(cached.body, cached.contentType)).build();
+	}
+
+	private Response store(String key, Response response) throws IOException {
+		String etag = response.header("ETag");
+		String lastModified = response.header("Last-Modified");
+		ResponseBody body = response.body();
+
+		// Only API documents are worth keeping; archives and raw responses stream straight through
+		if (response.code() != 200 || (etag == null && lastModified == null) || body == null
+				|| body.contentType() == null || !body.contentType().subtype().contains("json")
+				|| body.contentLength() > maxEntryBytes) {
+			return response;
+		}
+
+		ResponseBody peeked = response.peekBody(maxEntryBytes + 1);
+		if (peeked.contentLength() > maxEntryBytes) {
+			return response;
+		}
+
+		byte[] content = peeked.bytes();
+		CachedResponse cached = new CachedResponse(etag, lastModified, response.headers(), body.contentType(),
+				content);
+		put(key, cached);
+
+		response.close();
+		return response.newBuilder().body(ResponseBody.create(content, cached.contentType)).build();
+	}
+
+	private boolean isCacheable(Request request) {
+		String path = request.url().encodedPath();
+		return !path.contains("/git/blobs/") && !path.contains("/contents/");
+	}
+
+	private static String tokenHash(Request request) {
+		String authorization = request.header("Authorization");
+		if (authorization == null) {
+			return "";
+		}
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256")
+					.digest(authorization.getBytes(StandardCharsets.UTF_8));
+			return HexFormat.of().formatHex(digest, 0, 16);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+	}
+
+	private synchronized void put(String key, CachedResponse cached) {
+		CachedResponse previous = entries.put(key, cached);
+		bytes += cached.body.length - (previous != null ? previous.body.length : 0);
+
+		Iterator<Map.Entry<String, CachedResponse>> eldest = entries.entrySet().iterator();
+		while (bytes > maxBytes && eldest.hasNext()) {
+			bytes -= eldest.next().getValue().body.length;
+			eldest.remove();
+		}
+	}
+
+	public double getHitRatio() {
+		long total = hits.get() + misses.get();
+		return total > 0 ? (double) hits.get() / total : 0.0;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	private static class CachedResponse {
+		private final String etag;
+		private final String lastModified;
+		private final Headers headers;
+		private final MediaType contentType;
+		private final byte[] body;
+
+		CachedResponse(String etag, String lastModified, Headers headers, MediaType contentType, byte[] body) {
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.headers = headers;
+			this.contentType = contentType;
+			this.body = body;
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package com.prcodeinspector.service;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Decides from the file listing alone (path, change counts and patch) whether
+ * a pull request file is worth downloading and reviewing. All rules are
+ * compiled once at startup.
+ */
+@Component
+public class FileClassifier {
+
+	public enum Verdict {
+		ANALYZE, UNSUPPORTED_TYPE, EXCLUDED, LOCKFILE, MINIFIED, VENDORED, GENERATED, TOO_MANY_CHANGES;
+
+		public boolean shouldAnalyze() {
+			return this == ANALYZE;
+		}
+	}
+
+	private static final Pattern LOCKFILES = Pattern.compile("(^|.*/)(package-lock\\.json|npm-shrinkwrap\\.json|"
+			+ "yarn\\.lock|pnpm-lock\\.yaml|bun\\.lockb|Gemfile\\.lock|Cargo\\.lock|poetry\\.lock|Pipfile\\.lock|"
+			+ "composer\\.lock|go\\.sum|mix\\.lock|Podfile\\.lock|packages\\.lock\\.json|gradle\\.lockfile)$");
+
+	private static final Pattern MINIFIED = Pattern.compile(".*[.-](min|bundle|chunk)\\.(js|mjs|cjs|css)$|.*\\.map$");
+
+	private static final Pattern VENDORED = Pattern.compile("(^|.*/)(vendor|node_modules|bower_components|"
+			+ "third[_-]party|Pods|Carthage|\\.yarn)/.*");
+
+	private static final Pattern GENERATED_PATH = Pattern.compile("(^|.*/)(dist|build|out|target|generated|"
+			+ "__generated__)/.*|.*(\\.pb\\.go|_pb2\\.py|_pb2_grpc\\.py|\\.pb\\.(cc|h)|\\.g\\.dart|\\.freezed\\.dart|"
+			+ "\\.designer\\.cs|\\.generated\\.[a-z]+|_generated\\.[a-z]+|\\.gen\\.[a-z]+)$");
+
+	private static final Pattern GENERATED_MARKER = Pattern.compile(
+			"Code generated .* DO NOT EDIT|@generated|<auto-generated|This file was automatically generated|"
+					+ "Generated by the protocol buffer compiler|AUTO-GENERATED FILE",
+			Pattern.CASE_INSENSITIVE);
+
+	/** Generated markers sit in the file header, so only the start of the patch is searched. */
+	private static final int MARKER_SCAN_CHARS = 2048;
+
+	/** Lines this long in a patch only come from minified or machine-written output. */
+	private static final int MINIFIED_LINE_LENGTH = 1000;
+
+	@Value("${code.analysis.supported-extensions}")
+	private String supportedExtensions;
+
+	@Value("${code.analysis.include-globs:}")
+	private String includeGlobs;
+
+	@Value("${code.analysis.exclude-globs:}")
+	private String excludeGlobs;
+
+	@Value("${code.analysis.max-changed-lines:3000}")
+	private int maxChangedLines;
+
+	private Set<String> extensions;
+	private Pattern includes;
+	private Pattern excludes;
+
+	@PostConstruct
+	public void init() {
+		extensions = Arrays.stream(supportedExtensions.split(",")).map(String::trim).filter(StringUtils::hasText)
+				.map(extension -> extension.toLowerCase(Locale.ROOT)).collect(Collectors.toSet());
+		includes = compileGlobs(includeGlobs);
+		excludes = compileGlobs(excludeGlobs);
+	}
+
+	public Verdict classify(GitHubService.PullRequestFile file) {
+		Verdict verdict = classify(file.getFilePath());
+		if (!verdict.shouldAnalyze()) {
+			return verdict;
+		}
+		if (maxChangedLines > 0 && file.getChanges() > maxChangedLines) {
+			return Verdict.TOO_MANY_CHANGES;
+		}
+
+		String patch = file.getPatch();
+		if (StringUtils.hasText(patch)) {
+			if (GENERATED_MARKER.matcher(patch.substring(0, Math.min(patch.length(), MARKER_SCAN_CHARS))).find()) {
+				return Verdict.GENERATED;
+			}
+			if (hasMinifiedLine(patch)) {
+				return Verdict.MINIFIED;
+			}
+		}
+		return Verdict.ANALYZE;
+	}
+
+	public Verdict classify(String filePath) {
+		if (LOCKFILES.matcher(filePath).matches()) {
+			return Verdict.LOCKFILE;
+		}
+		if (!extensions.contains(extensionOf(filePath))) {
+			return Verdict.UNSUPPORTED_TYPE;
+		}
+		if ((includes != null && !includes.matcher(filePath).matches())
+				|| (excludes != null && excludes.matcher(filePath).matches())) {
+			return Verdict.EXCLUDED;
+		}
+		if (MINIFIED.matcher(filePath).matches()) {
+			return Verdict.MINIFIED;
+		}
+		if (VENDORED.matcher(filePath).matches()) {
+			return Verdict.VENDORED;
+		}
+		if (GENERATED_PATH.matcher(filePath).matches()) {
+			return Verdict.GENERATED;
+		}
+		return Verdict.ANALYZE;
+	}
+
+	public boolean isAnalyzable(String filePath) {
+		return classify(filePath).shouldAnalyze();
+	}
+
+	private boolean hasMinifiedLine(String patch) {
+		int lineStart = 0;
+		while (lineStart < patch.length()) {
+			int lineEnd = patch.indexOf('\n', lineStart);
+			if (lineEnd < 0) {
+				lineEnd = patch.length();
+			}
+			if (lineEnd - lineStart > MINIFIED_LINE_LENGTH) {
+				return true;
+			}
+			lineStart = lineEnd + 1;
+		}
+		return false;
+	}
+
+	private static String extensionOf(String filePath) {
+		int dot = filePath.lastIndexOf('.');
+		return dot > filePath.lastIndexOf('/') ? filePath.substring(dot).toLowerCase(Locale.ROOT) : "";
+	}
+
+	/**
+	 * Compiles comma separated globs into one alternation. {@code **} matches
+	 * across directories, {@code *} and {@code ?} stay within a path segment.
+	 */
+	static Pattern compileGlobs(String globs) {
+		if (!StringUtils.hasText(globs)) {
+			return null;
+		}
+		String alternation = Arrays.stream(globs.split(",")).map(String::trim).filter(StringUtils::hasText)
+				.map(FileClassifier::globToRegex).collect(Collectors.joining("|"));
+		return Pattern.compile(alternation);
+	}
+
+	private static String globToRegex(String glob) {
+		StringBuilder regex = new StringBuilder("(?:");
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+				boolean directory = i + 2 < glob.length() && glob.charAt(i + 2) == '/';
+				regex.append(directory ? "(?:.*/)?" : ".*");
+				i += directory ? 2 : 1;
+			} else if (c == '*') {
+				regex.append("[^/]*");
+			} else if (c == '?') {
+				regex.append("[^/]");
+			} else {
+				regex.append(Pattern.quote(String.valueOf(c)));
+			}
+		}
+		return regex.append(')').toString();
+	}
+}
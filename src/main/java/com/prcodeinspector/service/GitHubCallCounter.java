@@ -0,0 +1,39 @@
+package com.prcodeinspector.service;
+
+import java.io.IOException;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+/**
+ * Attributes every outgoing GitHub request to the {@link PullRequestSnapshot}
+ * it was made for. Hand-rolled requests carry the snapshot as a request tag;
+ * calls made by the org.kohsuke.github client run on the caller's thread and
+ * are attributed through {@link #bind(PullRequestSnapshot)}.
+ */
+public class GitHubCallCounter implements Interceptor {
+
+	private static final ThreadLocal<PullRequestSnapshot> CURRENT = new ThreadLocal<>();
+
+	public static void bind(PullRequestSnapshot snapshot) {
+		CURRENT.set(snapshot);
+	}
+
+	public static void unbind() {
+		CURRENT.remove();
+	}
+
+	@Override
+	public Response intercept(Chain chain) throws IOException {
+		PullRequestSnapshot snapshot = chain.request().tag(PullRequestSnapshot.class);
+		if (snapshot == null) {
+			snapshot = CURRENT.get();
+		}
+		// Counted once a response came back; calls failed by the rate-limit scheduler never reached GitHub
+		Response response = chain.proceed(chain.request());
+		if (snapshot != null) {
+			snapshot.recordGitHubCall();
+		}
+		return response;
+	}
+}
@@ -0,0 +1,106 @@
+package com.prcodeinspector.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Decodes GitHub contents/blob responses straight from the response stream:
+ * the JSON is read with a streaming parser and the base64 {@code content}
+ * value is decoded into a buffer sized from the {@code size} field, so the
+ * encoded text is never materialised as a String or tree node. Responses
+ * without content (directories' entries, submodules, symlinks, and files
+ * over 1 MB, whose {@code content} is empty with encoding {@code none})
+ * decode to no bytes.
+ */
+final class GitHubContentDecoder {
+
+	private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	private GitHubContentDecoder() {
+	}
+
+	static DecodedContent decode(JsonFactory jsonFactory, InputStream body) throws IOException {
+		try (JsonParser parser = jsonFactory.createParser(body)) {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new IOException("Unexpected GitHub content response");
+			}
+
+			String sha = null;
+			String type = null;
+			String encoding = null;
+			int size = -1;
+			ContentBuffer content = null;
+
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				JsonToken value = parser.nextToken();
+
+				if ("sha".equals(field) && value == JsonToken.VALUE_STRING) {
+					sha = parser.getText();
+				} else if ("type".equals(field) && value == JsonToken.VALUE_STRING) {
+					type = parser.getText();
+				} else if ("encoding".equals(field) && value == JsonToken.VALUE_STRING) {
+					encoding = parser.getText();
+				} else if ("size".equals(field) && value == JsonToken.VALUE_NUMBER_INT) {
+					size = parser.getIntValue();
+				} else if ("content".equals(field) && value == JsonToken.VALUE_STRING) {
+					// GitHub lists "size" before "content", so the buffer is normally exact
+					content = new ContentBuffer(size >= 0 ? size : DEFAULT_BUFFER_SIZE);
+					parser.readBinaryValue(Base64Variants.MIME_NO_LINEFEEDS, content);
+				} else {
+					parser.skipChildren();
+				}
+			}
+
+			boolean hasContent = content != null && !"none".equals(encoding);
+			return new DecodedContent(sha, type, hasContent ? content.bytes() : null);
+		}
+	}
+
+	static class DecodedContent {
+		private final String sha;
+		private final String type;
+		private final byte[] bytes;
+
+		DecodedContent(String sha, String type, byte[] bytes) {
+			this.sha = sha;
+			this.type = type;
+			this.bytes = bytes;
+		}
+
+		String getSha() {
+			return sha;
+		}
+
+		/**
+		 * Object type of a contents response ({@code file}, {@code symlink},
+		 * {@code submodule}); blob responses have none.
+		 */
+		String getType() {
+			return type;
+		}
+
+		byte[] getBytes() {
+			return bytes;
+		}
+	}
+
+	private static class ContentBuffer extends ByteArrayOutputStream {
+
+		ContentBuffer(int size) {
+			super(Math.max(size, 1));
+		}
+
+		byte[] bytes() {
+			// Hand out the buffer itself when it was sized exactly
+			return count == buf.length ? buf : Arrays.copyOf(buf, count);
+		}
+	}
+}
@@ -0,0 +1,278 @@
+package com.prcodeinspector.service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Authenticates every GitHub request with a token from the configured pool and
+ * paces callers to the budget reported in the X-RateLimit-* headers. Requests
+ * go to the token with the most remaining budget; once a token's budget runs
+ * low its requests are spread evenly until the reset, and a rate-limited
+ * response is retried on another token instead of failing the analysis.
+ * Requests tagged {@link WaitPolicy#FAIL_FAST} (those enqueued on OkHttp's
+ * dispatcher threads) never wait for a token: they fail with
+ * {@link RateLimitedException} and the caller queues them again later.
+ */
+@Component
+public class GitHubRateLimitScheduler implements Interceptor {
+
+	private static final Logger logger = LoggerFactory.getLogger(GitHubRateLimitScheduler.class);
+
+	// GitHub asks for at least a minute's pause after a secondary rate limit without Retry-After
+	private static final long SECONDARY_LIMIT_WAIT_MILLIS = 60_000;
+	private static final long MAX_PEEKED_BODY_BYTES = 4096;
+
+	public enum WaitPolicy {
+		BLOCK, FAIL_FAST
+	}
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${github.tokens:${github.token}}")
+	private String githubTokens;
+
+	@Value("${github.rate-limit.pace-below-fraction:0.2}")
+	private double paceBelowFraction;
+
+	@Value("${github.rate-limit.max-wait-seconds:900}")
+	private long maxWaitSeconds;
+
+	private final List<String> tokens = new ArrayList<>();
+	private final Map<String, TokenBudget> budgets = new HashMap<>();
+
+	@PostConstruct
+	public void init() {
+		Arrays.stream(githubTokens.split(",")).map(String::trim).filter(StringUtils::hasText).distinct()
+				.forEach(tokens::add);
+		if (tokens.isEmpty()) {
+			throw new IllegalStateException("No GitHub token configured (github.tokens / github.token)");
+		}
+		logger.info("GitHub request scheduler using a pool of {} token(s)", tokens.size());
+	}
+
+	@Override
+	public Response intercept(Chain chain) throws IOException {
+		Request request = chain.request();
+		String resource = resourceOf(request);
+		boolean failFast = request.tag(WaitPolicy.class) == WaitPolicy.FAIL_FAST;
+
+		for (int attempt = 0;; attempt++) {
+			TokenBudget budget = acquire(resource, failFast);
+			Response response = chain
+					.proceed(request.newBuilder().header("Authorization", "token " + budget.token).build());
+
+			if (!update(budget, response, isRateLimitMessage(response)) || attempt > tokens.size()) {
+				return response;
+			}
+			logger.warn("GitHub token {} hit the {} rate limit, retrying on another token", budget.name, resource);
+			response.close();
+		}
+	}
+
+	private synchronized TokenBudget acquire(String resource, boolean failFast) throws IOException {
+		long deadline = System.currentTimeMillis() + maxWaitSeconds * 1000;
+
+		while (true) {
+			long now = System.currentTimeMillis();
+			TokenBudget best = null;
+			long earliest = Long.MAX_VALUE;
+
+			for (int i = 0; i < tokens.size(); i++) {
+				TokenBudget budget = budgetFor(i, resource);
+				long availableAt = budget.availableAt(now);
+				if (availableAt <= now && (best == null || budget.effectiveRemaining() > best.effectiveRemaining())) {
+					best = budget;
+				}
+				earliest = Math.min(earliest, availableAt);
+			}
+
+			if (best != null) {
+				best.reserve(now, paceBelowFraction);
+				return best;
+			}
+			if (earliest > deadline) {
+				throw new IOException("All GitHub tokens are rate limited for " + resource + " until "
+						+ Instant.ofEpochMilli(earliest));
+			}
+			if (failFast) {
+				throw new RateLimitedException(resource, earliest);
+			}
+
+			try {
+				wait(Math.max(1, earliest - now));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for GitHub rate limit");
+			}
+		}
+	}
+
+	private boolean isRateLimitMessage(Response response) throws IOException {
+		if (response.code() != 403 || response.header("Retry-After") != null) {
+			return false;
+		}
+		// A 403 is also GitHub's answer to missing permissions; only the message tells the two apart
+		return response.peekBody(MAX_PEEKED_BODY_BYTES).string().toLowerCase(Locale.ROOT).contains("rate limit");
+	}
+
+	/**
+	 * Records the budget reported by GitHub and returns whether the response was
+	 * rejected by a (primary or secondary) rate limit.
+	 */
+	private synchronized boolean update(TokenBudget budget, Response response, boolean rateLimitMessage) {
+		long now = System.currentTimeMillis();
+		String limit = response.header("X-RateLimit-Limit");
+		String remaining = response.header("X-RateLimit-Remaining");
+		String reset = response.header("X-RateLimit-Reset");
+
+		if (limit != null && remaining != null && reset != null) {
+			try {
+				budget.limit = Integer.parseInt(limit);
+				budget.remaining = Integer.parseInt(remaining);
+				budget.resetAt = Long.parseLong(reset) * 1000;
+			} catch (NumberFormatException e) {
+				logger.debug("Ignoring malformed rate limit headers: {}/{}/{}", limit, remaining, reset);
+			}
+		}
+
+		boolean limited = false;
+		if (response.code() == 403 || response.code() == 429) {
+			String retryAfter = response.header("Retry-After");
+			if (retryAfter != null) {
+				budget.blockedUntil = now + parseSeconds(retryAfter) * 1000;
+				limited = true;
+			} else if (budget.remaining == 0) {
+				budget.blockedUntil = budget.resetAt;
+				limited = true;
+			} else if (response.code() == 429 || rateLimitMessage) {
+				budget.blockedUntil = now + SECONDARY_LIMIT_WAIT_MILLIS;
+				limited = true;
+			}
+		}
+
+		notifyAll();
+		return limited;
+	}
+
+	private TokenBudget budgetFor(int index, String resource) {
+		return budgets.computeIfAbsent(index + ":" + resource, key -> {
+			TokenBudget budget = new TokenBudget(tokens.get(index), "#" + index);
+			Gauge.builder("github.ratelimit.remaining", budget, b -> b.remaining)
+					.tags("token", budget.name, "resource", resource).register(meterRegistry);
+			Gauge.builder("github.ratelimit.limit", budget, b -> b.limit)
+					.tags("token", budget.name, "resource", resource).register(meterRegistry);
+			Gauge.builder("github.ratelimit.reset.seconds", budget,
+					b -> Math.max(0, b.resetAt - System.currentTimeMillis()) / 1000.0)
+					.tags("token", budget.name, "resource", resource).register(meterRegistry);
+			return budget;
+		});
+	}
+
+	private String resourceOf(Request request) {
+		String path = request.url().encodedPath();
+		if (path.endsWith("/graphql")) {
+			return "graphql";
+		}
+		if (path.contains("/search/")) {
+			return "search";
+		}
+		return "core";
+	}
+
+	private long parseSeconds(String value) {
+		try {
+			return Math.max(1, Long.parseLong(value.trim()));
+		} catch (NumberFormatException e) {
+			return 60;
+		}
+	}
+
+	/**
+	 * Thrown for {@link WaitPolicy#FAIL_FAST} requests when no token can take
+	 * them before {@link #getRetryAt()}.
+	 */
+	public static class RateLimitedException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		private final long retryAt;
+
+		public RateLimitedException(String resource, long retryAt) {
+			super("All GitHub tokens are rate limited for " + resource + " until " + Instant.ofEpochMilli(retryAt));
+			this.retryAt = retryAt;
+		}
+
+		public long getRetryAt() {
+			return retryAt;
+		}
+	}
+
+	private static class TokenBudget {
+		private final String token;
+		private final String name;
+		// -1 until GitHub has told us the budget for this token
+		private int limit = -1;
+		private int remaining = -1;
+		private long resetAt;
+		private long blockedUntil;
+		private long nextAllowedAt;
+
+		TokenBudget(String token, String name) {
+			this.token = token;
+			this.name = name;
+		}
+
+		int effectiveRemaining() {
+			// A token we have not used yet is assumed to have its full budget
+			return remaining < 0 ? Integer.MAX_VALUE : remaining;
+		}
+
+		long availableAt(long now) {
+			if (resetAt > 0 && now >= resetAt) {
+				remaining = limit;
+				resetAt = 0;
+				nextAllowedAt = 0;
+			}
+			if (blockedUntil > now) {
+				return blockedUntil;
+			}
+			if (remaining == 0 && resetAt > now) {
+				return resetAt;
+			}
+			return Math.max(now, nextAllowedAt);
+		}
+
+		void reserve(long now, double paceBelowFraction) {
+			if (remaining <= 0) {
+				return;
+			}
+			remaining--;
+			if (remaining < limit * paceBelowFraction && resetAt > now) {
+				// Spread what is left of the budget evenly over the time until reset
+				nextAllowedAt = now + (resetAt - now) / Math.max(1, remaining);
+			}
+		}
+	}
+}
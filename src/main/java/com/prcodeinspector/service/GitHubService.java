@@ -1,18 +1,30 @@
 package com.prcodeinspector.service;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 import org.kohsuke.github.GHPullRequest;
 import org.kohsuke.github.GHPullRequestFileDetail;
 import org.kohsuke.github.GHRepository;
 import org.kohsuke.github.GitHub;
-import org.kohsuke.github.GitHubBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
@@ -20,7 +32,11 @@ import org.springframework.util.StringUtils;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.prcodeinspector.service.GitHubRateLimitScheduler.RateLimitedException;
+import com.prcodeinspector.service.GitHubRateLimitScheduler.WaitPolicy;
 
+import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
@@ -28,39 +44,63 @@ import okhttp3.Response;
 @Service
 public class GitHubService {
 
+	private static final Logger logger = LoggerFactory.getLogger(GitHubService.class);
+
 	@Autowired
 	private ObjectMapper objectMapper;
 
-	@Value("${github.token}")
-	private String githubToken;
+	@Autowired
+	private GitHub gitHub;
+
+	@Autowired
+	private OkHttpClient githubHttpClient;
+
+	@Autowired
+	private BlobCache blobCache;
+
+	@Autowired
+	private GraphQLBlobFetcher graphQLBlobFetcher;
+
+	@Autowired
+	private FileClassifier fileClassifier;
+
+	@Autowired
+	private GitMirrorService gitMirrorService;
 
 	@Value("${github.api.url}")
 	private String githubApiUrl;
 
-	private static final String GITHUB_API_VERSION = "2022-11-28";
-	private static final int CONNECT_TIMEOUT = 30;
-	private static final int READ_TIMEOUT = 60;
+	@Value("${github.fetch.parallel:true}")
+	private boolean parallelFetch;
 
-	private final OkHttpClient client = new OkHttpClient.Builder()
-			.connectTimeout(CONNECT_TIMEOUT, java.util.concurrent.TimeUnit.SECONDS)
-			.readTimeout(READ_TIMEOUT, java.util.concurrent.TimeUnit.SECONDS).build();
+	@Value("${github.content.fetcher:rest}")
+	private String contentFetcher;
 
-	private GitHub gitHubInstance;
+	@Value("${github.fetch.max-pending-files:64}")
+	private int maxPendingFiles;
 
-	private GitHub getGitHubInstance() {
-		if (gitHubInstance == null) {
-			try {
-				gitHubInstance = new GitHubBuilder().withOAuthToken(githubToken).build();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
+	@Value("${github.archive.file-threshold:100}")
+	private int archiveFileThreshold;
+
+	@Value("${code.analysis.max-file-size}")
+	private long maxFileSize;
+
+	@Value("${github.snapshot.cache-ttl-ms:60000}")
+	private long snapshotCacheTtlMillis;
+
+	private static final String GITHUB_API_VERSION = "2022-11-28";
+	private static final int FILE_LIST_PAGE_SIZE = 100;
+	private static final int MAX_CACHED_SNAPSHOTS = 256;
+
+	private final Map<String, CachedSnapshot> snapshots = new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CachedSnapshot> eldest) {
+			return size() > MAX_CACHED_SNAPSHOTS;
 		}
-		return gitHubInstance;
-	}
+	};
 
 	public PullRequestInfo getPullRequestInfo(String owner, String repository, int prNumber) throws IOException {
-//		GHUser user = getGitHubInstance().getUser(owner);
-		GHRepository repo = getGitHubInstance().getRepository(owner + "/" + repository);
+		GHRepository repo = gitHub.getRepository(owner + "/" + repository);
 		GHPullRequest pr = repo.getPullRequest(prNumber);
 
 		PullRequestInfo info = new PullRequestInfo();
@@ -73,125 +113,715 @@ public class GitHubService {
 		info.setCreatedAt(pr.getCreatedAt());
 		info.setUpdatedAt(pr.getUpdatedAt());
 		info.setState(pr.getState().name());
-		info.setMergeable(pr.getMergeable());
+		info.setMergeable(Boolean.TRUE.equals(pr.getMergeable()));
 		info.setMergeableState(pr.getMergeableState());
 
 		return info;
 	}
 
-	public List<PullRequestFile> getPullRequestFiles(String owner, String repository, int prNumber) throws IOException {
-		List<PullRequestFile> files = new ArrayList<>();
+	public PullRequestSnapshot getPullRequestSnapshot(String owner, String repository, int prNumber)
+			throws IOException {
+		return getPullRequestSnapshot(owner, repository, prNumber, true);
+	}
+
+	/**
+	 * Resolves the pull request. Without {@code listFiles} the snapshot carries
+	 * no file listing and its files are read with {@link #streamFileContents}.
+	 */
+	public PullRequestSnapshot getPullRequestSnapshot(String owner, String repository, int prNumber,
+			boolean listFiles) throws IOException {
+		PullRequestSnapshot snapshot = new PullRequestSnapshot();
+		snapshot.setOwner(owner);
+		snapshot.setRepository(repository);
+		snapshot.setPrNumber(prNumber);
+
+		GitHubCallCounter.bind(snapshot);
+		try {
+			GHPullRequest pr = gitHub.getRepository(owner + "/" + repository).getPullRequest(prNumber);
+
+			snapshot.setTitle(pr.getTitle());
+			snapshot.setDescription(pr.getBody());
+			snapshot.setAuthor(pr.getUser().getLogin());
+			snapshot.setCreatedAt(pr.getCreatedAt());
+			snapshot.setUpdatedAt(pr.getUpdatedAt());
+			snapshot.setState(pr.getState().name());
+			snapshot.setMergeable(Boolean.TRUE.equals(pr.getMergeable()));
+			snapshot.setMergeableState(pr.getMergeableState());
+			snapshot.setHeadRef(pr.getHead().getRef());
+			snapshot.setHeadSha(pr.getHead().getSha());
+			snapshot.setBaseRef(pr.getBase().getRef());
+			snapshot.setBaseSha(pr.getBase().getSha());
+			snapshot.setChangedFiles(pr.getChangedFiles());
+			snapshot.setPullRequest(pr);
+			snapshot.setMirrored(updateMirror(snapshot));
+
+			if (listFiles) {
+				snapshot.setFiles(listFiles(snapshot));
+			}
+		} finally {
+			GitHubCallCounter.unbind();
+		}
+
+		return snapshot;
+	}
 
-		List<GHPullRequestFileDetail> ghFiles = getGitHubInstance().getRepository(owner + "/" + repository)
-				.getPullRequest(prNumber).listFiles().toList();
-
-		for (GHPullRequestFileDetail ghFile : ghFiles) {
-			PullRequestFile file = new PullRequestFile();
-			file.setFileName(ghFile.getFilename());
-			file.setFilePath(ghFile.getFilename());
-			file.setStatus(ghFile.getStatus());
-			file.setAdditions(ghFile.getAdditions());
-			file.setDeletions(ghFile.getDeletions());
-			file.setChanges(ghFile.getChanges());
-			file.setPatch(ghFile.getPatch());
-
-			// Get file content based on status
-			switch (ghFile.getStatus()) {
-			case "ADDED":
-				file.setNewContent(getFileContent(owner, repository, ghFile.getFilename(), prNumber, "HEAD"));
-				break;
-			case "MODIFIED":
-				file.setOriginalContent(getFileContent(owner, repository, ghFile.getFilename(), prNumber, "BASE"));
-				file.setNewContent(getFileContent(owner, repository, ghFile.getFilename(), prNumber, "HEAD"));
-				break;
-			case "DELETED":
-				file.setOriginalContent(getFileContent(owner, repository, ghFile.getFilename(), prNumber, "BASE"));
-				break;
+	/**
+	 * Snapshot for the owner/repository/number entry points. It is reused for
+	 * {@code github.snapshot.cache-ttl-ms}, so reading several files of the same
+	 * pull request one call at a time resolves it once.
+	 */
+	private PullRequestSnapshot getCachedSnapshot(String owner, String repository, int prNumber) throws IOException {
+		String key = owner + "/" + repository + "#" + prNumber;
+		long now = System.currentTimeMillis();
+		synchronized (snapshots) {
+			CachedSnapshot cached = snapshots.get(key);
+			if (cached != null && cached.expiresAt > now) {
+				return cached.snapshot;
 			}
+		}
+
+		PullRequestSnapshot snapshot = getPullRequestSnapshot(owner, repository, prNumber);
+		synchronized (snapshots) {
+			snapshots.put(key, new CachedSnapshot(snapshot, now + snapshotCacheTtlMillis));
+		}
+		return snapshot;
+	}
+
+	private boolean updateMirror(PullRequestSnapshot snapshot) {
+		if (!gitMirrorService.isMirrored(snapshot.getOwner(), snapshot.getRepository())) {
+			return false;
+		}
+		try {
+			gitMirrorService.update(snapshot.getOwner(), snapshot.getRepository(), snapshot.getPrNumber(),
+					snapshot.getHeadSha(), snapshot.getBaseSha());
+			return true;
+		} catch (IOException | RuntimeException e) {
+			logger.warn("Mirror of {}/{} unavailable, reading PR #{} through the API: {}", snapshot.getOwner(),
+					snapshot.getRepository(), snapshot.getPrNumber(), e.getMessage());
+			return false;
+		}
+	}
 
-			files.add(file);
+	private List<PullRequestFile> listFiles(PullRequestSnapshot snapshot) throws IOException {
+		if (snapshot.isMirrored()) {
+			return gitMirrorService.listChangedFiles(snapshot.getOwner(), snapshot.getRepository(),
+					snapshot.getBaseSha(), snapshot.getHeadSha());
 		}
 
+		List<PullRequestFile> files = new ArrayList<>();
+		for (GHPullRequestFileDetail ghFile : snapshot.getPullRequest().listFiles().withPageSize(FILE_LIST_PAGE_SIZE)) {
+			files.add(toPullRequestFile(ghFile));
+		}
 		return files;
 	}
 
+	/**
+	 * Pages through the files of the pull request on a lister thread and starts
+	 * fetching content for every file accepted by {@code needsContent} while
+	 * later pages are still loading; other files are passed through as listed.
+	 * Large pull requests (by changed-file count) are listed in full first, as
+	 * archive extraction needs every wanted path before the tarball streams past;
+	 * files are handed on as they are extracted, so only pending files are held
+	 * in memory. Mirrored repositories are listed and read from the local mirror
+	 * instead. {@code needsContent} is asked once per file.
+	 * Every file carries its head size from the tree listing before
+	 * {@code needsContent} sees it, and is added to the snapshot's files as it
+	 * is listed.
+	 */
+	public PullRequestFileStream streamFileContents(PullRequestSnapshot snapshot,
+			Predicate<PullRequestFile> needsContent) {
+		PullRequestFileStream stream = new PullRequestFileStream(maxPendingFiles);
+		stream.start("pr-files-" + snapshot.getPrNumber(), files -> {
+			GitHubCallCounter.bind(snapshot);
+			try {
+				if (snapshot.isMirrored() || snapshot.getChangedFiles() >= archiveFileThreshold) {
+					List<PullRequestFile> listed = listFiles(snapshot);
+					listed.forEach(file -> setHeadFileSize(snapshot, file));
+					snapshot.setFiles(listed);
+					List<PullRequestFile> wanted = new ArrayList<>();
+					for (PullRequestFile file : listed) {
+						if (needsContent.test(file)) {
+							wanted.add(file);
+						} else {
+							files.submit(() -> CompletableFuture.completedFuture(file));
+						}
+					}
+					if (!snapshot.isMirrored() && wanted.size() >= archiveFileThreshold) {
+						wanted = streamFromArchives(snapshot, wanted, files);
+					}
+					// Each remaining fetch starts only once the stream has a slot for it
+					for (PullRequestFile file : wanted) {
+						files.submit(() -> startFetch(snapshot, file));
+					}
+				} else {
+					for (GHPullRequestFileDetail ghFile : snapshot.getPullRequest().listFiles()
+							.withPageSize(FILE_LIST_PAGE_SIZE)) {
+						PullRequestFile file = toPullRequestFile(ghFile);
+						setHeadFileSize(snapshot, file);
+						snapshot.addFile(file);
+						files.submit(() -> needsContent.test(file) ? startFetch(snapshot, file)
+								: CompletableFuture.completedFuture(file));
+					}
+				}
+			} finally {
+				GitHubCallCounter.unbind();
+			}
+		});
+		return stream;
+	}
+
+	private void setHeadFileSize(PullRequestSnapshot snapshot, PullRequestFile file) {
+		if (hasHeadVersion(file) && file.getSize() == null) {
+			file.setSize(getHeadFileSize(snapshot, file.getFilePath()));
+		}
+	}
+
+	public List<PullRequestFile> getPullRequestFiles(String owner, String repository, int prNumber) throws IOException {
+		return getPullRequestFiles(getCachedSnapshot(owner, repository, prNumber));
+	}
+
+	public List<PullRequestFile> getPullRequestFiles(PullRequestSnapshot snapshot) throws IOException {
+		for (CompletableFuture<PullRequestFile> fetch : fetchFileContents(snapshot, snapshot.getFiles())) {
+			try {
+				fetch.join();
+			} catch (CompletionException e) {
+				logger.warn("Skipping file content: {}", e.getCause().getMessage());
+			}
+		}
+		return snapshot.getFiles();
+	}
+
+	/**
+	 * Starts fetching the content of every file and returns one future per file
+	 * in input order. A failed fetch only fails that file's future.
+	 */
+	public List<CompletableFuture<PullRequestFile>> fetchFileContents(PullRequestSnapshot snapshot,
+			List<PullRequestFile> files) {
+		boolean archiveMode = !snapshot.isMirrored() && files.size() >= archiveFileThreshold;
+		Set<PullRequestFile> oversized = new HashSet<>();
+		if (archiveMode) {
+			try {
+				extractFromArchives(snapshot, files, oversized);
+			} catch (IOException e) {
+				logger.warn("Archive download failed, fetching files individually: {}", e.getMessage());
+			}
+		}
+
+		List<CompletableFuture<PullRequestFile>> fetches = new ArrayList<>(files.size());
+		for (PullRequestFile file : files) {
+			if (archiveMode && (isComplete(file) || oversized.contains(file)
+					|| !fileClassifier.classify(file).shouldAnalyze())) {
+				fetches.add(CompletableFuture.completedFuture(file));
+				continue;
+			}
+
+			fetches.add(startFetch(snapshot, file));
+		}
+		return fetches;
+	}
+
+	private CompletableFuture<PullRequestFile> startFetch(PullRequestSnapshot snapshot, PullRequestFile file) {
+		CompletableFuture<PullRequestFile> fetch = fetchFileContent(snapshot, file);
+		if (!parallelFetch) {
+			// Sequential mode: let each file finish before the next request is issued
+			fetch.handle((fetched, error) -> fetched).join();
+		}
+		return fetch;
+	}
+
+	private CompletableFuture<PullRequestFile> fetchFileContent(PullRequestSnapshot snapshot, PullRequestFile file) {
+		CompletableFuture<String> original = hasBaseVersion(file)
+				? getContentFromBase(snapshot, file.getPreviousFilePath())
+				: CompletableFuture.completedFuture(null);
+		CompletableFuture<String> updated = hasHeadVersion(file) ? getContentFromBranch(snapshot, file)
+				: CompletableFuture.completedFuture(null);
+
+		return original.thenCombine(updated, (originalContent, newContent) -> {
+			file.setOriginalContent(originalContent);
+			file.setNewContent(newContent);
+			return file;
+		}).exceptionallyCompose(e -> CompletableFuture.failedFuture(fetchFailure(file, e)));
+	}
+
+	/**
+	 * Streaming large-PR mode: extracts the analysed version of each file (the
+	 * head version, or the base version of a deleted file) and hands the file
+	 * to {@code files} as soon as it is read. Reading the tarball waits while
+	 * the stream is full. Returns the files the archives did not provide, to
+	 * be fetched one by one.
+	 */
+	private List<PullRequestFile> streamFromArchives(PullRequestSnapshot snapshot, List<PullRequestFile> wanted,
+			PullRequestFileStream files) throws IOException, InterruptedException {
+		Map<String, PullRequestFile> headFiles = new LinkedHashMap<>();
+		Map<String, PullRequestFile> baseFiles = new LinkedHashMap<>();
+		for (PullRequestFile file : wanted) {
+			if (!fileClassifier.classify(file).shouldAnalyze()) {
+				files.submit(() -> CompletableFuture.completedFuture(file));
+			} else if (hasHeadVersion(file)) {
+				headFiles.put(file.getFilePath(), file);
+			} else {
+				baseFiles.put(file.getPreviousFilePath(), file);
+			}
+		}
+
+		logger.info("Streaming {} head and {} base files of {}/{}#{} from archives", headFiles.size(),
+				baseFiles.size(), snapshot.getOwner(), snapshot.getRepository(), snapshot.getPrNumber());
+
+		ArchiveEntryHandler handOver = (file, oversized) -> {
+			try {
+				files.submit(() -> CompletableFuture.completedFuture(file));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while handing over " + file.getFilePath());
+			}
+		};
+		List<PullRequestFile> remaining = new ArrayList<>();
+		remaining.addAll(streamFromArchive(snapshot, snapshot.getHeadSha(), headFiles, PullRequestFile::setNewContent,
+				handOver));
+		remaining.addAll(streamFromArchive(snapshot, snapshot.getBaseSha(), baseFiles,
+				PullRequestFile::setOriginalContent, handOver));
+		return remaining;
+	}
+
+	private Collection<PullRequestFile> streamFromArchive(PullRequestSnapshot snapshot, String sha,
+			Map<String, PullRequestFile> wanted, BiConsumer<PullRequestFile, String> setter,
+			ArchiveEntryHandler handOver) throws IOException {
+		if (wanted.isEmpty()) {
+			return wanted.values();
+		}
+		try {
+			extractFromArchive(snapshot, sha, wanted, setter, handOver);
+		} catch (InterruptedIOException e) {
+			throw e;
+		} catch (IOException e) {
+			logger.warn("Archive download failed, fetching {} files individually: {}", wanted.size(),
+					e.getMessage());
+		}
+		return wanted.values();
+	}
+
+	/**
+	 * Large-PR mode: downloads the head and base tarballs once and extracts only
+	 * the analysable files of this PR while the archive streams past. Files over
+	 * the size limit are added to {@code oversized} and left without content.
+	 */
+	private void extractFromArchives(PullRequestSnapshot snapshot, List<PullRequestFile> files,
+			Set<PullRequestFile> oversized) throws IOException {
+		Map<String, PullRequestFile> headFiles = new HashMap<>();
+		Map<String, PullRequestFile> baseFiles = new HashMap<>();
+
+		for (PullRequestFile file : files) {
+			if (fileClassifier.classify(file).shouldAnalyze()) {
+				if (hasHeadVersion(file)) {
+					headFiles.put(file.getFilePath(), file);
+				}
+				if (hasBaseVersion(file)) {
+					baseFiles.put(file.getPreviousFilePath(), file);
+				}
+			}
+		}
+
+		logger.info("Extracting {} head and {} base files of {}/{}#{} from archives", headFiles.size(),
+				baseFiles.size(), snapshot.getOwner(), snapshot.getRepository(), snapshot.getPrNumber());
+
+		ArchiveEntryHandler collectOversized = (file, tooLarge) -> {
+			if (tooLarge) {
+				oversized.add(file);
+			}
+		};
+		if (!headFiles.isEmpty()) {
+			extractFromArchive(snapshot, snapshot.getHeadSha(), headFiles, PullRequestFile::setNewContent,
+					collectOversized);
+		}
+		if (!baseFiles.isEmpty()) {
+			extractFromArchive(snapshot, snapshot.getBaseSha(), baseFiles, PullRequestFile::setOriginalContent,
+					collectOversized);
+		}
+	}
+
+	/**
+	 * Reads the wanted files out of the tarball of {@code sha}, removing each
+	 * from {@code wanted} and passing it to {@code handler} once read. Files
+	 * over the size limit are passed on without content.
+	 */
+	private void extractFromArchive(PullRequestSnapshot snapshot, String sha, Map<String, PullRequestFile> wanted,
+			BiConsumer<PullRequestFile, String> setter, ArchiveEntryHandler handler) throws IOException {
+		String url = String.format("%s/repos/%s/%s/tarball/%s", githubApiUrl, snapshot.getOwner(),
+				snapshot.getRepository(), sha);
+
+		try (Response response = githubHttpClient.newCall(buildRequest(url, snapshot)).execute()) {
+			if (!response.isSuccessful()) {
+				throw new IOException("Failed to download archive " + sha + ": " + response.code());
+			}
+
+			try (TarballReader tarball = new TarballReader(response.body().byteStream())) {
+				String path;
+				// Stop reading (and downloading) as soon as every wanted file has been seen
+				while (!wanted.isEmpty() && (path = tarball.nextFile()) != null) {
+					PullRequestFile file = wanted.remove(path);
+					if (file == null) {
+						continue;
+					}
+					boolean oversized = tarball.size() > maxFileSize;
+					if (!oversized) {
+						setter.accept(file, new String(tarball.read(), StandardCharsets.UTF_8));
+					}
+					handler.extracted(file, oversized);
+				}
+			}
+		}
+	}
+
+	private boolean isComplete(PullRequestFile file) {
+		return (!hasBaseVersion(file) || file.getOriginalContent() != null)
+				&& (!hasHeadVersion(file) || file.getNewContent() != null);
+	}
+
+	private FileFetchException fetchFailure(PullRequestFile file, Throwable cause) {
+		Throwable root = unwrap(cause);
+		return new FileFetchException(file.getFilePath(), root);
+	}
+
+	private boolean hasBaseVersion(PullRequestFile file) {
+		return !"ADDED".equals(file.getStatus());
+	}
+
+	private boolean hasHeadVersion(PullRequestFile file) {
+		return !"DELETED".equals(file.getStatus());
+	}
+
 	public String getFileContent(String owner, String repository, String filePath, int prNumber, String version)
 			throws IOException {
-//		String url = String.format("%s/repos/%s/%s/pulls/%d/files/%s", githubApiUrl, owner, repository, prNumber,
-//				filePath);
-
-		if ("HEAD".equals(version) && fileHasBeenModified(owner, repository, filePath, prNumber)) {
-			// Get content from the branch
-			String branchName = getGitHubInstance().getRepository(owner + "/" + repository).getPullRequest(prNumber)
-					.getHead().getRef();
-			return getContentFromBranch(owner, repository, filePath, branchName);
+		return getFileContent(getCachedSnapshot(owner, repository, prNumber), filePath, version);
+	}
+
+	public String getFileContent(PullRequestSnapshot snapshot, String filePath, String version) throws IOException {
+		PullRequestFile file = snapshot.getFile(filePath);
+
+		CompletableFuture<String> content;
+		if (!"HEAD".equals(version)) {
+			content = getContentFromBase(snapshot, file != null ? file.getPreviousFilePath() : filePath);
+		} else if (file == null) {
+			content = getContent(snapshot, filePath, snapshot.getHeadSha(), null);
+		} else if (hasHeadVersion(file)) {
+			content = getContentFromBranch(snapshot, file);
 		} else {
-			return getContentFromBase(owner, repository, filePath);
+			content = getContentFromBase(snapshot, file.getPreviousFilePath());
+		}
+
+		try {
+			return content.join();
+		} catch (CompletionException e) {
+			Throwable cause = unwrap(e);
+			throw cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage(), cause);
+		}
+	}
+
+	private CompletableFuture<String> getContentFromBase(PullRequestSnapshot snapshot, String filePath) {
+		if (snapshot.isMirrored()) {
+			// Looked up by path in the mirror, no tree listing needed
+			return getContent(snapshot, filePath, snapshot.getBaseSha(), null);
 		}
+		return getBaseBlobShas(snapshot)
+				.thenCompose(blobShas -> getContent(snapshot, filePath, snapshot.getBaseSha(), blobShas.get(filePath)));
 	}
 
-	private String getContentFromBase(String owner, String repository, String filePath) throws IOException {
-		String url = String.format("%s/repos/%s/%s/contents/%s", githubApiUrl, owner, repository, filePath);
+	private CompletableFuture<String> getContentFromBranch(PullRequestSnapshot snapshot, PullRequestFile file) {
+		return getContent(snapshot, file.getFilePath(), snapshot.getHeadSha(), file.getSha());
+	}
 
-		Request request = new Request.Builder().url(url).header("Authorization", "token " + githubToken)
-				.header("Accept", "application/vnd.github.v3+json").header("X-GitHub-Api-Version", GITHUB_API_VERSION)
-				.build();
+	private CompletableFuture<String> getContent(PullRequestSnapshot snapshot, String filePath, String ref,
+			String blobSha) {
+		if (snapshot.isMirrored()) {
+			try {
+				byte[] content = blobSha != null
+						? gitMirrorService.readBlob(snapshot.getOwner(), snapshot.getRepository(), blobSha)
+						: gitMirrorService.readFile(snapshot.getOwner(), snapshot.getRepository(), ref, filePath);
+				if (content != null) {
+					return CompletableFuture.completedFuture(new String(content, StandardCharsets.UTF_8));
+				}
+			} catch (IOException | RuntimeException e) {
+				logger.warn("Mirror read of {} failed, using the API: {}", filePath, e.getMessage());
+			}
+		}
 
-		try (Response response = client.newCall(request).execute()) {
-			if (!response.isSuccessful()) {
-				throw new IOException("Failed to get file content: " + response.code());
+		if (blobSha != null) {
+			byte[] cached = blobCache.get(blobSha);
+			if (cached != null) {
+				return CompletableFuture.completedFuture(new String(cached, StandardCharsets.UTF_8));
+			}
+		}
+
+		if (!"graphql".equals(contentFetcher)) {
+			return getContentViaRest(snapshot, filePath, ref, blobSha);
+		}
+		return graphQLBlobFetcher.fetch(snapshot, ref, filePath).thenCompose(blob -> {
+			if (blob == null) {
+				// Truncated, binary or failed: REST handles those
+				return getContentViaRest(snapshot, filePath, ref, blobSha);
+			}
+			blobCache.put(blob.getOid(), blob.getText().getBytes(StandardCharsets.UTF_8));
+			return CompletableFuture.completedFuture(blob.getText());
+		});
+	}
+
+	private CompletableFuture<String> getContentViaRest(PullRequestSnapshot snapshot, String filePath, String ref,
+			String blobSha) {
+		if (blobSha == null) {
+			// Blob unknown (e.g. truncated tree listing): fall back to the contents API at the commit
+			return send(buildContentRequest(snapshot, filePath, ref), response -> decodeContent(response, filePath))
+					.thenCompose(content -> {
+						if (content.getBytes() != null) {
+							return CompletableFuture.completedFuture(cacheContent(content));
+						}
+						if (content.getSha() == null || !"file".equals(content.getType())) {
+							return CompletableFuture.failedFuture(new IOException("No file content for " + filePath
+									+ " (" + content.getType() + ")"));
+						}
+						// Files over 1 MB come without their content; the blob endpoint serves them
+						return send(buildBlobRequest(snapshot, content.getSha()),
+								response -> readContent(response, filePath));
+					});
+		}
+		return send(buildBlobRequest(snapshot, blobSha), response -> readContent(response, filePath));
+	}
+
+	/**
+	 * Base tree listing, loaded once per snapshot. Only installing the future
+	 * happens under the snapshot lock; the listing itself is fetched
+	 * asynchronously and files that need it wait on the future.
+	 */
+	private CompletableFuture<Map<String, String>> getBaseBlobShas(PullRequestSnapshot snapshot) {
+		synchronized (snapshot) {
+			if (snapshot.getBaseBlobShas() == null) {
+				snapshot.setBaseBlobShas(loadTree(snapshot, snapshot.getBaseSha(), entry -> entry.path("sha").asText()));
 			}
+			return snapshot.getBaseBlobShas();
+		}
+	}
+
+	/**
+	 * Size of the head version of a file from the head tree listing (one call
+	 * per snapshot), or null when unknown.
+	 */
+	public Long getHeadFileSize(PullRequestSnapshot snapshot, String filePath) {
+		CompletableFuture<Map<String, Long>> blobSizes;
+		synchronized (snapshot) {
+			if (snapshot.getHeadBlobSizes() == null) {
+				snapshot.setHeadBlobSizes(
+						loadTree(snapshot, snapshot.getHeadSha(), entry -> entry.path("size").asLong()));
+			}
+			blobSizes = snapshot.getHeadBlobSizes();
+		}
+		return blobSizes.join().get(filePath);
+	}
 
-			String responseBody = response.body().string();
-			JsonNode jsonNode = objectMapper.readTree(responseBody);
+	private <T> CompletableFuture<Map<String, T>> loadTree(PullRequestSnapshot snapshot, String treeSha,
+			Function<JsonNode, T> value) {
+		String url = String.format("%s/repos/%s/%s/git/trees/%s?recursive=1", githubApiUrl, snapshot.getOwner(),
+				snapshot.getRepository(), treeSha);
 
-			if (jsonNode.has("content")) {
-				return decodeBase64Content(jsonNode.get("content").asText());
+		return send(buildRequest(url, snapshot), response -> {
+			if (!response.isSuccessful()) {
+				throw new IOException("Failed to get tree " + treeSha + ": " + response.code());
+			}
+
+			Map<String, T> blobs = new HashMap<>();
+			JsonNode tree = objectMapper.readTree(response.body().byteStream());
+			for (JsonNode entry : tree.path("tree")) {
+				if ("blob".equals(entry.path("type").asText())) {
+					blobs.put(entry.path("path").asText(), value.apply(entry));
+				}
 			}
+			if (tree.path("truncated").asBoolean()) {
+				logger.warn("Tree {} of {}/{} is truncated; files missing from it are looked up individually",
+						treeSha, snapshot.getOwner(), snapshot.getRepository());
+			}
+			return blobs;
+		}).exceptionally(e -> {
+			logger.warn("Tree listing unavailable, looking files up individually: {}", unwrap(e).getMessage());
+			return Map.of();
+		});
+	}
+
+	/**
+	 * Reads only the first and last {@code sampleBytes / 2} bytes of the head
+	 * version of a file with ranged raw-blob requests, cut to whole lines.
+	 */
+	public PatchExcerpt getFileSample(PullRequestSnapshot snapshot, PullRequestFile file, int sampleBytes)
+			throws IOException {
+		int half = sampleBytes / 2;
+		if (snapshot.isMirrored()) {
+			return sampleFromMirror(snapshot, file, half);
 		}
+		String head = readRange(snapshot, file, "bytes=0-" + (half - 1), half);
+		String tail = readRange(snapshot, file, "bytes=-" + half, half);
 
-		return "";
+		int headEnd = head.lastIndexOf('\n');
+		head = headEnd >= 0 ? head.substring(0, headEnd + 1) : head;
+		// Without a partial response the "tail" is the start of the file again; leave it out
+		if (tail != null) {
+			int tailStart = tail.indexOf('\n');
+			tail = tailStart >= 0 ? tail.substring(tailStart + 1) : tail;
+		}
+		return PatchExcerpt.fromSample(head, tail);
 	}
 
-	private String getContentFromBranch(String owner, String repository, String filePath, String branch)
+	private PatchExcerpt sampleFromMirror(PullRequestSnapshot snapshot, PullRequestFile file, int half)
 			throws IOException {
-		String url = String.format("%s/repos/%s/%s/contents/%s?ref=%s", githubApiUrl, owner, repository, filePath,
-				branch);
+		byte[] content = gitMirrorService.readBlob(snapshot.getOwner(), snapshot.getRepository(), file.getSha());
+		String head = new String(content, 0, Math.min(half, content.length), StandardCharsets.UTF_8);
+		int headEnd = head.lastIndexOf('\n');
+		head = headEnd >= 0 ? head.substring(0, headEnd + 1) : head;
+		if (content.length <= half) {
+			return PatchExcerpt.fromSample(head, null);
+		}
+		String tail = new String(content, content.length - half, half, StandardCharsets.UTF_8);
+		int tailStart = tail.indexOf('\n');
+		return PatchExcerpt.fromSample(head, tailStart >= 0 ? tail.substring(tailStart + 1) : tail);
+	}
 
-		Request request = new Request.Builder().url(url).header("Authorization", "token " + githubToken)
-				.header("Accept", "application/vnd.github.v3+json").header("X-GitHub-Api-Version", GITHUB_API_VERSION)
-				.build();
+	private String readRange(PullRequestSnapshot snapshot, PullRequestFile file, String range, int maxBytes)
+			throws IOException {
+		Request request = buildBlobRequest(snapshot, file.getSha()).newBuilder()
+				.header("Accept", "application/vnd.github.raw").header("Range", range).build();
 
-		try (Response response = client.newCall(request).execute()) {
+		try (Response response = githubHttpClient.newCall(request).execute()) {
 			if (!response.isSuccessful()) {
-				throw new IOException("Failed to get file content from branch: " + response.code());
+				throw new IOException("Failed to sample " + file.getFilePath() + ": " + response.code());
 			}
+			if (response.code() != 206 && range.startsWith("bytes=-")) {
+				return null;
+			}
+			// Closing the response after maxBytes abandons the rest of the transfer
+			byte[] bytes = response.body().byteStream().readNBytes(maxBytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
 
-			String responseBody = response.body().string();
-			JsonNode jsonNode = objectMapper.readTree(responseBody);
+	private <T> CompletableFuture<T> send(Request request, ResponseReader<T> reader) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		enqueue(request.newBuilder().tag(WaitPolicy.class, WaitPolicy.FAIL_FAST).build(), reader, future);
+		return future;
+	}
 
-			if (jsonNode.has("content")) {
-				return decodeBase64Content(jsonNode.get("content").asText());
+	private <T> void enqueue(Request request, ResponseReader<T> reader, CompletableFuture<T> future) {
+		githubHttpClient.newCall(request).enqueue(new Callback() {
+			@Override
+			public void onFailure(Call call, IOException e) {
+				if (e instanceof RateLimitedException) {
+					// Wait for the token budget off the dispatcher threads, then queue the request again
+					long delay = Math.max(0, ((RateLimitedException) e).getRetryAt() - System.currentTimeMillis());
+					CompletableFuture.runAsync(() -> enqueue(request, reader, future),
+							CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS));
+					return;
+				}
+				future.completeExceptionally(e);
 			}
+
+			@Override
+			public void onResponse(Call call, Response response) {
+				try (response) {
+					future.complete(reader.read(response));
+				} catch (Exception e) {
+					future.completeExceptionally(e);
+				}
+			}
+		});
+	}
+
+	private Request buildContentRequest(PullRequestSnapshot snapshot, String filePath, String ref) {
+		return buildRequest(String.format("%s/repos/%s/%s/contents/%s?ref=%s", githubApiUrl, snapshot.getOwner(),
+				snapshot.getRepository(), filePath, ref), snapshot);
+	}
+
+	private Request buildBlobRequest(PullRequestSnapshot snapshot, String blobSha) {
+		return buildRequest(String.format("%s/repos/%s/%s/git/blobs/%s", githubApiUrl, snapshot.getOwner(),
+				snapshot.getRepository(), blobSha), snapshot);
+	}
+
+	private Request buildRequest(String url, PullRequestSnapshot snapshot) {
+		// Authorization is added by GitHubRateLimitScheduler from the token pool
+		return new Request.Builder().url(url).header("Accept", "application/vnd.github.v3+json")
+				.header("X-GitHub-Api-Version", GITHUB_API_VERSION).tag(PullRequestSnapshot.class, snapshot).build();
+	}
+
+	private String readContent(Response response, String filePath) throws IOException {
+		GitHubContentDecoder.DecodedContent content = decodeContent(response, filePath);
+		if (content.getBytes() == null) {
+			throw new IOException("No content in the response for " + filePath);
+		}
+		return cacheContent(content);
+	}
+
+	private GitHubContentDecoder.DecodedContent decodeContent(Response response, String filePath) throws IOException {
+		if (!response.isSuccessful()) {
+			throw new IOException("Failed to get content of " + filePath + ": " + response.code());
 		}
+		return GitHubContentDecoder.decode(objectMapper.getFactory(), response.body().byteStream());
+	}
 
-		return "";
+	private String cacheContent(GitHubContentDecoder.DecodedContent content) {
+		blobCache.put(content.getSha(), content.getBytes());
+		return new String(content.getBytes(), StandardCharsets.UTF_8);
 	}
 
-	private boolean fileHasBeenModified(String owner, String repository, String filePath, int prNumber) {
-		try {
-			List<GHPullRequestFileDetail> files = getGitHubInstance().getRepository(owner + "/" + repository)
-					.getPullRequest(prNumber).listFiles().toList();
+	private static Throwable unwrap(Throwable error) {
+		return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+	}
 
-			return files.stream()
-					.anyMatch(ghFile -> ghFile.getFilename().equals(filePath) && ghFile.getStatus().equals("MODIFIED"));
-		} catch (IOException e) {
-			return false;
+	@FunctionalInterface
+	private interface ArchiveEntryHandler {
+		void extracted(PullRequestFile file, boolean oversized) throws IOException;
+	}
+
+	@FunctionalInterface
+	private interface ResponseReader<T> {
+		T read(Response response) throws IOException;
+	}
+
+	private static class CachedSnapshot {
+		private final PullRequestSnapshot snapshot;
+		private final long expiresAt;
+
+		CachedSnapshot(PullRequestSnapshot snapshot, long expiresAt) {
+			this.snapshot = snapshot;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private PullRequestFile toPullRequestFile(GHPullRequestFileDetail ghFile) {
+		PullRequestFile file = new PullRequestFile();
+		file.setFileName(ghFile.getFilename());
+		file.setFilePath(ghFile.getFilename());
+		file.setPreviousFilePath(StringUtils.hasText(ghFile.getPreviousFilename()) ? ghFile.getPreviousFilename()
+				: ghFile.getFilename());
+		file.setStatus(normalizeStatus(ghFile.getStatus()));
+		file.setSha(ghFile.getSha());
+		file.setAdditions(ghFile.getAdditions());
+		file.setDeletions(ghFile.getDeletions());
+		file.setChanges(ghFile.getChanges());
+		file.setPatch(ghFile.getPatch());
+		return file;
+	}
+
+	private String normalizeStatus(String status) {
+		// GitHub reports lower-case statuses (added, removed, modified, renamed, copied, changed)
+		switch (status.toLowerCase()) {
+		case "added":
+		case "copied":
+			return "ADDED";
+		case "removed":
+			return "DELETED";
+		case "renamed":
+			return "RENAMED";
+		default:
+			return "MODIFIED";
 		}
 	}
 
 	public RepositoryInfo getRepositoryInfo(String owner, String repository) throws IOException {
-		GHRepository repo = getGitHubInstance().getRepository(owner + "/" + repository);
+		GHRepository repo = gitHub.getRepository(owner + "/" + repository);
 
 		RepositoryInfo info = new RepositoryInfo();
 		info.setOwner(owner);
@@ -209,12 +839,16 @@ public class GitHubService {
 
 	public Map<String, String> getCodeFilesForAnalysis(String owner, String repository, int prNumber)
 			throws IOException {
-		List<PullRequestFile> prFiles = getPullRequestFiles(owner, repository, prNumber);
+		return getCodeFilesForAnalysis(getCachedSnapshot(owner, repository, prNumber));
+	}
+
+	public Map<String, String> getCodeFilesForAnalysis(PullRequestSnapshot snapshot) throws IOException {
+		List<PullRequestFile> prFiles = getPullRequestFiles(snapshot);
 
 		Map<String, String> codeFiles = new HashMap<>();
 
 		for (PullRequestFile file : prFiles) {
-			if (shouldAnalyzeFile(file.getFileName())) {
+			if (fileClassifier.classify(file).shouldAnalyze()) {
 				if (StringUtils.hasText(file.getNewContent())) {
 					codeFiles.put(file.getFilePath(), file.getNewContent());
 				} else if (StringUtils.hasText(file.getOriginalContent())) {
@@ -226,20 +860,8 @@ public class GitHubService {
 		return codeFiles;
 	}
 
-	private boolean shouldAnalyzeFile(String fileName) {
-		List<String> supportedExtensions = Arrays.asList(".java", ".js", ".jsx", ".ts", ".tsx", ".py", ".go", ".rb",
-				".php", ".cpp", ".c", ".cs", ".kt", ".swift", ".scala", ".rs");
-
-		return supportedExtensions.stream().anyMatch(fileName::endsWith);
-	}
-
-	private String decodeBase64Content(String base64Content) {
-		try {
-			byte[] decodedBytes = java.util.Base64.getDecoder().decode(base64Content);
-			return new String(decodedBytes, "UTF-8");
-		} catch (Exception e) {
-			throw new RuntimeException("Failed to decode base64 content", e);
-		}
+	public boolean shouldAnalyzeFile(String fileName) {
+		return fileClassifier.isAnalyzable(fileName);
 	}
 
 	public static class PullRequestInfo {
@@ -345,14 +967,37 @@ public class GitHubService {
 		}
 	}
 
+	/**
+	 * The content of a pull request file could not be fetched; a failed
+	 * fetch future completes with it.
+	 */
+	public static class FileFetchException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String filePath;
+
+		public FileFetchException(String filePath, Throwable cause) {
+			super("Failed to fetch " + filePath + ": " + cause.getMessage(), cause);
+			this.filePath = filePath;
+		}
+
+		public String getFilePath() {
+			return filePath;
+		}
+	}
+
 	public static class PullRequestFile {
 		private String fileName;
 		private String filePath;
+		private String previousFilePath;
 		private String status;
+		private String sha;
 		private int additions;
 		private int deletions;
 		private int changes;
 		private String patch;
+		private Long size;
 		private String originalContent;
 		private String newContent;
 
@@ -373,6 +1018,14 @@ public class GitHubService {
 			this.filePath = filePath;
 		}
 
+		public String getPreviousFilePath() {
+			return previousFilePath;
+		}
+
+		public void setPreviousFilePath(String previousFilePath) {
+			this.previousFilePath = previousFilePath;
+		}
+
 		public String getStatus() {
 			return status;
 		}
@@ -381,6 +1034,14 @@ public class GitHubService {
 			this.status = status;
 		}
 
+		public String getSha() {
+			return sha;
+		}
+
+		public void setSha(String sha) {
+			this.sha = sha;
+		}
+
 		public int getAdditions() {
 			return additions;
 		}
@@ -413,6 +1074,14 @@ public class GitHubService {
 			this.patch = patch;
 		}
 
+		public Long getSize() {
+			return size;
+		}
+
+		public void setSize(Long size) {
+			this.size = size;
+		}
+
 		public String getOriginalContent() {
 			return originalContent;
 		}
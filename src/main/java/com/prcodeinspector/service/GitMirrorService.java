@@ -0,0 +1,284 @@
+package com.prcodeinspector.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Local bare mirrors of hot repositories, kept current with incremental
+ * fetches. File listings, patches and contents of mirrored pull requests are
+ * read straight from the packfiles, so only PR metadata goes through the
+ * GitHub API.
+ */
+@Service
+public class GitMirrorService {
+
+	private static final Logger logger = LoggerFactory.getLogger(GitMirrorService.class);
+
+	@Value("${github.mirror.repositories:}")
+	private String mirroredRepositories;
+
+	@Value("${github.mirror.directory:${java.io.tmpdir}/pr-code-inspector/mirrors}")
+	private String directory;
+
+	@Value("${github.mirror.url-template:https://github.com/{owner}/{repository}.git}")
+	private String urlTemplate;
+
+	@Value("${github.token:}")
+	private String token;
+
+	private Set<String> repositories;
+	private final Map<String, Repository> open = new ConcurrentHashMap<>();
+	// One lock per repository, so a clone only holds up callers of the same repository
+	private final Map<String, Object> openLocks = new ConcurrentHashMap<>();
+
+	@PostConstruct
+	public void init() {
+		repositories = Arrays.stream(mirroredRepositories.split(",")).map(String::trim)
+				.filter(StringUtils::hasText).map(name -> name.toLowerCase(Locale.ROOT)).collect(Collectors.toSet());
+		if (!repositories.isEmpty()) {
+			logger.info("Serving content of {} from local mirrors in {}", repositories, directory);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		open.values().forEach(Repository::close);
+	}
+
+	public boolean isMirrored(String owner, String repository) {
+		return repositories.contains(key(owner, repository));
+	}
+
+	/**
+	 * Makes sure the mirror holds the given commits, cloning it on first use
+	 * and fetching branches (then the PR head ref, for fork PRs) when a commit
+	 * is missing.
+	 */
+	public void update(String owner, String repository, int prNumber, String... commits) throws IOException {
+		Repository repo = repository(owner, repository);
+		synchronized (repo) {
+			if (hasAll(repo, commits)) {
+				return;
+			}
+			fetch(repo, new RefSpec("+refs/heads/*:refs/heads/*"));
+			if (!hasAll(repo, commits)) {
+				String pullRef = "refs/pull/" + prNumber + "/head";
+				fetch(repo, new RefSpec("+" + pullRef + ":" + pullRef));
+			}
+			if (!hasAll(repo, commits)) {
+				throw new IOException("Mirror of " + key(owner, repository) + " is missing " + Arrays.toString(commits));
+			}
+		}
+	}
+
+	/**
+	 * Files changed between the merge base of the two commits and the head,
+	 * in the shape of the GitHub file listing (status, counts, hunk-only
+	 * patch, head blob SHA and size).
+	 */
+	public List<GitHubService.PullRequestFile> listChangedFiles(String owner, String repository, String baseSha,
+			String headSha) throws IOException {
+		Repository repo = repository(owner, repository);
+		List<GitHubService.PullRequestFile> files = new ArrayList<>();
+
+		ByteArrayOutputStream patch = new ByteArrayOutputStream();
+		try (RevWalk walk = new RevWalk(repo);
+				ObjectReader reader = repo.newObjectReader();
+				DiffFormatter formatter = new DiffFormatter(patch)) {
+			RevCommit head = walk.parseCommit(ObjectId.fromString(headSha));
+			RevCommit mergeBase = mergeBase(walk, ObjectId.fromString(baseSha), head);
+
+			formatter.setRepository(repo);
+			formatter.setDiffComparator(RawTextComparator.DEFAULT);
+			formatter.setDetectRenames(true);
+
+			for (DiffEntry entry : formatter.scan(mergeBase.getTree(), head.getTree())) {
+				patch.reset();
+				formatter.format(entry);
+				formatter.flush();
+				files.add(toPullRequestFile(reader, entry, patch.toString(StandardCharsets.UTF_8)));
+			}
+		}
+		return files;
+	}
+
+	public byte[] readBlob(String owner, String repository, String blobSha) throws IOException {
+		return repository(owner, repository).open(ObjectId.fromString(blobSha), Constants.OBJ_BLOB).getBytes();
+	}
+
+	/**
+	 * Reads a file at a commit, or returns null when the path does not exist
+	 * there.
+	 */
+	public byte[] readFile(String owner, String repository, String commitSha, String path) throws IOException {
+		Repository repo = repository(owner, repository);
+		try (RevWalk walk = new RevWalk(repo)) {
+			RevCommit commit = walk.parseCommit(ObjectId.fromString(commitSha));
+			try (TreeWalk treeWalk = TreeWalk.forPath(repo, path, commit.getTree())) {
+				return treeWalk != null ? repo.open(treeWalk.getObjectId(0), Constants.OBJ_BLOB).getBytes() : null;
+			}
+		}
+	}
+
+	private GitHubService.PullRequestFile toPullRequestFile(ObjectReader reader, DiffEntry entry, String diff)
+			throws IOException {
+		GitHubService.PullRequestFile file = new GitHubService.PullRequestFile();
+		boolean deleted = entry.getChangeType() == DiffEntry.ChangeType.DELETE;
+		String path = deleted ? entry.getOldPath() : entry.getNewPath();
+
+		file.setFileName(path);
+		file.setFilePath(path);
+		file.setPreviousFilePath(entry.getChangeType() == DiffEntry.ChangeType.ADD ? path : entry.getOldPath());
+		file.setStatus(toStatus(entry.getChangeType()));
+		file.setSha((deleted ? entry.getOldId() : entry.getNewId()).name());
+		if (!deleted) {
+			file.setSize(reader.getObjectSize(entry.getNewId().toObjectId(), Constants.OBJ_BLOB));
+		}
+
+		// GitHub's patch field starts at the first hunk; binary files have none
+		int firstHunk = diff.startsWith("@@") ? 0 : diff.indexOf("\n@@");
+		String patch = firstHunk < 0 ? null : diff.substring(firstHunk == 0 ? 0 : firstHunk + 1).stripTrailing();
+
+		int additions = 0;
+		int deletions = 0;
+		if (patch != null) {
+			for (String line : patch.split("\n")) {
+				if (line.startsWith("+")) {
+					additions++;
+				} else if (line.startsWith("-")) {
+					deletions++;
+				}
+			}
+		}
+		file.setAdditions(additions);
+		file.setDeletions(deletions);
+		file.setChanges(additions + deletions);
+		file.setPatch(patch);
+		return file;
+	}
+
+	private String toStatus(DiffEntry.ChangeType changeType) {
+		switch (changeType) {
+		case ADD:
+		case COPY:
+			return "ADDED";
+		case DELETE:
+			return "DELETED";
+		case RENAME:
+			return "RENAMED";
+		default:
+			return "MODIFIED";
+		}
+	}
+
+	private RevCommit mergeBase(RevWalk walk, ObjectId baseSha, RevCommit head) throws IOException {
+		RevCommit base = walk.parseCommit(baseSha);
+		walk.reset();
+		walk.setRevFilter(RevFilter.MERGE_BASE);
+		walk.markStart(base);
+		walk.markStart(walk.parseCommit(head));
+		RevCommit mergeBase = walk.next();
+		walk.reset();
+		walk.setRevFilter(RevFilter.ALL);
+		// Unrelated histories: fall back to a two-dot diff against the base
+		return walk.parseCommit(mergeBase != null ? mergeBase : base);
+	}
+
+	private boolean hasAll(Repository repo, String... commits) throws IOException {
+		for (String commit : commits) {
+			if (!repo.getObjectDatabase().has(ObjectId.fromString(commit))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void fetch(Repository repo, RefSpec refSpec) throws IOException {
+		try (Git git = new Git(repo)) {
+			git.fetch().setRemote("origin").setRefSpecs(refSpec).setCredentialsProvider(credentials()).call();
+		} catch (GitAPIException e) {
+			throw new IOException("Fetch of " + refSpec + " failed: " + e.getMessage(), e);
+		}
+	}
+
+	private Repository repository(String owner, String repository) throws IOException {
+		String key = key(owner, repository);
+		if (!repositories.contains(key)) {
+			throw new IllegalArgumentException("Repository is not mirrored: " + key);
+		}
+
+		Repository repo = open.get(key);
+		if (repo != null) {
+			return repo;
+		}
+		synchronized (openLocks.computeIfAbsent(key, k -> new Object())) {
+			repo = open.get(key);
+			if (repo == null) {
+				repo = openOrClone(owner, repository);
+				open.put(key, repo);
+			}
+			return repo;
+		}
+	}
+
+	private Repository openOrClone(String owner, String repository) throws IOException {
+		// Named by the (lowercased) lookup key, so differently cased names share one mirror
+		File gitDir = new File(directory, key(owner, repository) + ".git");
+		if (!new File(gitDir, "objects").isDirectory()) {
+			String url = urlTemplate.replace("{owner}", owner).replace("{repository}", repository);
+			logger.info("Cloning mirror of {}/{} from {}", owner, repository, url);
+			try {
+				// Only the repository directory is kept open
+				Git.cloneRepository().setURI(url).setDirectory(gitDir).setBare(true)
+						.setCredentialsProvider(credentials()).call().close();
+			} catch (GitAPIException e) {
+				throw new IOException("Clone of " + url + " failed: " + e.getMessage(), e);
+			}
+		}
+		return new FileRepositoryBuilder().setGitDir(gitDir).setMustExist(true).build();
+	}
+
+	private CredentialsProvider credentials() {
+		return StringUtils.hasText(token) ? new UsernamePasswordCredentialsProvider("x-access-token", token) : null;
+	}
+
+	private static String key(String owner, String repository) {
+		return (owner + "/" + repository).toLowerCase(Locale.ROOT);
+	}
+}
@@ -0,0 +1,234 @@
+package com.prcodeinspector.service;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Fetches file versions through the GraphQL API, packing up to
+ * {@code github.graphql.batch-size} {@code object(expression: "sha:path")}
+ * lookups into a single query. Requests made within the linger window for the
+ * same snapshot share a query. A future completes with {@code null} when the
+ * blob is truncated, binary, missing or the query failed, so the caller can
+ * fall back to REST.
+ */
+@Component
+public class GraphQLBlobFetcher {
+
+	private static final Logger logger = LoggerFactory.getLogger(GraphQLBlobFetcher.class);
+
+	private static final MediaType JSON = MediaType.get("application/json");
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private OkHttpClient githubHttpClient;
+
+	@Value("${github.graphql.url:${github.api.url}/graphql}")
+	private String graphqlUrl;
+
+	@Value("${github.graphql.batch-size:50}")
+	private int batchSize;
+
+	@Value("${github.graphql.linger-ms:20}")
+	private long lingerMillis;
+
+	@Value("${github.graphql.min-remaining-points:100}")
+	private int minRemainingPoints;
+
+	private final Map<PullRequestSnapshot, Batch> openBatches = new IdentityHashMap<>();
+	private volatile long pausedUntil;
+	private ScheduledExecutorService flusher;
+
+	@PostConstruct
+	public void init() {
+		flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "graphql-blob-flusher");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		flusher.shutdownNow();
+	}
+
+	public CompletableFuture<Blob> fetch(PullRequestSnapshot snapshot, String ref, String path) {
+		if (System.currentTimeMillis() < pausedUntil) {
+			return CompletableFuture.completedFuture(null);
+		}
+
+		Batch full = null;
+		CompletableFuture<Blob> future;
+		synchronized (this) {
+			Batch batch = openBatches.get(snapshot);
+			if (batch == null) {
+				Batch created = new Batch(snapshot);
+				openBatches.put(snapshot, created);
+				flusher.schedule(() -> flush(created), lingerMillis, TimeUnit.MILLISECONDS);
+				batch = created;
+			}
+			future = batch.blobs.computeIfAbsent(ref + ":" + path, expression -> new CompletableFuture<>());
+			if (batch.blobs.size() >= batchSize) {
+				openBatches.remove(snapshot);
+				full = batch;
+			}
+		}
+
+		if (full != null) {
+			send(full);
+		}
+		return future;
+	}
+
+	private void flush(Batch batch) {
+		synchronized (this) {
+			if (openBatches.get(batch.snapshot) != batch) {
+				return;
+			}
+			openBatches.remove(batch.snapshot);
+		}
+		send(batch);
+	}
+
+	private void send(Batch batch) {
+		List<String> expressions = new ArrayList<>(batch.blobs.keySet());
+		Request request;
+		try {
+			request = buildRequest(batch.snapshot, expressions);
+		} catch (IOException e) {
+			fail(batch, e);
+			return;
+		}
+
+		githubHttpClient.newCall(request).enqueue(new Callback() {
+			@Override
+			public void onFailure(Call call, IOException e) {
+				fail(batch, e);
+			}
+
+			@Override
+			public void onResponse(Call call, Response response) {
+				try (response) {
+					if (!response.isSuccessful()) {
+						throw new IOException("GraphQL request failed: " + response.code());
+					}
+					complete(batch, expressions, objectMapper.readTree(response.body().byteStream()));
+				} catch (Exception e) {
+					fail(batch, e);
+				}
+			}
+		});
+	}
+
+	private Request buildRequest(PullRequestSnapshot snapshot, List<String> expressions) throws IOException {
+		StringBuilder declarations = new StringBuilder("$owner: String!, $name: String!");
+		StringBuilder selections = new StringBuilder();
+		ObjectNode variables = objectMapper.createObjectNode();
+		variables.put("owner", snapshot.getOwner());
+		variables.put("name", snapshot.getRepository());
+
+		for (int i = 0; i < expressions.size(); i++) {
+			declarations.append(", $e").append(i).append(": String!");
+			selections.append(" f").append(i).append(": object(expression: $e").append(i)
+					.append(") { ... on Blob { oid text isTruncated isBinary } }");
+			variables.put("e" + i, expressions.get(i));
+		}
+
+		ObjectNode body = objectMapper.createObjectNode();
+		body.put("query", "query(" + declarations + ") { rateLimit { cost remaining resetAt } "
+				+ "repository(owner: $owner, name: $name) {" + selections + " } }");
+		body.set("variables", variables);
+
+		return new Request.Builder().url(graphqlUrl)
+				.post(RequestBody.create(objectMapper.writeValueAsBytes(body), JSON))
+				.tag(PullRequestSnapshot.class, snapshot)
+				.tag(GitHubRateLimitScheduler.WaitPolicy.class, GitHubRateLimitScheduler.WaitPolicy.FAIL_FAST).build();
+	}
+
+	private void complete(Batch batch, List<String> expressions, JsonNode response) {
+		JsonNode rateLimit = response.path("data").path("rateLimit");
+		if (rateLimit.has("remaining") && rateLimit.path("remaining").asInt() < minRemainingPoints) {
+			// Leave the remaining points to other GraphQL users; REST takes over until the reset
+			pausedUntil = Instant.parse(rateLimit.path("resetAt").asText(Instant.now().toString())).toEpochMilli();
+			logger.warn("GraphQL budget low ({} points left), using REST until {}", rateLimit.path("remaining"),
+					rateLimit.path("resetAt").asText());
+		}
+		if (response.has("errors")) {
+			logger.debug("GraphQL blob query returned errors: {}", response.get("errors"));
+		}
+
+		JsonNode repository = response.path("data").path("repository");
+		for (int i = 0; i < expressions.size(); i++) {
+			JsonNode object = repository.path("f" + i);
+			Blob blob = null;
+			if (object.hasNonNull("text") && !object.path("isTruncated").asBoolean()
+					&& !object.path("isBinary").asBoolean()) {
+				blob = new Blob(object.path("oid").asText(null), object.get("text").asText());
+			}
+			batch.blobs.get(expressions.get(i)).complete(blob);
+		}
+	}
+
+	private void fail(Batch batch, Exception e) {
+		logger.warn("GraphQL blob batch of {} failed, falling back to REST: {}", batch.blobs.size(), e.getMessage());
+		batch.blobs.values().forEach(future -> future.complete(null));
+	}
+
+	private static class Batch {
+		private final PullRequestSnapshot snapshot;
+		private final Map<String, CompletableFuture<Blob>> blobs = new LinkedHashMap<>();
+
+		Batch(PullRequestSnapshot snapshot) {
+			this.snapshot = snapshot;
+		}
+	}
+
+	public static class Blob {
+		private final String oid;
+		private final String text;
+
+		public Blob(String oid, String text) {
+			this.oid = oid;
+			this.text = text;
+		}
+
+		public String getOid() {
+			return oid;
+		}
+
+		public String getText() {
+			return text;
+		}
+	}
+}
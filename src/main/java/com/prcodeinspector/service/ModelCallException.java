@@ -0,0 +1,94 @@
+package com.prcodeinspector.service;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.http.HttpHeaders;
+
+/**
+ * An error response of the model provider with its status and how long the
+ * provider asked us to wait before trying again, if it said so.
+ */
+public class ModelCallException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	/** OpenAI rate limit messages: "... Please try again in 1.2s." or "in 350ms". */
+	private static final Pattern TRY_AGAIN = Pattern.compile("(?i)try again in (\\d+(?:\\.\\d+)?)(ms|s)\\b");
+
+	private final int status;
+	private final transient Duration retryAfter;
+
+	public ModelCallException(int status, Duration retryAfter, String message) {
+		super(message);
+		this.status = status;
+		this.retryAfter = retryAfter;
+	}
+
+	/**
+	 * Exception for an error response; the wait comes from the
+	 * {@code retry-after-ms} or {@code Retry-After} header, else from the
+	 * message in the body.
+	 */
+	public static ModelCallException of(int status, HttpHeaders headers, String body) {
+		return new ModelCallException(status, retryAfter(headers, body), "HTTP " + status + " from model provider: "
+				+ (body != null && body.length() > 500 ? body.substring(0, 500) + "..." : body));
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	/** Requested wait before the next attempt, or null. */
+	public Duration getRetryAfter() {
+		return retryAfter;
+	}
+
+	/**
+	 * Whether the provider ran out of quota; waiting does not help then.
+	 */
+	public boolean isQuotaExhausted() {
+		return status == 429 && getMessage() != null && getMessage().contains("insufficient_quota");
+	}
+
+	static Duration retryAfter(HttpHeaders headers, String body) {
+		if (headers != null) {
+			String millis = headers.getFirst("retry-after-ms");
+			if (millis != null) {
+				try {
+					return Duration.ofMillis((long) Double.parseDouble(millis.trim()));
+				} catch (NumberFormatException e) {
+					// Try the standard header
+				}
+			}
+			String value = headers.getFirst(HttpHeaders.RETRY_AFTER);
+			if (value != null) {
+				try {
+					return Duration.ofSeconds(Long.parseLong(value.trim()));
+				} catch (NumberFormatException e) {
+					try {
+						Duration until = Duration.between(ZonedDateTime.now(),
+								ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME));
+						return until.isNegative() ? Duration.ZERO : until;
+					} catch (DateTimeParseException ignored) {
+						// Fall back to the message
+					}
+				}
+			}
+		}
+		if (body != null) {
+			Matcher matcher = TRY_AGAIN.matcher(body);
+			if (matcher.find()) {
+				double amount = Double.parseDouble(matcher.group(1));
+				return Duration.ofMillis((long) Math.ceil(
+						"ms".equals(matcher.group(2).toLowerCase(Locale.ROOT)) ? amount : amount * 1000));
+			}
+		}
+		return null;
+	}
+}
@@ -1,128 +1,774 @@
 package com.prcodeinspector.service;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.metadata.Usage;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.ai.openai.metadata.OpenAiUsage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.prcodeinspector.model.AnalysisCacheEntry;
 import com.prcodeinspector.model.AnalysisIssue;
 import com.prcodeinspector.model.AnalysisSuggestion;
 import com.prcodeinspector.model.CodeAnalysisResult;
 
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
 @Service
 public class OpenAIClientService {
 
+	private static final Logger logger = LoggerFactory.getLogger(OpenAIClientService.class);
+
+	private static final TypeReference<Map<String, Object>> RESPONSE_TYPE = new TypeReference<>() {
+	};
+
+	private static final TypeReference<List<Map<String, Object>>> ENTRIES_TYPE = new TypeReference<>() {
+	};
+
+	private static final String CODE_INTRO = "Code to analyze:\n";
+
+	private static final String DIFF_INTRO = "Changed hunks to analyze. Lines starting with '+' were added or "
+			+ "modified, the others are unchanged context and \"" + PatchExcerpt.GAP_MARKER + "\" marks skipped "
+			+ "lines. Only report issues in the changed lines and use the line number within this excerpt (the "
+			+ "first line is 1) as lineNumber.\n";
+
+	private static final String SAMPLE_INTRO = "The file is too large to review in full. This is its beginning and "
+			+ "end; \"" + PatchExcerpt.GAP_MARKER + "\" marks the omitted middle. Use the line number within this "
+			+ "sample (the first line is 1) as lineNumber.\n";
+
+	private static final String CHUNK_INTRO = "This is one part of a file too large to review at once; the parts "
+			+ "before and after it are reviewed separately, so do not report code that is cut off at its start or "
+			+ "end. Use the line number within this part (the first line is 1) as lineNumber.\n";
+
 	@Autowired
 	private ChatModel chatModel;
 
 	@Autowired
 	private ObjectMapper objectMapper;
 
+	@Autowired
+	private ResilientCallExecutor resilientCalls;
+
+	@Autowired
+	private AnalysisResultCache resultCache;
+
+	@Autowired
+	private AnalysisPromptCatalog promptCatalog;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
 	@Value("${spring.ai.openai.chat.options.temperature:0.1}")
 	private Double temperature;
 
 	@Value("${spring.ai.openai.chat.options.max-tokens:2000}")
 	private Integer maxTokens;
 
+	@Value("${spring.ai.openai.chat.options.model:gpt-4}")
+	private String model;
+
+	@Value("${openai.context-window-tokens:8192}")
+	private int contextWindowTokens;
+
+	@Value("${openai.streaming.enabled:true}")
+	private boolean streamingEnabled;
+
+	@Value("${code.analysis.prescan.enabled:true}")
+	private boolean preScanEnabled;
+
+	@Value("${code.analysis.routing.enabled:true}")
+	private boolean routingEnabled;
+
+	@Value("${code.analysis.routing.triage-model:gpt-4o-mini}")
+	private String triageModel;
+
+	@Value("${code.analysis.routing.risk-threshold:40}")
+	private int riskThreshold;
+
+	@Value("${code.analysis.routing.review-cost-per-1k-tokens:0.03}")
+	private double reviewCostPer1kTokens;
+
+	@Value("${code.analysis.routing.triage-cost-per-1k-tokens:0.0003}")
+	private double triageCostPer1kTokens;
+
+	@Value("${code.analysis.routing.triage-context-window-tokens:128000}")
+	private int triageContextWindowTokens;
+
+	@Value("${code.analysis.packing.response-tokens-per-file:500}")
+	private int packResponseTokensPerFile;
+
+	@Value("${code.analysis.chunking.max-tokens:3000}")
+	private int chunkMaxTokens;
+
+	@Value("${code.analysis.chunking.overlap-lines:5}")
+	private int chunkOverlapLines;
+
+	private CodeChunker chunker;
+
+	@PostConstruct
+	public void init() {
+		chunker = new CodeChunker(CodeChunker.encodingFor(model), chunkMaxTokens, chunkOverlapLines);
+	}
+
 	public CodeAnalysisResult analyzeCode(String filePath, String fileName, String language, String code) {
+		return analyzeCode(filePath, fileName, language, code, false);
+	}
+
+	public CodeAnalysisResult analyzeCode(String filePath, String fileName, String language, String code,
+			boolean bypassCache) {
 		try {
-			AnalysisRules rules = loadAnalysisRules();
-			String prompt = buildAnalysisPrompt(filePath, fileName, language, code, rules);
-			String aiResponse = callOpenAI(prompt);
+			return submitCode(filePath, fileName, language, code, bypassCache).join();
+		} catch (Exception e) {
+			Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+			throw new RuntimeException("Failed to analyze code with OpenAI: " + cause.getMessage(), cause);
+		}
+	}
 
-			// Parse the AI response
-			return parseAIResponse(filePath, fileName, language, code, aiResponse);
+	/**
+	 * Reviews a whole file. Cached responses complete at once; model calls
+	 * run in parallel under the adaptive concurrency limit. A file over the
+	 * chunk token budget is reviewed in chunks whose results are merged.
+	 */
+	public CompletableFuture<CodeAnalysisResult> submitCode(String filePath, String fileName, String language,
+			String code, boolean bypassCache) {
+		return submitCode(filePath, fileName, language, code, bypassCache, null);
+	}
 
-		} catch (Exception e) {
-			throw new RuntimeException("Failed to analyze code with OpenAI: " + e.getMessage(), e);
+	/**
+	 * As {@link #submitCode(String, String, String, String, boolean)}; issues
+	 * of a model call also go to {@code findings} one by one while the
+	 * response streams in, with their file line numbers.
+	 */
+	public CompletableFuture<CodeAnalysisResult> submitCode(String filePath, String fileName, String language,
+			String code, boolean bypassCache, Consumer<AnalysisIssue> findings) {
+		return submitCode(filePath, fileName, language, code, bypassCache, findings, null);
+	}
+
+	private CompletableFuture<CodeAnalysisResult> submitCode(String filePath, String fileName, String language,
+			String code, boolean bypassCache, Consumer<AnalysisIssue> findings, Route route) {
+		return submitInChunks(filePath, fileName, language, code, CODE_INTRO, null, bypassCache, findings, route);
+	}
+
+	/**
+	 * Reviews only the changed hunks of a file. Line numbers reported by the
+	 * model refer to the excerpt and are mapped back to the new file.
+	 */
+	public CompletableFuture<CodeAnalysisResult> submitDiff(String filePath, String fileName, String language,
+			PatchExcerpt excerpt, boolean bypassCache, Consumer<AnalysisIssue> findings) {
+		return submitInChunks(filePath, fileName, language, excerpt.getText(), DIFF_INTRO, excerpt, bypassCache,
+				findings, null);
+	}
+
+	/**
+	 * Reviews the head/tail sample of a file too large to send in full.
+	 */
+	public CompletableFuture<CodeAnalysisResult> submitSample(String filePath, String fileName, String language,
+			PatchExcerpt sample, boolean bypassCache, Consumer<AnalysisIssue> findings) {
+		return submitInChunks(filePath, fileName, language, sample.getText(), SAMPLE_INTRO, sample, bypassCache,
+				findings, null);
+	}
+
+	/**
+	 * Submits the code, or its chunks when it is over the chunk token budget.
+	 * Chunks of an excerpt keep their part of its line map; chunks of a whole
+	 * file are shifted by their start line.
+	 */
+	private CompletableFuture<CodeAnalysisResult> submitInChunks(String filePath, String fileName, String language,
+			String code, String codeIntro, PatchExcerpt excerpt, boolean bypassCache, Consumer<AnalysisIssue> findings,
+			Route route) {
+		List<CodeChunker.Chunk> chunks = code != null ? chunker.split(code, language) : List.of();
+		if (chunks.size() <= 1) {
+			return submit(filePath, fileName, language, code, codeIntro, excerpt, bypassCache, findings, route);
+		}
+
+		// Every chunk goes to the model chosen for the whole file
+		Route fileRoute = route != null ? route
+				: route(filePath, code, preScan(language, code, excerpt, DIFF_INTRO.equals(codeIntro)));
+		String chunkIntro = excerpt != null ? codeIntro + CHUNK_INTRO : CHUNK_INTRO;
+		logger.debug("Analysing {} in {} chunks", filePath, chunks.size());
+		List<CompletableFuture<CodeAnalysisResult>> parts = chunks.stream().map(chunk -> {
+			if (excerpt != null) {
+				return submit(filePath, fileName, language, chunk.getText(), chunkIntro,
+						excerpt.part(chunk.getStartLine(), chunk.getText()), bypassCache, findings, fileRoute);
+			}
+			int offset = chunk.getStartLine() - 1;
+			Consumer<AnalysisIssue> chunkFindings = findings == null ? null : issue -> {
+				if (issue.getLineNumber() != null) {
+					issue.setLineNumber(issue.getLineNumber() + offset);
+				}
+				findings.accept(issue);
+			};
+			return submit(filePath, fileName, language, chunk.getText(), chunkIntro, null, bypassCache,
+					chunkFindings, fileRoute).thenApply(part -> shiftLines(part, offset));
+		}).collect(Collectors.toList());
+		return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+			List<CodeAnalysisResult> results = parts.stream().map(CompletableFuture::join).collect(Collectors.toList());
+			CodeAnalysisResult merged = mergeChunks(filePath, fileName, language, code, chunks, results);
+			return fileRoute.apply(merged,
+					results.stream().mapToInt(part -> part.getReviewTokens() != null ? part.getReviewTokens() : 0)
+							.sum());
+		});
+	}
+
+	private CompletableFuture<CodeAnalysisResult> submit(String filePath, String fileName, String language,
+			String code, String codeIntro, PatchExcerpt excerpt, boolean bypassCache, Consumer<AnalysisIssue> findings,
+			Route route) {
+		AnalysisPromptCatalog.Prefix prefix = promptCatalog.forFile(language);
+		// Rule matches are reported right away, whether or not the model is called
+		List<RuleScanner.Match> matches = preScan(language, code, excerpt, codeIntro.startsWith(DIFF_INTRO));
+		if (findings != null) {
+			matches.forEach(match -> findings.accept(toFileIssue(match, excerpt)));
+		}
+
+		Route routed = route != null ? route : route(filePath, code, matches);
+		CacheKeys keys = cacheKeys(code, language, prefix.getVersion() + codeIntro + routed.model);
+		CodeAnalysisResult cached = bypassCache ? null
+				: fromCache(keys, filePath, fileName, language, code, excerpt, matches);
+		if (cached != null) {
+			return CompletableFuture.completedFuture(routed.apply(cached, 0));
+		}
+
+		// The compiled prefix comes first and is the same for every file of the language
+		StringBuilder text = new StringBuilder(prefix.getText());
+		appendFile(text, filePath, fileName, language, code, codeIntro, matches);
+		String prompt = text.toString();
+		Callable<String> call = () -> callOpenAI(prompt, null, routed.model);
+		boolean streaming = findings != null && streamingEnabled;
+		AtomicBoolean published = new AtomicBoolean();
+		if (streaming) {
+			call = () -> callOpenAIStreaming(prompt, routed.model, issueMap -> {
+				try {
+					AnalysisIssue issue = parseIssue(issueMap);
+					if (excerpt != null) {
+						issue.setLineNumber(excerpt.toFileLine(issue.getLineNumber()));
+					}
+					published.set(true);
+					findings.accept(issue);
+				} catch (RuntimeException e) {
+					logger.warn("Dropping streamed issue of {}: {}", filePath, e.getMessage());
+				}
+			});
+		}
+		// A streamed call publishes issues while it runs, so it is not hedged, and once it has published
+		// one it is not retried either: the file fails and its published issues are withdrawn
+		return resilientCalls.execute(call, !streaming, () -> !published.get()).thenApply(aiResponse -> {
+			CodeAnalysisResult result = toAnalysis(filePath, fileName, language, code, excerpt, aiResponse, null,
+					matches);
+			int tokens = PromptPacker.estimateTokens(prompt) + PromptPacker.estimateTokens(aiResponse);
+			keys.put(aiResponse, tokens);
+			return routed.apply(result, tokens);
+		});
+	}
+
+	/**
+	 * Model for a file: the review model when the rules matched or the
+	 * triage risk reaches the threshold, the cheaper triage model otherwise.
+	 * Without routing every file goes to the review model.
+	 */
+	private Route route(String filePath, String code, List<RuleScanner.Match> matches) {
+		if (!routingEnabled) {
+			return new Route(model, null, "routing disabled", true);
+		}
+		RiskTriage.Assessment risk = RiskTriage.assess(filePath, code);
+		Route route;
+		if (!matches.isEmpty()) {
+			route = new Route(model, risk.getScore(), matches.size() + " rule matches", true);
+		} else if (risk.getScore() >= riskThreshold) {
+			route = new Route(model, risk.getScore(),
+					"risk " + risk.getScore() + " (" + String.join(", ", risk.getReasons()) + ")", true);
+		} else {
+			route = new Route(triageModel, risk.getScore(), "risk " + risk.getScore() + " below " + riskThreshold,
+					false);
+		}
+		if (meterRegistry != null) {
+			meterRegistry.counter("openai.routing.files", "tier", route.escalated ? "review" : "triage").increment();
+		}
+		return route;
+	}
+
+	/**
+	 * Estimated cost of the model calls behind the result (nothing when it
+	 * came from the cache), by the configured price of its model.
+	 */
+	public double estimateCost(CodeAnalysisResult result) {
+		if (result.getReviewTokens() == null || result.getReviewModel() == null) {
+			return 0;
+		}
+		double price = result.getReviewModel().equals(triageModel) && !triageModel.equals(model)
+				? triageCostPer1kTokens
+				: reviewCostPer1kTokens;
+		return result.getReviewTokens() / 1000.0 * price;
+	}
+
+	/**
+	 * The routing decision of one file.
+	 */
+	private static class Route {
+		private final String model;
+		private final Integer riskScore;
+		private final String reason;
+		private final boolean escalated;
+
+		Route(String model, Integer riskScore, String reason, boolean escalated) {
+			this.model = model;
+			this.riskScore = riskScore;
+			this.reason = reason;
+			this.escalated = escalated;
+		}
+
+		private CodeAnalysisResult apply(CodeAnalysisResult result, int tokens) {
+			result.setReviewModel(model);
+			result.setRiskScore(riskScore);
+			result.setRoutingReason(reason);
+			result.setReviewTokens(tokens);
+			return result;
+		}
+	}
+
+	/**
+	 * Matches of the language's regex rules in the code. Only added lines of
+	 * a diff excerpt count, and lines of a sample that do not map back to
+	 * the file are left out.
+	 */
+	private List<RuleScanner.Match> preScan(String language, String code, PatchExcerpt excerpt, boolean addedOnly) {
+		if (!preScanEnabled || code == null) {
+			return List.of();
+		}
+		// Excerpt lines are scanned without their change marker, so rules see the lines as in the file
+		String[] excerptLines = addedOnly ? code.split("\n", -1) : null;
+		return promptCatalog.scannerFor(language).scan(excerpt != null ? excerpt.getCode() : code).stream()
+				.filter(match -> !addedOnly || excerptLines[match.getLineNumber() - 1].startsWith("+"))
+				.filter(match -> excerpt == null || excerpt.toFileLine(match.getLineNumber()) != null)
+				.collect(Collectors.toList());
+	}
+
+	private static AnalysisIssue toFileIssue(RuleScanner.Match match, PatchExcerpt excerpt) {
+		AnalysisIssue issue = match.toIssue();
+		if (excerpt != null) {
+			issue.setLineNumber(excerpt.toFileLine(issue.getLineNumber()));
+		}
+		return issue;
+	}
+
+	private CacheKeys cacheKeys(String code, String language, String cacheRules) {
+		CacheKeys keys = new CacheKeys();
+		keys.key = resultCache.key(code, language, cacheRules);
+		if (resultCache.isEnabled() && code != null) {
+			keys.normalized = CodeNormalizer.normalize(code, language);
+			keys.fingerprint = resultCache.fingerprint(keys.normalized, language, cacheRules);
+		}
+		return keys;
+	}
+
+	private CodeAnalysisResult fromCache(CacheKeys keys, String filePath, String fileName, String language,
+			String code, PatchExcerpt excerpt, List<RuleScanner.Match> matches) {
+		AnalysisCacheEntry entry = resultCache.lookup(keys.key, keys.fingerprint);
+		if (entry == null) {
+			return null;
+		}
+		// A near-duplicate's line numbers point into its own layout
+		UnaryOperator<Integer> toCodeLine = keys.key.equals(entry.getCacheKey()) || entry.getLineStarts() == null
+				? null
+				: line -> keys.normalized.toLine(entry.getLineStarts(), line);
+		try {
+			return toAnalysis(filePath, fileName, language, code, excerpt, entry.getResponse(), toCodeLine, matches);
+		} catch (RuntimeException e) {
+			logger.warn("Ignoring unreadable cached analysis of {}: {}", filePath, e.getMessage());
+			return null;
 		}
 	}
 
+	private CodeAnalysisResult toAnalysis(String filePath, String fileName, String language, String code,
+			PatchExcerpt excerpt, String aiResponse, UnaryOperator<Integer> toCodeLine,
+			List<RuleScanner.Match> matches) {
+		CodeAnalysisResult result = parseAIResponse(filePath, fileName, language, code, aiResponse);
+		if (toCodeLine != null) {
+			result.getIssues().forEach(issue -> issue.setLineNumber(toCodeLine.apply(issue.getLineNumber())));
+			result.getSuggestions()
+					.forEach(suggestion -> suggestion.setLineNumber(toCodeLine.apply(suggestion.getLineNumber())));
+		}
+		addRuleIssues(result, matches);
+		if (excerpt != null) {
+			result.getIssues().forEach(issue -> issue.setLineNumber(excerpt.toFileLine(issue.getLineNumber())));
+			result.getSuggestions()
+					.forEach(suggestion -> suggestion.setLineNumber(excerpt.toFileLine(suggestion.getLineNumber())));
+		}
+		return result;
+	}
+
+	/**
+	 * Adds the rule matches the model did not report itself (an issue of the
+	 * same category on the same line).
+	 */
+	private static void addRuleIssues(CodeAnalysisResult result, List<RuleScanner.Match> matches) {
+		Set<String> reported = result.getIssues().stream()
+				.map(issue -> issue.getCategory() + "@" + issue.getLineNumber()).collect(Collectors.toSet());
+		for (RuleScanner.Match match : matches) {
+			if (reported.add(match.getRule().getCategory() + "@" + match.getLineNumber())) {
+				result.getIssues().add(match.toIssue());
+			}
+		}
+	}
+
+	/**
+	 * Exact key and normalized fingerprint (null when caching is off) of one
+	 * file's analysis.
+	 */
+	private class CacheKeys {
+		private String key;
+		private String fingerprint;
+		private CodeNormalizer.Normalized normalized;
+
+		private void put(String aiResponse, int tokens) {
+			resultCache.put(key, aiResponse, tokens, fingerprint,
+					normalized != null ? normalized.encodeLineStarts() : null);
+		}
+	}
+
+	private static CodeAnalysisResult shiftLines(CodeAnalysisResult part, int offset) {
+		part.getIssues().stream().filter(issue -> issue.getLineNumber() != null)
+				.forEach(issue -> issue.setLineNumber(issue.getLineNumber() + offset));
+		part.getSuggestions().stream().filter(suggestion -> suggestion.getLineNumber() != null)
+				.forEach(suggestion -> suggestion.setLineNumber(suggestion.getLineNumber() + offset));
+		return part;
+	}
+
+	/**
+	 * One result for the whole file: scores weighted by chunk size, issues and
+	 * suggestions reported twice in the overlap between chunks kept once.
+	 */
+	private CodeAnalysisResult mergeChunks(String filePath, String fileName, String language, String code,
+			List<CodeChunker.Chunk> chunks, List<CodeAnalysisResult> parts) {
+		CodeAnalysisResult merged = new CodeAnalysisResult(filePath, fileName,
+				CodeAnalysisResult.AnalysisType.MODIFIED);
+		merged.setLanguage(language);
+		merged.setChangedCode(code);
+
+		double weights = 0;
+		double security = 0;
+		double performance = 0;
+		double bestPractices = 0;
+		Set<String> issueKeys = new HashSet<>();
+		Set<String> suggestionKeys = new HashSet<>();
+		List<String> summaries = new ArrayList<>();
+		for (int i = 0; i < parts.size(); i++) {
+			CodeAnalysisResult part = parts.get(i);
+			double weight = chunks.get(i).getTokens();
+			weights += weight;
+			security += weight * part.getSecurityScore();
+			performance += weight * part.getPerformanceScore();
+			bestPractices += weight * part.getBestPracticesScore();
+			if (StringUtils.hasText(part.getSummary())) {
+				summaries.add(part.getSummary());
+			}
+			part.getIssues().stream().filter(issue -> issueKeys.add(mergeKey(issue.getTitle(), issue.getLineNumber())))
+					.forEach(merged.getIssues()::add);
+			part.getSuggestions().stream()
+					.filter(suggestion -> suggestionKeys.add(mergeKey(suggestion.getTitle(), suggestion.getLineNumber())))
+					.forEach(merged.getSuggestions()::add);
+		}
+
+		merged.setSummary("Reviewed in " + parts.size() + " parts. " + String.join(" ", summaries));
+		merged.setSecurityScore(security / weights);
+		merged.setPerformanceScore(performance / weights);
+		merged.setBestPracticesScore(bestPractices / weights);
+		merged.setOverallScore(calculateOverallScore(merged));
+		return merged;
+	}
+
+	private static String mergeKey(String title, Integer lineNumber) {
+		return String.valueOf(title).trim().toLowerCase(Locale.ROOT) + "@" + lineNumber;
+	}
+
 	public List<CodeAnalysisResult> analyzeMultipleFiles(Map<String, String> codeFiles) {
-		return codeFiles.entrySet().stream().map(entry -> {
+		List<CompletableFuture<CodeAnalysisResult>> analyses = codeFiles.entrySet().stream().map(entry -> {
 			String filePath = entry.getKey();
 			String code = entry.getValue();
 			String fileName = getFileName(filePath);
 			String language = getLanguageFromFileName(fileName);
-			return analyzeCode(filePath, fileName, language, code);
+			return submitCode(filePath, fileName, language, code, false);
 		}).collect(Collectors.toList());
+		return analyses.stream().map(CompletableFuture::join).collect(Collectors.toList());
+	}
+
+	/**
+	 * Analyses a pack of small files with one request and completes each
+	 * file's result. Cached files are answered first and left out of the
+	 * prompt, and the rest is split so that prompt and response fit the
+	 * model's context window. Files the packed response does not cover (or
+	 * all of them, when the call fails or its response cannot be parsed) are
+	 * analysed one by one instead.
+	 */
+	public void analyzePack(List<PromptPacker.PackedFile> files, boolean bypassCache) {
+		// Files routed to different models go in separate prompts
+		Map<PromptPacker.PackedFile, List<RuleScanner.Match>> matches = new HashMap<>();
+		Map<PromptPacker.PackedFile, Route> routes = new HashMap<>();
+		Map<String, List<PromptPacker.PackedFile>> byModel = new TreeMap<>();
+		for (PromptPacker.PackedFile file : files) {
+			matches.put(file, preScan(file.getLanguage(), file.getCode(), null, false));
+			Route route = route(file.getFilePath(), file.getCode(), matches.get(file));
+			routes.put(file, route);
+			byModel.computeIfAbsent(route.model, key -> new ArrayList<>()).add(file);
+		}
+		byModel.forEach((packModel, packFiles) -> analyzePack(packFiles, packModel, matches, routes, bypassCache));
 	}
 
-	private String callOpenAI(String prompt) {
-		Prompt request = new Prompt(prompt);
-		ChatResponse response = chatModel.call(request);
+	private void analyzePack(List<PromptPacker.PackedFile> files, String packModel,
+			Map<PromptPacker.PackedFile, List<RuleScanner.Match>> matches,
+			Map<PromptPacker.PackedFile, Route> routes, boolean bypassCache) {
+		String cacheRules = promptCatalog.getVersion() + CODE_INTRO + packModel;
+
+		List<PromptPacker.PackedFile> uncached = new ArrayList<>();
+		for (PromptPacker.PackedFile file : files) {
+			CodeAnalysisResult cached = bypassCache ? null
+					: fromCache(cacheKeys(file.getCode(), file.getLanguage(), cacheRules), file.getFilePath(),
+							file.getFileName(), file.getLanguage(), file.getCode(), null, matches.get(file));
+			if (cached != null) {
+				file.getResult().complete(routes.get(file).apply(cached, 0));
+			} else {
+				uncached.add(file);
+			}
+		}
+		for (List<PromptPacker.PackedFile> pack : fitContextWindow(uncached, packModel, matches)) {
+			if (pack.size() == 1) {
+				analyzeUnpacked(pack.get(0), bypassCache, routes.get(pack.get(0)));
+			} else {
+				sendPack(pack, packModel, cacheRules, matches, routes, bypassCache);
+			}
+		}
+	}
+
+	/**
+	 * Splits the files, in order, into packs whose prompt leaves room for a
+	 * response of {@code packResponseTokensPerFile} per file in the context
+	 * window of the model.
+	 */
+	private List<List<PromptPacker.PackedFile>> fitContextWindow(List<PromptPacker.PackedFile> files,
+			String packModel, Map<PromptPacker.PackedFile, List<RuleScanner.Match>> matches) {
+		int window = contextWindow(packModel);
+		// The prefix for all languages is at least as long as that of any subset
+		int prefixTokens = chunker.countTokens(promptCatalog
+				.forPack(files.stream().map(PromptPacker.PackedFile::getLanguage).collect(Collectors.toList()))
+				.getText());
+
+		List<List<PromptPacker.PackedFile>> packs = new ArrayList<>();
+		List<PromptPacker.PackedFile> pack = new ArrayList<>();
+		int tokens = prefixTokens;
+		for (PromptPacker.PackedFile file : files) {
+			StringBuilder section = new StringBuilder();
+			appendFile(section, file.getFilePath(), file.getFileName(), file.getLanguage(), file.getCode(),
+					CODE_INTRO, matches.get(file));
+			int fileTokens = chunker.countTokens(section.toString()) + packResponseTokensPerFile;
+			if (!pack.isEmpty() && tokens + fileTokens > window) {
+				packs.add(pack);
+				pack = new ArrayList<>();
+				tokens = prefixTokens;
+			}
+			pack.add(file);
+			tokens += fileTokens;
+		}
+		if (!pack.isEmpty()) {
+			packs.add(pack);
+		}
+		return packs;
+	}
+
+	private int contextWindow(String callModel) {
+		return callModel.equals(triageModel) && !triageModel.equals(model) ? triageContextWindowTokens
+				: contextWindowTokens;
+	}
+
+	private void sendPack(List<PromptPacker.PackedFile> uncached, String packModel, String cacheRules,
+			Map<PromptPacker.PackedFile, List<RuleScanner.Match>> matches,
+			Map<PromptPacker.PackedFile, Route> routes, boolean bypassCache) {
+		String prompt = buildPackedPrompt(uncached, matches);
+		// The response holds one analysis per file, within what the prompt leaves of the context window
+		int responseTokens = Math.min(maxTokens * uncached.size(),
+				contextWindow(packModel) - chunker.countTokens(prompt));
+		resilientCalls.execute(() -> callOpenAI(prompt, responseTokens, packModel), true)
+				.whenComplete((aiResponse, error) -> {
+					if (error != null) {
+						logger.warn("Analysing {} packed files one by one: {}", uncached.size(),
+								error.getCause() != null ? error.getCause().getMessage() : error.getMessage());
+						uncached.forEach(file -> analyzeUnpacked(file, bypassCache, routes.get(file)));
+						return;
+					}
+
+					Map<String, Object> entries;
+					try {
+						entries = parsePackedResponse(aiResponse);
+					} catch (RuntimeException e) {
+						logger.warn("Analysing {} packed files one by one: {}", uncached.size(), e.getMessage());
+						entries = Map.of();
+					}
+					int promptTokens = PromptPacker.estimateTokens(prompt) / uncached.size();
+					for (PromptPacker.PackedFile file : uncached) {
+						CodeAnalysisResult result = fromPackedEntry(file, entries.get(file.getFilePath()),
+								cacheKeys(file.getCode(), file.getLanguage(), cacheRules), promptTokens,
+								matches.get(file), routes.get(file));
+						if (result != null) {
+							file.getResult().complete(result);
+						} else {
+							analyzeUnpacked(file, bypassCache, routes.get(file));
+						}
+					}
+				});
+	}
+
+	private CodeAnalysisResult fromPackedEntry(PromptPacker.PackedFile file, Object entry, CacheKeys keys,
+			int promptTokens, List<RuleScanner.Match> matches, Route route) {
+		if (!(entry instanceof Map)) {
+			return null;
+		}
+		try {
+			CodeAnalysisResult result = toResult(file.getFilePath(), file.getFileName(), file.getLanguage(),
+					file.getCode(), objectMapper.convertValue(entry, RESPONSE_TYPE));
+			addRuleIssues(result, matches);
+			// A packed entry has the shape of a single-file response, so it serves later single-file lookups
+			String aiResponse = objectMapper.writeValueAsString(entry);
+			int tokens = promptTokens + PromptPacker.estimateTokens(aiResponse);
+			keys.put(aiResponse, tokens);
+			return route.apply(result, tokens);
+		} catch (Exception e) {
+			logger.warn("Unusable packed entry for {}: {}", file.getFilePath(), e.getMessage());
+			return null;
+		}
+	}
+
+	private void analyzeUnpacked(PromptPacker.PackedFile file, boolean bypassCache, Route route) {
+		submitCode(file.getFilePath(), file.getFileName(), file.getLanguage(), file.getCode(), bypassCache, null,
+				route)
+				.whenComplete((result, error) -> {
+					if (error != null) {
+						file.getResult().completeExceptionally(error);
+					} else {
+						file.getResult().complete(result);
+					}
+				});
+	}
+
+	/**
+	 * Streams the response, handing each issue to {@code onIssue} as soon as
+	 * its JSON object is complete, and returns the whole response.
+	 */
+	private String callOpenAIStreaming(String prompt, String callModel, Consumer<Map<String, Object>> onIssue) {
+		StreamingIssueParser parser = new StreamingIssueParser(objectMapper, onIssue);
+		StringBuilder response = new StringBuilder();
+		Prompt request = new Prompt(prompt,
+				OpenAiChatOptions.builder().model(callModel).streamUsage(true).build());
+		for (ChatResponse chunk : chatModel.stream(request).toIterable()) {
+			// Usage arrives with the last chunk
+			recordUsage(chunk, callModel);
+			String content = chunk.getResult() != null && chunk.getResult().getOutput() != null
+					? chunk.getResult().getOutput().getContent()
+					: null;
+			if (content != null) {
+				response.append(content);
+				parser.feed(content);
+			}
+		}
+		return response.toString();
+	}
+
+	private String callOpenAI(String prompt, Integer responseTokens, String callModel) {
+		OpenAiChatOptions.Builder options = OpenAiChatOptions.builder().model(callModel);
+		if (responseTokens != null) {
+			options.maxTokens(responseTokens);
+		}
+		ChatResponse response = chatModel.call(new Prompt(prompt, options.build()));
+		recordUsage(response, callModel);
 		return response.getResult().getOutput().getContent();
 	}
 
-	private String buildAnalysisPrompt(String filePath, String fileName, String language, String code,
-			AnalysisRules rules) {
-		StringBuilder prompt = new StringBuilder();
+	private void recordUsage(ChatResponse response, String callModel) {
+		Usage usage = response.getMetadata() != null ? response.getMetadata().getUsage() : null;
+		if (usage == null || usage.getPromptTokens() == null || usage.getPromptTokens() == 0) {
+			return;
+		}
+		OpenAiUsage.PromptTokensDetails details = usage instanceof OpenAiUsage
+				? ((OpenAiUsage) usage).getPromptTokensDetails()
+				: null;
+		Integer cachedTokens = details != null ? details.cachedTokens() : null;
+		long cached = cachedTokens != null ? cachedTokens : 0;
+		long generated = usage.getGenerationTokens() != null ? usage.getGenerationTokens() : 0;
+		logger.debug("{} call used {} prompt tokens ({} cached) and {} completion tokens", callModel,
+				usage.getPromptTokens(), cached, generated);
+		if (meterRegistry != null) {
+			// Per call and model; cached tokens are the part of the prompt the provider served from its prefix cache
+			tokenSummary("openai.tokens.prompt", callModel).record(usage.getPromptTokens());
+			tokenSummary("openai.tokens.prompt.cached", callModel).record(cached);
+			tokenSummary("openai.tokens.completion", callModel).record(generated);
+		}
+	}
+
+	private DistributionSummary tokenSummary(String name, String callModel) {
+		return DistributionSummary.builder(name).baseUnit("tokens").tag("model", String.valueOf(callModel))
+				.register(meterRegistry);
+	}
 
-		prompt.append(
-				"You are an expert code reviewer with deep knowledge of software security, performance optimization, and best practices. ");
-		prompt.append("Analyze the following code and provide detailed feedback.\n\n");
+	/**
+	 * One prompt for several files: the instructions and response structure
+	 * are sent once and the model answers with one entry per file path.
+	 */
+	private String buildPackedPrompt(List<PromptPacker.PackedFile> files,
+			Map<PromptPacker.PackedFile, List<RuleScanner.Match>> matches) {
+		StringBuilder prompt = new StringBuilder(promptCatalog
+				.forPack(files.stream().map(PromptPacker.PackedFile::getLanguage).collect(Collectors.toList()))
+				.getText());
+		for (PromptPacker.PackedFile file : files) {
+			appendFile(prompt, file.getFilePath(), file.getFileName(), file.getLanguage(), file.getCode(),
+					CODE_INTRO, matches.get(file));
+		}
+		return prompt.toString();
+	}
 
+	private void appendFile(StringBuilder prompt, String filePath, String fileName, String language, String code,
+			String codeIntro, List<RuleScanner.Match> matches) {
 		prompt.append("File Information:\n");
 		prompt.append("- Path: ").append(filePath).append("\n");
 		prompt.append("- Language: ").append(language).append("\n");
 		prompt.append("- Name: ").append(fileName).append("\n\n");
 
-		prompt.append("Code to analyze:\n");
+		prompt.append(codeIntro);
 		prompt.append("```").append(language).append("\n");
 		prompt.append(code).append("\n");
 		prompt.append("```\n\n");
 
-		prompt.append(
-				"Please analyze this code and provide your response in JSON format with the following structure:\n\n");
-		prompt.append("{\n");
-		prompt.append("  \"summary\": \"Brief summary of the analysis\",\n");
-		prompt.append("  \"securityScore\": 0-100,\n");
-		prompt.append("  \"performanceScore\": 0-100,\n");
-		prompt.append("  \"bestPracticesScore\": 0-100,\n");
-		prompt.append("  \"issues\": [\n");
-		prompt.append("    {\n");
-		prompt.append("      \"category\": \"SECURITY|PERFORMANCE|BEST_PRACTICE\",\n");
-		prompt.append("      \"severity\": \"HIGH|MEDIUM|LOW\",\n");
-		prompt.append("      \"title\": \"Issue title\",\n");
-		prompt.append("      \"description\": \"Detailed description\",\n");
-		prompt.append("      \"lineNumber\": 123,\n");
-		prompt.append("      \"codeSnippet\": \"Problematic code snippet\",\n");
-		prompt.append("      \"recommendation\": \"How to fix the issue\"\n");
-		prompt.append("    }\n");
-		prompt.append("  ],\n");
-		prompt.append("  \"suggestions\": [\n");
-		prompt.append("    {\n");
-		prompt.append("      \"type\": \"REFACTORING|OPTIMIZATION|CONVENTION|ENHANCEMENT\",\n");
-		prompt.append("      \"title\": \"Suggestion title\",\n");
-		prompt.append("      \"description\": \"Detailed suggestion\",\n");
-		prompt.append("      \"suggestedCode\": \"Improved code\",\n");
-		prompt.append("      \"benefits\": \"Benefits of the change\",\n");
-		prompt.append("      \"effort\": \"LOW|MEDIUM|HIGH\"\n");
-		prompt.append("    }\n");
-		prompt.append("  ]\n");
-		prompt.append("}\n\n");
-
-		prompt.append("Focus on the following areas:\n");
-		prompt.append("- Security vulnerabilities\n");
-		prompt.append("- Performance issues\n");
-		prompt.append("- Best practices violations\n");
-		prompt.append("- Code maintainability\n");
-		prompt.append("- Potential bugs\n");
-
-		if (rules != null && rules.getSpecificRules() != null) {
-			prompt.append("\nCustom analysis rules:\n");
-			prompt.append(rules.getSpecificRules());
+		// Already reported from the rules; the model's attention goes to what patterns cannot find
+		if (!matches.isEmpty()) {
+			prompt.append("Already reported by static rule checks, do not repeat these:\n");
+			for (RuleScanner.Match match : matches) {
+				prompt.append("- line ").append(match.getLineNumber()).append(": [").append(match.getRule().getId())
+						.append("] ").append(match.getRule().getDescription()).append("\n");
+			}
+			prompt.append("\n");
 		}
-
-		return prompt.toString();
 	}
 
 	private CodeAnalysisResult parseAIResponse(String filePath, String fileName, String language, String code,
@@ -131,43 +777,64 @@ public class OpenAIClientService {
 			// Clean the response
 			String cleanResponse = cleanJsonResponse(aiResponse);
 
-			Map<String, Object> responseMap = objectMapper.readValue(cleanResponse, Map.class);
+			Map<String, Object> responseMap = objectMapper.readValue(cleanResponse, RESPONSE_TYPE);
+			return toResult(filePath, fileName, language, code, responseMap);
 
-			CodeAnalysisResult result = new CodeAnalysisResult(filePath, fileName,
-					CodeAnalysisResult.AnalysisType.MODIFIED);
-			result.setLanguage(language);
-			result.setChangedCode(code);
-			result.setSummary((String) responseMap.get("summary"));
-			result.setSecurityScore(getDouble(responseMap.get("securityScore")));
-			result.setPerformanceScore(getDouble(responseMap.get("performanceScore")));
-			result.setBestPracticesScore(getDouble(responseMap.get("bestPracticesScore")));
-
-			Double overallScore = calculateOverallScore(result);
-			result.setOverallScore(overallScore);
+		} catch (Exception e) {
+			throw new RuntimeException("Failed to parse AI response: " + e.getMessage(), e);
+		}
+	}
 
-			// Parse issues
-			List<Map<String, Object>> issuesList = (List<Map<String, Object>>) responseMap.get("issues");
-			if (issuesList != null) {
-				for (Map<String, Object> issueMap : issuesList) {
-					AnalysisIssue issue = parseIssue(issueMap);
-					result.getIssues().add(issue);
-				}
+	/**
+	 * Entries of a packed response by file path.
+	 */
+	private Map<String, Object> parsePackedResponse(String aiResponse) {
+		try {
+			Map<String, Object> responseMap = objectMapper.readValue(cleanJsonResponse(aiResponse), RESPONSE_TYPE);
+			Map<String, Object> entries = objectMapper.convertValue(responseMap.get("files"), RESPONSE_TYPE);
+			if (entries == null) {
+				throw new IllegalArgumentException("no \"files\" object");
 			}
+			return entries;
+		} catch (Exception e) {
+			throw new RuntimeException("Failed to parse packed AI response: " + e.getMessage(), e);
+		}
+	}
 
-			// Parse suggestions
-			List<Map<String, Object>> suggestionsList = (List<Map<String, Object>>) responseMap.get("suggestions");
-			if (suggestionsList != null) {
-				for (Map<String, Object> suggestionMap : suggestionsList) {
-					AnalysisSuggestion suggestion = parseSuggestion(suggestionMap);
-					result.getSuggestions().add(suggestion);
-				}
+	private CodeAnalysisResult toResult(String filePath, String fileName, String language, String code,
+			Map<String, Object> responseMap) {
+		CodeAnalysisResult result = new CodeAnalysisResult(filePath, fileName,
+				CodeAnalysisResult.AnalysisType.MODIFIED);
+		result.setLanguage(language);
+		result.setChangedCode(code);
+		result.setSummary((String) responseMap.get("summary"));
+		result.setSecurityScore(getDouble(responseMap.get("securityScore")));
+		result.setPerformanceScore(getDouble(responseMap.get("performanceScore")));
+		result.setBestPracticesScore(getDouble(responseMap.get("bestPracticesScore")));
+
+		Double overallScore = calculateOverallScore(result);
+		result.setOverallScore(overallScore);
+
+		// Parse issues
+		List<Map<String, Object>> issuesList = objectMapper.convertValue(responseMap.get("issues"), ENTRIES_TYPE);
+		if (issuesList != null) {
+			for (Map<String, Object> issueMap : issuesList) {
+				AnalysisIssue issue = parseIssue(issueMap);
+				result.getIssues().add(issue);
 			}
+		}
 
-			return result;
-
-		} catch (Exception e) {
-			throw new RuntimeException("Failed to parse AI response: " + e.getMessage(), e);
+		// Parse suggestions
+		List<Map<String, Object>> suggestionsList = objectMapper.convertValue(responseMap.get("suggestions"),
+				ENTRIES_TYPE);
+		if (suggestionsList != null) {
+			for (Map<String, Object> suggestionMap : suggestionsList) {
+				AnalysisSuggestion suggestion = parseSuggestion(suggestionMap);
+				result.getSuggestions().add(suggestion);
+			}
 		}
+
+		return result;
 	}
 
 	private String cleanJsonResponse(String response) {
@@ -257,23 +924,4 @@ public class OpenAIClientService {
 			return "csharp";
 		return "unknown";
 	}
-
-	private AnalysisRules loadAnalysisRules() {
-		// For now, return hardcoded default rules
-		AnalysisRules rules = new AnalysisRules();
-		rules.setSpecificRules("Focus on Spring Boot best practices for Java files.");
-		return rules;
-	}
-
-	public static class AnalysisRules {
-		private String specificRules;
-
-		public String getSpecificRules() {
-			return specificRules;
-		}
-
-		public void setSpecificRules(String specificRules) {
-			this.specificRules = specificRules;
-		}
-	}
-}
\ No newline at end of file
+}
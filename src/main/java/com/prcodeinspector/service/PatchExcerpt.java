@@ -0,0 +1,219 @@
+package com.prcodeinspector.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.IntFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The changed hunks of a file, rendered for review with a number of context
+ * lines around every change, or a head/tail sample of an oversized file.
+ * Excerpt lines are numbered from 1 for the model; {@link #toFileLine(Integer)}
+ * maps such a line back to the line in the new version of the file.
+ */
+public final class PatchExcerpt {
+
+	/** Context GitHub includes around every change in the {@code patch} field. */
+	public static final int PATCH_CONTEXT_LINES = 3;
+
+	static final String GAP_MARKER = "...";
+
+	private static final Pattern HUNK_HEADER = Pattern.compile("^@@ -\\d+(?:,\\d+)? \\+(\\d+)(?:,\\d+)? @@.*");
+
+	/** Width of the change marker ({@code "+ "} or two spaces) that starts every line of a diff excerpt. */
+	private static final int MARKER_WIDTH = 2;
+
+	private final String text;
+	private final int[] lineMap;
+	private final int changedLines;
+	// Whether the lines carry change markers (diff excerpts) or are the file's own (samples)
+	private final boolean marked;
+
+	private PatchExcerpt(String text, int[] lineMap, int changedLines, boolean marked) {
+		this.text = text;
+		this.lineMap = lineMap;
+		this.changedLines = changedLines;
+		this.marked = marked;
+	}
+
+	/**
+	 * Builds the excerpt from the patch alone; context beyond what GitHub
+	 * included in the patch is not available.
+	 */
+	public static PatchExcerpt fromPatch(String patch, int contextLines) {
+		ParsedPatch parsed = parse(patch);
+		return render(parsed, Math.min(contextLines, PATCH_CONTEXT_LINES), parsed.lines::get,
+				parsed.lines.isEmpty() ? 0 : parsed.lines.lastKey());
+	}
+
+	/**
+	 * Builds the excerpt from the patch with context taken from the full new
+	 * content of the file.
+	 */
+	public static PatchExcerpt fromContent(String patch, String newContent, int contextLines) {
+		ParsedPatch parsed = parse(patch);
+		String[] lines = newContent.split("\n", -1);
+		return render(parsed, contextLines, line -> line <= lines.length ? lines[line - 1] : null, lines.length);
+	}
+
+	/**
+	 * A sample of an oversized file: its first lines and, when available, its
+	 * last lines. Only the head lines map back to file lines.
+	 */
+	public static PatchExcerpt fromSample(String head, String tail) {
+		StringBuilder text = new StringBuilder(head);
+		List<Integer> lineMap = new ArrayList<>();
+		int headLines = (int) head.lines().count();
+		for (int line = 1; line <= headLines; line++) {
+			lineMap.add(line);
+		}
+		if (tail != null && !tail.isEmpty()) {
+			text.append(GAP_MARKER).append('\n').append(tail);
+			// The tail's position in the file is unknown
+			for (int line = 0; line <= tail.lines().count(); line++) {
+				lineMap.add(0);
+			}
+		}
+		return new PatchExcerpt(text.toString(), lineMap.stream().mapToInt(Integer::intValue).toArray(), 0, false);
+	}
+
+	/**
+	 * The lines of this excerpt from {@code startLine} (1-based) on, given as
+	 * {@code text}, as an excerpt of their own numbered from 1 again.
+	 */
+	public PatchExcerpt part(int startLine, String text) {
+		int from = Math.min(Math.max(0, startLine - 1), lineMap.length);
+		int to = Math.min(from + (int) text.lines().count(), lineMap.length);
+		return new PatchExcerpt(text, Arrays.copyOfRange(lineMap, from, to), 0, marked);
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * The excerpt as code: its text line for line, without the change
+	 * markers of a diff excerpt, so rules anchored at the line start or on
+	 * indentation match as they would in the file.
+	 */
+	public String getCode() {
+		if (!marked) {
+			return text;
+		}
+		StringBuilder code = new StringBuilder(text.length());
+		int lineStart = 0;
+		while (lineStart < text.length()) {
+			int lineEnd = text.indexOf('\n', lineStart);
+			lineEnd = lineEnd < 0 ? text.length() : lineEnd + 1;
+			boolean hasMarker = text.startsWith("+ ", lineStart) || text.startsWith("  ", lineStart);
+			code.append(text, hasMarker ? lineStart + MARKER_WIDTH : lineStart, lineEnd);
+			lineStart = lineEnd;
+		}
+		return code.toString();
+	}
+
+	public int getChangedLines() {
+		return changedLines;
+	}
+
+	/**
+	 * Maps a 1-based excerpt line to the line in the new file, or null when the
+	 * line is unknown or does not belong to the file (a gap marker).
+	 */
+	public Integer toFileLine(Integer excerptLine) {
+		if (excerptLine == null || excerptLine < 1 || excerptLine > lineMap.length) {
+			return null;
+		}
+		int fileLine = lineMap[excerptLine - 1];
+		return fileLine > 0 ? fileLine : null;
+	}
+
+	private static PatchExcerpt render(ParsedPatch parsed, int contextLines, IntFunction<String> source,
+			int lastLine) {
+		StringBuilder text = new StringBuilder();
+		List<Integer> lineMap = new ArrayList<>();
+		int previous = 0;
+
+		for (int[] range : mergeRanges(parsed.anchors, contextLines, lastLine)) {
+			for (int line = range[0]; line <= range[1]; line++) {
+				String content = source.apply(line);
+				if (content == null) {
+					continue;
+				}
+				if (previous > 0 && line > previous + 1) {
+					text.append(GAP_MARKER).append('\n');
+					lineMap.add(0);
+				}
+				text.append(parsed.added.contains(line) ? "+ " : "  ").append(content).append('\n');
+				lineMap.add(line);
+				previous = line;
+			}
+		}
+
+		return new PatchExcerpt(text.toString(), lineMap.stream().mapToInt(Integer::intValue).toArray(),
+				parsed.added.size(), true);
+	}
+
+	private static List<int[]> mergeRanges(NavigableSet<Integer> anchors, int contextLines, int lastLine) {
+		List<int[]> ranges = new ArrayList<>();
+		for (int anchor : anchors) {
+			int start = Math.max(1, anchor - contextLines);
+			int end = Math.min(lastLine, anchor + contextLines);
+			int[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+			if (last != null && start <= last[1] + 1) {
+				last[1] = Math.max(last[1], end);
+			} else if (start <= end) {
+				ranges.add(new int[] { start, end });
+			}
+		}
+		return ranges;
+	}
+
+	private static ParsedPatch parse(String patch) {
+		ParsedPatch parsed = new ParsedPatch();
+		int newLine = 0;
+		boolean inHunk = false;
+
+		for (String line : patch.split("\n")) {
+			Matcher header = HUNK_HEADER.matcher(line);
+			if (header.matches()) {
+				newLine = Integer.parseInt(header.group(1));
+				inHunk = true;
+				continue;
+			}
+			if (!inHunk || line.startsWith("\\")) {
+				// "\ No newline at end of file"
+				continue;
+			}
+
+			char marker = line.isEmpty() ? ' ' : line.charAt(0);
+			String content = line.isEmpty() ? "" : line.substring(1);
+			if (marker == '+') {
+				parsed.lines.put(newLine, content);
+				parsed.added.add(newLine);
+				parsed.anchors.add(newLine);
+				newLine++;
+			} else if (marker == '-') {
+				// A removal has no new line; anchor the context on the line that follows it
+				parsed.anchors.add(Math.max(1, newLine));
+			} else {
+				parsed.lines.put(newLine, content);
+				newLine++;
+			}
+		}
+		return parsed;
+	}
+
+	private static class ParsedPatch {
+		private final TreeMap<Integer, String> lines = new TreeMap<>();
+		private final Set<Integer> added = new HashSet<>();
+		private final NavigableSet<Integer> anchors = new TreeSet<>();
+	}
+}
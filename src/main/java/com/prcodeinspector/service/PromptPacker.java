@@ -0,0 +1,110 @@
+package com.prcodeinspector.service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import com.prcodeinspector.model.CodeAnalysisResult;
+
+/**
+ * Bin-packs small files into shared prompts as they arrive (first fit over
+ * the open packs). A pack is sent once it holds {@code maxFiles} files or has
+ * less than a tenth of its token budget left; {@link #flush()} sends the rest.
+ */
+public class PromptPacker {
+
+	/** Path line, code fence and response entry of each file in a pack. */
+	static final int FILE_OVERHEAD_TOKENS = 30;
+
+	private final int maxTokens;
+	private final int maxFiles;
+	private final Consumer<List<PackedFile>> sender;
+	private final List<Pack> open = new ArrayList<>();
+
+	public PromptPacker(int maxTokens, int maxFiles, Consumer<List<PackedFile>> sender) {
+		this.maxTokens = maxTokens;
+		this.maxFiles = Math.max(1, maxFiles);
+		this.sender = sender;
+	}
+
+	/**
+	 * Rough token count (about four characters per token), enough to size
+	 * packs without a tokenizer.
+	 */
+	public static int estimateTokens(String text) {
+		return text == null ? 0 : (text.length() + 3) / 4;
+	}
+
+	public void add(PackedFile file) {
+		int tokens = estimateTokens(file.getCode()) + FILE_OVERHEAD_TOKENS;
+
+		Pack pack = null;
+		for (Pack candidate : open) {
+			if (candidate.tokens + tokens <= maxTokens) {
+				pack = candidate;
+				break;
+			}
+		}
+		if (pack == null) {
+			pack = new Pack();
+			open.add(pack);
+		}
+		pack.files.add(file);
+		pack.tokens += tokens;
+
+		if (pack.files.size() >= maxFiles || maxTokens - pack.tokens < maxTokens / 10) {
+			open.remove(pack);
+			sender.accept(pack.files);
+		}
+	}
+
+	public void flush() {
+		for (Iterator<Pack> packs = open.iterator(); packs.hasNext();) {
+			sender.accept(packs.next().files);
+			packs.remove();
+		}
+	}
+
+	private static class Pack {
+		private final List<PackedFile> files = new ArrayList<>();
+		private int tokens;
+	}
+
+	public static class PackedFile {
+		private final String filePath;
+		private final String fileName;
+		private final String language;
+		private final String code;
+		private final CompletableFuture<CodeAnalysisResult> result = new CompletableFuture<>();
+
+		public PackedFile(String filePath, String fileName, String language, String code) {
+			this.filePath = filePath;
+			this.fileName = fileName;
+			this.language = language;
+			this.code = code;
+		}
+
+		public String getFilePath() {
+			return filePath;
+		}
+
+		public String getFileName() {
+			return fileName;
+		}
+
+		public String getLanguage() {
+			return language;
+		}
+
+		public String getCode() {
+			return code;
+		}
+
+		/** Completed once the pack (or the single-file fallback) has been analysed. */
+		public CompletableFuture<CodeAnalysisResult> getResult() {
+			return result;
+		}
+	}
+}
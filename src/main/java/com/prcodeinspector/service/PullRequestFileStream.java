@@ -0,0 +1,121 @@
+package com.prcodeinspector.service;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Files of a pull request as they become ready. A lister thread pages through
+ * the file list and starts each file's content fetch as soon as its page has
+ * arrived; iteration yields the fetches in completion order. At most
+ * {@code maxPendingFiles} files are being fetched or waiting for the consumer
+ * at any time, so the lister stops paging while the consumer is behind.
+ */
+public class PullRequestFileStream implements Iterable<CompletableFuture<GitHubService.PullRequestFile>>,
+		AutoCloseable {
+
+	private static final CompletableFuture<GitHubService.PullRequestFile> END = new CompletableFuture<>();
+
+	private final BlockingQueue<CompletableFuture<GitHubService.PullRequestFile>> arrivals = new LinkedBlockingQueue<>();
+	private final Semaphore pending;
+	private final AtomicInteger submitted = new AtomicInteger();
+	private volatile Exception listingFailure;
+	private Thread lister;
+
+	PullRequestFileStream(int maxPendingFiles) {
+		this.pending = new Semaphore(Math.max(1, maxPendingFiles));
+	}
+
+	void start(String name, Lister task) {
+		lister = new Thread(() -> {
+			try {
+				task.list(this);
+			} catch (Exception e) {
+				listingFailure = e;
+			} finally {
+				arrivals.add(END);
+			}
+		}, name);
+		lister.setDaemon(true);
+		lister.start();
+	}
+
+	/**
+	 * Waits for a free slot, then starts the fetch; called from the lister
+	 * thread only.
+	 */
+	void submit(Supplier<CompletableFuture<GitHubService.PullRequestFile>> fetch) throws InterruptedException {
+		pending.acquire();
+		CompletableFuture<GitHubService.PullRequestFile> future = fetch.get();
+		submitted.incrementAndGet();
+		future.whenComplete((file, error) -> arrivals.add(future));
+	}
+
+	@Override
+	public Iterator<CompletableFuture<GitHubService.PullRequestFile>> iterator() {
+		return new Iterator<>() {
+			private CompletableFuture<GitHubService.PullRequestFile> next;
+			private boolean listed;
+			private int taken;
+
+			@Override
+			public boolean hasNext() {
+				while (next == null) {
+					if (listed && taken == submitted.get()) {
+						return false;
+					}
+					CompletableFuture<GitHubService.PullRequestFile> arrival = take();
+					if (arrival == END) {
+						if (listingFailure != null) {
+							throw new IllegalStateException(
+									"Failed to list pull request files: " + listingFailure.getMessage(), listingFailure);
+						}
+						listed = true;
+					} else {
+						next = arrival;
+					}
+				}
+				return true;
+			}
+
+			@Override
+			public CompletableFuture<GitHubService.PullRequestFile> next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				CompletableFuture<GitHubService.PullRequestFile> arrival = next;
+				next = null;
+				taken++;
+				pending.release();
+				return arrival;
+			}
+		};
+	}
+
+	private CompletableFuture<GitHubService.PullRequestFile> take() {
+		try {
+			return arrivals.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for file content", e);
+		}
+	}
+
+	@Override
+	public void close() {
+		// Unblocks a lister that is waiting for a slot the consumer will never free
+		if (lister != null) {
+			lister.interrupt();
+		}
+	}
+
+	@FunctionalInterface
+	interface Lister {
+		void list(PullRequestFileStream stream) throws Exception;
+	}
+}
@@ -0,0 +1,234 @@
+package com.prcodeinspector.service;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.kohsuke.github.GHPullRequest;
+
+/**
+ * Pull request state resolved once per analysis. Every later step reads the
+ * metadata, commit SHAs and file listing from here instead of asking GitHub
+ * again. A snapshot resolved for streaming starts without a file listing;
+ * files are added as {@link PullRequestFileStream} pages them in, so until the
+ * stream is drained {@link #getFile(String)} only knows the files listed so far.
+ */
+public class PullRequestSnapshot {
+
+	private String owner;
+	private String repository;
+	private int prNumber;
+	private String title;
+	private String description;
+	private String author;
+	private Date createdAt;
+	private Date updatedAt;
+	private String state;
+	private boolean mergeable;
+	private String mergeableState;
+	private String headRef;
+	private String headSha;
+	private String baseRef;
+	private String baseSha;
+	private int changedFiles;
+	private boolean mirrored;
+	private final List<GitHubService.PullRequestFile> files = new CopyOnWriteArrayList<>();
+	private final Map<String, GitHubService.PullRequestFile> filesByPath = new ConcurrentHashMap<>();
+	private GHPullRequest pullRequest;
+	private CompletableFuture<Map<String, String>> baseBlobShas;
+	private CompletableFuture<Map<String, Long>> headBlobSizes;
+
+	private final AtomicInteger gitHubCalls = new AtomicInteger();
+
+	public void recordGitHubCall() {
+		gitHubCalls.incrementAndGet();
+	}
+
+	public int getGitHubCalls() {
+		return gitHubCalls.get();
+	}
+
+	public GitHubService.PullRequestFile getFile(String filePath) {
+		return filesByPath.get(filePath);
+	}
+
+	// Getters and setters
+	public String getOwner() {
+		return owner;
+	}
+
+	public void setOwner(String owner) {
+		this.owner = owner;
+	}
+
+	public String getRepository() {
+		return repository;
+	}
+
+	public void setRepository(String repository) {
+		this.repository = repository;
+	}
+
+	public int getPrNumber() {
+		return prNumber;
+	}
+
+	public void setPrNumber(int prNumber) {
+		this.prNumber = prNumber;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public void setTitle(String title) {
+		this.title = title;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public void setDescription(String description) {
+		this.description = description;
+	}
+
+	public String getAuthor() {
+		return author;
+	}
+
+	public void setAuthor(String author) {
+		this.author = author;
+	}
+
+	public Date getCreatedAt() {
+		return createdAt;
+	}
+
+	public void setCreatedAt(Date createdAt) {
+		this.createdAt = createdAt;
+	}
+
+	public Date getUpdatedAt() {
+		return updatedAt;
+	}
+
+	public void setUpdatedAt(Date updatedAt) {
+		this.updatedAt = updatedAt;
+	}
+
+	public String getState() {
+		return state;
+	}
+
+	public void setState(String state) {
+		this.state = state;
+	}
+
+	public boolean isMergeable() {
+		return mergeable;
+	}
+
+	public void setMergeable(boolean mergeable) {
+		this.mergeable = mergeable;
+	}
+
+	public String getMergeableState() {
+		return mergeableState;
+	}
+
+	public void setMergeableState(String mergeableState) {
+		this.mergeableState = mergeableState;
+	}
+
+	public String getHeadRef() {
+		return headRef;
+	}
+
+	public void setHeadRef(String headRef) {
+		this.headRef = headRef;
+	}
+
+	public String getHeadSha() {
+		return headSha;
+	}
+
+	public void setHeadSha(String headSha) {
+		this.headSha = headSha;
+	}
+
+	public String getBaseRef() {
+		return baseRef;
+	}
+
+	public void setBaseRef(String baseRef) {
+		this.baseRef = baseRef;
+	}
+
+	public String getBaseSha() {
+		return baseSha;
+	}
+
+	public void setBaseSha(String baseSha) {
+		this.baseSha = baseSha;
+	}
+
+	public CompletableFuture<Map<String, Long>> getHeadBlobSizes() {
+		return headBlobSizes;
+	}
+
+	public void setHeadBlobSizes(CompletableFuture<Map<String, Long>> headBlobSizes) {
+		this.headBlobSizes = headBlobSizes;
+	}
+
+	public int getChangedFiles() {
+		return changedFiles;
+	}
+
+	public void setChangedFiles(int changedFiles) {
+		this.changedFiles = changedFiles;
+	}
+
+	public boolean isMirrored() {
+		return mirrored;
+	}
+
+	public void setMirrored(boolean mirrored) {
+		this.mirrored = mirrored;
+	}
+
+	public List<GitHubService.PullRequestFile> getFiles() {
+		return files;
+	}
+
+	public void setFiles(List<GitHubService.PullRequestFile> files) {
+		this.files.clear();
+		filesByPath.clear();
+		files.forEach(this::addFile);
+	}
+
+	public void addFile(GitHubService.PullRequestFile file) {
+		files.add(file);
+		filesByPath.put(file.getFilePath(), file);
+	}
+
+	public CompletableFuture<Map<String, String>> getBaseBlobShas() {
+		return baseBlobShas;
+	}
+
+	public void setBaseBlobShas(CompletableFuture<Map<String, String>> baseBlobShas) {
+		this.baseBlobShas = baseBlobShas;
+	}
+
+	GHPullRequest getPullRequest() {
+		return pullRequest;
+	}
+
+	void setPullRequest(GHPullRequest pullRequest) {
+		this.pullRequest = pullRequest;
+	}
+}
@@ -0,0 +1,349 @@
+package com.prcodeinspector.service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Runs model calls through the {@link AdaptiveConcurrencyLimiter} with:
+ * <ul>
+ * <li>retries of transient failures (429, 5xx, timeouts, I/O errors) after
+ * an exponential backoff with full jitter, or after the provider's
+ * Retry-After when it sent one; the concurrency slot is released while
+ * waiting;</li>
+ * <li>a {@link CircuitBreaker} that fails calls at once while the provider
+ * keeps failing;</li>
+ * <li>optionally, a hedged second request when the first one is still
+ * running after the recent latency percentile; the first answer wins.</li>
+ * </ul>
+ * Every call counts once in {@code openai.calls} tagged by the path it took.
+ */
+@Component
+public class ResilientCallExecutor {
+
+	private static final Logger logger = LoggerFactory.getLogger(ResilientCallExecutor.class);
+
+	@Autowired
+	private AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${openai.resilience.retry.max-attempts:4}")
+	private int maxAttempts;
+
+	@Value("${openai.resilience.retry.base-delay-ms:1000}")
+	private long baseDelayMs;
+
+	@Value("${openai.resilience.retry.max-delay-ms:30000}")
+	private long maxDelayMs;
+
+	@Value("${openai.resilience.circuit.window-size:20}")
+	private int circuitWindowSize;
+
+	@Value("${openai.resilience.circuit.minimum-calls:10}")
+	private int circuitMinimumCalls;
+
+	@Value("${openai.resilience.circuit.failure-rate-threshold:0.5}")
+	private double circuitFailureRateThreshold;
+
+	@Value("${openai.resilience.circuit.open-duration-ms:30000}")
+	private long circuitOpenDurationMs;
+
+	@Value("${openai.resilience.hedging.enabled:false}")
+	private boolean hedgingEnabled;
+
+	@Value("${openai.resilience.hedging.percentile:0.95}")
+	private double hedgingPercentile;
+
+	@Value("${openai.resilience.hedging.min-samples:20}")
+	private int hedgingMinSamples;
+
+	@Value("${openai.resilience.hedging.min-delay-ms:1000}")
+	private long hedgingMinDelayMs;
+
+	private CircuitBreaker circuitBreaker;
+	private ScheduledExecutorService scheduler;
+
+	// Latencies of the most recent successful attempts, for the hedging delay
+	private final long[] latencies = new long[200];
+	private int latencyCount;
+	private int nextLatency;
+
+	@PostConstruct
+	public void init() {
+		circuitBreaker = new CircuitBreaker(circuitWindowSize, circuitMinimumCalls, circuitFailureRateThreshold,
+				circuitOpenDurationMs);
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "llm-retry");
+			thread.setDaemon(true);
+			return thread;
+		});
+		if (meterRegistry != null) {
+			Gauge.builder("openai.circuit.state", circuitBreaker, breaker -> breaker.getState().ordinal())
+					.description("0 closed, 1 open, 2 half-open").register(meterRegistry);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		scheduler.shutdownNow();
+	}
+
+	/**
+	 * Runs the call with retries and, when {@code hedgeable} (the call has no
+	 * side effects besides its result) and hedging is on, hedging.
+	 */
+	public <T> CompletableFuture<T> execute(Callable<T> call, boolean hedgeable) {
+		return execute(call, hedgeable, () -> true);
+	}
+
+	/**
+	 * As {@link #execute(Callable, boolean)}; a failed attempt is only
+	 * retried while {@code mayRetry} holds, e.g. until a streamed call has
+	 * handed out part of its output.
+	 */
+	public <T> CompletableFuture<T> execute(Callable<T> call, boolean hedgeable, BooleanSupplier mayRetry) {
+		Call<T> request = new Call<>(call, hedgeable && hedgingEnabled, mayRetry);
+		attempt(request, 1);
+		return request.result;
+	}
+
+	public CircuitBreaker.State getCircuitState() {
+		return circuitBreaker.getState();
+	}
+
+	private <T> void attempt(Call<T> call, int attempt) {
+		if (!circuitBreaker.tryAcquire()) {
+			outcome(attempt == 1 ? "circuit_open" : "circuit_open_after_retry");
+			call.result.completeExceptionally(new CircuitOpenException());
+			return;
+		}
+
+		Attempt state = new Attempt();
+		launch(call, attempt, state, false);
+		long hedgeDelay = call.hedgeable ? hedgeDelayMillis() : 0;
+		if (hedgeDelay > 0) {
+			scheduler.schedule(() -> {
+				// A hedge only goes out while the provider is healthy
+				if (circuitBreaker.getState() == CircuitBreaker.State.CLOSED && state.hedge()) {
+					count("openai.call.hedges");
+					launch(call, attempt, state, true);
+				}
+			}, hedgeDelay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private <T> void launch(Call<T> call, int attempt, Attempt state, boolean hedge) {
+		long start = System.nanoTime();
+		concurrencyLimiter.submit(call.callable).whenComplete((value, error) -> {
+			Throwable cause = unwrap(error);
+			if (cause != null && isRetryable(cause)) {
+				circuitBreaker.onFailure();
+			} else {
+				// Client errors say nothing about the provider's health
+				circuitBreaker.onSuccess();
+			}
+			if (cause == null) {
+				recordLatency(System.nanoTime() - start);
+			}
+
+			Settled settled = state.complete(cause);
+			if (settled == Settled.WON) {
+				outcome(hedge ? "hedge_won" : attempt > 1 ? "success_after_retry" : "success");
+				call.result.complete(value);
+			} else if (settled == Settled.FAILED) {
+				retryOrFail(call, attempt, cause);
+			}
+		});
+	}
+
+	private <T> void retryOrFail(Call<T> call, int attempt, Throwable error) {
+		if (!isRetryable(error)) {
+			outcome(attempt > 1 ? "failed_after_retry" : "failed");
+			call.result.completeExceptionally(error);
+			return;
+		}
+		if (!call.mayRetry.getAsBoolean()) {
+			outcome("failed_after_output");
+			call.result.completeExceptionally(error);
+			return;
+		}
+		if (attempt >= maxAttempts) {
+			outcome("retries_exhausted");
+			call.result.completeExceptionally(error);
+			return;
+		}
+
+		Duration retryAfter = error instanceof ModelCallException ? ((ModelCallException) error).getRetryAfter()
+				: null;
+		long delay;
+		if (retryAfter != null) {
+			if (retryAfter.toMillis() > maxDelayMs) {
+				logger.warn("Model provider asked to wait {} ms, more than the {} ms allowed; giving up",
+						retryAfter.toMillis(), maxDelayMs);
+				outcome("retry_after_too_long");
+				call.result.completeExceptionally(error);
+				return;
+			}
+			// At least the requested wait, spread a little so waiting calls do not return together
+			delay = retryAfter.toMillis() + ThreadLocalRandom.current().nextLong(retryAfter.toMillis() / 10 + 1);
+		} else {
+			delay = ThreadLocalRandom.current().nextLong(backoffCap(attempt) + 1);
+		}
+
+		logger.debug("Model call attempt {} failed ({}), retrying in {} ms", attempt, error.getMessage(), delay);
+		count("openai.call.retries");
+		scheduler.schedule(() -> attempt(call, attempt + 1), delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Full jitter cap: base delay doubled per failed attempt, up to the
+	 * maximum.
+	 */
+	private long backoffCap(int attempt) {
+		return Math.min(maxDelayMs, baseDelayMs << Math.min(20, attempt - 1));
+	}
+
+	/**
+	 * Transient failures worth another attempt: rate limiting (unless the
+	 * quota is gone), server errors, timeouts and I/O errors.
+	 */
+	static boolean isRetryable(Throwable error) {
+		for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+			if (cause instanceof CircuitOpenException) {
+				return false;
+			}
+			if (cause instanceof ModelCallException) {
+				ModelCallException failure = (ModelCallException) cause;
+				int status = failure.getStatus();
+				return (status == 408 || status == 429 || status >= 500) && !failure.isQuotaExhausted();
+			}
+			if (cause instanceof TransientAiException || cause instanceof IOException
+					|| cause instanceof TimeoutException) {
+				return true;
+			}
+			if (cause.getCause() == cause) {
+				break;
+			}
+		}
+		return false;
+	}
+
+	private static Throwable unwrap(Throwable error) {
+		return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+	}
+
+	/**
+	 * Delay before a hedged request: the configured percentile of recent
+	 * latencies, 0 (no hedging) until enough calls succeeded.
+	 */
+	private synchronized long hedgeDelayMillis() {
+		if (latencyCount < hedgingMinSamples) {
+			return 0;
+		}
+		long[] sorted = Arrays.copyOf(latencies, latencyCount);
+		Arrays.sort(sorted);
+		int index = Math.min(latencyCount - 1, (int) Math.ceil(hedgingPercentile * latencyCount) - 1);
+		return Math.max(hedgingMinDelayMs, TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(0, index)]));
+	}
+
+	private synchronized void recordLatency(long nanos) {
+		latencies[nextLatency] = nanos;
+		nextLatency = (nextLatency + 1) % latencies.length;
+		latencyCount = Math.min(latencies.length, latencyCount + 1);
+	}
+
+	private void outcome(String outcome) {
+		if (meterRegistry != null) {
+			meterRegistry.counter("openai.calls", "outcome", outcome).increment();
+		}
+	}
+
+	private void count(String name) {
+		if (meterRegistry != null) {
+			meterRegistry.counter(name).increment();
+		}
+	}
+
+	private enum Settled {
+		WON, FAILED, PENDING
+	}
+
+	private static class Call<T> {
+		private final Callable<T> callable;
+		private final boolean hedgeable;
+		private final BooleanSupplier mayRetry;
+		private final CompletableFuture<T> result = new CompletableFuture<>();
+
+		Call(Callable<T> callable, boolean hedgeable, BooleanSupplier mayRetry) {
+			this.callable = callable;
+			this.hedgeable = hedgeable;
+			this.mayRetry = mayRetry;
+		}
+	}
+
+	/**
+	 * The requests of one attempt: the first and, if sent, its hedge. The
+	 * first success settles it; it fails once every request failed.
+	 */
+	private static class Attempt {
+		private int running = 1;
+		private boolean settled;
+		private boolean hedged;
+
+		synchronized boolean hedge() {
+			if (settled || hedged) {
+				return false;
+			}
+			hedged = true;
+			running++;
+			return true;
+		}
+
+		synchronized Settled complete(Throwable error) {
+			running--;
+			if (settled) {
+				return Settled.PENDING;
+			}
+			if (error == null || running == 0) {
+				settled = true;
+				return error == null ? Settled.WON : Settled.FAILED;
+			}
+			return Settled.PENDING;
+		}
+	}
+
+	/**
+	 * Thrown without calling the provider while the circuit is open.
+	 */
+	public static class CircuitOpenException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		CircuitOpenException() {
+			super("Model provider circuit is open after repeated failures; not calling it");
+		}
+	}
+}
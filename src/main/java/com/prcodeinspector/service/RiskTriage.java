@@ -0,0 +1,110 @@
+package com.prcodeinspector.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Scores how much a file needs the expensive review model, from 0 (plain
+ * data holders, getters, simple tests) to 100, without calling a model:
+ * sensitive APIs in the code, branch count and size; test files count half.
+ */
+public final class RiskTriage {
+
+	/** Points per kind of sensitive code present in the file. */
+	private static final int SENSITIVE_POINTS = 15;
+
+	private static final Map<String, Pattern> SENSITIVE = new LinkedHashMap<>();
+
+	static {
+		SENSITIVE.put("sql", Pattern.compile(
+				"(?i)\\b(?:select\\s.+\\sfrom|insert\\s+into|update\\s.+\\sset|delete\\s+from)\\b|createQuery|executeQuery|executeUpdate|prepareStatement|jdbc"));
+		SENSITIVE.put("process", Pattern.compile(
+				"Runtime\\.getRuntime|ProcessBuilder|\\beval\\s*\\(|\\bexec\\s*\\(|child_process|subprocess|os\\.system"));
+		SENSITIVE.put("security", Pattern.compile(
+				"(?i)password|secret|credential|cipher|MessageDigest|crypto|\\bjwt\\b|authenticat|authoriz|\\btoken\\b"));
+		SENSITIVE.put("deserialization", Pattern.compile(
+				"ObjectInputStream|readObject|pickle\\.loads|yaml\\.load|unserialize|Class\\.forName|setAccessible"));
+		SENSITIVE.put("io", Pattern.compile(
+				"HttpClient|URLConnection|RestTemplate|WebClient|\\bfetch\\s*\\(|requests\\.|new\\s+File\\s*\\(|Files\\.|FileInputStream|\\bopen\\s*\\("));
+		SENSITIVE.put("concurrency", Pattern.compile(
+				"\\bsynchronized\\b|\\bvolatile\\b|\\bThread\\b|ExecutorService|CompletableFuture|\\bLock\\b|\\bgo\\s+func\\b|\\basync\\s"));
+	}
+
+	private static final Pattern BRANCH = Pattern
+			.compile("\\b(?:if|for|foreach|while|case|catch|except|elif|switch|when)\\b|&&|\\|\\|");
+
+	private RiskTriage() {
+	}
+
+	/**
+	 * Risk of the file; {@code filePath} only tells tests apart.
+	 */
+	public static Assessment assess(String filePath, String code) {
+		if (code == null || code.isBlank()) {
+			return new Assessment(0, List.of());
+		}
+
+		List<String> reasons = new ArrayList<>();
+		int score = 0;
+		for (Map.Entry<String, Pattern> sensitive : SENSITIVE.entrySet()) {
+			if (sensitive.getValue().matcher(code).find()) {
+				score += SENSITIVE_POINTS;
+				reasons.add(sensitive.getKey());
+			}
+		}
+
+		int branches = 0;
+		Matcher branch = BRANCH.matcher(code);
+		while (branch.find()) {
+			branches++;
+		}
+		int complexity = Math.min(30, branches * 2);
+		if (complexity >= 10) {
+			reasons.add("branches");
+		}
+		score += complexity;
+
+		long lines = code.lines().filter(line -> !line.isBlank()).count();
+		score += (int) Math.min(20, lines / 20);
+
+		if (isTest(filePath)) {
+			score /= 2;
+			reasons.add("test");
+		}
+		return new Assessment(Math.min(100, score), reasons);
+	}
+
+	static boolean isTest(String filePath) {
+		if (filePath == null) {
+			return false;
+		}
+		String name = filePath.substring(filePath.lastIndexOf('/') + 1);
+		return ("/" + filePath.toLowerCase(Locale.ROOT)).matches(".*/(?:test|tests|__tests__)/.*")
+				|| name.matches("\\w+(?:Test|Tests|IT)\\.\\w+") || name.matches(".+[._](?:test|spec)\\.\\w+")
+				|| name.startsWith("test_");
+	}
+
+	public static class Assessment {
+		private final int score;
+		private final List<String> reasons;
+
+		Assessment(int score, List<String> reasons) {
+			this.score = score;
+			this.reasons = List.copyOf(reasons);
+		}
+
+		public int getScore() {
+			return score;
+		}
+
+		/** What raised (or, for tests, lowered) the score. */
+		public List<String> getReasons() {
+			return reasons;
+		}
+	}
+}
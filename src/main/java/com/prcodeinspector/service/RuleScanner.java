@@ -0,0 +1,219 @@
+package com.prcodeinspector.service;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.google.re2j.Matcher;
+import com.google.re2j.Pattern;
+import com.prcodeinspector.model.AnalysisIssue;
+
+/**
+ * Runs the regex rules of a language over a file without calling the model.
+ * All patterns are combined into one RE2 alternation, which runs in time
+ * linear in the input whatever the patterns. When every pattern starts with
+ * a literal, the literals are searched first and the alternation only runs
+ * on the lines that contain one; the lines it matches are checked against
+ * the rules one by one to report every rule that applies.
+ */
+public class RuleScanner {
+
+	private final List<Rule> rules;
+	private final Pattern combined;
+	// Leading literals of the patterns, or null when one of them has none
+	private final List<String> literals;
+
+	public RuleScanner(List<Rule> rules) {
+		this.rules = List.copyOf(rules);
+		StringBuilder alternation = new StringBuilder();
+		Set<String> prefixes = new LinkedHashSet<>();
+		for (Rule rule : this.rules) {
+			if (alternation.length() > 0) {
+				alternation.append('|');
+			}
+			alternation.append("(?:").append(rule.pattern.pattern()).append(')');
+			String literal = literalPrefix(rule.pattern.pattern());
+			if (prefixes != null && literal != null) {
+				prefixes.add(literal);
+			} else {
+				prefixes = null;
+			}
+		}
+		this.combined = this.rules.isEmpty() ? null : Pattern.compile(alternation.toString());
+		this.literals = prefixes != null ? List.copyOf(prefixes) : null;
+	}
+
+	public boolean isEmpty() {
+		return combined == null;
+	}
+
+	/**
+	 * The rule matches in the code in line order; patterns match within a
+	 * line.
+	 */
+	public List<Match> scan(String code) {
+		List<Match> matches = new ArrayList<>();
+		if (combined == null || code == null || code.isEmpty()) {
+			return matches;
+		}
+
+		// Starts of the lines a match can begin on
+		BitSet candidates = new BitSet(code.length());
+		if (literals != null) {
+			for (String literal : literals) {
+				for (int at = code.indexOf(literal); at >= 0; at = code.indexOf(literal, at + 1)) {
+					int lineStart = code.lastIndexOf('\n', at - 1) + 1;
+					candidates.set(lineStart);
+					int lineEnd = code.indexOf('\n', at);
+					if (lineEnd < 0) {
+						break;
+					}
+					at = lineEnd;
+				}
+			}
+		} else {
+			candidates.set(0);
+			for (int at = code.indexOf('\n'); at >= 0 && at + 1 < code.length(); at = code.indexOf('\n', at + 1)) {
+				candidates.set(at + 1);
+			}
+		}
+
+		int line = 1;
+		int counted = 0;
+		for (int lineStart = candidates.nextSetBit(0); lineStart >= 0; lineStart = candidates
+				.nextSetBit(lineStart + 1)) {
+			// Line numbers are counted forward only, so the pass stays linear
+			for (int i = counted; i < lineStart; i++) {
+				if (code.charAt(i) == '\n') {
+					line++;
+				}
+			}
+			counted = lineStart;
+			int lineEnd = code.indexOf('\n', lineStart);
+			String text = code.substring(lineStart, lineEnd < 0 ? code.length() : lineEnd);
+			if (!combined.matcher(text).find()) {
+				continue;
+			}
+			for (Rule rule : rules) {
+				if (rule.pattern.matcher(text).find()) {
+					matches.add(new Match(rule, line, text));
+				}
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * Literal text every match of the pattern starts with (at least two
+	 * characters), or null when the pattern does not start with one.
+	 */
+	static String literalPrefix(String pattern) {
+		if (pattern.indexOf('|') >= 0) {
+			return null;
+		}
+		StringBuilder literal = new StringBuilder();
+		int i = 0;
+		while (i < pattern.length()) {
+			char c = pattern.charAt(i);
+			int next = i + 1;
+			if (c == '\\' && next < pattern.length() && !Character.isLetterOrDigit(pattern.charAt(next))) {
+				c = pattern.charAt(next++);
+			} else if (!Character.isLetterOrDigit(c) && " _@:;,=<>'\"/#-".indexOf(c) < 0) {
+				break;
+			}
+			// A quantified character is optional or repeated
+			if (next < pattern.length() && "?*{".indexOf(pattern.charAt(next)) >= 0) {
+				break;
+			}
+			literal.append(c);
+			i = next;
+			if (next < pattern.length() && pattern.charAt(next) == '+') {
+				break;
+			}
+		}
+		return literal.length() >= 2 ? literal.toString() : null;
+	}
+
+	/**
+	 * A rule of the rules file: its RE2 pattern and how a match is reported.
+	 */
+	public static class Rule {
+		private final String id;
+		private final String category;
+		private final String severity;
+		private final String title;
+		private final String description;
+		private final String recommendation;
+		private final Pattern pattern;
+
+		/**
+		 * @throws com.google.re2j.PatternSyntaxException when the pattern is not
+		 *                                                valid RE2 syntax
+		 */
+		public Rule(String id, String category, String severity, String title, String description,
+				String recommendation, String pattern) {
+			this.id = id;
+			this.category = category;
+			this.severity = severity;
+			this.title = title;
+			this.description = description;
+			this.recommendation = recommendation;
+			this.pattern = Pattern.compile(pattern);
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public String getCategory() {
+			return category;
+		}
+
+		public String getSeverity() {
+			return severity;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+	}
+
+	public static class Match {
+		private final Rule rule;
+		private final int lineNumber;
+		private final String line;
+
+		Match(Rule rule, int lineNumber, String line) {
+			this.rule = rule;
+			this.lineNumber = lineNumber;
+			this.line = line;
+		}
+
+		public Rule getRule() {
+			return rule;
+		}
+
+		/** Line of the scanned text (1-based). */
+		public int getLineNumber() {
+			return lineNumber;
+		}
+
+		public String getLine() {
+			return line;
+		}
+
+		/**
+		 * A new issue for the match; each call returns a fresh instance that
+		 * callers may renumber.
+		 */
+		public AnalysisIssue toIssue() {
+			AnalysisIssue issue = new AnalysisIssue(rule.category, rule.severity, rule.title, rule.description);
+			issue.setLineNumber(lineNumber);
+			issue.setCodeSnippet(line.trim());
+			issue.setRecommendation(rule.recommendation);
+			return issue;
+		}
+	}
+}
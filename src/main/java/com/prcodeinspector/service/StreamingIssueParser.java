@@ -0,0 +1,121 @@
+package com.prcodeinspector.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+/**
+ * Reads a single-file analysis response as it streams in and hands over each
+ * entry of its top-level {@code issues} array as soon as the entry's object
+ * closes. Text before the JSON object (a code fence) and after it is
+ * ignored.
+ */
+public class StreamingIssueParser {
+
+	private static final TypeReference<Map<String, Object>> ISSUE_TYPE = new TypeReference<>() {
+	};
+
+	private final ObjectMapper objectMapper;
+	private final Consumer<Map<String, Object>> onIssue;
+	private final JsonParser parser;
+	private final ByteArrayFeeder feeder;
+
+	private boolean started;
+	private boolean done;
+	private int depth;
+	private String field;
+	private boolean inIssues;
+	private TokenBuffer issue;
+
+	public StreamingIssueParser(ObjectMapper objectMapper, Consumer<Map<String, Object>> onIssue) {
+		this.objectMapper = objectMapper;
+		this.onIssue = onIssue;
+		try {
+			this.parser = objectMapper.getFactory().createNonBlockingByteArrayParser();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		this.feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+	}
+
+	/**
+	 * Feeds the next piece of the response. Once the JSON is malformed the
+	 * rest is ignored; the complete response is still parsed as a whole
+	 * afterwards.
+	 */
+	public void feed(String text) {
+		if (done || text == null || text.isEmpty()) {
+			return;
+		}
+		if (!started) {
+			int brace = text.indexOf('{');
+			if (brace < 0) {
+				return;
+			}
+			text = text.substring(brace);
+			started = true;
+		}
+
+		try {
+			byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+			feeder.feedInput(bytes, 0, bytes.length);
+			JsonToken token;
+			while (!done && (token = parser.nextToken()) != JsonToken.NOT_AVAILABLE && token != null) {
+				onToken(token);
+			}
+		} catch (IOException e) {
+			done = true;
+		}
+	}
+
+	private void onToken(JsonToken token) throws IOException {
+		if (issue != null) {
+			issue.copyCurrentEvent(parser);
+		}
+		switch (token) {
+		case FIELD_NAME:
+			if (depth == 1) {
+				field = parser.currentName();
+			}
+			break;
+		case START_ARRAY:
+			depth++;
+			if (depth == 2) {
+				inIssues = "issues".equals(field);
+			}
+			break;
+		case START_OBJECT:
+			depth++;
+			if (inIssues && depth == 3) {
+				issue = new TokenBuffer(parser, null);
+				issue.copyCurrentEvent(parser);
+			}
+			break;
+		case END_ARRAY:
+			depth--;
+			if (depth == 1) {
+				inIssues = false;
+			}
+			break;
+		case END_OBJECT:
+			depth--;
+			if (issue != null && depth == 2) {
+				Map<String, Object> entry = objectMapper.readValue(issue.asParser(), ISSUE_TYPE);
+				issue = null;
+				onIssue.accept(entry);
+			}
+			done = depth == 0;
+			break;
+		default:
+			break;
+		}
+	}
+}
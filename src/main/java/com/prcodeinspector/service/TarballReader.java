@@ -0,0 +1,179 @@
+package com.prcodeinspector.service;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Forward-only reader for the gzipped tarballs served by GitHub's
+ * {@code /tarball/{ref}} endpoint. Entries are decompressed as the stream is
+ * read; entries the caller does not {@link #read()} are skipped without being
+ * buffered. Paths are returned without the {@code owner-repo-sha/} prefix.
+ */
+class TarballReader implements Closeable {
+
+	private static final int BLOCK_SIZE = 512;
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final DataInputStream in;
+	private final byte[] header = new byte[BLOCK_SIZE];
+
+	private long size;
+	private long unread;
+
+	TarballReader(InputStream gzipped) throws IOException {
+		this.in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(gzipped, BUFFER_SIZE), BUFFER_SIZE));
+	}
+
+	/**
+	 * Advances to the next regular file and returns its repository-relative path,
+	 * or {@code null} at the end of the archive.
+	 */
+	String nextFile() throws IOException {
+		skipRemainder();
+		String longName = null;
+
+		while (true) {
+			if (!readHeader()) {
+				return null;
+			}
+			if (isZeroBlock()) {
+				return null;
+			}
+
+			size = parseSize();
+			unread = size;
+			char type = (char) header[156];
+
+			if (type == 'x' || type == 'L') {
+				String name = type == 'L' ? trimNul(new String(read(), StandardCharsets.UTF_8))
+						: paxPath(new String(read(), StandardCharsets.UTF_8));
+				longName = name != null ? name : longName;
+				skipRemainder();
+				continue;
+			}
+			if (type != '0' && type != '\0') {
+				// Directories, symlinks, pax global headers (GitHub puts the commit id there)
+				skipRemainder();
+				longName = null;
+				continue;
+			}
+
+			String path = longName != null ? longName : headerPath();
+			int slash = path.indexOf('/');
+			return slash >= 0 ? path.substring(slash + 1) : path;
+		}
+	}
+
+	long size() {
+		return size;
+	}
+
+	byte[] read() throws IOException {
+		if (unread > Integer.MAX_VALUE - 8) {
+			throw new IOException("Archive entry too large: " + unread);
+		}
+		byte[] content = new byte[(int) unread];
+		in.readFully(content);
+		unread = 0;
+		skipPadding();
+		return content;
+	}
+
+	/**
+	 * Reads the next header block. The end of the stream is accepted only on a
+	 * block boundary; anything else means the archive was cut off.
+	 */
+	private boolean readHeader() throws IOException {
+		int first = in.read();
+		if (first < 0) {
+			return false;
+		}
+		header[0] = (byte) first;
+		try {
+			in.readFully(header, 1, BLOCK_SIZE - 1);
+		} catch (EOFException e) {
+			throw new EOFException("Truncated archive: incomplete tar header");
+		}
+		return true;
+	}
+
+	private void skipRemainder() throws IOException {
+		if (unread > 0) {
+			in.skipNBytes(unread);
+			unread = 0;
+			skipPadding();
+		}
+	}
+
+	private void skipPadding() throws IOException {
+		long padding = (BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE;
+		in.skipNBytes(padding);
+	}
+
+	private String headerPath() {
+		String name = field(0, 100);
+		String prefix = "ustar".equals(field(257, 5)) ? field(345, 155) : "";
+		return prefix.isEmpty() ? name : prefix + "/" + name;
+	}
+
+	private long parseSize() throws IOException {
+		if ((header[124] & 0x80) != 0) {
+			// GNU base-256 encoding for entries of 8 GiB and more
+			long value = header[124] & 0x7f;
+			for (int i = 125; i < 136; i++) {
+				value = (value << 8) | (header[i] & 0xff);
+			}
+			return value;
+		}
+		String octal = field(124, 12).trim();
+		try {
+			return octal.isEmpty() ? 0 : Long.parseLong(octal, 8);
+		} catch (NumberFormatException e) {
+			throw new IOException("Corrupt tar header size: " + octal, e);
+		}
+	}
+
+	private String paxPath(String records) {
+		// Records are "<length> <key>=<value>\n"
+		for (String record : records.split("\n")) {
+			int space = record.indexOf(' ');
+			if (space > 0 && record.startsWith("path=", space + 1)) {
+				return record.substring(space + 6);
+			}
+		}
+		return null;
+	}
+
+	private String field(int offset, int length) {
+		int end = offset;
+		while (end < offset + length && header[end] != 0) {
+			end++;
+		}
+		return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+	}
+
+	private String trimNul(String value) {
+		int nul = value.indexOf('\0');
+		return nul >= 0 ? value.substring(0, nul) : value;
+	}
+
+	private boolean isZeroBlock() {
+		for (byte b : header) {
+			if (b != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
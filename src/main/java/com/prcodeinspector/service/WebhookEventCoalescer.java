@@ -0,0 +1,150 @@
+package com.prcodeinspector.service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Turns bursts of pull request webhook events into one analysis per PR. Each
+ * event restarts a short debounce window; when it closes the latest head SHA
+ * is analysed. Events arriving while that PR is being analysed are held and
+ * analysed once it finishes, so at most one analysis per PR runs at a time.
+ */
+@Component
+public class WebhookEventCoalescer {
+
+	private static final Logger logger = LoggerFactory.getLogger(WebhookEventCoalescer.class);
+
+	@Autowired
+	private CodeReviewService codeReviewService;
+
+	@Value("${github.webhook.debounce-ms:5000}")
+	private long debounceMillis;
+
+	private final Map<String, PendingAnalysis> pending = new HashMap<>();
+	private ScheduledExecutorService timer;
+
+	@PostConstruct
+	public void init() {
+		timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "webhook-debounce");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		timer.shutdownNow();
+	}
+
+	public void submit(String owner, String repository, int prNumber, String headSha) {
+		String key = owner + "/" + repository + "#" + prNumber;
+		synchronized (this) {
+			PendingAnalysis analysis = pending.computeIfAbsent(key,
+					k -> new PendingAnalysis(owner, repository, prNumber));
+			analysis.headSha = headSha;
+			analysis.events++;
+			if (analysis.debounce != null) {
+				analysis.debounce.cancel(false);
+			}
+			analysis.debounce = timer.schedule(() -> fire(key), debounceMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void fire(String key) {
+		PendingAnalysis analysis;
+		synchronized (this) {
+			analysis = pending.get(key);
+			if (analysis == null) {
+				return;
+			}
+			analysis.debounce = null;
+			if (analysis.running) {
+				// The running analysis picks up the latest head when it completes
+				return;
+			}
+			analysis.running = true;
+		}
+		start(key, analysis);
+	}
+
+	private void start(String key, PendingAnalysis analysis) {
+		String headSha;
+		int events;
+		synchronized (this) {
+			headSha = analysis.headSha;
+			events = analysis.events;
+			analysis.events = 0;
+		}
+
+		logger.info("Analysing {} at {} for {} coalesced webhook event(s)", key, headSha, events);
+		CompletableFuture<?> run;
+		try {
+			run = codeReviewService.analyzePullRequest(analysis.owner, analysis.repository, analysis.prNumber,
+					headSha);
+		} catch (RuntimeException e) {
+			run = CompletableFuture.failedFuture(e);
+		}
+		run.whenComplete((result, error) -> finished(key, analysis, headSha, error));
+	}
+
+	private void finished(String key, PendingAnalysis analysis, String analysedSha, Throwable error) {
+		if (error != null) {
+			logger.error("Webhook-triggered analysis of {} failed: {}", key, error.getMessage());
+		}
+
+		boolean rerun;
+		synchronized (this) {
+			rerun = analysis.events > 0 && !analysedSha.equals(analysis.headSha);
+			if (rerun && analysis.debounce != null) {
+				// Still inside a debounce window: let the timer start the follow-up run
+				analysis.running = false;
+				return;
+			}
+			if (!rerun) {
+				if (analysis.debounce != null) {
+					analysis.debounce.cancel(false);
+				}
+				pending.remove(key);
+				return;
+			}
+		}
+		start(key, analysis);
+	}
+
+	int pendingCount() {
+		synchronized (this) {
+			return pending.size();
+		}
+	}
+
+	private static class PendingAnalysis {
+		private final String owner;
+		private final String repository;
+		private final int prNumber;
+		private String headSha;
+		private int events;
+		private boolean running;
+		private ScheduledFuture<?> debounce;
+
+		PendingAnalysis(String owner, String repository, int prNumber) {
+			this.owner = owner;
+			this.repository = repository;
+			this.prNumber = prNumber;
+		}
+	}
+}
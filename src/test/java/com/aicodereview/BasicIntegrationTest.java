@@ -1,20 +1,57 @@
 package com.aicodereview;
 
-import com.aicodereview.model.CodeAnalysisResult;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+import com.prcodeinspector.PRCodeInspectorApplication;
+import com.prcodeinspector.model.AnalysisIssue;
+import com.prcodeinspector.model.CodeAnalysisResult;
+import com.prcodeinspector.repository.AnalysisCacheRepository;
+import com.prcodeinspector.repository.AnalysisFindingRepository;
+import com.prcodeinspector.repository.CodeAnalysisResultRepository;
+import com.prcodeinspector.repository.PullRequestAnalysisRepository;
 import com.prcodeinspector.service.OpenAIClientService;
 
+import java.util.List;
+
 import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.test.context.TestPropertySource;
 
-@SpringBootTest
+/**
+ * Starts the application context without a database (repositories are
+ * mocked) and with a stubbed review model.
+ */
+@SpringBootTest(classes = PRCodeInspectorApplication.class)
 @TestPropertySource(locations = "classpath:test.properties")
 public class BasicIntegrationTest {
 
 	@Autowired
 	private OpenAIClientService openAIClientService;
 
+	@MockBean
+	private ChatModel chatModel;
+
+	@MockBean
+	private AnalysisCacheRepository analysisCacheRepository;
+
+	@MockBean
+	private AnalysisFindingRepository analysisFindingRepository;
+
+	@MockBean
+	private CodeAnalysisResultRepository codeAnalysisResultRepository;
+
+	@MockBean
+	private PullRequestAnalysisRepository pullRequestAnalysisRepository;
+
 	@Test
 	public void testCodeAnalysis() {
 		// Test code with known issues
@@ -22,6 +59,19 @@ public class BasicIntegrationTest {
 				+ "        String sql = \"SELECT * FROM users WHERE id = \" + userId;\n"
 				+ "        Statement stmt = connection.createStatement();\n"
 				+ "        ResultSet rs = stmt.executeQuery(sql);\n" + "    }\n" + "}";
+		when(chatModel.call(any(Prompt.class))).thenReturn(new ChatResponse(List.of(new Generation(
+				new AssistantMessage("{\"summary\": \"SQL built from input\", \"securityScore\": 20, "
+						+ "\"performanceScore\": 90, \"bestPracticesScore\": 70, \"issues\": [{\"category\": "
+						+ "\"SECURITY\", \"severity\": \"HIGH\", \"title\": \"SQL injection\", \"lineNumber\": 3, "
+						+ "\"description\": \"Query concatenates userId\"}], \"suggestions\": []}")))));
+
+		CodeAnalysisResult result = openAIClientService.analyzeCode("src/TestClass.java", "TestClass.java", "java",
+				testCode, true);
 
+		assertEquals(20.0, result.getSecurityScore());
+		AnalysisIssue issue = result.getIssues().stream().filter(i -> "SQL injection".equals(i.getTitle()))
+				.findFirst().orElseThrow();
+		assertEquals(Integer.valueOf(3), issue.getLineNumber());
+		assertEquals("src/TestClass.java", result.getFilePath());
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,100 @@
+package com.prcodeinspector.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpClientErrorException;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+	private AdaptiveConcurrencyLimiter limiter;
+
+	@BeforeEach
+	public void setUp() {
+		limiter = new AdaptiveConcurrencyLimiter();
+		ReflectionTestUtils.setField(limiter, "initialLimit", 2);
+		ReflectionTestUtils.setField(limiter, "minLimit", 1);
+		ReflectionTestUtils.setField(limiter, "maxLimit", 8);
+		ReflectionTestUtils.setField(limiter, "backoffRatio", 0.5);
+		ReflectionTestUtils.setField(limiter, "latencyTolerance", 100.0);
+		limiter.init();
+	}
+
+	@AfterEach
+	public void tearDown() {
+		limiter.shutdown();
+	}
+
+	@Test
+	public void queuesCallsOverTheLimit() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+
+		List<CompletableFuture<Integer>> calls = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			int call = i;
+			calls.add(limiter.submit(() -> {
+				maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+				release.await(5, TimeUnit.SECONDS);
+				running.decrementAndGet();
+				return call;
+			}));
+		}
+
+		Thread.sleep(100);
+		assertEquals(2, limiter.getInFlight());
+		assertEquals(3, limiter.getQueued());
+
+		release.countDown();
+		for (int i = 0; i < calls.size(); i++) {
+			assertEquals(i, calls.get(i).get(5, TimeUnit.SECONDS));
+		}
+		assertTrue(maxRunning.get() <= limiter.getLimit());
+		assertEquals(0, limiter.getInFlight());
+		assertEquals(0, limiter.getQueued());
+	}
+
+	@Test
+	public void growsWhileHealthyAndBacksOffOnOverload() throws Exception {
+		List<CompletableFuture<String>> calls = new ArrayList<>();
+		for (int i = 0; i < 40; i++) {
+			calls.add(limiter.submit(() -> {
+				Thread.sleep(5);
+				return "ok";
+			}));
+		}
+		CompletableFuture.allOf(calls.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+		int grown = limiter.getLimit();
+		assertTrue(grown > 2, "limit should grow, was " + grown);
+
+		CompletableFuture<String> throttled = limiter.submit(() -> {
+			throw new HttpClientErrorException(HttpStatus.TOO_MANY_REQUESTS);
+		});
+		assertTrue(throttled.handle((result, error) -> error != null).get(5, TimeUnit.SECONDS));
+		assertEquals(Math.max(1, grown / 2), limiter.getLimit());
+	}
+
+	@Test
+	public void recognisesOverloadErrors() {
+		assertTrue(AdaptiveConcurrencyLimiter.isOverload(new RuntimeException(new SocketTimeoutException("read"))));
+		assertTrue(AdaptiveConcurrencyLimiter
+				.isOverload(new RuntimeException("Failed: 429 - Rate limit reached for gpt-4")));
+		assertFalse(AdaptiveConcurrencyLimiter.isOverload(new HttpClientErrorException(HttpStatus.BAD_REQUEST)));
+		assertFalse(AdaptiveConcurrencyLimiter.isOverload(new IllegalStateException("Failed to parse AI response")));
+	}
+}
@@ -0,0 +1,142 @@
+package com.prcodeinspector.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.prcodeinspector.model.AnalysisFinding;
+import com.prcodeinspector.model.AnalysisIssue;
+import com.prcodeinspector.model.CodeAnalysisResult;
+import com.prcodeinspector.model.PullRequestAnalysis;
+import com.prcodeinspector.repository.AnalysisFindingRepository;
+
+public class AnalysisFindingServiceTest {
+
+	private final List<Object> events = new CopyOnWriteArrayList<>();
+
+	private AnalysisFindingRepository findingRepository;
+	private AnalysisFindingService findingService;
+
+	@BeforeEach
+	public void setUp() {
+		findingRepository = mock(AnalysisFindingRepository.class);
+		findingService = new AnalysisFindingService();
+		ReflectionTestUtils.setField(findingService, "findingRepository", findingRepository);
+		ReflectionTestUtils.setField(findingService, "eventPublisher", (ApplicationEventPublisher) events::add);
+		ReflectionTestUtils.setField(findingService, "streamTimeoutMs", 60_000L);
+	}
+
+	@Test
+	public void retractsTheFindingsOfAFailedFile() {
+		findingService.start("octo", "demo", 7);
+		findingService.record("octo", "demo", 7, "abc", "src/A.java", issue("Leak", 3));
+		findingService.record("octo", "demo", 7, "abc", "src/B.java", issue("Leak", 3));
+
+		findingService.retract("octo", "demo", 7, "src/A.java");
+
+		verify(findingRepository).deleteByFile("octo", "demo", 7, "src/A.java");
+		AnalysisFindingsRetractedEvent retracted = (AnalysisFindingsRetractedEvent) events.get(events.size() - 1);
+		assertEquals("src/A.java", retracted.getFilePath());
+
+		// A re-analysis of the file may report the same issue again; B's stays deduplicated
+		findingService.record("octo", "demo", 7, "abc", "src/A.java", issue("Leak", 3));
+		findingService.record("octo", "demo", 7, "abc", "src/B.java", issue("Leak", 3));
+		verify(findingRepository, times(3)).save(any(AnalysisFinding.class));
+	}
+
+	@Test
+	public void resetsSubscribersWhenANewRunStarts() {
+		findingService.start("octo", "demo", 7);
+
+		verify(findingRepository).deleteByPullRequest("octo", "demo", 7);
+		AnalysisFindingsRetractedEvent reset = (AnalysisFindingsRetractedEvent) events.get(0);
+		assertNull(reset.getFilePath());
+		assertEquals(7, reset.getPullRequestNumber());
+	}
+
+	@Test
+	public void publishesOneEventPerStoredFinding() {
+		findingService.start("octo", "demo", 7);
+		findingService.record("octo", "demo", 7, "abc", "src/A.java", issue("Leak", 3));
+		findingService.record("octo", "demo", 7, "abc", "src/A.java", issue("Leak", 3));
+		findingService.record("octo", "demo", 7, "abc", "src/A.java", issue("Leak", 4));
+
+		List<Integer> published = events.stream().filter(AnalysisFindingEvent.class::isInstance)
+				.map(event -> ((AnalysisFindingEvent) event).getFinding().getIssue().getLineNumber())
+				.collect(Collectors.toList());
+		assertEquals(List.of(3, 4), published);
+	}
+
+	@Test
+	public void storesTheFindingsOfARolledBackResultAgain() {
+		findingService.start("octo", "demo", 7);
+		CodeAnalysisResult result = new CodeAnalysisResult("src/A.java", "A.java",
+				CodeAnalysisResult.AnalysisType.MODIFIED);
+		result.getIssues().add(issue("Leak", 3));
+		result.getIssues().add(issue("Race", 9));
+
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			findingService.recordAll("octo", "demo", 7, "abc", result);
+			for (TransactionSynchronization synchronization : TransactionSynchronizationManager
+					.getSynchronizations()) {
+				synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+			}
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+		findingService.recordAll("octo", "demo", 7, "abc", result);
+
+		verify(findingRepository, times(4)).save(any(AnalysisFinding.class));
+	}
+
+	@Test
+	public void releasesAFindingWhoseSaveFailed() {
+		findingService.start("octo", "demo", 7);
+		when(findingRepository.save(any(AnalysisFinding.class))).thenThrow(new IllegalStateException("pool exhausted"))
+				.thenAnswer(invocation -> invocation.getArgument(0));
+
+		assertThrows(IllegalStateException.class,
+				() -> findingService.record("octo", "demo", 7, "abc", "src/A.java", issue("Leak", 3)));
+		findingService.record("octo", "demo", 7, "abc", "src/A.java", issue("Leak", 3));
+
+		verify(findingRepository, times(2)).save(any(AnalysisFinding.class));
+		assertEquals(1, events.stream().filter(AnalysisFindingEvent.class::isInstance).count());
+	}
+
+	@Test
+	public void doesNotKeepSubscribersOfAFinishedRun() {
+		findingService.start("octo", "demo", 7);
+		findingService.subscribe("octo", "demo", 7);
+		findingService.finish("octo", "demo", 7, PullRequestAnalysis.AnalysisStatus.COMPLETED);
+
+		findingService.subscribe("octo", "demo", 7);
+
+		Map<?, ?> subscribers = (Map<?, ?>) ReflectionTestUtils.getField(findingService, "subscribers");
+		assertTrue(subscribers.isEmpty());
+	}
+
+	private static AnalysisIssue issue(String title, int line) {
+		AnalysisIssue issue = new AnalysisIssue("Resource", "HIGH", title, "description");
+		issue.setLineNumber(line);
+		return issue;
+	}
+}
@@ -0,0 +1,83 @@
+package com.prcodeinspector.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class AnalysisPromptCatalogTest {
+
+	@TempDir
+	Path directory;
+
+	static AnalysisPromptCatalog catalog(String rulesFile) {
+		AnalysisPromptCatalog catalog = new AnalysisPromptCatalog();
+		ReflectionTestUtils.setField(catalog, "objectMapper", new ObjectMapper());
+		ReflectionTestUtils.setField(catalog, "resourceLoader", new DefaultResourceLoader());
+		ReflectionTestUtils.setField(catalog, "rulesFile", rulesFile);
+		catalog.init();
+		return catalog;
+	}
+
+	static AnalysisPromptCatalog classpathCatalog() {
+		return catalog("classpath:analysis-rules.json");
+	}
+
+	@Test
+	public void compilesLanguageScopedPrefixes() {
+		AnalysisPromptCatalog catalog = classpathCatalog();
+
+		String java = catalog.forFile("java").getText();
+		assertTrue(java.contains("[SQL001, HIGH]"));
+		assertTrue(java.contains("Catching generic Exception is not recommended"));
+		assertTrue(java.contains("Create configuration classes with @ConfigurationProperties"));
+		assertFalse(java.contains("Prefer 'const' or 'let' over 'var'"));
+
+		String typescript = catalog.forFile("typescript").getText();
+		assertTrue(typescript.contains("Prefer 'const' or 'let' over 'var'"));
+		assertTrue(typescript.contains("Use of eval() is dangerous"));
+
+		String python = catalog.forFile("python").getText();
+		assertTrue(python.contains("[PERF001, HIGH]"));
+		assertFalse(python.contains("JAVA001"));
+
+		assertSame(catalog.forFile("java"), catalog.forFile("java"));
+		assertTrue(catalog.forPack(List.of("javascript", "java")).getText().contains("\"files\""));
+	}
+
+	@Test
+	public void reloadsChangedRulesFile() throws Exception {
+		Path rules = directory.resolve("rules.json");
+		Files.writeString(rules, "{\"security\": {\"rules\": [{\"id\": \"SEC1\", \"severity\": \"HIGH\", "
+				+ "\"description\": \"first\"}]}}");
+		AnalysisPromptCatalog catalog = catalog(rules.toUri().toString());
+		String version = catalog.getVersion();
+		assertTrue(catalog.forFile("go").getText().contains("[SEC1, HIGH] first"));
+
+		Files.writeString(rules, "{\"security\": {\"rules\": [{\"id\": \"SEC1\", \"severity\": \"HIGH\", "
+				+ "\"description\": \"second\"}]}}");
+		rules.toFile().setLastModified(rules.toFile().lastModified() + 2000);
+		catalog.reloadIfChanged();
+		assertTrue(catalog.forFile("go").getText().contains("[SEC1, HIGH] second"));
+		assertNotEquals(version, catalog.getVersion());
+
+		// A broken edit keeps the last good rules
+		String reloaded = catalog.getVersion();
+		Files.writeString(rules, "{\"security\": ");
+		rules.toFile().setLastModified(rules.toFile().lastModified() + 4000);
+		catalog.reloadIfChanged();
+		assertEquals(reloaded, catalog.getVersion());
+	}
+}
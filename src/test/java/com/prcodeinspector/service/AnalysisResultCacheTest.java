@@ -0,0 +1,82 @@
+package com.prcodeinspector.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Optional;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.prcodeinspector.model.AnalysisCacheEntry;
+import com.prcodeinspector.repository.AnalysisCacheRepository;
+
+public class AnalysisResultCacheTest {
+
+	@Test
+	public void keyIgnoresLineEndingsAndTrailingWhitespaceOnly() {
+		AnalysisResultCache cache = memoryOnlyCache();
+		String key = cache.key("class A {\n\tint a;\n}\n", "java", "rules");
+
+		assertEquals(key, cache.key("class A {  \r\n\tint a;\r\n}\r\n\r\n", "java", "rules"));
+		assertNotEquals(key, cache.key("class A {\n    int a;\n}\n", "java", "rules"));
+		assertNotEquals(key, cache.key("class A {\n\tint a;\n}\n", "kotlin", "rules"));
+		assertNotEquals(key, cache.key("class A {\n\tint a;\n}\n", "java", "other rules"));
+
+		ReflectionTestUtils.setField(cache, "model", "gpt-4o");
+		assertNotEquals(key, cache.key("class A {\n\tint a;\n}\n", "java", "rules"));
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedAndFallsBackToDatabase() {
+		AnalysisCacheRepository repository = mock(AnalysisCacheRepository.class);
+		when(repository.findById(anyString())).thenReturn(Optional.empty());
+		AnalysisResultCache cache = cache(repository, 3 * (2 * 100 + 256));
+
+		cache.put("a", "x".repeat(100), 10);
+		cache.put("b", "x".repeat(100), 10);
+		cache.put("c", "x".repeat(100), 10);
+		cache.get("a");
+		cache.put("d", "x".repeat(100), 10);
+		verify(repository, times(4)).save(any(AnalysisCacheEntry.class));
+
+		// "b" was evicted from memory; the database still has it
+		assertNull(cache.get("b"));
+		when(repository.findById("b")).thenReturn(Optional.of(new AnalysisCacheEntry("b", "from db", "gpt-4", 42)));
+		assertEquals("from db", cache.get("b"));
+		assertEquals("x".repeat(100), cache.get("a"));
+		assertEquals(10 + 42 + 10, cache.getTokensSaved());
+		assertEquals(3.0 / 4, cache.getHitRatio());
+	}
+
+	@Test
+	public void disabledCacheNeverHits() {
+		AnalysisResultCache cache = memoryOnlyCache();
+		ReflectionTestUtils.setField(cache, "enabled", false);
+		cache.put("a", "response", 10);
+		assertNull(cache.get("a"));
+	}
+
+	static AnalysisResultCache memoryOnlyCache() {
+		AnalysisCacheRepository repository = mock(AnalysisCacheRepository.class);
+		when(repository.findById(anyString())).thenReturn(Optional.empty());
+		return cache(repository, 1 << 20);
+	}
+
+	private static AnalysisResultCache cache(AnalysisCacheRepository repository, long memoryMaxBytes) {
+		AnalysisResultCache cache = new AnalysisResultCache();
+		ReflectionTestUtils.setField(cache, "cacheRepository", repository);
+		ReflectionTestUtils.setField(cache, "enabled", true);
+		ReflectionTestUtils.setField(cache, "memoryMaxBytes", memoryMaxBytes);
+		ReflectionTestUtils.setField(cache, "model", "gpt-4");
+		ReflectionTestUtils.setField(cache, "temperature", 0.1);
+		return cache;
+	}
+}
@@ -0,0 +1,92 @@
+package com.prcodeinspector.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class BlobCacheTest {
+
+	private static final String A = "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa";
+	private static final String B = "bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb";
+	private static final String C = "cccccccccccccccccccccccccccccccccccccccc";
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void servesStoredBlobsFromMemory() {
+		BlobCache cache = cache(1024, 1024);
+		cache.put(A, bytes(10, 'a'));
+
+		assertArrayEquals(bytes(10, 'a'), cache.get(A));
+		assertNull(cache.get(B));
+		assertEquals(1, cache.getMemoryHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void ignoresKeysThatAreNotBlobShas() {
+		BlobCache cache = cache(1024, 1024);
+		cache.put("src/App.java", bytes(10, 'a'));
+
+		assertNull(cache.get("src/App.java"));
+		assertEquals(0, cache.getMisses());
+	}
+
+	@Test
+	public void spillsEvictedBlobsToDisk() {
+		BlobCache cache = cache(100, 1024);
+		cache.put(A, bytes(60, 'a'));
+		cache.put(B, bytes(60, 'b'));
+
+		assertTrue(Files.exists(directory.resolve("aa").resolve(A)));
+		assertArrayEquals(bytes(60, 'a'), cache.get(A));
+		assertEquals(1, cache.getDiskHits());
+		// Reading A back into memory pushed B out to disk
+		assertTrue(Files.exists(directory.resolve("bb").resolve(B)));
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedBlobsFromDisk() {
+		BlobCache cache = cache(50, 130);
+		cache.put(A, bytes(60, 'a'));
+		cache.put(B, bytes(60, 'b'));
+		cache.put(C, bytes(60, 'c'));
+
+		assertFalse(Files.exists(directory.resolve("aa").resolve(A)));
+		assertNull(cache.get(A));
+		assertArrayEquals(bytes(60, 'b'), cache.get(B));
+		assertArrayEquals(bytes(60, 'c'), cache.get(C));
+	}
+
+	@Test
+	public void keepsDiskEntriesAcrossRestarts() {
+		cache(50, 1024).put(A, bytes(60, 'a'));
+
+		BlobCache restarted = cache(50, 1024);
+		assertArrayEquals(bytes(60, 'a'), restarted.get(A));
+		assertEquals(1, restarted.getDiskHits());
+	}
+
+	private BlobCache cache(long memoryMaxBytes, long diskMaxBytes) {
+		BlobCache cache = new BlobCache();
+		ReflectionTestUtils.setField(cache, "memoryMaxBytes", memoryMaxBytes);
+		ReflectionTestUtils.setField(cache, "diskMaxBytes", diskMaxBytes);
+		ReflectionTestUtils.setField(cache, "directory", directory.toString());
+		cache.init();
+		return cache;
+	}
+
+	private static byte[] bytes(int length, char value) {
+		return String.valueOf(value).repeat(length).getBytes();
+	}
+}
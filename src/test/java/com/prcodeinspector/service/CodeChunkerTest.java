@@ -0,0 +1,65 @@
+package com.prcodeinspector.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class CodeChunkerTest {
+
+	private static final String JAVA = "package demo;\n" // 1
+			+ "\n" // 2
+			+ "class Demo {\n" // 3
+			+ "\t/** First. */\n" // 4
+			+ "\tint first(int a) {\n" // 5
+			+ "\t\tint b = a * 2;\n" // 6
+			+ "\t\treturn b + 1;\n" // 7
+			+ "\t}\n" // 8
+			+ "\n" // 9
+			+ "\t/** Second. */\n" // 10
+			+ "\tint second(int a) {\n" // 11
+			+ "\t\tint b = a * 3;\n" // 12
+			+ "\t\treturn b + 2;\n" // 13
+			+ "\t}\n" // 14
+			+ "}\n";
+
+	@Test
+	public void keepsFilesWithinBudgetWhole() {
+		CodeChunker chunker = new CodeChunker(CodeChunker.encodingFor("gpt-4"), 1000, 2);
+		List<CodeChunker.Chunk> chunks = chunker.split(JAVA, "java");
+		assertEquals(1, chunks.size());
+		assertEquals(JAVA, chunks.get(0).getText());
+		assertEquals(chunker.countTokens(JAVA), chunks.get(0).getTokens());
+	}
+
+	@Test
+	public void cutsBetweenMembersWithOverlap() {
+		CodeChunker chunker = new CodeChunker(CodeChunker.encodingFor("gpt-4"), 55, 1);
+		List<CodeChunker.Chunk> chunks = chunker.split(JAVA, "java");
+
+		assertTrue(chunks.size() >= 2, "expected a split, got " + chunks.size());
+		// The first cut lands before the second method and its comment, not inside the first method; the
+		// second chunk repeats one line before the cut
+		CodeChunker.Chunk second = chunks.get(1);
+		assertEquals(8, second.getStartLine());
+		assertTrue(second.getText().startsWith("\t}\n\n\t/** Second. */\n\tint second(int a) {"));
+		assertTrue(chunks.get(0).getText().endsWith("\t}"));
+		assertTrue(chunks.get(chunks.size() - 1).getText().endsWith("}"));
+		chunks.forEach(chunk -> assertTrue(chunk.getTokens() <= 55));
+	}
+
+	@Test
+	public void cutsPythonAtTopLevelDefinitions() {
+		String python = "import os\n\n"
+				+ "def first(path):\n    if os.path.exists(path):\n        return open(path).read()\n    return None\n\n"
+				+ "def second(path):\n    with open(path) as f:\n        return f.readlines()\n";
+		CodeChunker chunker = new CodeChunker(CodeChunker.encodingFor("gpt-4"), 35, 0);
+		List<CodeChunker.Chunk> chunks = chunker.split(python, "python");
+
+		assertEquals(2, chunks.size());
+		assertEquals(7, chunks.get(1).getStartLine());
+		assertTrue(chunks.get(1).getText().startsWith("\ndef second(path):"));
+	}
+}
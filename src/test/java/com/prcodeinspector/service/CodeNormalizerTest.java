@@ -0,0 +1,45 @@
+package com.prcodeinspector.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class CodeNormalizerTest {
+
+	@Test
+	public void ignoresCommentsAndLayoutAndMapsLines() {
+		String original = "class A {\n\tint run() {\n\t\treturn 1;\n\t}\n}\n";
+		String reformatted = "// Copyright 2024\n/* License\n   text */\nclass A\n{\n  int run()\n  {\n"
+				+ "    return 1; // one\n  }\n}\n";
+
+		CodeNormalizer.Normalized a = CodeNormalizer.normalize(original, "java");
+		CodeNormalizer.Normalized b = CodeNormalizer.normalize(reformatted, "java");
+		assertEquals(a.getText(), b.getText());
+
+		// "return 1;" is line 3 of the original and line 8 of the reformatted copy
+		assertEquals(8, b.toLine(a.encodeLineStarts(), 3));
+		assertEquals(3, a.toLine(b.encodeLineStarts(), 8));
+		assertEquals(null, b.toLine(a.encodeLineStarts(), null));
+	}
+
+	@Test
+	public void keepsStringLiterals() {
+		CodeNormalizer.Normalized url = CodeNormalizer.normalize("String u = \"http://x /* y */\";", "java");
+		assertTrue(url.getText().contains("\"http://x /* y */\""));
+		assertNotEquals(url.getText(), CodeNormalizer.normalize("String u = \"http://z\";", "java").getText());
+	}
+
+	@Test
+	public void keepsIndentationWherePythonDependsOnIt() {
+		String nested = "def f(x):\n    if x:\n        a()\n        b()\n";
+		String dedented = "def f(x):\n    if x:\n        a()\n    b()\n";
+		String commented = "# helper\ndef f(x):\n    if x:  # check\n        a()\n        b()\n";
+
+		assertNotEquals(CodeNormalizer.normalize(nested, "python").getText(),
+				CodeNormalizer.normalize(dedented, "python").getText());
+		assertEquals(CodeNormalizer.normalize(nested, "python").getText(),
+				CodeNormalizer.normalize(commented, "python").getText());
+	}
+}
@@ -0,0 +1,368 @@
+package com.prcodeinspector.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.prcodeinspector.model.AnalysisIssue;
+import com.prcodeinspector.model.CodeAnalysisResult;
+import com.prcodeinspector.model.CodeAnalysisResult.AnalysisTier;
+import com.prcodeinspector.model.PullRequestAnalysis;
+import com.prcodeinspector.repository.CodeAnalysisResultRepository;
+import com.prcodeinspector.repository.PullRequestAnalysisRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class CodeReviewServiceTest {
+
+	private final Set<String> unfetchable = new HashSet<>();
+
+	private GitHubService gitHubService;
+	private OpenAIClientService openAIClientService;
+	private PullRequestAnalysisRepository analysisRepository;
+	private CodeAnalysisResultRepository resultRepository;
+	private AnalysisFindingService findingService;
+	private SimpleMeterRegistry meterRegistry;
+	private CodeReviewService codeReviewService;
+
+	@BeforeEach
+	public void setUp() {
+		gitHubService = mock(GitHubService.class);
+		openAIClientService = mock(OpenAIClientService.class);
+		analysisRepository = mock(PullRequestAnalysisRepository.class);
+		resultRepository = mock(CodeAnalysisResultRepository.class);
+		findingService = mock(AnalysisFindingService.class);
+		meterRegistry = new SimpleMeterRegistry();
+
+		FileClassifier fileClassifier = new FileClassifier();
+		ReflectionTestUtils.setField(fileClassifier, "supportedExtensions", ".java");
+		ReflectionTestUtils.setField(fileClassifier, "includeGlobs", "");
+		ReflectionTestUtils.setField(fileClassifier, "excludeGlobs", "");
+		ReflectionTestUtils.setField(fileClassifier, "maxChangedLines", 3000);
+		fileClassifier.init();
+
+		codeReviewService = new CodeReviewService();
+		ReflectionTestUtils.setField(codeReviewService, "gitHubService", gitHubService);
+		ReflectionTestUtils.setField(codeReviewService, "openAIClientService", openAIClientService);
+		ReflectionTestUtils.setField(codeReviewService, "analysisRepository", analysisRepository);
+		ReflectionTestUtils.setField(codeReviewService, "resultRepository", resultRepository);
+		ReflectionTestUtils.setField(codeReviewService, "fileClassifier", fileClassifier);
+		ReflectionTestUtils.setField(codeReviewService, "findingService", findingService);
+		ReflectionTestUtils.setField(codeReviewService, "meterRegistry", meterRegistry);
+		ReflectionTestUtils.setField(codeReviewService, "maxFileSize", 1000L);
+		ReflectionTestUtils.setField(codeReviewService, "analysisMode", "full");
+		ReflectionTestUtils.setField(codeReviewService, "sampleBytes", 256);
+		ReflectionTestUtils.setField(codeReviewService, "diffContextLines", 3);
+		ReflectionTestUtils.setField(codeReviewService, "packingEnabled", false);
+		ReflectionTestUtils.setField(codeReviewService, "packingMaxTokens", 6000);
+		ReflectionTestUtils.setField(codeReviewService, "packingMaxFileTokens", 1500);
+		ReflectionTestUtils.setField(codeReviewService, "packingMaxFiles", 8);
+
+		when(openAIClientService.submitCode(anyString(), anyString(), anyString(), anyString(), anyBoolean(), any()))
+				.thenAnswer(invocation -> CompletableFuture
+						.completedFuture(result(invocation.getArgument(0), "gpt-4")));
+	}
+
+	@Test
+	public void returnsTheCompletedAnalysisOfTheWebhookHeadWithoutResolvingThePullRequest() throws Exception {
+		PullRequestAnalysis existing = completedAnalysis("head1");
+
+		PullRequestAnalysis analysis = codeReviewService.analyzePullRequest("octo", "demo", 7, "head1")
+				.get(5, TimeUnit.SECONDS);
+
+		assertSame(existing, analysis);
+		verify(gitHubService, never()).getPullRequestSnapshot(anyString(), anyString(), anyInt(), anyBoolean());
+		verify(findingService, never()).start(anyString(), anyString(), anyInt());
+	}
+
+	@Test
+	public void carriesForwardTheResultsOfUnchangedBlobs() throws Exception {
+		completedAnalysis("head1");
+		CodeAnalysisResult previousA = previous("src/A.java", "a1");
+		CodeAnalysisResult previousB = previous("src/B.java", "b1");
+		when(resultRepository.findWithIssuesByPullRequestAnalysisId(42L)).thenReturn(List.of(previousA, previousB));
+		GitHubService.PullRequestFile a = file("src/A.java", "a1", "class A {}");
+		GitHubService.PullRequestFile b = file("src/B.java", "b2", "class B { int b; }");
+		ArgumentCaptor<Predicate<GitHubService.PullRequestFile>> needsContent = stream("head2", a, b);
+
+		PullRequestAnalysis analysis = codeReviewService.analyzePullRequest("octo", "demo", 7, "head2")
+				.get(5, TimeUnit.SECONDS);
+
+		assertEquals(PullRequestAnalysis.AnalysisStatus.COMPLETED, analysis.getStatus());
+		assertEquals("head2", analysis.getCommitSha());
+		// Only the changed blob is downloaded and sent to the model
+		assertFalse(needsContent.getValue().test(a));
+		assertTrue(needsContent.getValue().test(b));
+		verify(openAIClientService, never()).submitCode(eq("src/A.java"), anyString(), anyString(), anyString(),
+				anyBoolean(), any());
+		verify(openAIClientService).submitCode(eq("src/B.java"), eq("B.java"), eq("java"), eq("class B { int b; }"),
+				eq(false), any());
+		// The kept result is published again, the replaced one deleted
+		verify(findingService).recordAll("octo", "demo", 7, "head2", previousA);
+		verify(resultRepository).delete(previousB);
+		verify(resultRepository, never()).delete(previousA);
+	}
+
+	@Test
+	public void reanalysesUnchangedBlobsWhenTheCacheIsBypassed() throws Exception {
+		completedAnalysis("head1");
+		CodeAnalysisResult previousA = previous("src/A.java", "a1");
+		when(resultRepository.findWithIssuesByPullRequestAnalysisId(42L)).thenReturn(List.of(previousA));
+		GitHubService.PullRequestFile a = file("src/A.java", "a1", "class A {}");
+		ArgumentCaptor<Predicate<GitHubService.PullRequestFile>> needsContent = stream("head1", a);
+
+		codeReviewService.analyzePullRequest("octo", "demo", 7, "head1", true).get(5, TimeUnit.SECONDS);
+
+		// Even the already analysed head is resolved and analysed again
+		assertTrue(needsContent.getValue().test(a));
+		verify(openAIClientService).submitCode(eq("src/A.java"), anyString(), anyString(), anyString(), eq(true),
+				any());
+		verify(findingService, never()).recordAll("octo", "demo", 7, "head1", previousA);
+		verify(resultRepository).delete(previousA);
+	}
+
+	@Test
+	public void recordsFilesTheClassifierSkips() throws Exception {
+		GitHubService.PullRequestFile vendored = file("vendor/lib/Util.java", "v1", "class Util {}");
+		GitHubService.PullRequestFile lockfile = file("package-lock.json", "l1", "{}");
+		ArgumentCaptor<Predicate<GitHubService.PullRequestFile>> needsContent = stream("head1", vendored, lockfile);
+
+		PullRequestAnalysis analysis = codeReviewService.analyzePullRequest("octo", "demo", 7)
+				.get(5, TimeUnit.SECONDS);
+
+		assertEquals("VENDORED", analysis.getSkippedFiles().get("vendor/lib/Util.java"));
+		assertEquals("LOCKFILE", analysis.getSkippedFiles().get("package-lock.json"));
+		assertFalse(needsContent.getValue().test(vendored));
+		verify(openAIClientService, never()).submitCode(anyString(), anyString(), anyString(), anyString(),
+				anyBoolean(), any());
+	}
+
+	@Test
+	public void recordsFilesWhoseContentCouldNotBeFetched() throws Exception {
+		unfetchable.add("src/A.java");
+		stream("head1", file("src/A.java", "a1", "class A {}"), file("src/B.java", "b1", "class B {}"));
+
+		PullRequestAnalysis analysis = codeReviewService.analyzePullRequest("octo", "demo", 7)
+				.get(5, TimeUnit.SECONDS);
+
+		assertEquals(Map.of("src/A.java", "FETCH_FAILED"), analysis.getSkippedFiles());
+		verify(openAIClientService).submitCode(eq("src/B.java"), anyString(), anyString(), anyString(),
+				anyBoolean(), any());
+	}
+
+	@Test
+	public void packsSmallFilesIntoOnePrompt() throws Exception {
+		ReflectionTestUtils.setField(codeReviewService, "packingEnabled", true);
+		List<List<String>> packs = new ArrayList<>();
+		doAnswer(invocation -> {
+			List<PromptPacker.PackedFile> pack = invocation.getArgument(0);
+			List<String> paths = new ArrayList<>();
+			for (PromptPacker.PackedFile packed : pack) {
+				paths.add(packed.getFilePath());
+				packed.getResult().complete(result(packed.getFilePath(), "gpt-4"));
+			}
+			packs.add(paths);
+			return null;
+		}).when(openAIClientService).analyzePack(any(), anyBoolean());
+		stream("head1", file("src/A.java", "a1", "class A {}"), file("src/B.java", "b1", "class B {}"));
+
+		codeReviewService.analyzePullRequest("octo", "demo", 7).get(5, TimeUnit.SECONDS);
+
+		assertEquals(List.of(List.of("src/A.java", "src/B.java")), packs);
+		verify(openAIClientService, never()).submitCode(anyString(), anyString(), anyString(), anyString(),
+				anyBoolean(), any());
+		ArgumentCaptor<CodeAnalysisResult> saved = ArgumentCaptor.forClass(CodeAnalysisResult.class);
+		verify(resultRepository, times(2)).save(saved.capture());
+		assertTrue(saved.getAllValues().stream().allMatch(result -> result.getAnalysisTier() == AnalysisTier.FULL
+				&& "head1".equals(result.getCommitSha())));
+	}
+
+	@Test
+	public void retractsTheStreamedFindingsOfAFileThatFailed() throws Exception {
+		when(openAIClientService.submitCode(eq("src/A.java"), anyString(), anyString(), anyString(), anyBoolean(),
+				any())).thenReturn(CompletableFuture.failedFuture(new ModelCallException(503, null, "unavailable")));
+		stream("head1", file("src/A.java", "a1", "class A {}"), file("src/B.java", "b1", "class B {}"));
+
+		PullRequestAnalysis analysis = codeReviewService.analyzePullRequest("octo", "demo", 7)
+				.get(5, TimeUnit.SECONDS);
+
+		assertEquals(PullRequestAnalysis.AnalysisStatus.COMPLETED, analysis.getStatus());
+		assertEquals("ANALYSIS_FAILED", analysis.getSkippedFiles().get("src/A.java"));
+		verify(findingService).retract("octo", "demo", 7, "src/A.java");
+		verify(findingService, never()).retract("octo", "demo", 7, "src/B.java");
+		verify(findingService).recordAll(eq("octo"), eq("demo"), eq(7), eq("head1"), any(CodeAnalysisResult.class));
+	}
+
+	@Test
+	public void recordsTheCostAndFilesPerModelOfThePullRequest() throws Exception {
+		when(openAIClientService.submitCode(eq("src/A.java"), anyString(), anyString(), anyString(), anyBoolean(),
+				any())).thenReturn(CompletableFuture.completedFuture(result("src/A.java", "gpt-4o-mini")));
+		when(openAIClientService.estimateCost(any(CodeAnalysisResult.class))).thenReturn(0.01);
+		stream("head1", file("src/A.java", "a1", "class A {}"), file("src/B.java", "b1", "class B {}"),
+				file("src/C.java", "c1", "class C {}"));
+
+		codeReviewService.analyzePullRequest("octo", "demo", 7).get(5, TimeUnit.SECONDS);
+
+		assertEquals(0.03, meterRegistry.get("code.analysis.pull-request.cost").summary().totalAmount(), 1e-9);
+		assertEquals(1.0, meterRegistry.get("code.analysis.pull-request.files").tag("model", "gpt-4o-mini")
+				.summary().totalAmount());
+		assertEquals(2.0, meterRegistry.get("code.analysis.pull-request.files").tag("model", "gpt-4").summary()
+				.totalAmount());
+		assertEquals(1, meterRegistry.get("code.analysis.pull-request.duration").timer().count());
+	}
+
+	@Test
+	public void publishesIssuesAsTheModelReportsThem() throws Exception {
+		ArgumentCaptor<Consumer<AnalysisIssue>> findings = consumerCaptor();
+		stream("head1", file("src/A.java", "a1", "class A {}"));
+
+		codeReviewService.analyzePullRequest("octo", "demo", 7).get(5, TimeUnit.SECONDS);
+
+		verify(openAIClientService).submitCode(eq("src/A.java"), anyString(), anyString(), anyString(), anyBoolean(),
+				findings.capture());
+		AnalysisIssue issue = new AnalysisIssue();
+		issue.setTitle("Unclosed stream");
+		findings.getValue().accept(issue);
+		verify(findingService).record("octo", "demo", 7, "head1", "src/A.java", issue);
+	}
+
+	@Test
+	public void reviewsFilesWithinTheSizeLimitInFull() {
+		assertEquals(AnalysisTier.FULL, codeReviewService.chooseTier(tierFile(1000L, "@@ -1 +1 @@"), false));
+		// Size unknown before the download (deleted file, truncated tree)
+		assertEquals(AnalysisTier.FULL, codeReviewService.chooseTier(tierFile(null, null), false));
+	}
+
+	@Test
+	public void reviewsOnlyThePatchInDiffMode() {
+		assertEquals(AnalysisTier.DIFF_ONLY, codeReviewService.chooseTier(tierFile(10L, "@@ -1 +1 @@"), true));
+		// GitHub sends no patch for very large diffs
+		assertEquals(AnalysisTier.FULL, codeReviewService.chooseTier(tierFile(10L, null), true));
+	}
+
+	@Test
+	public void prefersThePatchOverASampleForOversizedFiles() {
+		assertEquals(AnalysisTier.DIFF_ONLY, codeReviewService.chooseTier(tierFile(1001L, "@@ -1 +1 @@"), false));
+		assertEquals(AnalysisTier.SAMPLED, codeReviewService.chooseTier(tierFile(1001L, null), false));
+	}
+
+	@Test
+	public void skipsOversizedFilesWithoutPatchWhenSamplingIsOff() {
+		ReflectionTestUtils.setField(codeReviewService, "sampleBytes", 0);
+
+		assertNull(codeReviewService.chooseTier(tierFile(1001L, null), false));
+		assertEquals(AnalysisTier.DIFF_ONLY, codeReviewService.chooseTier(tierFile(1001L, "@@ -1 +1 @@"), false));
+	}
+
+	private PullRequestAnalysis completedAnalysis(String commitSha) {
+		PullRequestAnalysis existing = new PullRequestAnalysis("octo", "demo", "Fix the build");
+		existing.setId(42L);
+		existing.setPullRequestNumber(7);
+		existing.setStatus(PullRequestAnalysis.AnalysisStatus.COMPLETED);
+		existing.setCommitSha(commitSha);
+		when(analysisRepository.findByOwnerRepositoryAndPRNumber("octo", "demo", 7)).thenReturn(existing);
+		return existing;
+	}
+
+	/**
+	 * Resolves the PR at {@code headSha} and lists {@code files}; the returned
+	 * captor holds the predicate deciding which files get their content.
+	 */
+	@SuppressWarnings("unchecked")
+	private ArgumentCaptor<Predicate<GitHubService.PullRequestFile>> stream(String headSha,
+			GitHubService.PullRequestFile... files) throws Exception {
+		PullRequestSnapshot snapshot = new PullRequestSnapshot();
+		snapshot.setOwner("octo");
+		snapshot.setRepository("demo");
+		snapshot.setPrNumber(7);
+		snapshot.setTitle("Fix the build");
+		snapshot.setHeadSha(headSha);
+		snapshot.setChangedFiles(files.length);
+		when(gitHubService.getPullRequestSnapshot("octo", "demo", 7, false)).thenReturn(snapshot);
+
+		ArgumentCaptor<Predicate<GitHubService.PullRequestFile>> needsContent = ArgumentCaptor
+				.forClass(Predicate.class);
+		when(gitHubService.streamFileContents(eq(snapshot), needsContent.capture())).thenAnswer(invocation -> {
+			PullRequestFileStream stream = new PullRequestFileStream(files.length);
+			stream.start("test-lister", listed -> {
+				for (GitHubService.PullRequestFile file : files) {
+					listed.submit(() -> unfetchable.contains(file.getFilePath())
+							? CompletableFuture.failedFuture(new GitHubService.FileFetchException(file.getFilePath(),
+									new IOException("HTTP 502")))
+							: CompletableFuture.completedFuture(file));
+				}
+			});
+			return stream;
+		});
+		return needsContent;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static ArgumentCaptor<Consumer<AnalysisIssue>> consumerCaptor() {
+		return ArgumentCaptor.forClass(Consumer.class);
+	}
+
+	private static GitHubService.PullRequestFile file(String path, String sha, String content) {
+		GitHubService.PullRequestFile file = new GitHubService.PullRequestFile();
+		file.setFilePath(path);
+		file.setFileName(path.substring(path.lastIndexOf('/') + 1));
+		file.setStatus("MODIFIED");
+		file.setSha(sha);
+		file.setSize((long) content.length());
+		file.setPatch("@@ -1 +1 @@\n+" + content);
+		file.setNewContent(content);
+		return file;
+	}
+
+	private static CodeAnalysisResult previous(String path, String blobSha) {
+		CodeAnalysisResult result = result(path, "gpt-4");
+		result.setBlobSha(blobSha);
+		return result;
+	}
+
+	private static CodeAnalysisResult result(String path, String reviewModel) {
+		CodeAnalysisResult result = new CodeAnalysisResult(path, path.substring(path.lastIndexOf('/') + 1),
+				CodeAnalysisResult.AnalysisType.MODIFIED);
+		result.setReviewModel(reviewModel);
+		return result;
+	}
+
+	private static GitHubService.PullRequestFile tierFile(Long size, String patch) {
+		GitHubService.PullRequestFile file = new GitHubService.PullRequestFile();
+		file.setFilePath("src/App.java");
+		file.setFileName("App.java");
+		file.setStatus("MODIFIED");
+		file.setSize(size);
+		file.setPatch(patch);
+		return file;
+	}
+}
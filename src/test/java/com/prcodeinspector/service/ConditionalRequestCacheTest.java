@@ -0,0 +1,149 @@
+package com.prcodeinspector.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+public class ConditionalRequestCacheTest {
+
+	private final List<String> conditions = new ArrayList<>();
+
+	private HttpServer server;
+	private ConditionalRequestCache cache;
+	private OkHttpClient client;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", this::answer);
+		server.start();
+
+		cache = new ConditionalRequestCache();
+		ReflectionTestUtils.setField(cache, "meterRegistry", new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(cache, "maxBytes", 1024L);
+		ReflectionTestUtils.setField(cache, "maxEntryBytes", 512L);
+		cache.registerMetrics();
+		client = new OkHttpClient.Builder().addInterceptor(cache).build();
+	}
+
+	@AfterEach
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	@Test
+	public void replaysTheStoredResponseWhenNotModified() throws IOException {
+		assertEquals(body("/repos/octo/demo/pulls/7", 100), get("/repos/octo/demo/pulls/7?size=100", "token a"));
+
+		try (Response response = call("/repos/octo/demo/pulls/7?size=100", "token a")) {
+			assertEquals(200, response.code());
+			assertEquals(body("/repos/octo/demo/pulls/7", 100), response.body().string());
+			// Rate-limit headers come from the 304, not from the stored response
+			assertEquals("4998", response.header("X-RateLimit-Remaining"));
+		}
+		assertEquals(List.of("", "\"/repos/octo/demo/pulls/7\""), conditions);
+		assertEquals(1, cache.getHits());
+	}
+
+	@Test
+	public void neverReplaysOneTokensResponseToAnother() throws IOException {
+		get("/repos/octo/demo/pulls/7?size=100", "token a");
+		get("/repos/octo/demo/pulls/7?size=100", "token b");
+		get("/repos/octo/demo/pulls/7?size=100", "token b");
+
+		assertEquals(List.of("", "", "\"/repos/octo/demo/pulls/7\""), conditions);
+	}
+
+	@Test
+	public void letsBlobAndContentsResponsesPassThrough() throws IOException {
+		get("/repos/octo/demo/git/blobs/abc?size=100", "token a");
+		get("/repos/octo/demo/git/blobs/abc?size=100", "token a");
+		get("/repos/octo/demo/contents/src/App.java?size=100", "token a");
+		get("/repos/octo/demo/contents/src/App.java?size=100", "token a");
+
+		assertEquals(List.of("", "", "", ""), conditions);
+	}
+
+	@Test
+	public void skipsResponsesOverTheEntryCap() throws IOException {
+		assertEquals(body("/repos/octo/demo/pulls/8", 600), get("/repos/octo/demo/pulls/8?size=600", "token a"));
+		get("/repos/octo/demo/pulls/8?size=600", "token a");
+
+		assertEquals(List.of("", ""), conditions);
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedEntriesOverTheByteCap() throws IOException {
+		get("/repos/octo/demo/pulls/1?size=400", "token a");
+		get("/repos/octo/demo/pulls/2?size=400", "token a");
+		get("/repos/octo/demo/pulls/3?size=400", "token a");
+		conditions.clear();
+
+		get("/repos/octo/demo/pulls/3?size=400", "token a");
+		get("/repos/octo/demo/pulls/1?size=400", "token a");
+
+		assertEquals("\"/repos/octo/demo/pulls/3\"", conditions.get(0));
+		assertEquals("", conditions.get(1));
+	}
+
+	private String get(String path, String authorization) throws IOException {
+		try (Response response = call(path, authorization)) {
+			return response.body().string();
+		}
+	}
+
+	private Response call(String path, String authorization) throws IOException {
+		Request request = new Request.Builder().url("http://127.0.0.1:" + server.getAddress().getPort() + path)
+				.header("Accept", "application/vnd.github.v3+json").header("Authorization", authorization).build();
+		return client.newCall(request).execute();
+	}
+
+	private void answer(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		int size = Integer.parseInt(exchange.getRequestURI().getQuery().substring("size=".length()));
+		String etag = "\"" + path + "\"";
+		String condition = exchange.getRequestHeaders().getFirst("If-None-Match");
+		synchronized (conditions) {
+			conditions.add(condition != null ? condition : "");
+		}
+
+		exchange.getResponseHeaders().add("ETag", etag);
+		if (etag.equals(condition)) {
+			exchange.getResponseHeaders().add("X-RateLimit-Remaining", "4998");
+			exchange.sendResponseHeaders(304, -1);
+			exchange.close();
+			return;
+		}
+
+		byte[] bytes = body(path, size).getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+		exchange.getResponseHeaders().add("X-RateLimit-Remaining", "4999");
+		exchange.sendResponseHeaders(200, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	private static String body(String path, int size) {
+		String prefix = "{\"path\":\"" + path + "\",\"pad\":\"";
+		return prefix + "x".repeat(size - prefix.length() - 2) + "\"}";
+	}
+}
@@ -0,0 +1,68 @@
+package com.prcodeinspector.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class FileClassifierTest {
+
+	private FileClassifier classifier;
+
+	@BeforeEach
+	public void setUp() {
+		classifier = new FileClassifier();
+		ReflectionTestUtils.setField(classifier, "supportedExtensions", ".java,.js,.ts,.go,.py");
+		ReflectionTestUtils.setField(classifier, "includeGlobs", "");
+		ReflectionTestUtils.setField(classifier, "excludeGlobs", "**/fixtures/**,docs/*.js");
+		ReflectionTestUtils.setField(classifier, "maxChangedLines", 3000);
+		classifier.init();
+	}
+
+	@Test
+	public void classifiesByPath() {
+		assertEquals(FileClassifier.Verdict.ANALYZE, classifier.classify("src/main/java/App.java"));
+		assertEquals(FileClassifier.Verdict.LOCKFILE, classifier.classify("web/package-lock.json"));
+		assertEquals(FileClassifier.Verdict.UNSUPPORTED_TYPE, classifier.classify("README.md"));
+		assertEquals(FileClassifier.Verdict.MINIFIED, classifier.classify("static/app.min.js"));
+		assertEquals(FileClassifier.Verdict.VENDORED, classifier.classify("vendor/github.com/x/y.go"));
+		assertEquals(FileClassifier.Verdict.GENERATED, classifier.classify("web/dist/main.js"));
+		assertEquals(FileClassifier.Verdict.GENERATED, classifier.classify("api/service.pb.go"));
+		assertEquals(FileClassifier.Verdict.EXCLUDED, classifier.classify("test/fixtures/a/b.ts"));
+		assertEquals(FileClassifier.Verdict.EXCLUDED, classifier.classify("docs/example.js"));
+		assertEquals(FileClassifier.Verdict.ANALYZE, classifier.classify("docs/nested/example.js"));
+	}
+
+	@Test
+	public void includeGlobsRestrictAnalysedPaths() {
+		ReflectionTestUtils.setField(classifier, "includeGlobs", "src/**");
+		classifier.init();
+
+		assertEquals(FileClassifier.Verdict.ANALYZE, classifier.classify("src/a/B.java"));
+		assertEquals(FileClassifier.Verdict.EXCLUDED, classifier.classify("scripts/run.py"));
+	}
+
+	@Test
+	public void classifiesByListingMetadata() {
+		GitHubService.PullRequestFile generated = file("internal/api.go", 40,
+				"@@ -0,0 +1,40 @@\n+// Code generated by protoc-gen-go. DO NOT EDIT.\n+package api");
+		GitHubService.PullRequestFile minified = file("static/app.js", 1, "@@ -1 +1 @@\n+" + "x".repeat(5000));
+		GitHubService.PullRequestFile huge = file("src/Big.java", 12000, null);
+		GitHubService.PullRequestFile regular = file("src/App.java", 10, "@@ -1,3 +1,4 @@\n class App {\n+\tint x;");
+
+		assertEquals(FileClassifier.Verdict.GENERATED, classifier.classify(generated));
+		assertEquals(FileClassifier.Verdict.MINIFIED, classifier.classify(minified));
+		assertEquals(FileClassifier.Verdict.TOO_MANY_CHANGES, classifier.classify(huge));
+		assertEquals(FileClassifier.Verdict.ANALYZE, classifier.classify(regular));
+	}
+
+	private static GitHubService.PullRequestFile file(String path, int changes, String patch) {
+		GitHubService.PullRequestFile file = new GitHubService.PullRequestFile();
+		file.setFilePath(path);
+		file.setFileName(path);
+		file.setChanges(changes);
+		file.setPatch(patch);
+		return file;
+	}
+}
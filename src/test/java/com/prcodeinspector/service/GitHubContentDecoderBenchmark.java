@@ -0,0 +1,95 @@
+package com.prcodeinspector.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Allocation benchmark of the streaming decode path against the previous
+ * String / JsonNode / base64 String pipeline. Not part of the unit tests;
+ * run with {@code mvn test -Pbenchmark}.
+ */
+public class GitHubContentDecoderBenchmark {
+
+	private static final int FILE_SIZE = 1024 * 1024;
+	private static final int WARMUP_ROUNDS = 50;
+	private static final int ROUNDS = 20;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	@Test
+	public void streamingDecodeAllocatesLessThanTreeDecode() throws IOException {
+		byte[] file = sourceFile(FILE_SIZE);
+		byte[] response = response(file);
+
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			assertEquals(file.length, treeDecode(response).length());
+			assertEquals(file.length, streamingDecode(response).length());
+		}
+
+		long before = allocatedBytes();
+		for (int i = 0; i < ROUNDS; i++) {
+			treeDecode(response);
+		}
+		long treeBytes = (allocatedBytes() - before) / ROUNDS;
+
+		before = allocatedBytes();
+		for (int i = 0; i < ROUNDS; i++) {
+			streamingDecode(response);
+		}
+		long streamingBytes = (allocatedBytes() - before) / ROUNDS;
+
+		System.out.printf("Decoding a %d byte file: tree path %d bytes/op, streaming path %d bytes/op (%.1fx)%n",
+				file.length, treeBytes, streamingBytes, (double) treeBytes / streamingBytes);
+		assertTrue(streamingBytes * 2 < treeBytes,
+				"streaming decode should allocate less than half of the tree decode");
+	}
+
+	private String treeDecode(byte[] response) throws IOException {
+		// Previous path: body().string(), readTree, asText, base64 decode, new String
+		String responseBody = new String(response, StandardCharsets.UTF_8);
+		JsonNode jsonNode = objectMapper.readTree(responseBody);
+		byte[] decoded = Base64.getMimeDecoder().decode(jsonNode.get("content").asText());
+		return new String(decoded, StandardCharsets.UTF_8);
+	}
+
+	private String streamingDecode(byte[] response) throws IOException {
+		GitHubContentDecoder.DecodedContent decoded = GitHubContentDecoder.decode(objectMapper.getFactory(),
+				new ByteArrayInputStream(response));
+		return new String(decoded.getBytes(), StandardCharsets.UTF_8);
+	}
+
+	private byte[] sourceFile(int size) {
+		Random random = new Random(42);
+		byte[] file = new byte[size];
+		for (int i = 0; i < size; i++) {
+			file[i] = (byte) (i % 80 == 79 ? '\n' : 'a' + random.nextInt(26));
+		}
+		return file;
+	}
+
+	private byte[] response(byte[] file) {
+		// GitHub wraps the base64 content every 60 characters
+		String content = Base64.getMimeEncoder(60, "\n".getBytes(StandardCharsets.US_ASCII)).encodeToString(file)
+				.replace("\n", "\\n") + "\\n";
+		String json = "{\"sha\":\"3a0f4b2c9d1e8f7a6b5c4d3e2f1a0b9c8d7e6f5a\",\"size\":" + file.length
+				+ ",\"content\":\"" + content + "\",\"encoding\":\"base64\"}";
+		return json.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
@@ -0,0 +1,104 @@
+package com.prcodeinspector.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class GitHubContentDecoderTest {
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	@Test
+	public void decodesLineWrappedBase64Content() throws IOException {
+		byte[] file = sourceFile(10_000);
+		GitHubContentDecoder.DecodedContent decoded = GitHubContentDecoder.decode(objectMapper.getFactory(),
+				new ByteArrayInputStream(response(file)));
+
+		assertEquals("3a0f4b2c9d1e8f7a6b5c4d3e2f1a0b9c8d7e6f5a", decoded.getSha());
+		assertArrayEquals(file, decoded.getBytes());
+	}
+
+	@Test
+	public void decodesLikeTheTreeDecodePath() throws IOException {
+		byte[] response = response(sourceFile(1024 * 1024));
+
+		assertEquals(treeDecode(response), streamingDecode(response));
+	}
+
+	@Test
+	public void growsTheBufferWhenSizeComesAfterContent() throws IOException {
+		byte[] file = sourceFile(20_000);
+		String content = Base64.getEncoder().encodeToString(file);
+		String json = "{\"content\":\"" + content + "\",\"size\":" + file.length + ",\"sha\":\"abc\"}";
+
+		GitHubContentDecoder.DecodedContent decoded = GitHubContentDecoder.decode(objectMapper.getFactory(),
+				new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+		assertEquals("abc", decoded.getSha());
+		assertArrayEquals(file, decoded.getBytes());
+	}
+
+	@Test
+	public void returnsNoBytesWithoutContent() throws IOException {
+		GitHubContentDecoder.DecodedContent decoded = GitHubContentDecoder.decode(objectMapper.getFactory(),
+				new ByteArrayInputStream("{\"sha\":\"abc\",\"type\":\"dir\",\"entries\":[{}]}"
+						.getBytes(StandardCharsets.UTF_8)));
+
+		assertEquals("abc", decoded.getSha());
+		assertNull(decoded.getBytes());
+	}
+
+	@Test
+	public void returnsNoBytesForAFileListedWithoutItsContent() throws IOException {
+		GitHubContentDecoder.DecodedContent decoded = GitHubContentDecoder.decode(objectMapper.getFactory(),
+				new ByteArrayInputStream(("{\"type\":\"file\",\"encoding\":\"none\",\"size\":2097152,"
+						+ "\"sha\":\"abc\",\"content\":\"\"}").getBytes(StandardCharsets.UTF_8)));
+
+		assertEquals("abc", decoded.getSha());
+		assertEquals("file", decoded.getType());
+		assertNull(decoded.getBytes());
+	}
+
+	private String treeDecode(byte[] response) throws IOException {
+		String responseBody = new String(response, StandardCharsets.UTF_8);
+		JsonNode jsonNode = objectMapper.readTree(responseBody);
+		byte[] decoded = Base64.getMimeDecoder().decode(jsonNode.get("content").asText());
+		return new String(decoded, StandardCharsets.UTF_8);
+	}
+
+	private String streamingDecode(byte[] response) throws IOException {
+		GitHubContentDecoder.DecodedContent decoded = GitHubContentDecoder.decode(objectMapper.getFactory(),
+				new ByteArrayInputStream(response));
+		return new String(decoded.getBytes(), StandardCharsets.UTF_8);
+	}
+
+	private byte[] sourceFile(int size) {
+		Random random = new Random(42);
+		byte[] file = new byte[size];
+		for (int i = 0; i < size; i++) {
+			file[i] = (byte) (i % 80 == 79 ? '\n' : 'a' + random.nextInt(26));
+		}
+		return file;
+	}
+
+	private byte[] response(byte[] file) {
+		// GitHub wraps the base64 content every 60 characters
+		String content = Base64.getMimeEncoder(60, "\n".getBytes(StandardCharsets.US_ASCII)).encodeToString(file)
+				.replace("\n", "\\n") + "\\n";
+		String json = "{\"sha\":\"3a0f4b2c9d1e8f7a6b5c4d3e2f1a0b9c8d7e6f5a\",\"node_id\":\"B_kwDO\",\"size\":"
+				+ file.length + ",\"url\":\"https://api.github.com/repos/octo/demo/git/blobs/3a0f\",\"content\":\""
+				+ content + "\",\"encoding\":\"base64\"}";
+		return json.getBytes(StandardCharsets.UTF_8);
+	}
+}
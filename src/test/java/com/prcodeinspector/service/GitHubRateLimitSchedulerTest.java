@@ -0,0 +1,188 @@
+package com.prcodeinspector.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+public class GitHubRateLimitSchedulerTest {
+
+	private final List<String> tokensUsed = new ArrayList<>();
+	private final Map<String, Reply> replies = new ConcurrentHashMap<>();
+
+	private HttpServer server;
+	private GitHubRateLimitScheduler scheduler;
+	private OkHttpClient client;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", this::answer);
+		server.start();
+	}
+
+	@AfterEach
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	@Test
+	public void sendsRequestsWithTheTokenWithMostBudgetLeft() throws IOException {
+		start("a,b");
+		replies.put("a", new Reply(200, 10, null, "{}"));
+		replies.put("b", new Reply(200, 4000, null, "{}"));
+
+		get(null);
+		get(null);
+		get(null);
+		get(null);
+
+		// Both unused tokens are tried once, then b (more budget) takes the rest
+		assertEquals(List.of("a", "b", "b", "b"), tokensUsed);
+	}
+
+	@Test
+	public void retriesAPrimaryRateLimitOnAnotherToken() throws IOException {
+		start("a,b");
+		replies.put("a", new Reply(403, 0, null, "{\"message\":\"API rate limit exceeded\"}"));
+		replies.put("b", new Reply(200, 4000, null, "{}"));
+
+		try (Response response = call(null)) {
+			assertEquals(200, response.code());
+		}
+		assertEquals(List.of("a", "b"), tokensUsed);
+	}
+
+	@Test
+	public void pausesATokenForAMinuteAfterASecondaryRateLimit() throws IOException {
+		start("a");
+		replies.put("a", new Reply(403, 4000, null,
+				"{\"message\":\"You have exceeded a secondary rate limit. Please wait a few minutes.\"}"));
+
+		long before = System.currentTimeMillis();
+		GitHubRateLimitScheduler.RateLimitedException limited = assertThrows(
+				GitHubRateLimitScheduler.RateLimitedException.class,
+				() -> call(GitHubRateLimitScheduler.WaitPolicy.FAIL_FAST));
+
+		assertTrue(limited.getRetryAt() >= before + 60_000);
+		assertEquals(List.of("a"), tokensUsed);
+	}
+
+	@Test
+	public void passesPermissionErrorsThrough() throws IOException {
+		start("a,b");
+		replies.put("a", new Reply(403, 4000, null, "{\"message\":\"Resource not accessible by integration\"}"));
+
+		try (Response response = call(null)) {
+			assertEquals(403, response.code());
+		}
+		assertEquals(List.of("a"), tokensUsed);
+	}
+
+	@Test
+	public void failsFastInsteadOfWaitingForTheReset() throws IOException {
+		start("a");
+		long resetAt = System.currentTimeMillis() / 1000 + 120;
+		replies.put("a", new Reply(200, 0, resetAt, "{}"));
+		get(null);
+
+		GitHubRateLimitScheduler.RateLimitedException limited = assertThrows(
+				GitHubRateLimitScheduler.RateLimitedException.class,
+				() -> call(GitHubRateLimitScheduler.WaitPolicy.FAIL_FAST));
+
+		assertEquals(resetAt * 1000, limited.getRetryAt());
+		assertEquals(1, tokensUsed.size());
+	}
+
+	@Test
+	public void givesUpWhenTheResetIsBeyondTheMaximumWait() throws IOException {
+		start("a");
+		ReflectionTestUtils.setField(scheduler, "maxWaitSeconds", 1L);
+		replies.put("a", new Reply(200, 0, System.currentTimeMillis() / 1000 + 120, "{}"));
+		get(null);
+
+		IOException error = assertThrows(IOException.class, () -> call(null));
+
+		assertTrue(error.getMessage().startsWith("All GitHub tokens are rate limited"));
+		assertEquals(1, tokensUsed.size());
+	}
+
+	private void start(String tokens) {
+		scheduler = new GitHubRateLimitScheduler();
+		ReflectionTestUtils.setField(scheduler, "meterRegistry", new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(scheduler, "githubTokens", tokens);
+		ReflectionTestUtils.setField(scheduler, "paceBelowFraction", 0.0);
+		ReflectionTestUtils.setField(scheduler, "maxWaitSeconds", 900L);
+		scheduler.init();
+		client = new OkHttpClient.Builder().addInterceptor(scheduler).build();
+	}
+
+	private void get(GitHubRateLimitScheduler.WaitPolicy policy) throws IOException {
+		try (Response response = call(policy)) {
+			assertEquals(200, response.code());
+		}
+	}
+
+	private Response call(GitHubRateLimitScheduler.WaitPolicy policy) throws IOException {
+		Request.Builder request = new Request.Builder()
+				.url("http://127.0.0.1:" + server.getAddress().getPort() + "/repos/octo/demo");
+		if (policy != null) {
+			request.tag(GitHubRateLimitScheduler.WaitPolicy.class, policy);
+		}
+		return client.newCall(request.build()).execute();
+	}
+
+	private void answer(HttpExchange exchange) throws IOException {
+		String token = exchange.getRequestHeaders().getFirst("Authorization").substring("token ".length());
+		synchronized (tokensUsed) {
+			tokensUsed.add(token);
+		}
+		Reply reply = replies.getOrDefault(token, new Reply(200, 4000, null, "{}"));
+
+		long resetAt = reply.resetAt != null ? reply.resetAt : System.currentTimeMillis() / 1000 + 3600;
+		exchange.getResponseHeaders().add("X-RateLimit-Limit", "5000");
+		exchange.getResponseHeaders().add("X-RateLimit-Remaining", String.valueOf(reply.remaining));
+		exchange.getResponseHeaders().add("X-RateLimit-Reset", String.valueOf(resetAt));
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		byte[] body = reply.body.getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(reply.status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private static class Reply {
+		private final int status;
+		private final int remaining;
+		private final Long resetAt;
+		private final String body;
+
+		Reply(int status, int remaining, Long resetAt, String body) {
+			this.status = status;
+			this.remaining = remaining;
+			this.resetAt = resetAt;
+			this.body = body;
+		}
+	}
+}
@@ -0,0 +1,340 @@
+package com.prcodeinspector.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.kohsuke.github.GitHub;
+import org.kohsuke.github.GitHubBuilder;
+import org.kohsuke.github.extras.okhttp3.OkHttpGitHubConnector;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.OkHttpClient;
+
+public class GitHubServiceTest {
+
+	private static final String HEAD_SHA = "1111111111111111111111111111111111111111";
+	private static final String BASE_SHA = "2222222222222222222222222222222222222222";
+	private static final String HEAD_BLOB = "3333333333333333333333333333333333333333";
+	private static final String BASE_BLOB = "4444444444444444444444444444444444444444";
+	private static final String LARGE_BLOB = "5555555555555555555555555555555555555555";
+	private static final String HUGE_BLOB = "6666666666666666666666666666666666666666";
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+
+	@TempDir
+	Path blobDirectory;
+
+	private HttpServer server;
+	private ConditionalRequestCache conditionalRequestCache;
+	private GitHubService gitHubService;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", this::answer);
+		server.start();
+		String apiUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+
+		conditionalRequestCache = new ConditionalRequestCache();
+		ReflectionTestUtils.setField(conditionalRequestCache, "meterRegistry", new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(conditionalRequestCache, "maxBytes", 1024 * 1024L);
+		ReflectionTestUtils.setField(conditionalRequestCache, "maxEntryBytes", 64 * 1024L);
+		conditionalRequestCache.registerMetrics();
+		OkHttpClient httpClient = new OkHttpClient.Builder().addInterceptor(conditionalRequestCache).build();
+		GitHub gitHub = new GitHubBuilder().withEndpoint(apiUrl).withConnector(new OkHttpGitHubConnector(httpClient))
+				.build();
+
+		BlobCache blobCache = new BlobCache();
+		ReflectionTestUtils.setField(blobCache, "memoryMaxBytes", 1024 * 1024L);
+		ReflectionTestUtils.setField(blobCache, "diskMaxBytes", 1024 * 1024L);
+		ReflectionTestUtils.setField(blobCache, "directory", blobDirectory.toString());
+		blobCache.init();
+
+		FileClassifier fileClassifier = new FileClassifier();
+		ReflectionTestUtils.setField(fileClassifier, "supportedExtensions", ".java");
+		ReflectionTestUtils.setField(fileClassifier, "includeGlobs", "");
+		ReflectionTestUtils.setField(fileClassifier, "excludeGlobs", "");
+		ReflectionTestUtils.setField(fileClassifier, "maxChangedLines", 3000);
+		fileClassifier.init();
+
+		gitHubService = new GitHubService();
+		ReflectionTestUtils.setField(gitHubService, "objectMapper", objectMapper);
+		ReflectionTestUtils.setField(gitHubService, "gitHub", gitHub);
+		ReflectionTestUtils.setField(gitHubService, "githubHttpClient", httpClient);
+		ReflectionTestUtils.setField(gitHubService, "blobCache", blobCache);
+		ReflectionTestUtils.setField(gitHubService, "fileClassifier", fileClassifier);
+		ReflectionTestUtils.setField(gitHubService, "gitMirrorService", mock(GitMirrorService.class));
+		ReflectionTestUtils.setField(gitHubService, "githubApiUrl", apiUrl);
+		ReflectionTestUtils.setField(gitHubService, "parallelFetch", true);
+		ReflectionTestUtils.setField(gitHubService, "contentFetcher", "rest");
+		ReflectionTestUtils.setField(gitHubService, "maxPendingFiles", 64);
+		ReflectionTestUtils.setField(gitHubService, "archiveFileThreshold", 100);
+		ReflectionTestUtils.setField(gitHubService, "maxFileSize", 1024 * 1024L);
+		ReflectionTestUtils.setField(gitHubService, "snapshotCacheTtlMillis", 60_000L);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	@Test
+	public void resolvesThePullRequestOnceAcrossEntryPoints() throws IOException {
+		assertEquals("class App { int x; }", gitHubService.getFileContent("octo", "demo", "src/App.java", 7, "HEAD"));
+		assertEquals("class App { }", gitHubService.getFileContent("octo", "demo", "src/App.java", 7, "BASE"));
+		assertEquals("class App { int x; }", gitHubService.getFileContent("octo", "demo", "src/App.java", 7, "HEAD"));
+		assertEquals(Map.of("src/App.java", "class App { int x; }"),
+				gitHubService.getCodeFilesForAnalysis("octo", "demo", 7));
+
+		assertEquals(1, requestCount("/repos/octo/demo/pulls/7"));
+		assertEquals(1, requestCount("/repos/octo/demo/pulls/7/files"));
+		assertEquals(1, requestCount("/repos/octo/demo/git/trees/" + BASE_SHA));
+		// Both blobs are downloaded once and served from the blob cache afterwards
+		assertEquals(1, requestCount("/repos/octo/demo/git/blobs/" + HEAD_BLOB));
+		assertEquals(1, requestCount("/repos/octo/demo/git/blobs/" + BASE_BLOB));
+		assertEquals(6, requests.values().stream().mapToInt(AtomicInteger::get).sum());
+		// Blob responses stream past the conditional cache straight into the content decoder
+		assertEquals(4, conditionalRequestCache.getMisses());
+	}
+
+	@Test
+	public void resolvesAgainOnceTheSnapshotExpires() throws IOException {
+		ReflectionTestUtils.setField(gitHubService, "snapshotCacheTtlMillis", 0L);
+
+		gitHubService.getFileContent("octo", "demo", "src/App.java", 7, "HEAD");
+		gitHubService.getFileContent("octo", "demo", "src/App.java", 7, "HEAD");
+
+		assertEquals(2, requestCount("/repos/octo/demo/pulls/7"));
+		assertEquals(1, requestCount("/repos/octo/demo/git/blobs/" + HEAD_BLOB));
+	}
+
+	@Test
+	public void looksFilesUpByPath() throws IOException {
+		PullRequestSnapshot snapshot = gitHubService.getPullRequestSnapshot("octo", "demo", 7);
+
+		assertEquals(HEAD_BLOB, snapshot.getFile("src/App.java").getSha());
+		assertNull(snapshot.getFile("src/Missing.java"));
+	}
+
+	@Test
+	public void addsStreamedFilesToTheSnapshotAsTheyAreListed() throws IOException {
+		PullRequestSnapshot snapshot = gitHubService.getPullRequestSnapshot("octo", "demo", 7, false);
+		assertNull(snapshot.getFile("src/App.java"));
+
+		try (PullRequestFileStream stream = gitHubService.streamFileContents(snapshot, file -> true)) {
+			for (CompletableFuture<GitHubService.PullRequestFile> fetch : stream) {
+				GitHubService.PullRequestFile file = fetch.join();
+				assertSame(file, snapshot.getFile(file.getFilePath()));
+				assertEquals(20L, file.getSize());
+				assertEquals("class App { int x; }", file.getNewContent());
+			}
+		}
+		assertEquals(1, snapshot.getFiles().size());
+	}
+
+	@Test
+	public void streamsLargePullRequestFilesOutOfTheHeadArchive() throws IOException {
+		ReflectionTestUtils.setField(gitHubService, "archiveFileThreshold", 1);
+		PullRequestSnapshot snapshot = gitHubService.getPullRequestSnapshot("octo", "demo", 7, false);
+		AtomicInteger asked = new AtomicInteger();
+
+		try (PullRequestFileStream stream = gitHubService.streamFileContents(snapshot, file -> {
+			asked.incrementAndGet();
+			return true;
+		})) {
+			for (CompletableFuture<GitHubService.PullRequestFile> fetch : stream) {
+				assertEquals("class App { int x; }", fetch.join().getNewContent());
+			}
+		}
+
+		assertEquals(1, asked.get());
+		// Only the analysed (head) version is read; the base archive is not downloaded at all
+		assertEquals(1, requestCount("/repos/octo/demo/tarball/" + HEAD_SHA));
+		assertEquals(0, requestCount("/repos/octo/demo/tarball/" + BASE_SHA));
+		assertEquals(0, requestCount("/repos/octo/demo/git/blobs/" + HEAD_BLOB));
+	}
+
+	@Test
+	public void leavesOversizedArchiveEntriesWithoutFetchingThemAgain() throws IOException {
+		ReflectionTestUtils.setField(gitHubService, "archiveFileThreshold", 1);
+		ReflectionTestUtils.setField(gitHubService, "maxFileSize", 16L);
+		PullRequestSnapshot snapshot = gitHubService.getPullRequestSnapshot("octo", "demo", 7);
+
+		gitHubService.getPullRequestFiles(snapshot);
+
+		GitHubService.PullRequestFile file = snapshot.getFile("src/App.java");
+		assertNull(file.getNewContent());
+		assertEquals("class App { }", file.getOriginalContent());
+		assertEquals(1, requestCount("/repos/octo/demo/tarball/" + HEAD_SHA));
+		assertEquals(1, requestCount("/repos/octo/demo/tarball/" + BASE_SHA));
+		assertEquals(0, requestCount("/repos/octo/demo/git/blobs/" + HEAD_BLOB));
+	}
+
+	@Test
+	public void samplesTheHeadAndTailOfALargeFileByRange() throws IOException {
+		PullRequestSnapshot snapshot = gitHubService.getPullRequestSnapshot("octo", "demo", 7);
+		GitHubService.PullRequestFile file = new GitHubService.PullRequestFile();
+		file.setFilePath("src/Large.java");
+		file.setSha(LARGE_BLOB);
+
+		PatchExcerpt sample = gitHubService.getFileSample(snapshot, file, 40);
+
+		// Both ends are cut to whole lines; only the head keeps its line numbers
+		assertEquals("line 01\nline 02\n...\nline 98\nline 99\n", sample.getText());
+		assertEquals(2, sample.toFileLine(2));
+		assertNull(sample.toFileLine(4));
+		assertEquals(2, requestCount("/repos/octo/demo/git/blobs/" + LARGE_BLOB));
+	}
+
+	@Test
+	public void fetchesAFileListedWithoutContentByItsBlob() throws IOException {
+		assertEquals("class Huge { }", gitHubService.getFileContent("octo", "demo", "src/Huge.java", 7, "HEAD"));
+
+		assertEquals(1, requestCount("/repos/octo/demo/contents/src/Huge.java"));
+		assertEquals(1, requestCount("/repos/octo/demo/git/blobs/" + HUGE_BLOB));
+	}
+
+	@Test
+	public void failsForPathsThatAreNotFiles() {
+		IOException error = assertThrows(IOException.class,
+				() -> gitHubService.getFileContent("octo", "demo", "lib/vendor", 7, "HEAD"));
+
+		assertTrue(error.getMessage().contains("lib/vendor"));
+	}
+
+	private int requestCount(String path) {
+		AtomicInteger count = requests.get(path);
+		return count != null ? count.get() : 0;
+	}
+
+	private void answer(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		requests.computeIfAbsent(path, key -> new AtomicInteger()).incrementAndGet();
+
+		String body;
+		switch (path) {
+		case "/repos/octo/demo":
+			body = "{\"name\":\"demo\",\"full_name\":\"octo/demo\",\"owner\":{\"login\":\"octo\"}}";
+			break;
+		case "/repos/octo/demo/pulls/7":
+			body = "{\"number\":7,\"title\":\"Add x\",\"body\":\"\",\"state\":\"open\",\"user\":{\"login\":\"alice\"},"
+					+ "\"head\":{\"ref\":\"feature\",\"sha\":\"" + HEAD_SHA + "\"},"
+					+ "\"base\":{\"ref\":\"main\",\"sha\":\"" + BASE_SHA + "\"},"
+					+ "\"changed_files\":1,\"mergeable\":true,\"mergeable_state\":\"clean\"}";
+			break;
+		case "/repos/octo/demo/pulls/7/files":
+			body = "[{\"filename\":\"src/App.java\",\"status\":\"modified\",\"sha\":\"" + HEAD_BLOB + "\","
+					+ "\"additions\":1,\"deletions\":0,\"changes\":1,\"patch\":\"@@ -1 +1 @@\"}]";
+			break;
+		case "/repos/octo/demo/git/trees/" + HEAD_SHA:
+			body = "{\"sha\":\"" + HEAD_SHA + "\",\"truncated\":false,\"tree\":[{\"path\":\"src/App.java\","
+					+ "\"type\":\"blob\",\"sha\":\"" + HEAD_BLOB + "\",\"size\":20}]}";
+			break;
+		case "/repos/octo/demo/git/trees/" + BASE_SHA:
+			body = "{\"sha\":\"" + BASE_SHA + "\",\"truncated\":false,\"tree\":[{\"path\":\"src/App.java\","
+					+ "\"type\":\"blob\",\"sha\":\"" + BASE_BLOB + "\",\"size\":13}]}";
+			break;
+		case "/repos/octo/demo/git/blobs/" + HEAD_BLOB:
+			body = blob(HEAD_BLOB, "class App { int x; }");
+			break;
+		case "/repos/octo/demo/git/blobs/" + BASE_BLOB:
+			body = blob(BASE_BLOB, "class App { }");
+			break;
+		case "/repos/octo/demo/contents/src/Huge.java":
+			body = "{\"type\":\"file\",\"encoding\":\"none\",\"size\":2097152,\"path\":\"src/Huge.java\","
+					+ "\"sha\":\"" + HUGE_BLOB + "\",\"content\":\"\"}";
+			break;
+		case "/repos/octo/demo/contents/lib/vendor":
+			body = "{\"type\":\"submodule\",\"size\":0,\"path\":\"lib/vendor\",\"sha\":\"" + HEAD_SHA + "\"}";
+			break;
+		case "/repos/octo/demo/git/blobs/" + HUGE_BLOB:
+			body = blob(HUGE_BLOB, "class Huge { }");
+			break;
+		case "/repos/octo/demo/git/blobs/" + LARGE_BLOB:
+			sendRange(exchange, largeFile());
+			return;
+		case "/repos/octo/demo/tarball/" + HEAD_SHA:
+			send(exchange, "application/x-gzip", tarball("class App { int x; }"));
+			return;
+		case "/repos/octo/demo/tarball/" + BASE_SHA:
+			send(exchange, "application/x-gzip", tarball("class App { }"));
+			return;
+		default:
+			exchange.sendResponseHeaders(404, -1);
+			exchange.close();
+			return;
+		}
+
+		send(exchange, "application/json; charset=utf-8", body.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void send(HttpExchange exchange, String contentType, byte[] bytes) throws IOException {
+		exchange.getResponseHeaders().add("Content-Type", contentType);
+		exchange.getResponseHeaders().add("ETag", "\"" + exchange.getRequestURI().getPath() + "\"");
+		exchange.sendResponseHeaders(200, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	private static void sendRange(HttpExchange exchange, byte[] content) throws IOException {
+		String range = exchange.getRequestHeaders().getFirst("Range").substring("bytes=".length());
+		int dash = range.indexOf('-');
+		int from = dash == 0 ? content.length - Integer.parseInt(range.substring(1))
+				: Integer.parseInt(range.substring(0, dash));
+		int to = dash == 0 ? content.length - 1 : Integer.parseInt(range.substring(dash + 1));
+		byte[] part = Arrays.copyOfRange(content, from, to + 1);
+		exchange.getResponseHeaders().add("Content-Type", "application/octet-stream");
+		exchange.sendResponseHeaders(206, part.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(part);
+		}
+	}
+
+	private static byte[] largeFile() {
+		StringBuilder content = new StringBuilder();
+		for (int line = 1; line <= 99; line++) {
+			content.append(String.format("line %02d\n", line));
+		}
+		return content.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static byte[] tarball(String app) throws IOException {
+		return TarballReaderTest.tarball(
+				TarballReaderTest.entry("octo-demo-1111111/src/App.java", '0', app.getBytes(StandardCharsets.UTF_8)),
+				TarballReaderTest.entry("octo-demo-1111111/src/Other.java", '0', new byte[700]),
+				TarballReaderTest.END);
+	}
+
+	private static String blob(String sha, String content) {
+		byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+		return "{\"sha\":\"" + sha + "\",\"size\":" + bytes.length + ",\"content\":\""
+				+ Base64.getEncoder().encodeToString(bytes) + "\\n\",\"encoding\":\"base64\"}";
+	}
+}
@@ -0,0 +1,142 @@
+package com.prcodeinspector.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class GitMirrorServiceTest {
+
+	@TempDir
+	Path tempDir;
+
+	private Git upstream;
+	private GitMirrorService mirrors;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		File upstreamDir = tempDir.resolve("upstream/octo/demo").toFile();
+		upstream = Git.init().setDirectory(upstreamDir).setInitialBranch("main").call();
+
+		mirrors = new GitMirrorService();
+		ReflectionTestUtils.setField(mirrors, "mirroredRepositories", "octo/demo");
+		ReflectionTestUtils.setField(mirrors, "directory", tempDir.resolve("mirrors").toString());
+		ReflectionTestUtils.setField(mirrors, "urlTemplate",
+				tempDir.resolve("upstream").toUri() + "{owner}/{repository}");
+		ReflectionTestUtils.setField(mirrors, "token", "");
+		mirrors.init();
+	}
+
+	@AfterEach
+	public void tearDown() {
+		mirrors.shutdown();
+		upstream.close();
+	}
+
+	@Test
+	public void listsAndReadsPullRequestFromMirror() throws Exception {
+		write("src/App.java", "class App {\n\tint a;\n}\n");
+		write("src/Old.java", "class Old {}\n");
+		RevCommit base = commit("base");
+
+		upstream.checkout().setCreateBranch(true).setName("feature").call();
+		String app = "class App {\n\tint a;\n\tint b;\n}\n";
+		write("src/App.java", app);
+		write("src/New.java", "class New {}\n");
+		upstream.rm().addFilepattern("src/Old.java").call();
+		RevCommit head = commit("feature");
+
+		assertTrue(mirrors.isMirrored("Octo", "Demo"));
+		assertFalse(mirrors.isMirrored("octo", "other"));
+		mirrors.update("octo", "demo", 1, head.name(), base.name());
+
+		Map<String, GitHubService.PullRequestFile> files = mirrors
+				.listChangedFiles("octo", "demo", base.name(), head.name()).stream()
+				.collect(Collectors.toMap(GitHubService.PullRequestFile::getFilePath, Function.identity()));
+
+		assertEquals(3, files.size());
+		GitHubService.PullRequestFile modified = files.get("src/App.java");
+		assertEquals("MODIFIED", modified.getStatus());
+		assertEquals(1, modified.getAdditions());
+		assertEquals(0, modified.getDeletions());
+		assertTrue(modified.getPatch().startsWith("@@"));
+		assertTrue(modified.getPatch().contains("+\tint b;"));
+		assertEquals(app.length(), modified.getSize().intValue());
+		assertEquals("ADDED", files.get("src/New.java").getStatus());
+		assertEquals("DELETED", files.get("src/Old.java").getStatus());
+
+		assertArrayEquals("class New {}\n".getBytes(StandardCharsets.UTF_8),
+				mirrors.readBlob("octo", "demo", files.get("src/New.java").getSha()));
+		assertEquals("class Old {}\n", new String(mirrors.readFile("octo", "demo", base.name(), "src/Old.java"),
+				StandardCharsets.UTF_8));
+		assertNull(mirrors.readFile("octo", "demo", head.name(), "src/Old.java"));
+	}
+
+	@Test
+	public void fetchesNewCommitsIncrementally() throws Exception {
+		write("README.md", "demo\n");
+		RevCommit first = commit("first");
+		mirrors.update("octo", "demo", 1, first.name());
+
+		write("src/Later.java", "class Later {}\n");
+		RevCommit second = commit("second");
+		mirrors.update("octo", "demo", 1, second.name());
+
+		List<GitHubService.PullRequestFile> files = mirrors.listChangedFiles("octo", "demo", first.name(),
+				second.name());
+		assertEquals(1, files.size());
+		assertEquals("src/Later.java", files.get(0).getFilePath());
+	}
+
+	@Test
+	public void keepsOneMirrorForDifferentlyCasedNames() throws Exception {
+		write("README.md", "demo\n");
+		RevCommit first = commit("first");
+		mirrors.update("octo", "demo", 1, first.name());
+		mirrors.shutdown();
+
+		// The upstream URL of this spelling does not exist, so a second clone would fail
+		mirrors = new GitMirrorService();
+		ReflectionTestUtils.setField(mirrors, "mirroredRepositories", "Octo/Demo");
+		ReflectionTestUtils.setField(mirrors, "directory", tempDir.resolve("mirrors").toString());
+		ReflectionTestUtils.setField(mirrors, "urlTemplate",
+				tempDir.resolve("upstream").toUri() + "{owner}/{repository}");
+		ReflectionTestUtils.setField(mirrors, "token", "");
+		mirrors.init();
+		mirrors.update("Octo", "Demo", 1, first.name());
+
+		assertArrayEquals("demo\n".getBytes(StandardCharsets.UTF_8),
+				mirrors.readFile("Octo", "Demo", first.name(), "README.md"));
+		assertEquals(List.of("octo"), List.of(tempDir.resolve("mirrors").toFile().list()));
+	}
+
+	private void write(String path, String content) throws Exception {
+		Path file = upstream.getRepository().getWorkTree().toPath().resolve(path);
+		Files.createDirectories(file.getParent());
+		Files.writeString(file, content);
+	}
+
+	private RevCommit commit(String message) throws Exception {
+		upstream.add().addFilepattern(".").call();
+		return upstream.commit().setMessage(message).setAuthor("dev", "dev@example.com")
+				.setCommitter("dev", "dev@example.com").setSign(false).call();
+	}
+}
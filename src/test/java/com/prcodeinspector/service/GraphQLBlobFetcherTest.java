@@ -0,0 +1,136 @@
+package com.prcodeinspector.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import okhttp3.OkHttpClient;
+
+public class GraphQLBlobFetcherTest {
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final AtomicInteger queries = new AtomicInteger();
+	private final List<Integer> batchSizes = new ArrayList<>();
+	private volatile int remainingPoints = 5000;
+
+	private HttpServer server;
+	private GraphQLBlobFetcher fetcher;
+	private PullRequestSnapshot snapshot;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/graphql", this::answer);
+		server.start();
+
+		fetcher = new GraphQLBlobFetcher();
+		ReflectionTestUtils.setField(fetcher, "objectMapper", objectMapper);
+		ReflectionTestUtils.setField(fetcher, "githubHttpClient", new OkHttpClient());
+		ReflectionTestUtils.setField(fetcher, "graphqlUrl",
+				"http://127.0.0.1:" + server.getAddress().getPort() + "/graphql");
+		ReflectionTestUtils.setField(fetcher, "batchSize", 2);
+		ReflectionTestUtils.setField(fetcher, "lingerMillis", 50L);
+		ReflectionTestUtils.setField(fetcher, "minRemainingPoints", 100);
+		fetcher.init();
+
+		snapshot = new PullRequestSnapshot();
+		snapshot.setOwner("octo");
+		snapshot.setRepository("demo");
+	}
+
+	@AfterEach
+	public void tearDown() {
+		fetcher.shutdown();
+		server.stop(0);
+	}
+
+	@Test
+	public void packsFileVersionsIntoBatchedQueries() throws Exception {
+		CompletableFuture<GraphQLBlobFetcher.Blob> a = fetcher.fetch(snapshot, "abc", "src/A.java");
+		CompletableFuture<GraphQLBlobFetcher.Blob> b = fetcher.fetch(snapshot, "abc", "src/B.java");
+		CompletableFuture<GraphQLBlobFetcher.Blob> c = fetcher.fetch(snapshot, "def", "src/C.java");
+
+		assertEquals("content of abc:src/A.java", a.get(5, TimeUnit.SECONDS).getText());
+		assertEquals("content of abc:src/B.java", b.get(5, TimeUnit.SECONDS).getText());
+		// The third lookup is sent when the linger window closes
+		assertEquals("content of def:src/C.java", c.get(5, TimeUnit.SECONDS).getText());
+		assertEquals(2, queries.get());
+		assertEquals(List.of(2, 1), batchSizes);
+	}
+
+	@Test
+	public void truncatedAndBinaryBlobsFallBack() throws Exception {
+		CompletableFuture<GraphQLBlobFetcher.Blob> truncated = fetcher.fetch(snapshot, "abc", "huge.java");
+		CompletableFuture<GraphQLBlobFetcher.Blob> binary = fetcher.fetch(snapshot, "abc", "logo.png");
+
+		assertNull(truncated.get(5, TimeUnit.SECONDS));
+		assertNull(binary.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void stopsQueryingWhenPointBudgetIsLow() throws Exception {
+		remainingPoints = 10;
+		fetcher.fetch(snapshot, "abc", "src/A.java").get(5, TimeUnit.SECONDS);
+
+		assertNull(fetcher.fetch(snapshot, "abc", "src/B.java").get(5, TimeUnit.SECONDS));
+		assertEquals(1, queries.get());
+	}
+
+	private void answer(HttpExchange exchange) throws IOException {
+		queries.incrementAndGet();
+		JsonNode request = objectMapper.readTree(exchange.getRequestBody());
+
+		ObjectNode repository = objectMapper.createObjectNode();
+		int count = 0;
+		for (Map.Entry<String, JsonNode> variable : (Iterable<Map.Entry<String, JsonNode>>) () -> request
+				.path("variables").fields()) {
+			if (!variable.getKey().startsWith("e")) {
+				continue;
+			}
+			String expression = variable.getValue().asText();
+			ObjectNode blob = repository.putObject("f" + variable.getKey().substring(1));
+			blob.put("oid", Integer.toHexString(expression.hashCode()));
+			blob.put("text", "content of " + expression);
+			blob.put("isTruncated", expression.endsWith("huge.java"));
+			blob.put("isBinary", expression.endsWith(".png"));
+			count++;
+		}
+		synchronized (batchSizes) {
+			batchSizes.add(count);
+		}
+
+		ObjectNode data = objectMapper.createObjectNode();
+		ObjectNode rateLimit = data.putObject("rateLimit");
+		rateLimit.put("cost", 1);
+		rateLimit.put("remaining", remainingPoints);
+		rateLimit.put("resetAt", "2099-01-01T00:00:00Z");
+		data.set("repository", repository);
+
+		byte[] body = objectMapper.writeValueAsBytes(objectMapper.createObjectNode().set("data", data));
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+}
@@ -0,0 +1,444 @@
+package com.prcodeinspector.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.ai.openai.metadata.OpenAiUsage;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.prcodeinspector.model.AnalysisIssue;
+import com.prcodeinspector.model.CodeAnalysisResult;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+
+public class OpenAIClientServiceTest {
+
+	private static final String SINGLE = "{\"summary\": \"single\", \"securityScore\": 90, \"performanceScore\": 90, "
+			+ "\"bestPracticesScore\": 90, \"issues\": [], \"suggestions\": []}";
+
+	@TempDir
+	Path directory;
+
+	private ChatModel chatModel;
+	private AdaptiveConcurrencyLimiter limiter;
+	private ResilientCallExecutor resilientCalls;
+	private OpenAIClientService service;
+
+	@BeforeEach
+	public void setUp() {
+		chatModel = mock(ChatModel.class);
+		limiter = ResilientCallExecutorTest.limiter();
+		resilientCalls = ResilientCallExecutorTest.executor(limiter, null);
+
+		service = new OpenAIClientService();
+		ReflectionTestUtils.setField(service, "chatModel", chatModel);
+		ReflectionTestUtils.setField(service, "objectMapper", new ObjectMapper());
+		ReflectionTestUtils.setField(service, "resilientCalls", resilientCalls);
+		ReflectionTestUtils.setField(service, "resultCache", AnalysisResultCacheTest.memoryOnlyCache());
+		ReflectionTestUtils.setField(service, "promptCatalog", AnalysisPromptCatalogTest.classpathCatalog());
+		ReflectionTestUtils.setField(service, "maxTokens", 2000);
+		ReflectionTestUtils.setField(service, "model", "gpt-4");
+		ReflectionTestUtils.setField(service, "contextWindowTokens", 8192);
+		ReflectionTestUtils.setField(service, "packResponseTokensPerFile", 500);
+		ReflectionTestUtils.setField(service, "chunkMaxTokens", 3000);
+		ReflectionTestUtils.setField(service, "chunkOverlapLines", 5);
+		ReflectionTestUtils.setField(service, "streamingEnabled", true);
+		ReflectionTestUtils.setField(service, "preScanEnabled", true);
+		service.init();
+	}
+
+	@AfterEach
+	public void tearDown() {
+		resilientCalls.shutdown();
+		limiter.shutdown();
+	}
+
+	@Test
+	public void splitsPackedResponseAndAnalysesMissingFilesAlone() throws Exception {
+		String packed = "```json\n{\"files\": {"
+				+ "\"src/A.java\": {\"summary\": \"a\", \"securityScore\": 80, \"performanceScore\": 70, "
+				+ "\"bestPracticesScore\": 60, \"issues\": [{\"severity\": \"LOW\", \"title\": \"t\", "
+				+ "\"lineNumber\": 2}], \"suggestions\": []}}}\n```";
+		when(chatModel.call(any(Prompt.class))).thenAnswer(invocation -> {
+			Prompt prompt = invocation.getArgument(0);
+			return response(prompt.getContents().contains("\"files\"") ? packed : SINGLE);
+		});
+
+		PromptPacker.PackedFile a = new PromptPacker.PackedFile("src/A.java", "A.java", "java", "class A {}");
+		PromptPacker.PackedFile b = new PromptPacker.PackedFile("src/B.java", "B.java", "java", "class B {}");
+		service.analyzePack(List.of(a, b), false);
+
+		CodeAnalysisResult resultA = a.getResult().get(5, TimeUnit.SECONDS);
+		assertEquals("a", resultA.getSummary());
+		assertEquals(70.0, resultA.getOverallScore());
+		assertEquals(2, resultA.getIssues().get(0).getLineNumber());
+		assertEquals("class A {}", resultA.getChangedCode());
+
+		// B had no entry in the packed response
+		assertEquals("single", b.getResult().get(5, TimeUnit.SECONDS).getSummary());
+		verify(chatModel, times(2)).call(any(Prompt.class));
+	}
+
+	@Test
+	public void fallsBackToSingleFileCallsWhenPackedResponseIsUnreadable() throws Exception {
+		when(chatModel.call(any(Prompt.class))).thenAnswer(invocation -> {
+			Prompt prompt = invocation.getArgument(0);
+			return response(prompt.getContents().contains("\"files\"") ? "not json" : SINGLE);
+		});
+
+		PromptPacker.PackedFile a = new PromptPacker.PackedFile("src/A.java", "A.java", "java", "class A {}");
+		PromptPacker.PackedFile b = new PromptPacker.PackedFile("src/B.java", "B.java", "java", "class B {}");
+		service.analyzePack(List.of(a, b), false);
+
+		assertEquals("single", a.getResult().get(5, TimeUnit.SECONDS).getSummary());
+		assertEquals("single", b.getResult().get(5, TimeUnit.SECONDS).getSummary());
+		verify(chatModel, times(3)).call(any(Prompt.class));
+	}
+
+	@Test
+	public void fallsBackToSingleFileCallsWhenThePackedCallFails() throws Exception {
+		when(chatModel.call(any(Prompt.class))).thenAnswer(invocation -> {
+			Prompt prompt = invocation.getArgument(0);
+			if (prompt.getContents().contains("\"files\"")) {
+				throw new IllegalArgumentException("maximum context length exceeded");
+			}
+			return response(SINGLE);
+		});
+
+		PromptPacker.PackedFile a = new PromptPacker.PackedFile("src/A.java", "A.java", "java", "class A {}");
+		PromptPacker.PackedFile b = new PromptPacker.PackedFile("src/B.java", "B.java", "java", "class B {}");
+		service.analyzePack(List.of(a, b), false);
+
+		assertEquals("single", a.getResult().get(5, TimeUnit.SECONDS).getSummary());
+		assertEquals("single", b.getResult().get(5, TimeUnit.SECONDS).getSummary());
+		verify(chatModel, times(3)).call(any(Prompt.class));
+	}
+
+	@Test
+	public void splitsPacksToFitTheContextWindow() throws Exception {
+		String packed = "{\"files\": {\"src/A.java\": " + SINGLE + ", \"src/B.java\": " + SINGLE + "}}";
+		List<Prompt> prompts = new CopyOnWriteArrayList<>();
+		when(chatModel.call(any(Prompt.class))).thenAnswer(invocation -> {
+			Prompt prompt = invocation.getArgument(0);
+			prompts.add(prompt);
+			return response(prompt.getContents().contains("\"files\"") ? packed : SINGLE);
+		});
+		CodeChunker tokens = new CodeChunker(CodeChunker.encodingFor("gpt-4"), 3000, 5);
+		int prefixTokens = tokens.countTokens(
+				AnalysisPromptCatalogTest.classpathCatalog().forPack(List.of("java", "java", "java")).getText());
+		// Room for the prefix and two files with their response reserve, not three
+		int window = prefixTokens + 2 * 1000 + 50;
+		ReflectionTestUtils.setField(service, "contextWindowTokens", window);
+		ReflectionTestUtils.setField(service, "packResponseTokensPerFile", 950);
+
+		PromptPacker.PackedFile a = new PromptPacker.PackedFile("src/A.java", "A.java", "java", "class A {}");
+		PromptPacker.PackedFile b = new PromptPacker.PackedFile("src/B.java", "B.java", "java", "class B {}");
+		PromptPacker.PackedFile c = new PromptPacker.PackedFile("src/C.java", "C.java", "java", "class C {}");
+		service.analyzePack(List.of(a, b, c), false);
+
+		assertEquals("single", a.getResult().get(5, TimeUnit.SECONDS).getSummary());
+		assertEquals("single", b.getResult().get(5, TimeUnit.SECONDS).getSummary());
+		assertEquals("single", c.getResult().get(5, TimeUnit.SECONDS).getSummary());
+		assertEquals(2, prompts.size());
+		Prompt pack = prompts.stream().filter(prompt -> prompt.getContents().contains("\"files\"")).findFirst()
+				.orElseThrow();
+		assertTrue(pack.getContents().contains("src/B.java"));
+		assertFalse(pack.getContents().contains("src/C.java"));
+		// The response budget is what the prompt leaves of the window, not two full single-file budgets
+		int responseTokens = ((OpenAiChatOptions) pack.getOptions()).getMaxTokens();
+		assertEquals(window - tokens.countTokens(pack.getContents()), responseTokens);
+		assertTrue(responseTokens < 2 * 2000);
+	}
+
+	@Test
+	public void recordsCachedPromptTokensPerModel() throws Exception {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		ReflectionTestUtils.setField(service, "meterRegistry", registry);
+		OpenAiApi.Usage usage = new OpenAiApi.Usage(120, 1000, 1120,
+				new OpenAiApi.Usage.PromptTokensDetails(null, 768), null);
+		when(chatModel.call(any(Prompt.class))).thenReturn(new ChatResponse(
+				List.of(new Generation(new AssistantMessage(SINGLE))),
+				ChatResponseMetadata.builder().usage(OpenAiUsage.from(usage)).build()));
+
+		service.analyzeCode("src/A.java", "A.java", "java", "class A {}");
+
+		assertEquals(1000.0, registry.get("openai.tokens.prompt").tag("model", "gpt-4").summary().totalAmount());
+		assertEquals(768.0,
+				registry.get("openai.tokens.prompt.cached").tag("model", "gpt-4").summary().totalAmount());
+		assertEquals(120.0, registry.get("openai.tokens.completion").tag("model", "gpt-4").summary().totalAmount());
+	}
+
+	@Test
+	public void reusesCachedAnalysisOfIdenticalCode() throws Exception {
+		when(chatModel.call(any(Prompt.class))).thenReturn(response(SINGLE));
+
+		service.analyzeCode("src/A.java", "A.java", "java", "class A {}\n");
+		// Same code elsewhere (another branch, CRLF line endings) is answered from the cache
+		CodeAnalysisResult copy = service.analyzeCode("lib/Copy.java", "Copy.java", "java", "class A {}  \r\n");
+		assertEquals("lib/Copy.java", copy.getFilePath());
+		assertEquals("single", copy.getSummary());
+		verify(chatModel, times(1)).call(any(Prompt.class));
+
+		service.analyzeCode("src/A.java", "A.java", "java", "class A {}\n", true);
+		verify(chatModel, times(2)).call(any(Prompt.class));
+	}
+
+	@Test
+	public void mapsLinesOfReformattedNearDuplicate() throws Exception {
+		String flagged = "{\"summary\": \"near\", \"securityScore\": 90, \"performanceScore\": 90, "
+				+ "\"bestPracticesScore\": 90, \"issues\": [{\"severity\": \"HIGH\", \"title\": \"t\", "
+				+ "\"lineNumber\": 3}], \"suggestions\": []}";
+		when(chatModel.call(any(Prompt.class))).thenReturn(response(flagged));
+
+		service.analyzeCode("src/A.java", "A.java", "java", "class A {\n\tvoid run() {\n\t\tSystem.exit(1);\n\t}\n}\n");
+		String reformatted = "/*\n * Licensed under MIT\n */\nclass A\n{\n    void run()\n    {\n"
+				+ "        // stop\n        System.exit(1);\n    }\n}\n";
+		CodeAnalysisResult copy = service.analyzeCode("src/A.java", "A.java", "java", reformatted);
+
+		assertEquals("near", copy.getSummary());
+		assertEquals(9, copy.getIssues().get(0).getLineNumber());
+		verify(chatModel, times(1)).call(any(Prompt.class));
+	}
+
+	@Test
+	public void analysesLargeFileInChunksAndMergesResults() throws Exception {
+		ReflectionTestUtils.setField(service, "chunkMaxTokens", 60);
+		ReflectionTestUtils.setField(service, "chunkOverlapLines", 1);
+		service.init();
+		String chunkResponse = "{\"summary\": \"part\", \"securityScore\": 80, \"performanceScore\": 80, "
+				+ "\"bestPracticesScore\": 80, \"issues\": [{\"severity\": \"LOW\", \"title\": \"t\", "
+				+ "\"lineNumber\": 2}], \"suggestions\": []}";
+		when(chatModel.call(any(Prompt.class))).thenReturn(response(chunkResponse));
+
+		StringBuilder code = new StringBuilder("class Big {\n");
+		for (int i = 0; i < 6; i++) {
+			code.append("\tint method").append(i).append("(int value) {\n\t\treturn value * ").append(i)
+					.append(" + 1;\n\t}\n\n");
+		}
+		code.append("}\n");
+		CodeAnalysisResult result = service.analyzeCode("src/Big.java", "Big.java", "java", code.toString());
+
+		int chunks = result.getIssues().size();
+		assertTrue(chunks > 1, "expected several chunks");
+		verify(chatModel, times(chunks)).call(any(Prompt.class));
+		assertEquals(2, result.getIssues().get(0).getLineNumber());
+		// Later chunks report line 2 of their own part, which lies further down the file
+		assertTrue(result.getIssues().get(1).getLineNumber() > 2);
+		assertEquals(80.0, result.getOverallScore());
+		assertEquals(code.toString(), result.getChangedCode());
+	}
+
+	@Test
+	public void analysesLargeDiffInChunksWithFileLineNumbers() throws Exception {
+		ReflectionTestUtils.setField(service, "chunkMaxTokens", 60);
+		ReflectionTestUtils.setField(service, "chunkOverlapLines", 1);
+		service.init();
+		String chunkResponse = "{\"summary\": \"part\", \"securityScore\": 80, \"performanceScore\": 80, "
+				+ "\"bestPracticesScore\": 80, \"issues\": [{\"severity\": \"LOW\", \"title\": \"t\", "
+				+ "\"lineNumber\": 2}], \"suggestions\": []}";
+		List<String> prompts = new CopyOnWriteArrayList<>();
+		when(chatModel.call(any(Prompt.class))).thenAnswer(invocation -> {
+			prompts.add(((Prompt) invocation.getArgument(0)).getContents());
+			return response(chunkResponse);
+		});
+
+		StringBuilder patch = new StringBuilder("@@ -100,0 +101,30 @@ class Big {");
+		for (int i = 101; i <= 130; i++) {
+			patch.append("\n+\tint field").append(i).append(" = ").append(i).append(";");
+		}
+		PatchExcerpt excerpt = PatchExcerpt.fromPatch(patch.toString(), 3);
+		CodeAnalysisResult result = service
+				.submitDiff("src/Big.java", "Big.java", "java", excerpt, false, null).get(5, TimeUnit.SECONDS);
+
+		int chunks = result.getIssues().size();
+		assertTrue(chunks > 1, "expected several chunks");
+		assertEquals(chunks, prompts.size());
+		assertTrue(prompts.stream().allMatch(prompt -> prompt.contains("Changed hunks to analyze")));
+		// Line 2 of every part is mapped through the excerpt to its line in the file
+		assertEquals(102, result.getIssues().get(0).getLineNumber());
+		assertTrue(result.getIssues().get(1).getLineNumber() > 102);
+		assertTrue(result.getIssues().stream().allMatch(issue -> issue.getLineNumber() <= 130));
+	}
+
+	@Test
+	public void scansAddedDiffLinesAsTheyAppearInTheFile() throws Exception {
+		Path rules = directory.resolve("rules.json");
+		Files.writeString(rules, "{\"bestPractices\": {\"java\": {\"rules\": [{\"id\": \"EXIT001\", "
+				+ "\"category\": \"Reliability\", \"severity\": \"HIGH\", "
+				+ "\"pattern\": \"^\\\\s+System\\\\.exit\\\\(\", "
+				+ "\"description\": \"Exits the JVM\"}]}}}");
+		ReflectionTestUtils.setField(service, "promptCatalog",
+				AnalysisPromptCatalogTest.catalog(rules.toUri().toString()));
+		when(chatModel.call(any(Prompt.class))).thenReturn(response(SINGLE));
+
+		String patch = String.join("\n", "@@ -10,2 +10,3 @@ class Main {", " 	void stop() {",
+				"+		System.exit(1);", " 		System.exit(0);");
+		CodeAnalysisResult result = service.submitDiff("src/Main.java", "Main.java", "java",
+				PatchExcerpt.fromPatch(patch, 3), false, null).get(5, TimeUnit.SECONDS);
+
+		// The anchored rule matches the added line (not the context line) at its line in the file
+		assertEquals(1, result.getIssues().size());
+		assertEquals("Exits the JVM", result.getIssues().get(0).getDescription());
+		assertEquals(11, result.getIssues().get(0).getLineNumber());
+		assertEquals("System.exit(1);", result.getIssues().get(0).getCodeSnippet());
+	}
+
+	@Test
+	public void streamsIssuesBeforeTheResponseCompletes() throws Exception {
+		String streamed = "{\"summary\": \"s\", \"securityScore\": 50, \"performanceScore\": 50, "
+				+ "\"bestPracticesScore\": 50, \"issues\": [{\"severity\": \"HIGH\", \"title\": \"first\", "
+				+ "\"lineNumber\": 1}, {\"severity\": \"LOW\", \"title\": \"second\", \"lineNumber\": 2}], "
+				+ "\"suggestions\": []}";
+		List<ChatResponse> pieces = new ArrayList<>();
+		for (int i = 0; i < streamed.length(); i += 16) {
+			pieces.add(response(streamed.substring(i, Math.min(streamed.length(), i + 16))));
+		}
+
+		List<AnalysisIssue> findings = new CopyOnWriteArrayList<>();
+		List<Integer> findingsBeforePiece = new ArrayList<>();
+		when(chatModel.stream(any(Prompt.class)))
+				.thenReturn(Flux.fromIterable(pieces).delayElements(Duration.ofMillis(10))
+						.doOnNext(piece -> findingsBeforePiece.add(findings.size())));
+
+		CodeAnalysisResult result = service
+				.submitCode("src/A.java", "A.java", "java", "class A {}", false, findings::add)
+				.get(5, TimeUnit.SECONDS);
+
+		assertEquals(List.of("first", "second"),
+				findings.stream().map(AnalysisIssue::getTitle).collect(Collectors.toList()));
+		// The first issue was out while the rest of the response was still arriving
+		assertEquals(1, (int) findingsBeforePiece.get(findingsBeforePiece.size() - 2));
+		assertEquals(2, result.getIssues().size());
+		verify(chatModel, times(0)).call(any(Prompt.class));
+	}
+
+	@Test
+	public void doesNotRepeatAStreamThatFailedAfterPublishingIssues() throws Exception {
+		String partial = "{\"summary\": \"s\", \"issues\": [{\"severity\": \"HIGH\", \"title\": \"first\", "
+				+ "\"lineNumber\": 1}, ";
+		// The connection drops after the first issue has been read
+		Flux<ChatResponse> dropped = Flux.<ChatResponse>error(new TransientAiException("connection reset"))
+				.delaySubscription(Duration.ofMillis(50));
+		when(chatModel.stream(any(Prompt.class))).thenReturn(Flux.just(response(partial)).concatWith(dropped));
+
+		List<AnalysisIssue> findings = new CopyOnWriteArrayList<>();
+		CompletableFuture<CodeAnalysisResult> result = service.submitCode("src/A.java", "A.java", "java",
+				"class A {}", false, findings::add);
+
+		assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+		// The issue went out once; a retry would have published it again
+		assertEquals(1, findings.size());
+		verify(chatModel, times(1)).stream(any(Prompt.class));
+	}
+
+	@Test
+	public void sendsTheCompiledPrefixBeforeTheFile() throws Exception {
+		List<String> prompts = new CopyOnWriteArrayList<>();
+		when(chatModel.call(any(Prompt.class))).thenAnswer(invocation -> {
+			prompts.add(((Prompt) invocation.getArgument(0)).getContents());
+			return response(SINGLE);
+		});
+
+		service.analyzeCode("src/A.java", "A.java", "java", "class A {}");
+		service.analyzeCode("src/B.java", "B.java", "java", "class B {}");
+
+		String prefix = AnalysisPromptCatalogTest.classpathCatalog().forFile("java").getText();
+		assertTrue(prompts.get(0).startsWith(prefix));
+		assertTrue(prompts.get(1).startsWith(prefix));
+		assertTrue(prompts.get(0).endsWith("class A {}\n```\n\n"));
+	}
+
+	@Test
+	public void reportsRuleMatchesBeforeTheModelAnswers() throws Exception {
+		List<String> prompts = new CopyOnWriteArrayList<>();
+		List<AnalysisIssue> found = new CopyOnWriteArrayList<>();
+		when(chatModel.call(any(Prompt.class))).thenAnswer(invocation -> {
+			prompts.add(((Prompt) invocation.getArgument(0)).getContents());
+			// Rule matches arrive before the model call
+			assertEquals(1, found.size());
+			return response(SINGLE);
+		});
+		ReflectionTestUtils.setField(service, "streamingEnabled", false);
+
+		String code = "class A {\n\tvoid run() {\n\t\ttry {\n\t\t} catch (Exception e) {\n\t\t}\n\t}\n}\n";
+		CodeAnalysisResult result = service.submitCode("src/A.java", "A.java", "java", code, false, found::add)
+				.get(5, TimeUnit.SECONDS);
+
+		assertEquals(4, found.get(0).getLineNumber());
+		assertTrue(prompts.get(0).contains("- line 4: [JAVA002] Catching generic Exception is not recommended"));
+		assertEquals(1, result.getIssues().size());
+		assertEquals(4, result.getIssues().get(0).getLineNumber());
+		assertEquals("Error Handling", result.getIssues().get(0).getTitle());
+	}
+
+	@Test
+	public void routesLowRiskFilesToTheTriageModel() throws Exception {
+		List<String> models = new CopyOnWriteArrayList<>();
+		when(chatModel.call(any(Prompt.class))).thenAnswer(invocation -> {
+			models.add(((OpenAiChatOptions) ((Prompt) invocation.getArgument(0)).getOptions()).getModel());
+			return response(SINGLE);
+		});
+		ReflectionTestUtils.setField(service, "routingEnabled", true);
+		ReflectionTestUtils.setField(service, "triageModel", "gpt-4o-mini");
+		ReflectionTestUtils.setField(service, "riskThreshold", 40);
+		ReflectionTestUtils.setField(service, "reviewCostPer1kTokens", 0.03);
+		ReflectionTestUtils.setField(service, "triageCostPer1kTokens", 0.0003);
+
+		CodeAnalysisResult dto = service.analyzeCode("src/Point.java", "Point.java", "java",
+				"class Point {\n\tint x;\n\tint getX() {\n\t\treturn x;\n\t}\n}\n");
+		CodeAnalysisResult risky = service.analyzeCode("src/Job.java", "Job.java", "java",
+				"class Job {\n\tvoid run() {\n\t\ttry {\n\t\t} catch (Exception e) {\n\t\t}\n\t}\n}\n");
+
+		assertEquals(List.of("gpt-4o-mini", "gpt-4"), models);
+		assertEquals("gpt-4o-mini", dto.getReviewModel());
+		assertEquals(0, dto.getRiskScore());
+		assertEquals("risk 0 below 40", dto.getRoutingReason());
+		assertEquals("gpt-4", risky.getReviewModel());
+		assertEquals("1 rule matches", risky.getRoutingReason());
+		assertTrue(service.estimateCost(dto) < service.estimateCost(risky) / 10);
+
+		// The cache keeps the analyses of both models apart and costs nothing
+		CodeAnalysisResult again = service.analyzeCode("src/Point.java", "Point.java", "java",
+				"class Point {\n\tint x;\n\tint getX() {\n\t\treturn x;\n\t}\n}\n");
+		assertEquals("gpt-4o-mini", again.getReviewModel());
+		assertEquals(0.0, service.estimateCost(again));
+		verify(chatModel, times(2)).call(any(Prompt.class));
+	}
+
+	private static ChatResponse response(String text) {
+		return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+	}
+}
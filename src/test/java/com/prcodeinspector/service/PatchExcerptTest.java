@@ -0,0 +1,122 @@
+package com.prcodeinspector.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+public class PatchExcerptTest {
+
+	private static final String PATCH = String.join("\n",
+			"@@ -8,7 +8,8 @@ public class Service {",
+			" 	line 8",
+			" 	line 9",
+			" 	line 10",
+			"-	old 11",
+			"+	new 11",
+			"+	new 12",
+			" 	line 13",
+			" 	line 14",
+			" 	line 15",
+			"@@ -40,4 +41,3 @@ public class Service {",
+			" 	line 41",
+			" 	line 42",
+			" 	line 43",
+			"-	removed 44");
+
+	@Test
+	public void rendersHunksWithLimitedContext() {
+		PatchExcerpt excerpt = PatchExcerpt.fromPatch(PATCH, 1);
+
+		assertEquals(String.join("\n",
+				"  	line 10",
+				"+ 	new 11",
+				"+ 	new 12",
+				"  	line 13",
+				"...",
+				"  	line 43",
+				""), excerpt.getText());
+		assertEquals(2, excerpt.getChangedLines());
+	}
+
+	@Test
+	public void givesTheExcerptAsCodeWithoutChangeMarkers() {
+		PatchExcerpt excerpt = PatchExcerpt.fromPatch(PATCH, 1);
+
+		assertEquals(String.join("\n",
+				"	line 10",
+				"	new 11",
+				"	new 12",
+				"	line 13",
+				"...",
+				"	line 43",
+				""), excerpt.getCode());
+		// Parts keep the markers of their excerpt, samples have none
+		assertEquals("	new 12\n", excerpt.part(3, "+ 	new 12\n").getCode());
+		assertEquals("+ head\n", PatchExcerpt.fromSample("+ head\n", null).getCode());
+	}
+
+	@Test
+	public void mapsExcerptLinesBackToFileLines() {
+		PatchExcerpt excerpt = PatchExcerpt.fromPatch(PATCH, 3);
+
+		assertEquals(8, excerpt.toFileLine(1));
+		assertEquals(11, excerpt.toFileLine(4));
+		assertEquals(15, excerpt.toFileLine(8));
+		assertNull(excerpt.toFileLine(9));
+		assertEquals(41, excerpt.toFileLine(10));
+		assertNull(excerpt.toFileLine(99));
+		assertNull(excerpt.toFileLine(null));
+	}
+
+	@Test
+	public void takesWiderContextFromFullContent() {
+		StringBuilder content = new StringBuilder();
+		for (int line = 1; line <= 50; line++) {
+			content.append(line == 11 ? "	new 11" : line == 12 ? "	new 12" : "	line " + line).append('\n');
+		}
+
+		PatchExcerpt excerpt = PatchExcerpt.fromContent(PATCH, content.toString(), 5);
+
+		assertEquals(6, excerpt.toFileLine(1));
+		assertEquals("  	line 6", excerpt.getText().lines().findFirst().orElse(null));
+		assertEquals(11, excerpt.toFileLine(6));
+	}
+
+	@Test
+	public void samplesKeepHeadLineNumbersOnly() {
+		PatchExcerpt excerpt = PatchExcerpt.fromSample("line 1\nline 2\n", "line 99\nline 100\n");
+
+		assertEquals("line 1\nline 2\n...\nline 99\nline 100\n", excerpt.getText());
+		assertEquals(1, excerpt.toFileLine(1));
+		assertEquals(2, excerpt.toFileLine(2));
+		// The gap marker and the tail cannot be placed in the file
+		assertNull(excerpt.toFileLine(3));
+		assertNull(excerpt.toFileLine(4));
+		assertNull(excerpt.toFileLine(5));
+		assertEquals(0, excerpt.getChangedLines());
+	}
+
+	@Test
+	public void samplesWithoutTailHaveNoGapMarker() {
+		PatchExcerpt excerpt = PatchExcerpt.fromSample("line 1\nline 2\n", null);
+
+		assertEquals("line 1\nline 2\n", excerpt.getText());
+		assertEquals(2, excerpt.toFileLine(2));
+		assertNull(excerpt.toFileLine(3));
+	}
+
+	@Test
+	public void partsKeepTheirSliceOfTheLineMap() {
+		PatchExcerpt excerpt = PatchExcerpt.fromPatch(PATCH, 3);
+		String text = excerpt.getText();
+		String fromLine10 = text.substring(text.indexOf("  	line 41"));
+
+		PatchExcerpt part = excerpt.part(10, fromLine10);
+
+		assertEquals(fromLine10, part.getText());
+		assertEquals(41, part.toFileLine(1));
+		assertEquals(43, part.toFileLine(3));
+		assertNull(part.toFileLine(4));
+	}
+}
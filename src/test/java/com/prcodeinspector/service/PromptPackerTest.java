@@ -0,0 +1,49 @@
+package com.prcodeinspector.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+public class PromptPackerTest {
+
+	@Test
+	public void fillsOpenPacksFirstFit() {
+		List<List<String>> sent = new ArrayList<>();
+		PromptPacker packer = new PromptPacker(1000, 10, files -> sent.add(paths(files)));
+
+		packer.add(file("A.java", 2400)); // ~630 tokens
+		packer.add(file("B.java", 1600)); // ~430 tokens, does not fit next to A
+		packer.add(file("C.java", 1000)); // ~280 tokens, fits next to A and fills it
+		assertEquals(List.of(List.of("A.java", "C.java")), sent);
+
+		packer.add(file("D.java", 400));
+		packer.flush();
+		assertEquals(List.of(List.of("A.java", "C.java"), List.of("B.java", "D.java")), sent);
+	}
+
+	@Test
+	public void sendsPackAtFileLimit() {
+		List<List<String>> sent = new ArrayList<>();
+		PromptPacker packer = new PromptPacker(100_000, 2, files -> sent.add(paths(files)));
+
+		packer.add(file("A.java", 10));
+		packer.add(file("B.java", 10));
+		packer.add(file("C.java", 10));
+		assertEquals(List.of(List.of("A.java", "B.java")), sent);
+
+		packer.flush();
+		assertEquals(List.of("C.java"), sent.get(1));
+	}
+
+	private static PromptPacker.PackedFile file(String path, int chars) {
+		return new PromptPacker.PackedFile(path, path, "java", "x".repeat(chars));
+	}
+
+	private static List<String> paths(List<PromptPacker.PackedFile> files) {
+		return files.stream().map(PromptPacker.PackedFile::getFilePath).collect(Collectors.toList());
+	}
+}
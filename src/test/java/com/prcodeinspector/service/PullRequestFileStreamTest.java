@@ -0,0 +1,89 @@
+package com.prcodeinspector.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+public class PullRequestFileStreamTest {
+
+	@Test
+	public void listerWaitsForConsumerWhenPendingLimitIsReached() throws Exception {
+		AtomicInteger listed = new AtomicInteger();
+		AtomicReference<Thread> lister = new AtomicReference<>();
+		CountDownLatch started = new CountDownLatch(1);
+		PullRequestFileStream stream = new PullRequestFileStream(2);
+		stream.start("test-lister", files -> {
+			lister.set(Thread.currentThread());
+			started.countDown();
+			for (int i = 0; i < 10; i++) {
+				GitHubService.PullRequestFile file = file("File" + i + ".java");
+				files.submit(() -> CompletableFuture.completedFuture(file));
+				listed.incrementAndGet();
+			}
+		});
+
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		// The lister parks on the third file until the consumer takes one
+		assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+			while (lister.get().getState() != Thread.State.WAITING) {
+				Thread.onSpinWait();
+			}
+		});
+		assertEquals(2, listed.get());
+
+		List<String> consumed = new ArrayList<>();
+		try (stream) {
+			for (CompletableFuture<GitHubService.PullRequestFile> fetch : stream) {
+				consumed.add(fetch.join().getFilePath());
+				assertTrue(listed.get() - consumed.size() <= 2);
+			}
+		}
+		assertEquals(10, consumed.size());
+	}
+
+	@Test
+	public void yieldsFilesInCompletionOrder() {
+		CompletableFuture<GitHubService.PullRequestFile> slow = new CompletableFuture<>();
+		PullRequestFileStream stream = new PullRequestFileStream(10);
+		stream.start("test-lister", files -> {
+			files.submit(() -> slow);
+			files.submit(() -> CompletableFuture.completedFuture(file("Fast.java")));
+		});
+
+		List<String> consumed = new ArrayList<>();
+		for (CompletableFuture<GitHubService.PullRequestFile> fetch : stream) {
+			consumed.add(fetch.join().getFilePath());
+			slow.complete(file("Slow.java"));
+		}
+		assertEquals(List.of("Fast.java", "Slow.java"), consumed);
+	}
+
+	@Test
+	public void listingFailureEndsIteration() {
+		PullRequestFileStream stream = new PullRequestFileStream(10);
+		stream.start("test-lister", files -> {
+			throw new java.io.IOException("page 2 failed");
+		});
+
+		assertThrows(IllegalStateException.class, () -> stream.iterator().hasNext());
+	}
+
+	private static GitHubService.PullRequestFile file(String path) {
+		GitHubService.PullRequestFile file = new GitHubService.PullRequestFile();
+		file.setFilePath(path);
+		file.setFileName(path);
+		return file;
+	}
+}
@@ -0,0 +1,183 @@
+package com.prcodeinspector.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class ResilientCallExecutorTest {
+
+	private AdaptiveConcurrencyLimiter limiter;
+	private SimpleMeterRegistry registry;
+	private ResilientCallExecutor executor;
+
+	static ResilientCallExecutor executor(AdaptiveConcurrencyLimiter limiter, SimpleMeterRegistry registry) {
+		ResilientCallExecutor executor = new ResilientCallExecutor();
+		ReflectionTestUtils.setField(executor, "concurrencyLimiter", limiter);
+		ReflectionTestUtils.setField(executor, "meterRegistry", registry);
+		ReflectionTestUtils.setField(executor, "maxAttempts", 3);
+		ReflectionTestUtils.setField(executor, "baseDelayMs", 10L);
+		ReflectionTestUtils.setField(executor, "maxDelayMs", 1000L);
+		ReflectionTestUtils.setField(executor, "circuitWindowSize", 4);
+		ReflectionTestUtils.setField(executor, "circuitMinimumCalls", 4);
+		ReflectionTestUtils.setField(executor, "circuitFailureRateThreshold", 0.5);
+		ReflectionTestUtils.setField(executor, "circuitOpenDurationMs", 200L);
+		ReflectionTestUtils.setField(executor, "hedgingPercentile", 0.95);
+		ReflectionTestUtils.setField(executor, "hedgingMinSamples", 5);
+		ReflectionTestUtils.setField(executor, "hedgingMinDelayMs", 20L);
+		executor.init();
+		return executor;
+	}
+
+	static AdaptiveConcurrencyLimiter limiter() {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter();
+		ReflectionTestUtils.setField(limiter, "initialLimit", 4);
+		ReflectionTestUtils.setField(limiter, "minLimit", 1);
+		ReflectionTestUtils.setField(limiter, "maxLimit", 4);
+		ReflectionTestUtils.setField(limiter, "backoffRatio", 0.5);
+		ReflectionTestUtils.setField(limiter, "latencyTolerance", 2.0);
+		limiter.init();
+		return limiter;
+	}
+
+	@BeforeEach
+	public void setUp() {
+		limiter = limiter();
+		registry = new SimpleMeterRegistry();
+		executor = executor(limiter, registry);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		executor.shutdown();
+		limiter.shutdown();
+	}
+
+	@Test
+	public void retriesTransientFailuresAfterRetryAfter() throws Exception {
+		AtomicInteger calls = new AtomicInteger();
+		long start = System.nanoTime();
+		String result = executor.execute(() -> {
+			if (calls.incrementAndGet() == 1) {
+				throw new ModelCallException(429, Duration.ofMillis(300), "rate limited");
+			}
+			return "ok";
+		}, false).get(5, TimeUnit.SECONDS);
+
+		assertEquals("ok", result);
+		assertEquals(2, calls.get());
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(300));
+		assertEquals(1.0, registry.counter("openai.calls", "outcome", "success_after_retry").count());
+
+		// Client errors and exhausted quota are not retried
+		AtomicInteger rejected = new AtomicInteger();
+		CompletableFuture<String> badRequest = executor.execute(() -> {
+			rejected.incrementAndGet();
+			throw new ModelCallException(400, null, "bad request");
+		}, false);
+		ExecutionException error = assertThrows(ExecutionException.class, () -> badRequest.get(5, TimeUnit.SECONDS));
+		assertInstanceOf(ModelCallException.class, error.getCause());
+		assertEquals(1, rejected.get());
+		assertEquals(1.0, registry.counter("openai.calls", "outcome", "failed").count());
+	}
+
+	@Test
+	public void doesNotRetryOnceTheCallHasHandedOutOutput() throws Exception {
+		AtomicInteger calls = new AtomicInteger();
+		AtomicBoolean published = new AtomicBoolean();
+		CompletableFuture<String> streamed = executor.execute(() -> {
+			calls.incrementAndGet();
+			published.set(true);
+			throw new ModelCallException(503, null, "stream broke");
+		}, false, () -> !published.get());
+
+		ExecutionException error = assertThrows(ExecutionException.class, () -> streamed.get(5, TimeUnit.SECONDS));
+		assertInstanceOf(ModelCallException.class, error.getCause());
+		assertEquals(1, calls.get());
+		assertEquals(1.0, registry.counter("openai.calls", "outcome", "failed_after_output").count());
+	}
+
+	@Test
+	public void failsFastWhileTheCircuitIsOpen() throws Exception {
+		ReflectionTestUtils.setField(executor, "maxAttempts", 1);
+		AtomicInteger calls = new AtomicInteger();
+		for (int i = 0; i < 4; i++) {
+			CompletableFuture<String> failing = executor.execute(() -> {
+				calls.incrementAndGet();
+				throw new ModelCallException(503, null, "unavailable");
+			}, false);
+			assertThrows(ExecutionException.class, () -> failing.get(5, TimeUnit.SECONDS));
+		}
+		assertEquals(CircuitBreaker.State.OPEN, executor.getCircuitState());
+
+		CompletableFuture<String> rejected = executor.execute(() -> {
+			calls.incrementAndGet();
+			return "ok";
+		}, false);
+		ExecutionException error = assertThrows(ExecutionException.class, () -> rejected.get(5, TimeUnit.SECONDS));
+		assertInstanceOf(ResilientCallExecutor.CircuitOpenException.class, error.getCause());
+		assertEquals(4, calls.get());
+		assertEquals(1.0, registry.counter("openai.calls", "outcome", "circuit_open").count());
+
+		// After the open period a probe goes through and closes the circuit
+		Thread.sleep(250);
+		assertEquals("ok", executor.execute(() -> "ok", false).get(5, TimeUnit.SECONDS));
+		assertEquals(CircuitBreaker.State.CLOSED, executor.getCircuitState());
+	}
+
+	@Test
+	public void hedgesCallsSlowerThanRecentLatencies() throws Exception {
+		ReflectionTestUtils.setField(executor, "hedgingEnabled", true);
+		for (int i = 0; i < 5; i++) {
+			executor.execute(() -> "fast", true).get(5, TimeUnit.SECONDS);
+		}
+
+		AtomicInteger calls = new AtomicInteger();
+		long start = System.nanoTime();
+		String result = executor.execute(() -> {
+			if (calls.incrementAndGet() == 1) {
+				Thread.sleep(3000);
+				return "slow";
+			}
+			return "hedge";
+		}, true).get(5, TimeUnit.SECONDS);
+
+		assertEquals("hedge", result);
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+		assertEquals(1.0, registry.counter("openai.calls", "outcome", "hedge_won").count());
+		assertEquals(1.0, registry.counter("openai.call.hedges").count());
+	}
+
+	@Test
+	public void readsTheRequestedWait() {
+		HttpHeaders seconds = new HttpHeaders();
+		seconds.set(HttpHeaders.RETRY_AFTER, "7");
+		assertEquals(Duration.ofSeconds(7), ModelCallException.of(429, seconds, "{}").getRetryAfter());
+
+		HttpHeaders millis = new HttpHeaders();
+		millis.set("retry-after-ms", "250");
+		millis.set(HttpHeaders.RETRY_AFTER, "1");
+		assertEquals(Duration.ofMillis(250), ModelCallException.of(429, millis, "{}").getRetryAfter());
+
+		assertEquals(Duration.ofMillis(1500), ModelCallException
+				.of(429, new HttpHeaders(), "Rate limit reached for gpt-4. Please try again in 1.5s.").getRetryAfter());
+		assertEquals(null, ModelCallException.of(500, new HttpHeaders(), "oops").getRetryAfter());
+		assertTrue(ModelCallException.of(429, new HttpHeaders(), "{\"code\": \"insufficient_quota\"}")
+				.isQuotaExhausted());
+	}
+}
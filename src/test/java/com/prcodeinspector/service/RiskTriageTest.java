@@ -0,0 +1,65 @@
+package com.prcodeinspector.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class RiskTriageTest {
+
+	private static final String DTO = String.join("\n", //
+			"public class UserDto {", //
+			"	private String name;", //
+			"", //
+			"	public String getName() {", //
+			"		return name;", //
+			"	}", //
+			"", //
+			"	public void setName(String name) {", //
+			"		this.name = name;", //
+			"	}", //
+			"}");
+
+	private static final String SERVICE = String.join("\n", //
+			"public class UserService {", //
+			"	User login(String name, String password) {", //
+			"		PreparedStatement statement = connection.prepareStatement(\"SELECT id FROM users WHERE name = ?\");", //
+			"		if (name == null || password == null) {", //
+			"			return null;", //
+			"		}", //
+			"		for (User user : load(statement)) {", //
+			"			if (user.matches(password) && user.isActive()) {", //
+			"				return user;", //
+			"			}", //
+			"		}", //
+			"		return null;", //
+			"	}", //
+			"}");
+
+	@Test
+	public void scoresDataHoldersLowAndSensitiveCodeHigh() {
+		assertEquals(0, RiskTriage.assess("src/main/java/UserDto.java", DTO).getScore());
+
+		RiskTriage.Assessment service = RiskTriage.assess("src/main/java/UserService.java", SERVICE);
+		assertEquals(List.of("sql", "security", "branches"), service.getReasons());
+		assertEquals(40, service.getScore());
+
+		RiskTriage.Assessment test = RiskTriage.assess("src/test/java/UserServiceTest.java", SERVICE);
+		assertEquals(20, test.getScore());
+		assertTrue(test.getReasons().contains("test"));
+	}
+
+	@Test
+	public void recognisesTestFiles() {
+		assertTrue(RiskTriage.isTest("src/test/java/com/acme/OrderService.java"));
+		assertTrue(RiskTriage.isTest("lib/OrderServiceTest.java"));
+		assertTrue(RiskTriage.isTest("web/order.spec.ts"));
+		assertTrue(RiskTriage.isTest("pkg/order_test.go"));
+		assertTrue(RiskTriage.isTest("app/test_order.py"));
+		assertFalse(RiskTriage.isTest("src/main/java/com/acme/Edit.java"));
+		assertFalse(RiskTriage.isTest("src/main/java/com/acme/Contest.java"));
+	}
+}
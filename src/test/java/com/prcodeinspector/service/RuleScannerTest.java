@@ -0,0 +1,96 @@
+package com.prcodeinspector.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import com.prcodeinspector.model.AnalysisIssue;
+
+public class RuleScannerTest {
+
+	private static final String JAVA = String.join("\n", //
+			"@SpringBootApplication", //
+			"public class Application {", //
+			"	void load() {", //
+			"		try {", //
+			"			jdbc.query(\"SELECT * FROM users\");", //
+			"		} catch (Exception e) {", //
+			"		}", //
+			"	}", //
+			"}", //
+			"");
+
+	@Test
+	public void reportsEveryRuleMatchWithItsLine() {
+		RuleScanner scanner = AnalysisPromptCatalogTest.classpathCatalog().scannerFor("java");
+
+		List<RuleScanner.Match> matches = scanner.scan(JAVA);
+
+		assertEquals(List.of("PERF001@5", "JAVA002@6"), matches.stream()
+				.map(match -> match.getRule().getId() + "@" + match.getLineNumber()).collect(Collectors.toList()));
+		AnalysisIssue issue = matches.get(1).toIssue();
+		assertEquals("BEST_PRACTICE", issue.getCategory());
+		assertEquals("MEDIUM", issue.getSeverity());
+		assertEquals("} catch (Exception e) {", issue.getCodeSnippet());
+		assertEquals("Catch specific exceptions to provide better error handling", issue.getRecommendation());
+	}
+
+	@Test
+	public void reportsAllRulesMatchingTheSameLine() {
+		RuleScanner scanner = AnalysisPromptCatalogTest.classpathCatalog().scannerFor("javascript");
+
+		List<RuleScanner.Match> matches = scanner.scan("const a = 1;\nvar b = eval(input);\n");
+
+		assertEquals(List.of("JS001@2", "NODE001@2"), matches.stream()
+				.map(match -> match.getRule().getId() + "@" + match.getLineNumber()).collect(Collectors.toList()));
+		assertEquals("SECURITY", matches.get(1).toIssue().getCategory());
+		assertTrue(AnalysisPromptCatalogTest.classpathCatalog().scannerFor("python").scan("var = eval(x)").stream()
+				.noneMatch(match -> match.getRule().getId().equals("NODE001")));
+	}
+
+	@Test
+	public void prefiltersOnLeadingLiterals() {
+		assertEquals("bcrypt", RuleScanner.literalPrefix("bcrypt.*\\.hashSync"));
+		assertEquals("application.properties", RuleScanner.literalPrefix("application\\.properties"));
+		assertEquals("var", RuleScanner.literalPrefix("var\\s+"));
+		assertEquals("colo", RuleScanner.literalPrefix("colou?r"));
+		assertEquals(null, RuleScanner.literalPrefix("\\d{4}"));
+		assertEquals(null, RuleScanner.literalPrefix("TODO|FIXME"));
+
+		// One pattern without a literal: every line goes through the combined pattern
+		RuleScanner scanner = new RuleScanner(List.of(
+				new RuleScanner.Rule("R1", "SECURITY", "HIGH", "Key", "Hard-coded key", null, "[0-9a-f]{32}"),
+				new RuleScanner.Rule("R2", "BEST_PRACTICE", "LOW", "Todo", "Open TODO", null, "TODO|FIXME")));
+		List<RuleScanner.Match> matches = scanner
+				.scan("a\nkey = \"0123456789abcdef0123456789abcdef\" // FIXME\nb\n// TODO");
+		assertEquals(List.of("R1@2", "R2@2", "R2@4"), matches.stream()
+				.map(match -> match.getRule().getId() + "@" + match.getLineNumber()).collect(Collectors.toList()));
+	}
+
+	@Test
+	public void findsTheSameMatchesInEveryRepetitionOfALargeInput() {
+		RuleScanner scanner = AnalysisPromptCatalogTest.classpathCatalog().scannerFor("java");
+		StringBuilder block = new StringBuilder(JAVA);
+		for (int i = 0; i < 40; i++) {
+			block.append("		int value").append(i).append(" = compute(value, ").append(i).append(") * factor;\n");
+		}
+		int blockLines = (int) block.toString().lines().count();
+		List<Integer> once = scanner.scan(block.toString()).stream().map(RuleScanner.Match::getLineNumber)
+				.collect(Collectors.toList());
+
+		int repetitions = 500;
+		List<Integer> lines = scanner.scan(block.toString().repeat(repetitions)).stream()
+				.map(RuleScanner.Match::getLineNumber).collect(Collectors.toList());
+
+		assertFalse(once.isEmpty());
+		assertEquals(once.size() * repetitions, lines.size());
+		for (int i = 0; i < lines.size(); i++) {
+			assertEquals(once.get(i % once.size()) + i / once.size() * blockLines, lines.get(i));
+		}
+	}
+}
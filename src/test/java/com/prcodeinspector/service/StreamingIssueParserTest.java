@@ -0,0 +1,53 @@
+package com.prcodeinspector.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class StreamingIssueParserTest {
+
+	private static final String RESPONSE = "```json\n{\"summary\": \"s\", \"tags\": [{\"title\": \"not an issue\"}], "
+			+ "\"issues\": [{\"severity\": \"HIGH\", \"title\": \"SQL injection\", \"lineNumber\": 12, "
+			+ "\"refs\": [\"CWE-89\"], \"meta\": {\"title\": \"nested\"}}, "
+			+ "{\"severity\": \"LOW\", \"title\": \"Unused import\", \"description\": \"ü \\\"quoted\\\" }\"}], "
+			+ "\"suggestions\": [{\"title\": \"not an issue either\"}]}\n```";
+
+	@Test
+	public void emitsEachIssueWhenItsObjectCloses() {
+		List<Map<String, Object>> issues = new ArrayList<>();
+		StreamingIssueParser parser = new StreamingIssueParser(new ObjectMapper(), issues::add);
+
+		int firstIssueEnd = RESPONSE.indexOf("}},") + 2;
+		for (int i = 0; i < RESPONSE.length(); i += 3) {
+			parser.feed(RESPONSE.substring(i, Math.min(RESPONSE.length(), i + 3)));
+			if (i + 3 < firstIssueEnd) {
+				assertEquals(0, issues.size());
+			} else if (i + 3 >= firstIssueEnd && i + 3 < RESPONSE.indexOf("\"suggestions\"")) {
+				assertEquals("SQL injection", issues.get(0).get("title"));
+			}
+		}
+
+		assertEquals(2, issues.size());
+		assertEquals(12, issues.get(0).get("lineNumber"));
+		assertEquals(List.of("CWE-89"), issues.get(0).get("refs"));
+		assertEquals("ü \"quoted\" }", issues.get(1).get("description"));
+	}
+
+	@Test
+	public void ignoresMalformedRemainder() {
+		List<Map<String, Object>> issues = new ArrayList<>();
+		StreamingIssueParser parser = new StreamingIssueParser(new ObjectMapper(), issues::add);
+		parser.feed("{\"issues\": [{\"title\": \"a\"}, {\"title\": ");
+		parser.feed("oops}]}");
+		parser.feed("{\"issues\": [{\"title\": \"b\"}]}");
+
+		assertEquals(1, issues.size());
+		assertEquals("a", issues.get(0).get("title"));
+	}
+}
@@ -0,0 +1,171 @@
+package com.prcodeinspector.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+public class TarballReaderTest {
+
+	static final byte[] END = new byte[1024];
+
+	private static final String ROOT = "octo-demo-1111111/";
+
+	@Test
+	public void readsRegularFilesBelowTheArchiveRoot() throws IOException {
+		try (TarballReader reader = reader(entry(ROOT, '5', new byte[0]),
+				entry(ROOT + "src/App.java", '0', bytes("class App {}")), END)) {
+			assertEquals("src/App.java", reader.nextFile());
+			assertEquals(12, reader.size());
+			assertArrayEquals(bytes("class App {}"), reader.read());
+			assertNull(reader.nextFile());
+		}
+	}
+
+	@Test
+	public void skipsUnreadEntriesAndTheirPadding() throws IOException {
+		byte[] large = new byte[1500];
+		Arrays.fill(large, (byte) 'x');
+
+		try (TarballReader reader = reader(entry(ROOT + "a.bin", '0', large),
+				entry(ROOT + "b.java", '0', bytes("b")), entry(ROOT + "c.java", '0', bytes("c")), END)) {
+			assertEquals("a.bin", reader.nextFile());
+			assertEquals("b.java", reader.nextFile());
+			assertEquals("c.java", reader.nextFile());
+			assertArrayEquals(bytes("c"), reader.read());
+			assertNull(reader.nextFile());
+		}
+	}
+
+	@Test
+	public void skipsThePaxGlobalHeader() throws IOException {
+		byte[] comment = bytes("52 comment=1111111111111111111111111111111111111111\n");
+
+		try (TarballReader reader = reader(entry("pax_global_header", 'g', comment),
+				entry(ROOT + "App.java", '0', bytes("x")), END)) {
+			assertEquals("App.java", reader.nextFile());
+		}
+	}
+
+	@Test
+	public void usesThePaxPathOverride() throws IOException {
+		String longPath = ROOT + "src/" + "nested/".repeat(20) + "App.java";
+		String record = "path=" + longPath + "\n";
+		byte[] pax = bytes((record.length() + 4) + " " + record);
+
+		try (TarballReader reader = reader(entry(ROOT + "PaxHeaders/App.java", 'x', pax),
+				entry(ROOT + "src/nested/nested/nested/trunc", '0', bytes("long")),
+				entry(ROOT + "Short.java", '0', bytes("short")), END)) {
+			assertEquals(longPath.substring(ROOT.length()), reader.nextFile());
+			assertArrayEquals(bytes("long"), reader.read());
+			// The override applies to the next entry only
+			assertEquals("Short.java", reader.nextFile());
+		}
+	}
+
+	@Test
+	public void usesTheGnuLongLinkName() throws IOException {
+		String longPath = ROOT + "lib/" + "deep/".repeat(30) + "Util.java";
+
+		try (TarballReader reader = reader(entry("././@LongLink", 'L', bytes(longPath + "\0")),
+				entry(longPath.substring(0, 99), '0', bytes("util")), END)) {
+			assertEquals(longPath.substring(ROOT.length()), reader.nextFile());
+			assertArrayEquals(bytes("util"), reader.read());
+		}
+	}
+
+	@Test
+	public void joinsTheUstarPrefixAndName() throws IOException {
+		byte[] header = header("Prefixed.java", 3, '0');
+		byte[] prefix = bytes(ROOT + "src/main/java");
+		System.arraycopy(prefix, 0, header, 345, prefix.length);
+
+		try (TarballReader reader = reader(header, pad(bytes("abc")), END)) {
+			assertEquals("src/main/java/Prefixed.java", reader.nextFile());
+			assertArrayEquals(bytes("abc"), reader.read());
+		}
+	}
+
+	@Test
+	public void endsAtACleanEndOfStreamWithoutTrailer() throws IOException {
+		try (TarballReader reader = reader(entry(ROOT + "App.java", '0', bytes("x")))) {
+			assertEquals("App.java", reader.nextFile());
+			assertNull(reader.nextFile());
+		}
+	}
+
+	@Test
+	public void rejectsAnArchiveCutInsideAnEntry() throws IOException {
+		byte[] content = new byte[2000];
+		byte[] archive = concat(entry(ROOT + "a.bin", '0', content), entry(ROOT + "b.java", '0', bytes("b")));
+
+		try (TarballReader reader = reader(Arrays.copyOf(archive, 1200))) {
+			assertEquals("a.bin", reader.nextFile());
+			assertThrows(EOFException.class, reader::nextFile);
+		}
+	}
+
+	@Test
+	public void rejectsAnArchiveCutInsideAHeader() throws IOException {
+		byte[] archive = concat(entry(ROOT + "a.java", '0', bytes("a")), entry(ROOT + "b.java", '0', bytes("b")));
+
+		try (TarballReader reader = reader(Arrays.copyOf(archive, 1024 + 100))) {
+			assertEquals("a.java", reader.nextFile());
+			assertThrows(EOFException.class, reader::nextFile);
+		}
+	}
+
+	static byte[] tarball(byte[]... blocks) throws IOException {
+		ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+		try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+			out.write(concat(blocks));
+		}
+		return gzipped.toByteArray();
+	}
+
+	static byte[] entry(String name, char type, byte[] content) {
+		return concat(header(name, content.length, type), pad(content));
+	}
+
+	private static byte[] header(String name, int size, char type) {
+		byte[] header = new byte[512];
+		byte[] nameBytes = bytes(name);
+		System.arraycopy(nameBytes, 0, header, 0, Math.min(100, nameBytes.length));
+		byte[] sizeField = bytes(String.format("%011o", size));
+		System.arraycopy(sizeField, 0, header, 124, sizeField.length);
+		header[156] = (byte) type;
+		System.arraycopy(bytes("ustar\0"), 0, header, 257, 6);
+		System.arraycopy(bytes("00"), 0, header, 263, 2);
+		return header;
+	}
+
+	private static byte[] pad(byte[] content) {
+		return Arrays.copyOf(content, (content.length + 511) / 512 * 512);
+	}
+
+	private static byte[] concat(byte[]... parts) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (byte[] part : parts) {
+			out.writeBytes(part);
+		}
+		return out.toByteArray();
+	}
+
+	private static TarballReader reader(byte[]... blocks) throws IOException {
+		return new TarballReader(new ByteArrayInputStream(tarball(blocks)));
+	}
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+}
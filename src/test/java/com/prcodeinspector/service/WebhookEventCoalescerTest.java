@@ -0,0 +1,75 @@
+package com.prcodeinspector.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.prcodeinspector.model.PullRequestAnalysis;
+
+public class WebhookEventCoalescerTest {
+
+	private CodeReviewService codeReviewService;
+	private WebhookEventCoalescer coalescer;
+
+	@BeforeEach
+	public void setUp() {
+		codeReviewService = mock(CodeReviewService.class);
+		coalescer = new WebhookEventCoalescer();
+		ReflectionTestUtils.setField(coalescer, "codeReviewService", codeReviewService);
+		ReflectionTestUtils.setField(coalescer, "debounceMillis", 100L);
+		coalescer.init();
+	}
+
+	@AfterEach
+	public void tearDown() {
+		coalescer.shutdown();
+	}
+
+	@Test
+	public void burstOfPushesRunsOneAnalysisOfLatestHead() throws Exception {
+		when(codeReviewService.analyzePullRequest(anyString(), anyString(), anyInt(), anyString()))
+				.thenReturn(CompletableFuture.completedFuture(new PullRequestAnalysis()));
+
+		for (int i = 1; i <= 5; i++) {
+			coalescer.submit("octo", "demo", 7, "sha" + i);
+			Thread.sleep(20);
+		}
+
+		verify(codeReviewService, timeout(2000)).analyzePullRequest("octo", "demo", 7, "sha5");
+		Thread.sleep(300);
+		verify(codeReviewService, never()).analyzePullRequest(anyString(), anyString(), anyInt(), eq("sha1"));
+		assertEquals(0, coalescer.pendingCount());
+	}
+
+	@Test
+	public void pushDuringAnalysisIsAnalysedAfterwards() throws Exception {
+		CompletableFuture<PullRequestAnalysis> first = new CompletableFuture<>();
+		when(codeReviewService.analyzePullRequest("octo", "demo", 7, "sha1")).thenReturn(first);
+		when(codeReviewService.analyzePullRequest("octo", "demo", 7, "sha2"))
+				.thenReturn(CompletableFuture.completedFuture(new PullRequestAnalysis()));
+
+		coalescer.submit("octo", "demo", 7, "sha1");
+		verify(codeReviewService, timeout(2000)).analyzePullRequest("octo", "demo", 7, "sha1");
+
+		coalescer.submit("octo", "demo", 7, "sha2");
+		Thread.sleep(300);
+		// Debounce closed while sha1 was still running: no overlapping analysis
+		verify(codeReviewService, never()).analyzePullRequest("octo", "demo", 7, "sha2");
+
+		first.complete(new PullRequestAnalysis());
+		verify(codeReviewService, timeout(2000)).analyzePullRequest("octo", "demo", 7, "sha2");
+	}
+}